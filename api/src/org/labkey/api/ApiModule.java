@@ -22,6 +22,7 @@ import org.labkey.api.assay.ReplacedRunFilter;
 import org.labkey.api.attachments.AttachmentService;
 import org.labkey.api.attachments.LookAndFeelResourceType;
 import org.labkey.api.attachments.SecureDocumentType;
+import org.labkey.api.cache.CacheManager;
 import org.labkey.api.collections.ArrayListMap;
 import org.labkey.api.collections.CaseInsensitiveHashMap;
 import org.labkey.api.collections.CaseInsensitiveHashSet;
@@ -33,8 +34,10 @@ import org.labkey.api.collections.SwapQueue;
 import org.labkey.api.data.*;
 import org.labkey.api.data.dialect.ParameterSubstitutionTest;
 import org.labkey.api.data.dialect.StandardDialectStringHandler;
+import org.labkey.api.data.triggers.ScriptTriggerFactory;
 import org.labkey.api.dataiterator.CachingDataIterator;
 import org.labkey.api.dataiterator.DataIteratorUtil;
+import org.labkey.api.dataiterator.NameExpressionDataIterator;
 import org.labkey.api.dataiterator.RemoveDuplicatesDataIterator;
 import org.labkey.api.dataiterator.ResultSetDataIterator;
 import org.labkey.api.dataiterator.SimpleTranslator;
@@ -59,6 +62,7 @@ import org.labkey.api.reader.ExcelLoader;
 import org.labkey.api.reader.JSONDataLoader;
 import org.labkey.api.reader.MapLoader;
 import org.labkey.api.reader.TabLoader;
+import org.labkey.api.reports.ScriptWorkerPool;
 import org.labkey.api.reports.model.ViewCategoryManager;
 import org.labkey.api.reports.report.RReport;
 import org.labkey.api.reports.report.ReportType;
@@ -72,6 +76,7 @@ import org.labkey.api.security.GroupManager;
 import org.labkey.api.security.NestedGroupsTest;
 import org.labkey.api.security.PasswordExpiration;
 import org.labkey.api.security.SecurityManager;
+import org.labkey.api.security.SecurityPolicy;
 import org.labkey.api.security.ValidEmail;
 import org.labkey.api.settings.AppProps;
 import org.labkey.api.util.*;
@@ -132,8 +137,11 @@ public class ApiModule extends CodeOnlyModule
             Aggregate.TestCase.class,
             ApiXmlWriter.TestCase.class,
             ArrayListMap.TestCase.class,
+            BeanObjectFactory.TestCase.class,
             BooleanFormat.TestCase.class,
             BuilderObjectFactory.TestCase.class,
+            CacheManager.TestCase.class,
+            CachedResultSets.TestCase.class,
             CachingDataIterator.ScrollTestCase.class,
             CaseInsensitiveHashMap.TestCase.class,
             CaseInsensitiveHashSet.TestCase.class,
@@ -178,6 +186,8 @@ public class ApiModule extends CodeOnlyModule
             RReport.TestCase.class,
             Sampler.TestCase.class,
             SchemaKey.TestCase.class,
+            ScriptWorkerPool.TestCase.class,
+            SecurityPolicy.TestCase.class,
             SimpleFilter.BetweenClauseTestCase.class,
             SimpleFilter.FilterTestCase.class,
             SimpleFilter.InClauseTestCase.class,
@@ -227,6 +237,7 @@ public class ApiModule extends CodeOnlyModule
             MarkdownService.TestCase.class,
             MimeMap.TestCase.class,
             ModuleHtmlView.TestCase.class,
+            NameExpressionDataIterator.TestCase.class,
             NestedGroupsTest.class,
             ParameterSubstitutionTest.class,
             Portal.TestCase.class,
@@ -235,6 +246,7 @@ public class ApiModule extends CodeOnlyModule
             ResultSetDataIterator.TestCase.class,
             ResultSetSelectorTestCase.class,
             RowTrackingResultSetWrapper.TestCase.class,
+            ScriptTriggerFactory.TestCase.class,
             SecurityManager.TestCase.class,
             SimpleTranslator.TranslateTestCase.class,
             SQLFragment.TestCase.class,
@@ -148,6 +148,20 @@ public class ApiJsonWriter extends ApiResponseWriter
     }
 
     protected void writeObject(Object value) throws IOException
+    {
+        writeValue(value);
+
+        // 21112: Malformed JSON response in production environments
+        // TODO: This is not the recommended pattern as this causes an unnecessary amount of flushing (performance)
+        jg.flush();
+    }
+
+    /**
+     * Writes a single value exactly as writeObject() would, but without flushing the generator. Nested values are
+     * flushed along with their enclosing object and callers that stream many values (e.g. query rows) flush once per
+     * row via flushGenerator().
+     */
+    void writeValue(Object value) throws IOException
     {
         if (value instanceof String || value instanceof Number || value instanceof Boolean || value == null)
         {
@@ -167,7 +181,7 @@ public class ApiJsonWriter extends ApiResponseWriter
             {
                 String key = o.toString();
                 jg.writeFieldName(key);
-                writeObject(((Map) value).get(o));
+                writeValue(((Map) value).get(o));
             }
             jg.writeEndObject();
             if (badContext)
@@ -180,7 +194,7 @@ public class ApiJsonWriter extends ApiResponseWriter
             jg.writeStartArray();
             for (Object element : (Collection<?>)value)
             {
-                writeObject(element);
+                writeValue(element);
             }
             jg.writeEndArray();
         }
@@ -189,7 +203,7 @@ public class ApiJsonWriter extends ApiResponseWriter
             jg.writeStartArray();
             for (int i = 0; i < Array.getLength(value); i++)
             {
-                writeObject(Array.get(value, i));
+                writeValue(Array.get(value, i));
             }
             jg.writeEndArray();
         }
@@ -198,7 +212,7 @@ public class ApiJsonWriter extends ApiResponseWriter
             jg.writeStartArray();
             for (int i = 0; i < ((JSONArray) value).length(); i++)
             {
-                writeObject(((JSONArray) value).get(i));
+                writeValue(((JSONArray) value).get(i));
             }
             jg.writeEndArray();
         }
@@ -214,9 +228,15 @@ public class ApiJsonWriter extends ApiResponseWriter
         {
             jg.writeObject(value);
         }
+    }
 
-        // 21112: Malformed JSON response in production environments
-        // TODO: This is not the recommended pattern as this causes an unnecessary amount of flushing (performance)
+    JsonGenerator getGenerator()
+    {
+        return jg;
+    }
+
+    void flushGenerator() throws IOException
+    {
         jg.flush();
     }
 
@@ -15,8 +15,10 @@
  */
 package org.labkey.api.action;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.commons.beanutils.ConversionException;
 import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.labkey.api.collections.ResultSetRowMapFactory;
@@ -501,10 +503,18 @@ public class ApiQueryResponse implements ApiResponse
             ResultSetRowMapFactory factory = ResultSetRowMapFactory.create(results);
             factory.setConvertBigDecimalToDouble(false);
 
+            // Stream JSON rows field by field instead of building (and then serializing) a map for every row
+            RowWriter rowWriter = writer instanceof ApiJsonWriter ? createRowWriter() : null;
+
             while (results.next())
             {
                 _ctx.setRow(factory.getRowMap(results));
-                writer.writeListEntry(getRow());
+
+                if (null != rowWriter)
+                    rowWriter.write((ApiJsonWriter) writer);
+                else
+                    writer.writeListEntry(getRow());
+
                 ++_numRespRows;
             }
             complete = results.isComplete();
@@ -524,6 +534,42 @@ public class ApiQueryResponse implements ApiResponse
         return row;
     }
 
+    /**
+     * Returns a writer that emits each row's fields straight to the JSON generator, or null if rows need to be built
+     * via getRow(). The output must be identical to serializing getRow(): same keys, same values and, because clients
+     * have come to depend on it, the same (HashMap) key order.
+     */
+    @Nullable
+    RowWriter createRowWriter()
+    {
+        // Replay getRow()'s puts into a HashMap of the same keys; its iteration order is then the order getRow() would serialize in
+        Map<String, FieldWriter> fields = new HashMap<>();
+        for (DisplayColumn dc : _displayColumns)
+        {
+            if (includeColumnInResponse(dc) && !putFieldWriter(fields, dc))
+                return null;
+        }
+        return new RowWriter(fields);
+    }
+
+    /**
+     * The streaming counterpart of putValue(): registers writers for the field(s) that putValue() would add to the row
+     * map for this column. Returns false if the column can't be streamed, in which case rows are built as maps.
+     */
+    boolean putFieldWriter(Map<String, FieldWriter> fields, DisplayColumn dc)
+    {
+        String colName = getColumnName(dc);
+        if (null == colName)
+            return false;
+
+        fields.put(colName, writer -> writer.writeValue(getColumnValue(dc)));
+
+        if (dc.includeURL())
+            fields.put(URL_COL_PREFIX + colName, writer -> writer.writeValue(dc.renderURL(_ctx)));
+
+        return true;
+    }
+
     protected boolean includeColumnInResponse(DisplayColumn dc)
     {
         if (_columnFilter != null && dc.getColumnInfo() != null && !_columnFilter.contains(dc.getColumnInfo().getFieldKey()))
@@ -633,4 +679,44 @@ public class ApiQueryResponse implements ApiResponse
     {
         _columnFilter = columnFilter;
     }
+
+    /** Writes the value of a single field of the current row */
+    interface FieldWriter
+    {
+        void write(ApiJsonWriter writer) throws IOException;
+    }
+
+    /** Writes one JSON object per row, with a fixed set of fields computed once per response */
+    static class RowWriter
+    {
+        private final String[] _names;
+        private final FieldWriter[] _writers;
+
+        RowWriter(Map<String, FieldWriter> fields)
+        {
+            _names = new String[fields.size()];
+            _writers = new FieldWriter[fields.size()];
+
+            int i = 0;
+            for (Map.Entry<String, FieldWriter> entry : fields.entrySet())
+            {
+                _names[i] = entry.getKey();
+                _writers[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        void write(ApiJsonWriter writer) throws IOException
+        {
+            JsonGenerator jg = writer.getGenerator();
+            jg.writeStartObject();
+            for (int i = 0; i < _names.length; i++)
+            {
+                jg.writeFieldName(_names[i]);
+                _writers[i].write(writer);
+            }
+            jg.writeEndObject();
+            writer.flushGenerator();
+        }
+    }
 }
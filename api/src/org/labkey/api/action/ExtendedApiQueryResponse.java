@@ -15,6 +15,7 @@
  */
 package org.labkey.api.action;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.data.DisplayColumn;
@@ -26,11 +27,14 @@ import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.QueryView;
 import org.labkey.api.util.Pair;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /*
 * User: Dave
@@ -64,6 +68,20 @@ public class ExtendedApiQueryResponse extends ApiQueryResponse
     {
     }
 
+    // A ColMap serializes in HashMap order, which for enum keys depends on their identity hash codes (fixed for the life
+    // of the JVM, but not across restarts). Putting every key in the order makeColMap() and createColMap() put them
+    // yields the order that any subset of those keys will be serialized in.
+    private static final ColMapEntry[] COL_MAP_ORDER;
+
+    static
+    {
+        ColMap colMap = new ColMap();
+        for (ColMapEntry entry : new ColMapEntry[]{ColMapEntry.value, ColMapEntry.displayValue, ColMapEntry.formattedValue,
+                ColMapEntry.url, ColMapEntry.mvValue, ColMapEntry.mvRawValue, ColMapEntry.style})
+            colMap.put(entry, null);
+        COL_MAP_ORDER = colMap.keySet().toArray(new ColMapEntry[0]);
+    }
+
     public ExtendedApiQueryResponse(QueryView view, boolean schemaEditable,
                                     boolean includeLookupInfo, String schemaName, String queryName,
                                     long offset, List<FieldKey> fieldKeys, boolean metaDataOnly, boolean includeDetailsColumn, boolean includeUpdateColumn)
@@ -112,6 +130,22 @@ public class ExtendedApiQueryResponse extends ApiQueryResponse
         }
     }
 
+    @Override
+    boolean putFieldWriter(Map<String, FieldWriter> fields, DisplayColumn dc)
+    {
+        String columnName = getColumnName(dc);
+
+        if (columnName != null)
+        {
+            if (dc instanceof NestedPropertyDisplayColumn || (_arrayMultiValueColumns && dc instanceof IMultiValuedDisplayColumn))
+                fields.put(columnName, writer -> writer.writeValue(createColMap(dc)));
+            else
+                fields.put(columnName, new ColMapWriter(dc));
+        }
+
+        return true;
+    }
+
     protected Object createColMap(DisplayColumn dc)
     {
         return createColMap(getRenderContext(), dc, _arrayMultiValueColumns, _includeFormattedValue, _doItWithStyle);
@@ -175,37 +209,47 @@ public class ExtendedApiQueryResponse extends ApiQueryResponse
         }
         else
         {
-            //column value
-            Object value = dc.getJsonValue(ctx);
-            Object displayValue = dc.getDisplayValue(ctx);
-            String formattedValue = null;
-            if (includeFormattedValue)
-                formattedValue = dc.getFormattedText(ctx);
-
-            String url = null;
-            if (null != value)
-                url = dc.renderURL(ctx);
-
             //in the extended response format, each column will have a map of its own
             //that will contain entries for value, mvValue, mvIndicator, etc.
-            Map<ColMapEntry, Object> colMap = makeColMap(value, displayValue, formattedValue, url, includeFormattedValue);
+            ColMap colMap = new ColMap();
+            putColMap(ctx, dc, includeFormattedValue, doItWithStyle, colMap::put);
+            return colMap;
+        }
+    }
 
-            //missing values
-            if (dc instanceof MVDisplayColumn)
-            {
-                MVDisplayColumn mvColumn = (MVDisplayColumn)dc;
-                colMap.put(ColMapEntry.mvValue, mvColumn.getMvIndicator(ctx));
-                colMap.put(ColMapEntry.mvRawValue, mvColumn.getRawValue(ctx));
-            }
+    /**
+     * Computes the ColMap entries for a single-valued column and hands them to colMap. Shared by createColMap(), which
+     * collects them in a ColMap, and ColMapWriter, which streams them.
+     */
+    private static void putColMap(RenderContext ctx, DisplayColumn dc, boolean includeFormattedValue, boolean doItWithStyle,
+                                  BiConsumer<ColMapEntry, Object> colMap)
+    {
+        //column value
+        Object value = dc.getJsonValue(ctx);
+        Object displayValue = dc.getDisplayValue(ctx);
+        String formattedValue = null;
+        if (includeFormattedValue)
+            formattedValue = dc.getFormattedText(ctx);
 
-            if (doItWithStyle)
-            {
-                String style = dc.getCssStyle(ctx);
-                if (!StringUtils.isEmpty(style))
-                    colMap.put(ColMapEntry.style, style);
-            }
+        String url = null;
+        if (null != value)
+            url = dc.renderURL(ctx);
 
-            return colMap;
+        putColMapValues(value, displayValue, formattedValue, url, includeFormattedValue, colMap);
+
+        //missing values
+        if (dc instanceof MVDisplayColumn)
+        {
+            MVDisplayColumn mvColumn = (MVDisplayColumn)dc;
+            colMap.accept(ColMapEntry.mvValue, mvColumn.getMvIndicator(ctx));
+            colMap.accept(ColMapEntry.mvRawValue, mvColumn.getRawValue(ctx));
+        }
+
+        if (doItWithStyle)
+        {
+            String style = dc.getCssStyle(ctx);
+            if (!StringUtils.isEmpty(style))
+                colMap.accept(ColMapEntry.style, style);
         }
     }
 
@@ -214,21 +258,26 @@ public class ExtendedApiQueryResponse extends ApiQueryResponse
             boolean includeFormattedValue)
     {
         ColMap colMap = new ColMap();
+        putColMapValues(value, displayValue, formattedValue, url, includeFormattedValue, colMap::put);
+        return colMap;
+    }
 
+    private static void putColMapValues(
+            @Nullable Object value, @Nullable Object displayValue, @Nullable String formattedValue, @Nullable String url,
+            boolean includeFormattedValue, BiConsumer<ColMapEntry, Object> colMap)
+    {
         value = ensureJSONDate(value);
-        colMap.put(ColMapEntry.value, value);
+        colMap.accept(ColMapEntry.value, value);
 
         displayValue = ensureJSONDate(displayValue);
         if (null != displayValue && !displayValue.equals(value))
-            colMap.put(ColMapEntry.displayValue, displayValue);
+            colMap.accept(ColMapEntry.displayValue, displayValue);
 
         if (includeFormattedValue && formattedValue != null && !formattedValue.equals(displayValue))
-            colMap.put(ColMapEntry.formattedValue, formattedValue);
+            colMap.accept(ColMapEntry.formattedValue, formattedValue);
 
         if (value != null && url != null)
-            colMap.put(ColMapEntry.url, url);
-
-        return colMap;
+            colMap.accept(ColMapEntry.url, url);
     }
 
     @Override
@@ -237,4 +286,48 @@ public class ExtendedApiQueryResponse extends ApiQueryResponse
         //file urls now returned in the 'url' column map property
         return null;
     }
+
+    /**
+     * Streams the ColMap that createColMap() would build for a single-valued column. The entries come from the same
+     * putColMap() but are written directly rather than collected in a map per row.
+     */
+    private class ColMapWriter implements FieldWriter
+    {
+        private final DisplayColumn _dc;
+        private final Object[] _entries = new Object[ColMapEntry.values().length];
+        private final boolean[] _present = new boolean[ColMapEntry.values().length];
+        private final BiConsumer<ColMapEntry, Object> _put = this::put;
+
+        private ColMapWriter(DisplayColumn dc)
+        {
+            _dc = dc;
+        }
+
+        @Override
+        public void write(ApiJsonWriter writer) throws IOException
+        {
+            Arrays.fill(_present, false);
+            putColMap(getRenderContext(), _dc, _includeFormattedValue, _doItWithStyle, _put);
+
+            JsonGenerator jg = writer.getGenerator();
+            jg.writeStartObject();
+            for (ColMapEntry entry : COL_MAP_ORDER)
+            {
+                int i = entry.ordinal();
+                if (_present[i])
+                {
+                    jg.writeFieldName(entry.toString());
+                    writer.writeValue(_entries[i]);
+                    _entries[i] = null;
+                }
+            }
+            jg.writeEndObject();
+        }
+
+        private void put(ColMapEntry entry, Object value)
+        {
+            _entries[entry.ordinal()] = value;
+            _present[entry.ordinal()] = true;
+        }
+    }
 }
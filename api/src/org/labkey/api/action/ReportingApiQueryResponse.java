@@ -122,6 +122,13 @@ public class ReportingApiQueryResponse extends ExtendedApiQueryResponse
         return fields;
     }
 
+    @Override
+    RowWriter createRowWriter()
+    {
+        // Rows are split into "data" and "links" maps, and the links are keyed by each row's link text
+        return null;
+    }
+
     @Override
     protected void putValue(Map<String, Object> row, DisplayColumn dc)
     {
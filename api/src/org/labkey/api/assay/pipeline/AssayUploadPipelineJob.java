@@ -98,6 +98,13 @@ public class AssayUploadPipelineJob<ProviderType extends AssayProvider> extends
         return null;
     }
 
+    @Override
+    public ResourceClass getResourceClass()
+    {
+        // A single run that a user just submitted from the upload wizard, so don't let it wait behind long imports
+        return ResourceClass.interactive;
+    }
+
     @Override
     public String getDescription()
     {
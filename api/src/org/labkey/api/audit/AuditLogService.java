@@ -22,6 +22,7 @@ import org.labkey.api.data.DbScope;
 import org.labkey.api.data.SimpleFilter;
 import org.labkey.api.data.Sort;
 import org.labkey.api.data.TableInfo;
+import org.labkey.api.exp.property.Domain;
 import org.labkey.api.module.ModuleLoader;
 import org.labkey.api.query.QueryService;
 import org.labkey.api.query.UserSchema;
@@ -99,6 +100,24 @@ public interface AuditLogService
 
     <K extends AuditTypeEvent> K addEvent(User user, K event);
 
+    /**
+     * Adds an event without waiting for it to be written, so many events can be inserted together. Events queued
+     * within a transaction are written when that transaction commits (and discarded if it rolls back); others are
+     * written in the background. Use addEvent() if you need the inserted event (e.g., its RowId).
+     */
+    default void queueEvent(User user, AuditTypeEvent event)
+    {
+        addEvent(user, event);
+    }
+
+    /**
+     * Called when an audit provider's domain (and so its storage table) changes, so anything cached about the
+     * provider's table is discarded.
+     */
+    default void auditDomainChanged(Domain domain)
+    {
+    }
+
     @Nullable
     <K extends AuditTypeEvent> K getAuditEvent(User user, String eventType, int rowId);
 
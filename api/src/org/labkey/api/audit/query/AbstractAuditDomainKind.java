@@ -18,6 +18,7 @@ package org.labkey.api.audit.query;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.audit.AbstractAuditTypeProvider;
+import org.labkey.api.audit.AuditLogService;
 import org.labkey.api.collections.CaseInsensitiveHashSet;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerManager;
@@ -252,6 +253,13 @@ public abstract class AbstractAuditDomainKind extends DomainKind
         return AbstractAuditTypeProvider.SCHEMA_NAME;
     }
 
+    @Override
+    public void invalidate(Domain domain)
+    {
+        super.invalidate(domain);
+        AuditLogService.get().auditDomainChanged(domain);
+    }
+
     @Override
     public Set<PropertyStorageSpec.Index> getPropertyIndices(Domain domain)
     {
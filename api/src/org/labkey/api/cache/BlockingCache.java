@@ -221,6 +221,12 @@ public class BlockingCache<K, V> implements Cache<K, V>
         return _cache.removeUsingFilter(filter);
     }
 
+    @Override
+    public int removeUsingPrefix(String prefix)
+    {
+        return _cache.removeUsingPrefix(prefix);
+    }
+
     @Override
     public Set<K> getKeys()
     {
@@ -33,6 +33,6 @@ public class BlockingStringKeyCache<V> extends BlockingCache<String, V> implemen
 
     public int removeUsingPrefix(final String prefix)
     {
-        return removeUsingFilter(s -> s.startsWith(prefix));
+        return _cache.removeUsingPrefix(prefix);
     }
 }
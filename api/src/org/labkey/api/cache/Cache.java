@@ -48,6 +48,14 @@ public interface Cache<K, V>
      */
     int removeUsingFilter(Filter<K> filter);
 
+    /** Removes every element whose key is a String that starts with prefix; see SimpleCache.removeUsingPrefix()
+     * Returns the number of elements that were removed.
+     */
+    default int removeUsingPrefix(String prefix)
+    {
+        return removeUsingFilter(key -> key instanceof String && ((String)key).startsWith(prefix));
+    }
+
     Set<K> getKeys();
 
     void clear();
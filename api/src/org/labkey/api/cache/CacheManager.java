@@ -18,6 +18,8 @@ package org.labkey.api.cache;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
 import org.labkey.api.cache.ehcache.EhCacheProvider;
 import org.labkey.api.collections.CollectionUtils;
 import org.labkey.api.mbean.LabKeyManagement;
@@ -183,4 +185,118 @@ public class CacheManager
             LOG.warn(loader.toString() + " returned " + description + ", which could be mutated by callers!");
         }
     }
+
+
+    public static class TestCase extends Assert
+    {
+        private static final int PREFIXES = 200;
+        private static final int KEYS_PER_PREFIX = 250;
+
+        @Test
+        public void testRemoveUsingPrefix()
+        {
+            StringKeyCache<Integer> cache = getTemporaryCache(UNLIMITED, HOUR, "Prefix removal test", null);
+
+            try
+            {
+                populate(cache);
+                assertEquals(KEYS_PER_PREFIX, cache.removeUsingPrefix(prefix(7)));
+                assertNull(cache.get(prefix(7) + "0"));
+                assertEquals(Integer.valueOf(0), cache.get(prefix(8) + "0"));
+
+                // Removing again finds nothing
+                assertEquals(0, cache.removeUsingPrefix(prefix(7)));
+                assertEquals((PREFIXES - 1) * KEYS_PER_PREFIX, cache.getKeys().size());
+
+                // Keys put, removed, or cleared after the index is created must be tracked
+                cache.put(prefix(7) + "new", 1);
+                cache.remove(prefix(8) + "0");
+                assertEquals(1, cache.removeUsingPrefix(prefix(7)));
+                assertEquals(KEYS_PER_PREFIX - 1, cache.removeUsingPrefix(prefix(8)));
+                cache.clear();
+                cache.put(prefix(9) + "0", 0);
+                assertEquals(1, cache.removeUsingPrefix(prefix(9)));
+                assertEquals(0, cache.removeUsingPrefix(""));
+            }
+            finally
+            {
+                cache.close();
+            }
+        }
+
+        @Test
+        public void testRemoveUsingPrefixWithEvictions()
+        {
+            StringKeyCache<Integer> cache = getTemporaryCache(1000, HOUR, "Prefix removal eviction test", null);
+
+            try
+            {
+                cache.removeUsingPrefix("");
+
+                // Churn through many more keys than the cache holds; evicted keys linger in the index until it's rebuilt
+                for (int i = 0; i < 20000; i++)
+                    cache.put(prefix(i % PREFIXES) + i, i);
+
+                for (int p = 0; p < PREFIXES; p++)
+                    cache.removeUsingPrefix(prefix(p));
+
+                assertTrue(cache.getKeys().isEmpty());
+            }
+            finally
+            {
+                cache.close();
+            }
+        }
+
+        // Not a pass/fail test; logs the cost of container-style prefix removal via the key index vs. a full key scan
+        @Test
+        public void benchmarkRemoveUsingPrefix()
+        {
+            StringKeyCache<Integer> indexed = getTemporaryCache(UNLIMITED, HOUR, "Prefix removal benchmark (index)", null);
+            StringKeyCache<Integer> scanned = getTemporaryCache(UNLIMITED, HOUR, "Prefix removal benchmark (scan)", null);
+
+            try
+            {
+                populate(indexed);
+                populate(scanned);
+
+                long start = System.nanoTime();
+                int indexedRemoves = 0;
+                for (int p = 0; p < PREFIXES; p += 2)
+                    indexedRemoves += indexed.removeUsingPrefix(prefix(p));
+                long indexedNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int scannedRemoves = 0;
+                for (int p = 0; p < PREFIXES; p += 2)
+                {
+                    String prefix = prefix(p);
+                    scannedRemoves += scanned.removeUsingFilter(key -> key.startsWith(prefix));
+                }
+                long scannedNanos = System.nanoTime() - start;
+
+                assertEquals(scannedRemoves, indexedRemoves);
+                assertEquals(scanned.getKeys(), indexed.getKeys());
+                LOG.info("Removing " + PREFIXES / 2 + " prefixes from " + PREFIXES * KEYS_PER_PREFIX + " keys: index " +
+                        indexedNanos / 1_000_000 + "ms, scan " + scannedNanos / 1_000_000 + "ms");
+            }
+            finally
+            {
+                indexed.close();
+                scanned.close();
+            }
+        }
+
+        private void populate(StringKeyCache<Integer> cache)
+        {
+            for (int p = 0; p < PREFIXES; p++)
+                for (int i = 0; i < KEYS_PER_PREFIX; i++)
+                    cache.put(prefix(p) + i, i);
+        }
+
+        private String prefix(int p)
+        {
+            return String.format("/%04d/", p);
+        }
+    }
 }
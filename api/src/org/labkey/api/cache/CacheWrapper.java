@@ -156,6 +156,13 @@ class CacheWrapper<K, V> implements TrackingCache<K, V>, CacheMXBean
     }
 
 
+    @Override
+    public int removeUsingPrefix(String prefix)
+    {
+        return trackRemoves(_cache.removeUsingPrefix(prefix));
+    }
+
+
     @Override
     public Set<K> getKeys()
     {
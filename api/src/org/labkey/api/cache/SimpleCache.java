@@ -45,6 +45,15 @@ public interface SimpleCache<K, V>
      */
     int removeUsingFilter(Filter<K> filter);
 
+    /**
+     * Removes every element whose key is a String that starts with prefix. Returns the number of elements that were
+     * removed. Implementations should override this if they can find the matching keys without scanning every key.
+     */
+    default int removeUsingPrefix(String prefix)
+    {
+        return removeUsingFilter(key -> key instanceof String && ((String)key).startsWith(prefix));
+    }
+
     Set<K> getKeys();
 
     void clear();
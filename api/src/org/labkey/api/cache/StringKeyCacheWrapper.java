@@ -39,13 +39,7 @@ public class StringKeyCacheWrapper<V> implements StringKeyCache<V>
 
     public int removeUsingPrefix(final String prefix)
     {
-        return removeUsingFilter(new Filter<String>(){
-            @Override
-            public boolean accept(String s)
-            {
-                return s.startsWith(prefix);
-            }
-        });
+        return _cache.removeUsingPrefix(prefix);
     }
 
     public void put(String key, V value)
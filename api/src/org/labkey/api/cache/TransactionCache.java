@@ -114,6 +114,13 @@ public class TransactionCache<K, V> implements Cache<K, V>
         return _privateCache.removeUsingFilter(filter);
     }
 
+    @Override
+    public int removeUsingPrefix(String prefix)
+    {
+        _hasWritten = true;
+        return _privateCache.removeUsingPrefix(prefix);
+    }
+
     @Override
     public Set<K> getKeys()
     {
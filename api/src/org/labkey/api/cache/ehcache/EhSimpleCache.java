@@ -25,8 +25,11 @@ import org.labkey.api.cache.SimpleCache;
 import org.labkey.api.util.Filter;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 * User: adam
@@ -37,8 +40,21 @@ class EhSimpleCache<K, V> implements SimpleCache<K, V>
 {
     private static final Logger LOG = Logger.getLogger(EhSimpleCache.class);
 
+    private static final int MIN_PREFIX_INDEX_THRESHOLD = 1000;
+
     private final Cache _cache;
 
+    // Sorted index of the String keys, which lets removeUsingPrefix() visit just the matching keys instead of scanning
+    // the whole cache. It's created by the first prefix removal, so caches that never see one pay nothing for it.
+    //
+    // The index may hold keys that are no longer in the cache (evicted, expired, or removed by a racing thread); that's
+    // harmless since removing them is a no-op, and they get dropped when encountered or when the index is rebuilt. It
+    // must never miss a key that is in the cache, so put() adds to the index after putting the element, removals take
+    // the key out of the index before removing the element, and evictions & expirations don't touch the index at all.
+    private volatile @Nullable ConcurrentSkipListSet<String> _prefixIndex = null;
+    private final AtomicInteger _prefixIndexSize = new AtomicInteger();
+    private volatile int _prefixIndexThreshold;
+
     EhSimpleCache(Cache cache)
     {
         _cache = cache;
@@ -49,6 +65,7 @@ class EhSimpleCache<K, V> implements SimpleCache<K, V>
     {
         Element element = new Element(key, value);
         _cache.put(element);
+        addToPrefixIndex(key);
     }
 
     @Override
@@ -57,6 +74,56 @@ class EhSimpleCache<K, V> implements SimpleCache<K, V>
         Element element = new Element(key, value);
         element.setTimeToLive((int)timeToLive / 1000);
         _cache.put(element);
+        addToPrefixIndex(key);
+    }
+
+    private void addToPrefixIndex(K key)
+    {
+        ConcurrentSkipListSet<String> index = _prefixIndex;
+
+        if (null != index && key instanceof String && index.add((String)key) && _prefixIndexSize.incrementAndGet() > _prefixIndexThreshold)
+            rebuildPrefixIndex(false);
+    }
+
+    private void removeFromPrefixIndex(Object key)
+    {
+        ConcurrentSkipListSet<String> index = _prefixIndex;
+
+        if (null != index && key instanceof String && index.remove(key))
+            _prefixIndexSize.decrementAndGet();
+    }
+
+    private ConcurrentSkipListSet<String> getPrefixIndex()
+    {
+        ConcurrentSkipListSet<String> index = _prefixIndex;
+
+        if (null == index)
+            index = rebuildPrefixIndex(true);
+
+        return index;
+    }
+
+    // Creates the index or, once it has accumulated too many keys that have been evicted or expired, replaces it
+    private synchronized ConcurrentSkipListSet<String> rebuildPrefixIndex(boolean create)
+    {
+        ConcurrentSkipListSet<String> index = _prefixIndex;
+
+        if (create ? null != index : _prefixIndexSize.get() <= _prefixIndexThreshold)
+            return index;
+
+        // Publish the new index before taking the key snapshot, so every put either lands in the snapshot or adds its key itself
+        index = new ConcurrentSkipListSet<>();
+        _prefixIndex = index;
+        int size = 0;
+
+        for (Object key : _cache.getKeys())
+            if (key instanceof String && index.add((String)key))
+                size++;
+
+        _prefixIndexSize.set(size);
+        _prefixIndexThreshold = 2 * Math.max(Math.max(size, getLimit()), MIN_PREFIX_INDEX_THRESHOLD);
+
+        return index;
     }
 
     @Override
@@ -69,6 +136,7 @@ class EhSimpleCache<K, V> implements SimpleCache<K, V>
     @Override
     public void remove(@NotNull K key)
     {
+        removeFromPrefixIndex(key);
         _cache.remove(key);
     }
 
@@ -90,6 +158,29 @@ class EhSimpleCache<K, V> implements SimpleCache<K, V>
         return removes;
     }
 
+    @Override
+    public int removeUsingPrefix(String prefix)
+    {
+        int removes = 0;
+        Iterator<String> iter = getPrefixIndex().tailSet(prefix).iterator();
+
+        while (iter.hasNext())
+        {
+            String key = iter.next();
+
+            if (!key.startsWith(prefix))
+                break;
+
+            iter.remove();
+            _prefixIndexSize.decrementAndGet();
+
+            if (_cache.remove(key))
+                removes++;
+        }
+
+        return removes;
+    }
+
     @Override
     public Set<K> getKeys()
     {
@@ -100,6 +191,16 @@ class EhSimpleCache<K, V> implements SimpleCache<K, V>
     @Override
     public void clear()
     {
+        // Swap in an empty index first; puts that race with removeAll() then end up in the new index
+        if (null != _prefixIndex)
+        {
+            synchronized (this)
+            {
+                _prefixIndex = new ConcurrentSkipListSet<>();
+                _prefixIndexSize.set(0);
+            }
+        }
+
         _cache.removeAll();
     }
 
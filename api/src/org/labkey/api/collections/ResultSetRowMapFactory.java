@@ -108,24 +108,7 @@ public class ResultSetRowMapFactory extends RowMapFactory<Object> implements Ser
 
         for (int i = 1; i <= len; i++)
         {
-            Object o = rs.getObject(i);
-
-            if (o instanceof Clob)
-            {
-                o = ConvertHelper.convertClobToString((Clob)o);
-            }
-            // BigDecimal objects are rare, and almost always are converted immediately
-            // to doubles for ease of use in Java code; we can take care of this centrally here.
-            else if (o instanceof BigDecimal && _convertBigDecimalToDouble)
-            {
-                BigDecimal dec = (BigDecimal) o;
-                o = dec.doubleValue();
-            }
-            else if (o instanceof Double)
-            { 
-                double value = ((Number) o).doubleValue();
-                o = ResultSetUtil.mapDatabaseDoubleToJavaDouble(value);
-            }
+            Object o = getValue(rs, i);
 
             if (i == _list.size())
                 _list.add(o);
@@ -135,4 +118,30 @@ public class ResultSetRowMapFactory extends RowMapFactory<Object> implements Ser
 
         return map;
     }
+
+
+    /** Returns the value of the specified column in the current row, applying the same conversions as getRowMap() */
+    public Object getValue(ResultSet rs, int columnIndex) throws SQLException
+    {
+        Object o = rs.getObject(columnIndex);
+
+        if (o instanceof Clob)
+        {
+            o = ConvertHelper.convertClobToString((Clob)o);
+        }
+        // BigDecimal objects are rare, and almost always are converted immediately
+        // to doubles for ease of use in Java code; we can take care of this centrally here.
+        else if (o instanceof BigDecimal && _convertBigDecimalToDouble)
+        {
+            BigDecimal dec = (BigDecimal) o;
+            o = dec.doubleValue();
+        }
+        else if (o instanceof Double)
+        { 
+            double value = ((Number) o).doubleValue();
+            o = ResultSetUtil.mapDatabaseDoubleToJavaDouble(value);
+        }
+
+        return o;
+    }
 }
@@ -1671,6 +1671,81 @@ abstract public class AbstractTableInfo implements TableInfo, AuditConfigurable,
             throw errors;
     }
 
+    @Override
+    public boolean canBatchTriggers(Container c, TriggerType type, boolean before)
+    {
+        for (Trigger script : getTriggers(c))
+        {
+            if (script.canBatch(type, before))
+                return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public List<ValidationException> fireRowTriggers(Container c, User user, TriggerType type, boolean before, List<Integer> rowNumbers,
+                                                     @Nullable List<Map<String, Object>> newRows, @Nullable List<Map<String, Object>> oldRows, Map<String, Object> extraContext)
+    {
+        int count = rowNumbers.size();
+        List<ValidationException> errors = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++)
+        {
+            ValidationException rowErrors = new ValidationException();
+            rowErrors.setSchemaName(getPublicSchemaName());
+            rowErrors.setQueryName(getName());
+            rowErrors.setRow(null == newRows ? null : newRows.get(i));
+            rowErrors.setRowNumber(rowNumbers.get(i));
+            errors.add(rowErrors);
+        }
+
+        for (Trigger script : getTriggers(c))
+        {
+            // As in fireRowTrigger(), once a trigger reports errors for a row, later triggers don't see that row
+            List<Integer> pending = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                if (!errors.get(i).hasErrors())
+                    pending.add(i);
+            }
+
+            if (pending.isEmpty())
+                break;
+
+            if (pending.size() == count)
+            {
+                script.rowTriggers(this, c, user, type, before, rowNumbers, newRows, oldRows, errors, extraContext);
+            }
+            else
+            {
+                List<ValidationException> pendingErrors = select(errors, pending);
+                script.rowTriggers(this, c, user, type, before, select(rowNumbers, pending), select(newRows, pending), select(oldRows, pending), pendingErrors, extraContext);
+                for (int j = 0; j < pending.size(); j++)
+                    errors.set(pending.get(j), pendingErrors.get(j));
+            }
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            if (!errors.get(i).hasErrors())
+                errors.set(i, null);
+        }
+
+        return errors;
+    }
+
+    private static <T> List<T> select(@Nullable List<T> list, List<Integer> indexes)
+    {
+        if (null == list)
+            return null;
+
+        List<T> selected = new ArrayList<>(indexes.size());
+        for (int index : indexes)
+            selected.add(list.get(index));
+        return selected;
+    }
+
 
     /** TableInfo does not support DbCache by default */
     @Override
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data;
+
+import org.apache.commons.beanutils.ConvertUtils;
+import org.apache.commons.beanutils.Converter;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Reads and writes one bean property through a lambda generated with LambdaMetafactory, so the per-row cost is an
+ * interface call rather than reflection. The converter is looked up once, when the accessor is built, and applied the
+ * same way BeanUtils.copyProperty() applies it, so callers see the same conversions and the same exceptions.
+ *
+ * If a lambda can't be generated (e.g. the method is declared on a class we can't access) we fall back to invoking
+ * the accessible Method reflectively.
+ */
+class BeanPropertyAccessor
+{
+    private static final Logger LOG = Logger.getLogger(BeanPropertyAccessor.class);
+
+    private final String _name;
+    private final Class<?> _type;
+    private final Class<?> _boxedType;
+    private final @Nullable Converter _converter;
+    private final @Nullable Function<Object, Object> _getter;
+    private final @Nullable BiConsumer<Object, Object> _setter;
+
+    BeanPropertyAccessor(Class<?> beanClass, String name, Class<?> type, @Nullable Method readMethod, @Nullable Method writeMethod)
+    {
+        _name = name;
+        _type = type;
+        _boxedType = ClassUtils.primitiveToWrapper(type);
+        _converter = ConvertUtils.lookup(type);
+        _getter = null == readMethod ? null : createGetter(beanClass, readMethod);
+        _setter = null == writeMethod ? null : createSetter(beanClass, writeMethod);
+    }
+
+    String getName()
+    {
+        return _name;
+    }
+
+    boolean isReadable()
+    {
+        return null != _getter;
+    }
+
+    boolean isWriteable()
+    {
+        return null != _setter;
+    }
+
+    /**
+     * Converts and sets the value. Mirrors BeanUtils.copyProperty(): conversion problems throw ConversionException, a
+     * value of the wrong type throws IllegalArgumentException, and anything thrown by the setter itself is wrapped in
+     * an InvocationTargetException.
+     */
+    void set(Object bean, @Nullable Object value) throws InvocationTargetException
+    {
+        if (null != _converter)
+            value = _converter.convert(_type, value);
+
+        if (null == value ? _type.isPrimitive() : !_boxedType.isInstance(value))
+            throw new IllegalArgumentException("argument type mismatch: cannot set property '" + _name + "' of type " + _type.getName() + " to " + (null == value ? "null" : value.getClass().getName()));
+
+        try
+        {
+            //noinspection ConstantConditions
+            _setter.accept(bean, value);
+        }
+        catch (Throwable x)
+        {
+            throw new InvocationTargetException(x);
+        }
+    }
+
+    /** Anything thrown by the getter is wrapped in an InvocationTargetException, as PropertyUtils.getSimpleProperty() does */
+    Object get(Object bean) throws InvocationTargetException
+    {
+        try
+        {
+            //noinspection ConstantConditions
+            return _getter.apply(bean);
+        }
+        catch (Throwable x)
+        {
+            throw new InvocationTargetException(x);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return _name;
+    }
+
+
+    /** Returns a Supplier that calls the public no-arg constructor, or null if there isn't one */
+    static @Nullable <K> Supplier<K> createInstantiator(Class<K> beanClass)
+    {
+        Constructor<K> constructor;
+        try
+        {
+            constructor = beanClass.getConstructor();
+        }
+        catch (NoSuchMethodException x)
+        {
+            return null;
+        }
+
+        try
+        {
+            MethodHandles.Lookup lookup = lookupIn(beanClass);
+            MethodHandle handle = lookup.unreflectConstructor(constructor);
+            CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), handle, MethodType.methodType(beanClass));
+            //noinspection unchecked
+            return (Supplier<K>) site.getTarget().invoke();
+        }
+        catch (Throwable t)
+        {
+            LOG.debug("Using reflection to construct " + beanClass.getName() + ": " + t);
+            return null;
+        }
+    }
+
+    private static Function<Object, Object> createGetter(Class<?> beanClass, Method method)
+    {
+        try
+        {
+            MethodHandles.Lookup lookup = lookupIn(beanClass);
+            MethodHandle handle = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class), handle,
+                    MethodType.methodType(ClassUtils.primitiveToWrapper(method.getReturnType()), beanClass));
+            //noinspection unchecked
+            return (Function<Object, Object>) site.getTarget().invoke();
+        }
+        catch (Throwable t)
+        {
+            LOG.debug("Using reflection to read " + beanClass.getName() + "." + method.getName() + "(): " + t);
+            Method accessible = getAccessibleMethod(beanClass, method);
+            return bean -> invoke(accessible, bean);
+        }
+    }
+
+    private static BiConsumer<Object, Object> createSetter(Class<?> beanClass, Method method)
+    {
+        try
+        {
+            MethodHandles.Lookup lookup = lookupIn(beanClass);
+            MethodHandle handle = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup, "accept", MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class), handle,
+                    MethodType.methodType(void.class, beanClass, ClassUtils.primitiveToWrapper(method.getParameterTypes()[0])));
+            //noinspection unchecked
+            return (BiConsumer<Object, Object>) site.getTarget().invoke();
+        }
+        catch (Throwable t)
+        {
+            LOG.debug("Using reflection to write " + beanClass.getName() + "." + method.getName() + "(): " + t);
+            Method accessible = getAccessibleMethod(beanClass, method);
+            return (bean, value) -> invoke(accessible, bean, value);
+        }
+    }
+
+    // Define the generated classes alongside the bean, so they resolve against the bean's class loader (beans live
+    // in every module) and can call public methods inherited from non-public superclasses
+    private static MethodHandles.Lookup lookupIn(Class<?> beanClass) throws IllegalAccessException
+    {
+        return MethodHandles.privateLookupIn(beanClass, MethodHandles.lookup());
+    }
+
+    private static Method getAccessibleMethod(Class<?> beanClass, Method method)
+    {
+        Method accessible = MethodUtils.getAccessibleMethod(beanClass, method);
+        return null != accessible ? accessible : method;
+    }
+
+    private static Object invoke(Method method, Object bean, Object... args)
+    {
+        try
+        {
+            return method.invoke(bean, args);
+        }
+        catch (InvocationTargetException x)
+        {
+            Throwable target = x.getTargetException();
+            if (target instanceof RuntimeException)
+                throw (RuntimeException) target;
+            if (target instanceof Error)
+                throw (Error) target;
+            throw new RuntimeException(target);
+        }
+        catch (IllegalAccessException x)
+        {
+            throw new IllegalStateException(x);
+        }
+    }
+}
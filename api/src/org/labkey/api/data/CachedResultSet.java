@@ -54,6 +54,7 @@ import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import static java.lang.Math.max;
 import static java.lang.Math.min;
@@ -73,7 +74,7 @@ public class CachedResultSet implements ResultSet, TableResultSet
     private final HashMap<String, Integer> _columns;
 
     // data
-    private final ArrayList<RowMap<Object>> _rowMaps;
+    private final Rows _rows;
     private final boolean _isComplete;
     @Nullable
     private final StackTraceElement[] _stackTrace;
@@ -97,7 +98,12 @@ public class CachedResultSet implements ResultSet, TableResultSet
      */
     CachedResultSet(ResultSetMetaData md, boolean cacheMetaData, ArrayList<RowMap<Object>> maps, boolean isComplete, @Nullable StackTraceElement[] stackTrace)
     {
-        _rowMaps = maps;
+        this(md, cacheMetaData, new RowMapRows(maps), isComplete, stackTrace);
+    }
+
+    CachedResultSet(ResultSetMetaData md, boolean cacheMetaData, Rows rows, boolean isComplete, @Nullable StackTraceElement[] stackTrace)
+    {
+        _rows = rows;
         _isComplete = isComplete;
 
         try
@@ -563,10 +569,10 @@ public class CachedResultSet implements ResultSet, TableResultSet
 
     public Object getObject(int columnIndex) throws SQLException
     {
-        if (_row < 0 || _row >= _rowMaps.size())
+        if (_row < 0 || _row >= _rows.size())
             throw new SQLException("No current row");
 
-        _lastObject = _rowMaps.get(_row).get(columnIndex);
+        _lastObject = _rows.get(_row, columnIndex);
 
         if (_lastObject instanceof Double)
             _lastObject = ResultSetUtil.mapDatabaseDoubleToJavaDouble((Double) _lastObject);
@@ -576,7 +582,7 @@ public class CachedResultSet implements ResultSet, TableResultSet
 
     public Object getObject(String columnName) throws SQLException
     {
-        _lastObject = _rowMaps.get(_row).get(columnName);
+        _lastObject = _rows.get(_row, columnName);
         // check for no illegal column name
         if (_lastObject == null)
             findColumn(columnName);
@@ -591,7 +597,7 @@ public class CachedResultSet implements ResultSet, TableResultSet
     // careful! this does no error checking
     public void _setObject(int columnIndex, Object o)
     {
-        _rowMaps.get(_row).set(columnIndex, o);
+        _rows.set(_row, columnIndex, o);
     }
 
 
@@ -631,17 +637,17 @@ public class CachedResultSet implements ResultSet, TableResultSet
 
     public boolean isAfterLast()
     {
-        return _row == _rowMaps.size();
+        return _row == _rows.size();
     }
 
     public boolean isFirst()
     {
-        return _rowMaps.size() > 0 && _row == 0;
+        return _rows.size() > 0 && _row == 0;
     }
 
     public boolean isLast()
     {
-        return _rowMaps.size() > 0 && _row == _rowMaps.size() - 1;
+        return _rows.size() > 0 && _row == _rows.size() - 1;
     }
 
     public void beforeFirst()
@@ -651,7 +657,7 @@ public class CachedResultSet implements ResultSet, TableResultSet
 
     public void afterLast()
     {
-        _row = _rowMaps.size();
+        _row = _rows.size();
     }
 
     protected void finalize() throws Throwable
@@ -689,7 +695,7 @@ public class CachedResultSet implements ResultSet, TableResultSet
     public int getRow()
     {
         // adjust to 1-based
-        return _row >= 0 && _row < _rowMaps.size() ? _row + 1 : 0;
+        return _row >= 0 && _row < _rows.size() ? _row + 1 : 0;
     }
 
     public boolean absolute(int row)
@@ -703,7 +709,7 @@ public class CachedResultSet implements ResultSet, TableResultSet
 
     public boolean relative(int rows)
     {
-        _row = max(-1, min(_rowMaps.size(), _row + rows));
+        _row = max(-1, min(_rows.size(), _row + rows));
         return getRow() != 0;
     }
 
@@ -1103,50 +1109,110 @@ public class CachedResultSet implements ResultSet, TableResultSet
 
     public Map<String, Object> getRowMap() throws SQLException
     {
-        if (_row >= _rowMaps.size())
+        if (_row >= _rows.size())
             throw new SQLException("No current row");
-        return _rowMaps.get(_row);
+        return _rows.getRowMap(_row);
     }
 
 
     public Iterator<Map<String, Object>> iterator()
     {
-        Iterator<Map<String, Object>> it = new RowMapIterator(_rowMaps.iterator());
+        Iterator<Map<String, Object>> it = new RowMapIterator(_rows);
 
         return IteratorUtils.unmodifiableIterator(it);
     }
 
     private static class RowMapIterator implements Iterator<Map<String, Object>>
     {
-        private final Iterator<RowMap<Object>> _iter;
+        private final Rows _rows;
+        private int _next = 0;
 
-        private RowMapIterator(Iterator<RowMap<Object>> iter)
+        private RowMapIterator(Rows rows)
         {
-            _iter = iter;
+            _rows = rows;
         }
 
         @Override
         public boolean hasNext()
         {
-            return _iter.hasNext();
+            return _next < _rows.size();
         }
 
         @Override
         public Map<String, Object> next()
         {
-            return _iter.next();
-        }
+            if (!hasNext())
+                throw new NoSuchElementException();
 
-        @Override
-        public void remove()
-        {
-            _iter.remove();
+            return _rows.getRowMap(_next++);
         }
     }
 
     public int getSize()
     {
-        return _rowMaps.size();
+        return _rows.size();
+    }
+
+    //
+    // Row storage
+    //
+
+    /**
+     * Backing store for the cached rows. Column indexes are 1-based, as in JDBC; index 0 (a.k.a. "_row") is the 1-based
+     * row number. See CachedResultSets for the factory methods that choose an implementation.
+     */
+    interface Rows
+    {
+        int size();
+
+        Object get(int row, int columnIndex);
+
+        Object get(int row, String columnName);
+
+        void set(int row, int columnIndex, Object o);
+
+        RowMap<Object> getRowMap(int row);
+    }
+
+    /** The traditional store: one RowMap per row */
+    private static class RowMapRows implements Rows
+    {
+        private final ArrayList<RowMap<Object>> _rowMaps;
+
+        private RowMapRows(ArrayList<RowMap<Object>> rowMaps)
+        {
+            _rowMaps = rowMaps;
+        }
+
+        @Override
+        public int size()
+        {
+            return _rowMaps.size();
+        }
+
+        @Override
+        public Object get(int row, int columnIndex)
+        {
+            return _rowMaps.get(row).get(columnIndex);
+        }
+
+        @Override
+        public Object get(int row, String columnName)
+        {
+            return _rowMaps.get(row).get(columnName);
+        }
+
+        @Override
+        public void set(int row, int columnIndex, Object o)
+        {
+            _rowMaps.get(row).set(columnIndex, o);
+        }
+
+        @Override
+        public RowMap<Object> getRowMap(int row)
+        {
+            return _rowMaps.get(row);
+        }
     }
 
     //
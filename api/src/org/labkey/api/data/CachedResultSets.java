@@ -16,6 +16,8 @@
 package org.labkey.api.data;
 
 import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
 import org.labkey.api.collections.ResultSetRowMapFactory;
 import org.labkey.api.collections.RowMap;
 
@@ -23,7 +25,10 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -63,6 +68,27 @@ public class CachedResultSets
     }
 
 
+    /**
+     * Same as above, but caches the rows in column-oriented, primitive-backed storage (see ColumnarRows). Uses a fraction
+     * of the heap for large selects; the trade-off is that getRowMap() and iterator() materialize a new map on each call.
+     */
+    public static CachedResultSet createColumnar(ResultSet rsIn, boolean cacheMetaData, int maxRows, @Nullable StackTraceElement[] stackTrace, QueryLogging queryLogging) throws SQLException
+    {
+        try (ResultSet rs = new LoggingResultSetWrapper(rsIn, queryLogging))
+        {
+            if (maxRows == Table.ALL_ROWS)
+                maxRows = Integer.MAX_VALUE;
+
+            ColumnarRows rows = ColumnarRows.create(rs, maxRows);
+
+            // If we have another row, then we're not complete
+            boolean isComplete = !rs.next();
+
+            return new CachedResultSet(rs.getMetaData(), cacheMetaData, rows, isComplete, stackTrace);
+        }
+    }
+
+
     public static CachedResultSet create(ResultSetMetaData md, boolean cacheMetaData, List<Map<String, Object>> maps, boolean isComplete)
     {
         return new CachedResultSet(md, cacheMetaData, convertToRowMaps(md, maps), isComplete, null);
@@ -134,4 +160,86 @@ public class CachedResultSets
 
         return list;
     }
+
+
+    public static class TestCase extends Assert
+    {
+        @Test
+        public void testMatchesRowMaps() throws SQLException
+        {
+            List<Map<String, Object>> maps = new ArrayList<>();
+            List<String> columns = Arrays.asList("i", "l", "d", "b", "s", "unique", "mixed", "nulls");
+
+            for (int i = 0; i < 1000; i++)
+            {
+                Map<String, Object> m = new HashMap<>();
+                m.put("i", i % 7 == 0 ? null : i);
+                m.put("l", (long) i * Integer.MAX_VALUE);
+                m.put("d", i % 5 == 0 ? null : i / 3.0);
+                m.put("b", i % 2 == 0);
+                m.put("s", i % 11 == 0 ? null : "value" + (i % 13));
+                m.put("unique", "unique" + i);    // Too many distinct values to dictionary encode
+                m.put("mixed", i < 500 ? (Object) i : "text" + i);    // Forces widening from int to Object
+                m.put("nulls", null);
+                maps.add(m);
+            }
+
+            try (CachedResultSet expected = CachedResultSets.create(maps, columns);
+                 CachedResultSet source = CachedResultSets.create(maps, columns);
+                 CachedResultSet actual = CachedResultSets.createColumnar(source, false, Table.ALL_ROWS, null, QueryLogging.emptyQueryLogging()))
+            {
+                assertEquals(expected.getSize(), actual.getSize());
+                assertTrue(actual.isComplete());
+
+                while (expected.next())
+                {
+                    assertTrue(actual.next());
+
+                    for (int col = 1; col <= columns.size(); col++)
+                        assertEquals(expected.getObject(col), actual.getObject(col));
+
+                    for (String column : columns)
+                        assertEquals(expected.getObject(column), actual.getObject(column));
+
+                    for (String column : columns)
+                        assertEquals(expected.getRowMap().get(column), actual.getRowMap().get(column));
+                }
+
+                assertFalse(actual.next());
+
+                // _setObject() must be able to widen a primitive column
+                actual.absolute(3);
+                actual._setObject(1, "replaced");
+                assertEquals("replaced", actual.getObject(1));
+                actual.absolute(4);
+                assertEquals(3, actual.getObject("i"));
+
+                // ...and a dictionary encoded column, which no longer keeps its value-to-code map once loaded
+                actual.absolute(5);
+                actual._setObject(5, "value3");
+                actual._setObject(6, null);
+                assertEquals("value3", actual.getObject("s"));
+                assertNull(actual.getObject("unique"));
+                actual.absolute(6);
+                assertEquals("value5", actual.getObject("s"));
+                assertEquals("unique5", actual.getObject("unique"));
+            }
+        }
+
+        @Test
+        public void testMaxRows() throws SQLException
+        {
+            List<Map<String, Object>> maps = new ArrayList<>();
+
+            for (int i = 0; i < 10; i++)
+                maps.add(Collections.singletonMap("x", i));
+
+            try (CachedResultSet source = CachedResultSets.create(maps, Collections.singletonList("x"));
+                 CachedResultSet actual = CachedResultSets.createColumnar(source, false, 5, null, QueryLogging.emptyQueryLogging()))
+            {
+                assertEquals(5, actual.getSize());
+                assertFalse(actual.isComplete());
+            }
+        }
+    }
 }
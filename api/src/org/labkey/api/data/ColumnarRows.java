@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data;
+
+import org.labkey.api.collections.CaseInsensitiveHashMap;
+import org.labkey.api.collections.ResultSetRowMapFactory;
+import org.labkey.api.collections.RowMap;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented backing store for {@link CachedResultSet}. Integer, Long, Double and Boolean columns are held in
+ * primitive arrays with a null bitmap, String columns are dictionary encoded, and anything else falls back to an
+ * Object array. Each column picks its representation from the class of the first non-null value it sees and is
+ * widened to an Object column if a later value doesn't fit, so getObject() returns exactly what the row map path
+ * would have returned.
+ *
+ * Row maps are materialized on demand; unlike the row map store, changes made to a returned map are not reflected
+ * in the cached data (use CachedResultSet._setObject() for that).
+ */
+class ColumnarRows implements CachedResultSet.Rows
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ResultSetRowMapFactory _factory;
+    private final Map<String, Integer> _columnIndexes;
+    private final Column[] _columns;   // 1-based to match JDBC; index 0 is unused
+    private int _size = 0;
+
+    private ColumnarRows(ResultSetMetaData md) throws SQLException
+    {
+        int count = md.getColumnCount();
+        _factory = ResultSetRowMapFactory.create(md);
+        _columnIndexes = new CaseInsensitiveHashMap<>(count * 2);
+        _columnIndexes.put("_row", 0);
+        _columns = new Column[count + 1];
+
+        for (int i = 1; i <= count; i++)
+        {
+            _columnIndexes.put(md.getColumnLabel(i), i);
+            _columns[i] = new UntypedColumn();
+        }
+    }
+
+    static ColumnarRows create(ResultSet rs, int maxRows) throws SQLException
+    {
+        ColumnarRows rows = new ColumnarRows(rs.getMetaData());
+        ResultSetRowMapFactory factory = ResultSetRowMapFactory.create(rs);
+        int count = rows._columns.length - 1;
+
+        // Note: we check in this order to avoid consuming the "extra" row used to detect complete vs. not
+        while (rows._size < maxRows && rs.next())
+        {
+            int row = rows._size++;
+
+            for (int i = 1; i <= count; i++)
+                rows._columns[i] = rows._columns[i].set(row, factory.getValue(rs, i));
+        }
+
+        for (int i = 1; i <= count; i++)
+            rows._columns[i] = rows._columns[i].seal();
+
+        return rows;
+    }
+
+    @Override
+    public int size()
+    {
+        return _size;
+    }
+
+    @Override
+    public Object get(int row, int columnIndex)
+    {
+        if (0 == columnIndex)
+            return row + 1;
+
+        return _columns[columnIndex].get(row);
+    }
+
+    @Override
+    public Object get(int row, String columnName)
+    {
+        Integer columnIndex = _columnIndexes.get(columnName);
+
+        return null == columnIndex ? null : get(row, columnIndex);
+    }
+
+    @Override
+    public void set(int row, int columnIndex, Object o)
+    {
+        _columns[columnIndex] = _columns[columnIndex].set(row, o);
+    }
+
+    @Override
+    public RowMap<Object> getRowMap(int row)
+    {
+        List<Object> values = new ArrayList<>(_columns.length);
+        values.add(row + 1);
+
+        for (int i = 1; i < _columns.length; i++)
+            values.add(_columns[i].get(row));
+
+        return _factory.getRowMap(values);
+    }
+
+
+    /**
+     * A single column of values. set() returns the column that now holds the value, which is a different (wider)
+     * column if the value didn't fit the current representation.
+     */
+    private static abstract class Column
+    {
+        abstract Object get(int row);
+
+        abstract Column set(int row, Object o);
+
+        abstract int capacity();
+
+        /** Called once all rows are loaded; returns the column to keep, dropping anything only needed while loading */
+        Column seal()
+        {
+            return this;
+        }
+
+        protected int grow(int row)
+        {
+            return Math.max(row + 1, Math.max(INITIAL_CAPACITY, capacity() * 2));
+        }
+    }
+
+    // Holds a run of leading nulls until we see the first real value
+    private static class UntypedColumn extends Column
+    {
+        @Override
+        Object get(int row)
+        {
+            return null;
+        }
+
+        @Override
+        Column set(int row, Object o)
+        {
+            if (null == o)
+                return this;
+
+            final Column typed;
+
+            if (o instanceof Integer)
+                typed = new IntColumn();
+            else if (o instanceof Long)
+                typed = new LongColumn();
+            else if (o instanceof Double)
+                typed = new DoubleColumn();
+            else if (o instanceof Boolean)
+                typed = new BooleanColumn();
+            else if (o instanceof String)
+                typed = new StringColumn();
+            else
+                typed = new ObjectColumn();
+
+            // Newly created columns treat everything they haven't seen as null
+            return typed.set(row, o);
+        }
+
+        @Override
+        int capacity()
+        {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static abstract class PrimitiveColumn extends Column
+    {
+        protected final BitSet _present = new BitSet();
+
+        @Override
+        final Object get(int row)
+        {
+            return _present.get(row) ? getValue(row) : null;
+        }
+
+        @Override
+        final Column set(int row, Object o)
+        {
+            if (null == o)
+            {
+                _present.clear(row);
+                return this;
+            }
+
+            if (!accepts(o))
+                return ObjectColumn.copyOf(this, _present.length()).set(row, o);
+
+            if (row >= capacity())
+                resize(grow(row));
+
+            setValue(row, o);
+            _present.set(row);
+
+            return this;
+        }
+
+        abstract boolean accepts(Object o);
+
+        abstract Object getValue(int row);
+
+        abstract void setValue(int row, Object o);
+
+        abstract void resize(int capacity);
+    }
+
+    private static class IntColumn extends PrimitiveColumn
+    {
+        private int[] _values = new int[0];
+
+        @Override
+        boolean accepts(Object o)
+        {
+            return o instanceof Integer;
+        }
+
+        @Override
+        Object getValue(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        void setValue(int row, Object o)
+        {
+            _values[row] = (Integer) o;
+        }
+
+        @Override
+        void resize(int capacity)
+        {
+            _values = Arrays.copyOf(_values, capacity);
+        }
+
+        @Override
+        int capacity()
+        {
+            return _values.length;
+        }
+    }
+
+    private static class LongColumn extends PrimitiveColumn
+    {
+        private long[] _values = new long[0];
+
+        @Override
+        boolean accepts(Object o)
+        {
+            return o instanceof Long;
+        }
+
+        @Override
+        Object getValue(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        void setValue(int row, Object o)
+        {
+            _values[row] = (Long) o;
+        }
+
+        @Override
+        void resize(int capacity)
+        {
+            _values = Arrays.copyOf(_values, capacity);
+        }
+
+        @Override
+        int capacity()
+        {
+            return _values.length;
+        }
+    }
+
+    private static class DoubleColumn extends PrimitiveColumn
+    {
+        private double[] _values = new double[0];
+
+        @Override
+        boolean accepts(Object o)
+        {
+            return o instanceof Double;
+        }
+
+        @Override
+        Object getValue(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        void setValue(int row, Object o)
+        {
+            _values[row] = (Double) o;
+        }
+
+        @Override
+        void resize(int capacity)
+        {
+            _values = Arrays.copyOf(_values, capacity);
+        }
+
+        @Override
+        int capacity()
+        {
+            return _values.length;
+        }
+    }
+
+    private static class BooleanColumn extends PrimitiveColumn
+    {
+        private final BitSet _values = new BitSet();
+        private int _capacity = 0;
+
+        @Override
+        boolean accepts(Object o)
+        {
+            return o instanceof Boolean;
+        }
+
+        @Override
+        Object getValue(int row)
+        {
+            return _values.get(row);
+        }
+
+        @Override
+        void setValue(int row, Object o)
+        {
+            _values.set(row, (Boolean) o);
+        }
+
+        @Override
+        void resize(int capacity)
+        {
+            _capacity = capacity;
+        }
+
+        @Override
+        int capacity()
+        {
+            return _capacity;
+        }
+    }
+
+    // Dictionary encoded; code -1 means null. Gives up and widens to an Object column if the values turn out to be (mostly) unique.
+    private static class StringColumn extends Column
+    {
+        private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+        // Past this many rows, widen as soon as more than half the values seen so far are distinct
+        private static final int MIN_ROWS_FOR_RATIO = 1024;
+
+        // Only needed to dedupe values while loading; seal() drops it
+        private Map<String, Integer> _codes = new HashMap<>();
+        private final ArrayList<String> _dictionary = new ArrayList<>();
+        private int[] _values = new int[0];
+        private int _rows = 0;
+
+        @Override
+        Object get(int row)
+        {
+            if (row >= _rows)
+                return null;
+
+            int code = _values[row];
+
+            return -1 == code ? null : _dictionary.get(code);
+        }
+
+        @Override
+        Column set(int row, Object o)
+        {
+            if (null != o && !(o instanceof String))
+                return ObjectColumn.copyOf(this, _rows).set(row, o);
+
+            // Once sealed we can no longer find existing codes, so updates (see CachedResultSet._setObject()) widen the column
+            if (null != o && null == _codes)
+                return ObjectColumn.copyOf(this, _rows).set(row, o);
+
+            if (null != o && !_codes.containsKey(o) && (_dictionary.size() >= MAX_DICTIONARY_SIZE || tooManyDistinct(_dictionary.size() + 1, Math.max(_rows, row + 1))))
+                return ObjectColumn.copyOf(this, _rows).set(row, o);
+
+            if (row >= _values.length)
+            {
+                int oldLength = _values.length;
+                _values = Arrays.copyOf(_values, grow(row));
+                Arrays.fill(_values, oldLength, _values.length, -1);
+            }
+
+            if (null == o)
+            {
+                _values[row] = -1;
+            }
+            else
+            {
+                String s = (String) o;
+                Integer code = _codes.get(s);
+
+                if (null == code)
+                {
+                    code = _dictionary.size();
+                    _dictionary.add(s);
+                    _codes.put(s, code);
+                }
+
+                _values[row] = code;
+            }
+
+            _rows = Math.max(_rows, row + 1);
+
+            return this;
+        }
+
+        @Override
+        Column seal()
+        {
+            // A dictionary doesn't pay for itself when most values are distinct, however few rows there are
+            if (_dictionary.size() * 2 > _rows)
+                return ObjectColumn.copyOf(this, _rows);
+
+            _codes = null;
+            _values = Arrays.copyOf(_values, _rows);
+            _dictionary.trimToSize();
+
+            return this;
+        }
+
+        private static boolean tooManyDistinct(int distinct, int rows)
+        {
+            return rows >= MIN_ROWS_FOR_RATIO && distinct * 2 > rows;
+        }
+
+        @Override
+        int capacity()
+        {
+            return _values.length;
+        }
+    }
+
+    private static class ObjectColumn extends Column
+    {
+        private Object[] _values = new Object[0];
+
+        static ObjectColumn copyOf(Column column, int rows)
+        {
+            ObjectColumn copy = new ObjectColumn();
+            copy._values = new Object[Math.max(rows, INITIAL_CAPACITY)];
+
+            for (int row = 0; row < rows; row++)
+                copy._values[row] = column.get(row);
+
+            return copy;
+        }
+
+        @Override
+        Object get(int row)
+        {
+            return row < _values.length ? _values[row] : null;
+        }
+
+        @Override
+        Column set(int row, Object o)
+        {
+            if (row >= _values.length)
+                _values = Arrays.copyOf(_values, grow(row));
+
+            _values[row] = o;
+
+            return this;
+        }
+
+        @Override
+        int capacity()
+        {
+            return _values.length;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.settings.AppProps;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which connections and statements get an allocation stack for leak reports, and captures those stacks cheaply.
+ * Capturing a stack on every connection is measurable under heavy concurrency, so outside of dev mode only one in
+ * every N allocations is sampled. Set the rate with -Dlabkey.connectionLeakSampleRate=N (1 captures every allocation,
+ * 0 captures none). Leaks are still detected for unsampled connections; their reports just don't include a stack.
+ *
+ * Stacks are captured with StackWalker, limited to the innermost frames, and only turned into a Throwable when a leak
+ * is actually logged.
+ */
+public class ConnectionLeakTracker
+{
+    private static final int MAX_FRAMES = 64;
+    private static final int DEFAULT_PRODUCTION_SAMPLE_RATE = 16;
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private static volatile Integer _sampleRate = Integer.getInteger("labkey.connectionLeakSampleRate");
+
+    /** Returns one in every N, based on the configured rate */
+    public static boolean shouldSample()
+    {
+        int rate = getSampleRate();
+        return 1 == rate || (0 < rate && 0 == ThreadLocalRandom.current().nextInt(rate));
+    }
+
+    public static int getSampleRate()
+    {
+        Integer rate = _sampleRate;
+        if (null != rate)
+            return rate;
+        return AppProps.getInstance().isDevMode() ? 1 : DEFAULT_PRODUCTION_SAMPLE_RATE;
+    }
+
+    /** Override the system property (or the default) at runtime; pass null to restore the default */
+    public static void setSampleRate(@Nullable Integer rate)
+    {
+        _sampleRate = rate;
+    }
+
+    /** Returns the calling stack if this allocation is sampled, otherwise null */
+    public static @Nullable AllocationStack captureIfSampled()
+    {
+        return shouldSample() ? capture() : null;
+    }
+
+    public static @NotNull AllocationStack capture()
+    {
+        // Skip this frame, keep the caller's
+        List<StackWalker.StackFrame> frames = WALKER.walk(s -> s.skip(1).limit(MAX_FRAMES).collect(Collectors.toList()));
+        return new AllocationStack(frames);
+    }
+
+    /** Stack frames captured at allocation time, converted to StackTraceElements only when needed */
+    public static class AllocationStack
+    {
+        private final List<StackWalker.StackFrame> _frames;
+
+        private AllocationStack(List<StackWalker.StackFrame> frames)
+        {
+            _frames = frames;
+        }
+
+        public Throwable toThrowable(String message)
+        {
+            Throwable t = new Throwable(message);
+            t.setStackTrace(_frames.stream().map(StackWalker.StackFrame::toStackTraceElement).toArray(StackTraceElement[]::new));
+            return t;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.labkey.api.data;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.labkey.api.data.ConnectionLeakTracker.AllocationStack;
 import org.labkey.api.data.DbScope.ConnectionType;
 import org.labkey.api.data.dialect.SqlDialect;
 import org.labkey.api.data.dialect.StatementWrapper;
@@ -50,11 +51,11 @@ import java.sql.Struct;
 import java.text.DateFormat;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -66,8 +67,10 @@ import java.util.concurrent.atomic.AtomicLong;
 public class ConnectionWrapper implements java.sql.Connection
 {
     private static final Logger LOG = Logger.getLogger(ConnectionWrapper.class);
-    private static final Map<ConnectionWrapper, Pair<Thread, Throwable>> _openConnections = Collections.synchronizedMap(new IdentityHashMap<>());
-    private static final Set<ConnectionWrapper> _loggedLeaks = new HashSet<>();
+    // ConnectionWrapper doesn't override equals(), so these behave as identity maps. Allocation stacks are only present
+    // for sampled connections, see ConnectionLeakTracker.
+    private static final Map<ConnectionWrapper, Pair<Thread, AllocationStack>> _openConnections = new ConcurrentHashMap<>();
+    private static final Set<ConnectionWrapper> _loggedLeaks = ConcurrentHashMap.newKeySet();
     private static final Logger _logDefault = Logger.getLogger(ConnectionWrapper.class);
     private static final boolean _explicitLogger = _logDefault.getLevel() != null || _logDefault.getParent() != null  && _logDefault.getParent().getName().equals("org.labkey.api.data");
     private static final AtomicLong COUNTER = new AtomicLong(0);
@@ -107,27 +110,27 @@ public class ConnectionWrapper implements java.sql.Connection
         _allocatingThreadName = Thread.currentThread().getName();
         _referencingThreadNames.add(_allocatingThreadName);
 
-        _openConnections.put(this,  new Pair<>(Thread.currentThread(), new Throwable()));
+        _openConnections.put(this, new Pair<>(Thread.currentThread(), ConnectionLeakTracker.captureIfSampled()));
 
         _log = log != null ? log : getConnectionLogger();
     }
 
 
+    private static final StackWalker CONNECTION_LOGGER_WALKER = StackWalker.getInstance();
+
     /** this is a best guess logger, pass one in to be predictable */
     static Logger getConnectionLogger()
     {
         if (_explicitLogger)
             return _logDefault;
-        StackTraceElement[] stes = Thread.currentThread().getStackTrace();
-        for (StackTraceElement ste : stes)
-        {
-            String className = ste.getClassName();
-            if (className.equals("org.labkey.api.view.ViewServlet") || className.equals("org.labkey.api.action.SpringActionController"))
-                break;
-            if (className.endsWith("Controller") && !className.startsWith("org.labkey.api.view"))
-                return Logger.getLogger(className);
-        }
-        return _logDefault;
+        // Walk lazily, so we stop at the first controller instead of materializing the whole stack
+        return CONNECTION_LOGGER_WALKER.walk(frames -> frames
+            .map(StackWalker.StackFrame::getClassName)
+            .takeWhile(className -> !className.equals("org.labkey.api.view.ViewServlet") && !className.equals("org.labkey.api.action.SpringActionController"))
+            .filter(className -> className.endsWith("Controller") && !className.startsWith("org.labkey.api.view"))
+            .findFirst()
+            .map(Logger::getLogger)
+            .orElse(_logDefault));
     }
 
 
@@ -150,14 +153,13 @@ public class ConnectionWrapper implements java.sql.Connection
 
     public static boolean dumpOpenConnections(@NotNull Logger log)
     {
-        synchronized (_openConnections)
+        for (Pair<Thread, AllocationStack> p : _openConnections.values())
         {
-            for (Pair<Thread, Throwable> p : _openConnections.values())
-            {
-                String thread = p.first.getName();
-                Throwable t = p.second;
-                log.debug("Connection opened on thread: " + thread, t);
-            }
+            String thread = p.first.getName();
+            if (null != p.second)
+                log.debug("Connection opened on thread: " + thread, p.second.toThrowable("Connection allocation stack"));
+            else
+                log.debug("Connection opened on thread: " + thread + " (allocation stack not sampled)");
         }
 
         return true;
@@ -171,21 +173,20 @@ public class ConnectionWrapper implements java.sql.Connection
     public static boolean dumpLeaksForThread(Thread t, Logger log)
     {
         boolean leaks = false;
-        synchronized(_openConnections)
+        for (Map.Entry<ConnectionWrapper, Pair<Thread, AllocationStack>> entry : _openConnections.entrySet())
         {
-            for (Map.Entry<ConnectionWrapper, Pair<Thread, Throwable>> entry : _openConnections.entrySet())
+            ConnectionWrapper connection = entry.getKey();
+            Thread connectionThread = entry.getValue().getKey();
+            AllocationStack stack = entry.getValue().second;
+            if (connectionThread == t)
             {
-                ConnectionWrapper connection = entry.getKey();
-                Thread connectionThread = entry.getValue().getKey();
-                Throwable throwable = entry.getValue().second;
-                if (connectionThread == t)
+                if (_loggedLeaks.add(connection))
                 {
-                    if (!_loggedLeaks.contains(connection))
-                    {
-                        log.error("Probable connection leak for thread '" + t.getName() + "', connection was acquired at: ", throwable);
-                        _loggedLeaks.add(connection);
-                        leaks = true;
-                    }
+                    if (null != stack)
+                        log.error("Probable connection leak for thread '" + t.getName() + "', connection was acquired at: ", stack.toThrowable("Connection allocation stack"));
+                    else
+                        log.error("Probable connection leak for thread '" + t.getName() + "': " + connection + " (allocation stack not sampled, see ConnectionLeakTracker)");
+                    leaks = true;
                 }
             }
         }
@@ -195,14 +196,11 @@ public class ConnectionWrapper implements java.sql.Connection
     public static Set<Integer> getSPIDsForThread(Thread t)
     {
         Set<Integer> result = new HashSet<>();
-        synchronized(_openConnections)
+        for (Map.Entry<ConnectionWrapper, Pair<Thread, AllocationStack>> entry : _openConnections.entrySet())
         {
-            for (Map.Entry<ConnectionWrapper, Pair<Thread, Throwable>> entry : _openConnections.entrySet())
+            if (entry.getValue().getKey() == t)
             {
-                if (entry.getValue().getKey() == t)
-                {
-                    result.add(entry.getKey()._spid);
-                }
+                result.add(entry.getKey()._spid);
             }
         }
         return result;
@@ -15,6 +15,7 @@
  */
 package org.labkey.api.data;
 
+import com.google.common.collect.Iterables;
 import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
@@ -40,6 +41,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
@@ -55,6 +57,9 @@ import static org.labkey.api.util.SubstitutionFormat.yearlySampleCount;
 
 public class NameGenerator
 {
+    // Maximum number of lookup keys selected by a single prefetchLookups() query
+    private static final int MAX_LOOKUP_PREFETCH = 1000;
+
     private final TableInfo _parentTable;
     private final FieldKeyStringExpression _parsedNameExpression;
 
@@ -242,6 +247,12 @@ public class NameGenerator
         }
     }
 
+    /** True if the name expression includes lookups (e.g., ${Parent/Name}), so callers may want to prefetch them. */
+    public boolean hasLookups()
+    {
+        return !_exprLookups.isEmpty();
+    }
+
     /**
      * Create new state object for a batch of names.
      * @param incrementSampleCounts Increment the sample counters for each name generated.
@@ -452,37 +463,23 @@ public class NameGenerator
                             continue;
 
                         ColumnInfo pkCol = pkCols.get(0);
-                        // convert the rootValue to the target pkColumn type
-                        if (rootValue instanceof String && !pkCol.isStringType())
-                            rootValue = ConvertUtils.convert((String)rootValue, pkCol.getJavaClass());
+                        rootValue = convertLookupKey(pkCol, rootValue);
 
-                        // Cache lookupValues by (rootName, rootValue, fieldKey) -> lookupValue
+                        // Cache lookupValues by (rootName, rootValue, fieldKey) -> lookupValue, usually filled by prefetchLookups()
                         // CONSIDER: Cache key could be (lookupSchema, lookupQuery, lookupColName, value)
                         // TODO: support for multi-valued FKs
                         Tuple3<String, Object, FieldKey> key = Tuple3.of(rootName, rootValue, fieldKey);
-                        Object value = _lookupCache.computeIfAbsent(key, (tuple3) -> {
-                            Object rootVal = tuple3.second;
-                            SimpleFilter filter = new SimpleFilter();
-                            filter.addCondition(pkCol, rootVal);
-
-                            FieldKey relativeFieldKey = fieldKey.removeParent(rootName);
-                            Collection<FieldKey> fields = Collections.singleton(relativeFieldKey);
-                            Map<FieldKey, ColumnInfo> cols = QueryService.get().getColumns(lookupTable, fields);
-
-                            try (Results results = QueryService.get().select(lookupTable, cols.values(), filter, null))
-                            {
-                                if (results.next())
-                                {
-                                    return results.getFieldKeyRowMap().get(relativeFieldKey);
-                                }
-                            }
-                            catch (SQLException e)
-                            {
-                                throw new RuntimeSQLException(e);
-                            }
-
-                            return null;
-                        });
+                        Object value;
+
+                        if (_lookupCache.containsKey(key))
+                        {
+                            value = _lookupCache.get(key);
+                        }
+                        else
+                        {
+                            value = selectLookupValue(lookupTable, pkCol, rootValue, fieldKey.removeParent(rootName));
+                            _lookupCache.put(key, value);
+                        }
 
                         ctx.put(fieldKey.toString(), value);
                     }
@@ -497,6 +494,149 @@ public class NameGenerator
             return NameGenerator.parentNames(value, parentColName).collect(Collectors.toList());
         }
 
+        // convert the rootValue to the target pkColumn type
+        private Object convertLookupKey(ColumnInfo pkCol, Object rootValue)
+        {
+            if (rootValue instanceof String && !pkCol.isStringType())
+                return ConvertUtils.convert((String)rootValue, pkCol.getJavaClass());
+
+            return rootValue;
+        }
+
+        private Object selectLookupValue(TableInfo lookupTable, ColumnInfo pkCol, Object rootValue, FieldKey relativeFieldKey)
+        {
+            SimpleFilter filter = new SimpleFilter();
+            filter.addCondition(pkCol, rootValue);
+
+            Collection<FieldKey> fields = Collections.singleton(relativeFieldKey);
+            Map<FieldKey, ColumnInfo> cols = QueryService.get().getColumns(lookupTable, fields);
+
+            try (Results results = QueryService.get().select(lookupTable, cols.values(), filter, null))
+            {
+                if (results.next())
+                {
+                    return results.getFieldKeyRowMap().get(relativeFieldKey);
+                }
+            }
+            catch (SQLException e)
+            {
+                throw new RuntimeSQLException(e);
+            }
+
+            return null;
+        }
+
+        /**
+         * Resolve the lookup values the name expression needs for a batch of rows up front, with one IN query per lookup
+         * table instead of a query per distinct value as each row is named. Rows that already have a name are skipped.
+         * Values that aren't prefetched (e.g., keys of an unexpected type) are still selected one at a time by nextName().
+         */
+        public void prefetchLookups(@NotNull Collection<Map<String, Object>> rowMaps)
+        {
+            if (_exprLookups.isEmpty() || rowMaps.isEmpty())
+                return;
+
+            // All lookups off the same root column share a lookup table, so select their values together
+            Map<String, List<FieldKey>> fieldKeysByRoot = new HashMap<>();
+            for (FieldKey fieldKey : _exprLookups.keySet())
+                fieldKeysByRoot.computeIfAbsent(fieldKey.getRootName(), root -> new ArrayList<>()).add(fieldKey);
+
+            for (Map.Entry<String, List<FieldKey>> entry : fieldKeysByRoot.entrySet())
+            {
+                String rootName = entry.getKey();
+                List<FieldKey> fieldKeys = entry.getValue();
+                TableInfo lookupTable = _exprLookups.get(fieldKeys.get(0));
+                List<ColumnInfo> pkCols = lookupTable.getPkColumns();
+                if (pkCols.size() != 1)
+                    continue;
+
+                ColumnInfo pkCol = pkCols.get(0);
+                Set<Object> keys = new LinkedHashSet<>();
+
+                for (Map<String, Object> rowMap : rowMaps)
+                {
+                    Object curName = rowMap.get("name");
+                    if (curName instanceof String && StringUtils.isNotBlank((String)curName))
+                        continue;
+
+                    Object rootValue = getRowValue(rowMap, rootName);
+                    if (rootValue == null)
+                        continue;
+
+                    rootValue = convertLookupKey(pkCol, rootValue);
+                    if (pkCol.getJavaObjectClass().isInstance(rootValue) && !_lookupCache.containsKey(Tuple3.of(rootName, rootValue, fieldKeys.get(0))))
+                        keys.add(rootValue);
+                }
+
+                for (List<Object> batch : Iterables.partition(keys, MAX_LOOKUP_PREFETCH))
+                    selectLookupValues(lookupTable, pkCol, rootName, fieldKeys, batch);
+            }
+        }
+
+        private void selectLookupValues(TableInfo lookupTable, ColumnInfo pkCol, String rootName, List<FieldKey> fieldKeys, List<Object> keys)
+        {
+            List<FieldKey> relativeFieldKeys = fieldKeys.stream().map(fieldKey -> fieldKey.removeParent(rootName)).collect(Collectors.toList());
+            List<FieldKey> fields = new ArrayList<>(relativeFieldKeys);
+            fields.add(pkCol.getFieldKey());
+            Map<FieldKey, ColumnInfo> cols = QueryService.get().getColumns(lookupTable, fields);
+
+            SimpleFilter filter = new SimpleFilter();
+            filter.addInClause(pkCol.getFieldKey(), keys);
+            Set<Object> missing = new HashSet<>(keys);
+
+            try (Results results = QueryService.get().select(lookupTable, cols.values(), filter, null))
+            {
+                while (results.next())
+                {
+                    Map<FieldKey, Object> row = results.getFieldKeyRowMap();
+                    Object pk = row.get(pkCol.getFieldKey());
+                    if (pk != null && !pkCol.getJavaObjectClass().isInstance(pk))
+                        pk = ConvertUtils.convert(String.valueOf(pk), pkCol.getJavaClass());
+
+                    if (!missing.remove(pk))
+                        continue;
+
+                    for (int i = 0; i < fieldKeys.size(); i++)
+                        _lookupCache.put(Tuple3.of(rootName, pk, fieldKeys.get(i)), row.get(relativeFieldKeys.get(i)));
+                }
+            }
+            catch (SQLException e)
+            {
+                throw new RuntimeSQLException(e);
+            }
+
+            // Non-string keys that weren't returned don't exist. Leave missing string keys to selectLookupValue(), since the
+            // database may have matched them with different case.
+            if (!pkCol.isStringType())
+            {
+                for (Object key : missing)
+                    for (FieldKey fieldKey : fieldKeys)
+                        _lookupCache.put(Tuple3.of(rootName, key, fieldKey), null);
+            }
+        }
+
+        // Find a column value the same way additionalContext() does: by property URI, then case-insensitively by name
+        private @Nullable Object getRowValue(Map<String, Object> rowMap, String name)
+        {
+            if (_parentTable != null)
+            {
+                ColumnInfo col = _parentTable.getColumn(name);
+                if (col != null && col.getName().equalsIgnoreCase(name) && col.getPropertyURI() != null && rowMap.containsKey(col.getPropertyURI()))
+                    return rowMap.get(col.getPropertyURI());
+            }
+
+            if (rowMap.containsKey(name))
+                return rowMap.get(name);
+
+            for (Map.Entry<String, Object> entry : rowMap.entrySet())
+            {
+                if (name.equalsIgnoreCase(entry.getKey()))
+                    return entry.getValue();
+            }
+
+            return null;
+        }
+
     }
 
     public class NameGenerationException extends Exception
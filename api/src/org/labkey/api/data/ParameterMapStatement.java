@@ -1,5 +1,6 @@
 package org.labkey.api.data;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Level;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.arrays.IntegerArray;
@@ -15,11 +16,13 @@ import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 import org.springframework.jdbc.support.SQLExceptionTranslator;
 
+import java.io.Reader;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.IdentityHashMap;
 import java.util.List;
@@ -299,6 +302,170 @@ public class ParameterMapStatement implements AutoCloseable
     }
 
 
+    InsertTarget _insertTarget = null;
+    PreparedStatement _insertRowsStmt = null;  // multi-row INSERT from the last insertRows() call, reused for batches of the same size
+    int _insertRowsCount = 0;
+
+    /**
+     * Set by StatementUtils when the statement is a plain INSERT, whose rows could instead be bulk loaded with copyIn()
+     * or inserted several at a time with insertRows()
+     */
+    public void setInsertTarget(@Nullable InsertTarget target)
+    {
+        _insertTarget = target;
+    }
+
+    public @Nullable InsertTarget getInsertTarget()
+    {
+        return _insertTarget;
+    }
+
+    /** Bulk loads rows formatted for getInsertTarget() on this statement's connection, see SqlDialect.copyIn() */
+    public long copyIn(Reader data) throws SQLException
+    {
+        if (null == _insertTarget)
+            throw new IllegalStateException("Statement does not support COPY");
+        return _dialect.copyIn(_stmt.getConnection(), _insertTarget.getTableSelectName(), _insertTarget.getColumnNames(), data);
+    }
+
+    /**
+     * Inserts the rows with a single multi-row INSERT. Each row holds a value for every getInsertTarget() column, bound
+     * just as the corresponding parameter would bind it. If the target reselects a generated key, returns the key of
+     * each row, in the order of the rows (matched up by each row's position, not by the order the database returns
+     * the keys in); otherwise returns null.
+     */
+    public @Nullable List<Integer> insertRows(List<Object[]> rows) throws SQLException
+    {
+        if (null == _insertTarget)
+            throw new IllegalStateException("Statement does not support multi-row INSERT");
+
+        List<Object> sources = _insertTarget.getSources();
+        ColumnInfo reselectColumn = _insertTarget.getReselectColumn();
+
+        if (null == _insertRowsStmt || _insertRowsCount != rows.size())
+        {
+            closeInsertRowsStatement();
+
+            SQLFragment sql;
+            if (null != reselectColumn)
+            {
+                sql = _dialect.getMultiRowInsertReselectSql(_insertTarget.getTableSelectName(), _insertTarget.getColumnNames(), rows.size(), reselectColumn);
+            }
+            else
+            {
+                sql = new SQLFragment("INSERT INTO ").append(_insertTarget.getTableSelectName()).append(" (");
+                sql.append(StringUtils.join(_insertTarget.getColumnNames(), ", ")).append(")\nVALUES ");
+                String values = "(" + StringUtils.repeat("?", ", ", sources.size()) + ")";
+                sql.append(StringUtils.repeat(values, ",\n", rows.size()));
+            }
+
+            _insertRowsStmt = _stmt.getConnection().prepareStatement(sql.getSQL());
+            _insertRowsCount = rows.size();
+        }
+
+        try (Parameter.ParameterList parameters = new Parameter.ParameterList())
+        {
+            int index = 1;
+            for (Object[] row : rows)
+            {
+                assert row.length == sources.size();
+                for (int i = 0; i < row.length; i++)
+                {
+                    Object source = sources.get(i);
+                    Parameter p = new Parameter(_insertRowsStmt, index++, source instanceof Parameter ? ((Parameter) source).getType() : null);
+                    if (source instanceof Parameter)
+                        p.setFileAsName = ((Parameter) source).setFileAsName;
+                    parameters.add(p);
+                    p.setValue(row[i]);
+                }
+            }
+
+            if (null == reselectColumn)
+            {
+                _insertRowsStmt.execute();
+                return null;
+            }
+
+            // Each result row is (generated key, 1-based position of its row in VALUES)
+            Integer[] keys = new Integer[rows.size()];
+            int count = 0;
+            try (ResultSet rs = _dialect.executeWithResults(_insertRowsStmt))
+            {
+                while (rs.next())
+                {
+                    int ordinal = rs.getInt(2);
+                    if (ordinal < 1 || ordinal > keys.length || null != keys[ordinal - 1])
+                        throw new IllegalStateException("Unexpected row position " + ordinal + " returned with generated key " + rs.getInt(1));
+                    keys[ordinal - 1] = rs.getInt(1);
+                    count++;
+                }
+            }
+            if (count != rows.size())
+                throw new IllegalStateException("Expected " + rows.size() + " generated keys, but got " + count);
+            return Arrays.asList(keys);
+        }
+    }
+
+    private void closeInsertRowsStatement()
+    {
+        if (null != _insertRowsStmt)
+        {
+            try
+            {
+                _insertRowsStmt.close();
+            }
+            catch (SQLException e)
+            {
+                Parameter.LOG.warn("Failed to close multi-row INSERT statement", e);
+            }
+            _insertRowsStmt = null;
+        }
+    }
+
+
+    /**
+     * The table and columns of a plain INSERT, plus the source of each column's value: one of this statement's named
+     * Parameters, or a constant. Also the auto-increment column, if the INSERT reselects it.
+     */
+    public static class InsertTarget
+    {
+        private final String _tableSelectName;
+        private final List<String> _columnNames;
+        private final List<Object> _sources;
+        private final @Nullable ColumnInfo _reselectColumn;
+
+        public InsertTarget(String tableSelectName, List<String> columnNames, List<Object> sources, @Nullable ColumnInfo reselectColumn)
+        {
+            assert columnNames.size() == sources.size();
+            _tableSelectName = tableSelectName;
+            _columnNames = columnNames;
+            _sources = sources;
+            _reselectColumn = reselectColumn;
+        }
+
+        public String getTableSelectName()
+        {
+            return _tableSelectName;
+        }
+
+        public List<String> getColumnNames()
+        {
+            return _columnNames;
+        }
+
+        /** Each entry is either a Parameter or a constant value (already converted by Parameter.getValueToBind()) */
+        public List<Object> getSources()
+        {
+            return _sources;
+        }
+
+        public @Nullable ColumnInfo getReselectColumn()
+        {
+            return _reselectColumn;
+        }
+    }
+
+
     private void prepareParametersBeforeExecute() throws SQLException
     {
         for (Parameter p : _parameters)
@@ -327,6 +494,7 @@ public class ParameterMapStatement implements AutoCloseable
         {
             try
             {
+                closeInsertRowsStatement();
                 if (null != _stmt)
                 {
                     _stmt.close();
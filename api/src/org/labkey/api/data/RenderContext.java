@@ -496,6 +496,7 @@ public class RenderContext implements Map<String, Object>, Serializable
                 .setNamedParameters(parameters)
                 .setMaxRows(maxRows)
                 .setOffset(offset)
+                .setColumnarCache(true)
                 .setForDisplay(true);
 
         if (async)
@@ -46,6 +46,7 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
 
     private @Nullable AsyncQueryRequest _asyncRequest = null;
     private @Nullable StackTraceElement[] _loggingStacktrace = null;
+    private boolean _columnarCache = false;
     private final QueryLogging _queryLogging;
     private static final Logger LOGGER = Logger.getLogger(SqlExecutingSelector.class);
 
@@ -89,6 +90,16 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
         return getThis();
     }
 
+    /**
+     * When true, cached result sets hold their rows in columnar, primitive-backed storage instead of one map per row.
+     * Worthwhile for large selects that are read through the ResultSet/Results APIs (grid paging, exports).
+     */
+    public SELECTOR setColumnarCache(boolean columnarCache)
+    {
+        _columnarCache = columnarCache;
+        return getThis();
+    }
+
     private static boolean validOffset(long offset)
     {
         return offset >= 0;
@@ -156,7 +167,11 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
         if (cache)
         {
             // Cache ResultSet and meta data
-            return CachedResultSets.create(rs, true, _maxRows, _loggingStacktrace, getQueryLogging()).setRequireClose(requireClose);
+            CachedResultSet crs = _columnarCache ?
+                CachedResultSets.createColumnar(rs, true, _maxRows, _loggingStacktrace, getQueryLogging()) :
+                CachedResultSets.create(rs, true, _maxRows, _loggingStacktrace, getQueryLogging());
+
+            return crs.setRequireClose(requireClose);
         }
         else
         {
@@ -679,6 +679,12 @@ public class StatementUtils
         if (null == remap)
             remap = new CaseInsensitiveHashMap<>();
 
+        // A plain INSERT can also be done as a bulk load or multi-row INSERT (see ParameterMapStatement.InsertTarget), as long
+        // as every value is a parameter or a constant. Built-in columns are set with SQL expressions, so they rule it out.
+        boolean plainInsert = Operation.insert == _operation && cols.isEmpty();
+        List<String> targetColumnNames = new ArrayList<>();
+        List<Object> targetSources = new ArrayList<>();
+
         for (ColumnInfo column : table.getColumns())
         {
             if (column instanceof WrappedColumn)
@@ -700,10 +706,12 @@ public class StatementUtils
             if (column.getName().equalsIgnoreCase(objectIdColumnName))
             {
                 valueSQL.append(objectIdVar);
+                plainInsert = false;
             }
             else if (column.getName().equalsIgnoreCase(updatable.getObjectURIColumnName()) && null != objecturiParameter)
             {
                 appendParameterOrVariable(valueSQL, objecturiParameter);
+                targetSources.add(objecturiParameter.isConstant ? objecturiParameter.constantValue : objecturiParameter.p);
             }
             else
             {
@@ -711,7 +719,9 @@ public class StatementUtils
                     continue;
                 ParameterHolder ph = createParameter(column);
                 appendParameterOrVariable(valueSQL, ph);
+                targetSources.add(ph.isConstant ? ph.constantValue : ph.p);
             }
+            targetColumnNames.add(column.getSelectName());
             cols.add(new SQLFragment(column.getSelectName()));
             values.add(valueSQL);
         }
@@ -876,6 +886,15 @@ public class StatementUtils
                 .filter(f -> null != f && !f.isEmpty())
                 .forEach(script::append);
             ret = new Parameter.ParameterMap(table.getSchema().getScope(), conn, script, remap);
+
+            // Only when the INSERT is the entire script
+            if (plainInsert && !values.isEmpty() && null == sqlfSelectIds &&
+                    (!selectAutoIncrement || _dialect.supportsMultiRowReselect(autoIncrementColumn)) &&
+                    Stream.of(sqlfDeclare, sqlfPreselectObject, sqlfInsertObject, sqlfSelectObject, sqlfDelete, sqlfUpdate, sqlfObjectProperty).allMatch(SQLFragment::isEmpty))
+            {
+                ret.setInsertTarget(new ParameterMapStatement.InsertTarget(table.getSelectName(), targetColumnNames, targetSources,
+                        selectAutoIncrement ? autoIncrementColumn : null));
+            }
         }
         else if (_dialect.isSqlServer())
         {
@@ -788,6 +788,115 @@ public class Table
     }
 
 
+    /**
+     * Inserts many rows (Maps or beans) with a single JDBC batch. Special fields are filled in and values are validated
+     * just as {@link #insert(User, TableInfo, Object)} does, but auto-increment keys are not reselected and the rows
+     * passed in are not modified. Every row is inserted into the union of the columns present in any row; values that
+     * a row doesn't provide are inserted as NULL.
+     * @throws RuntimeValidationException if there is a problem with the data that's detected before we try to actually do the insert
+     * @throws RuntimeSQLException if there is a problem communicating with the database or there is a constraint violation or similar error
+     */
+    public static void batchInsert(@Nullable User user, TableInfo table, Collection<?> rows)
+    {
+        assert (table.getTableType() != DatabaseTableType.NOT_IN_DB): ("Table " + table.getSchema().getName() + "." + table.getName() + " is not in the physical database.");
+
+        if (rows.isEmpty())
+            return;
+
+        java.sql.Timestamp date = new java.sql.Timestamp(System.currentTimeMillis());
+        List<Map<String, Object>> rowFields = new ArrayList<>(rows.size());
+        Set<String> names = new CaseInsensitiveHashSet();
+
+        for (Object row : rows)
+        {
+            //noinspection unchecked
+            Map<String, Object> fields = row instanceof Map ?
+                    _getTableData(table, (Map<String, Object>)row, true) :
+                    _getTableData(table, row, true);
+            _insertSpecialFields(user, table, fields, date);
+            _updateSpecialFields(user, table, fields, date);
+            names.addAll(fields.keySet());
+            rowFields.add(fields);
+        }
+
+        List<ColumnInfo> columns = new ArrayList<>();
+        List<List<ColumnValidator>> validators = new ArrayList<>();
+        StringBuilder columnSQL = new StringBuilder();
+        StringBuilder valueSQL = new StringBuilder();
+        String comma = "";
+
+        for (ColumnInfo column : table.getColumns())
+        {
+            if (!names.contains(column.getName()))
+                continue;
+
+            columns.add(column);
+            validators.add(ColumnValidators.create(column, null));
+            columnSQL.append(comma).append(column.getSelectName());
+            valueSQL.append(comma).append('?');
+            comma = ", ";
+        }
+
+        if (columns.isEmpty())
+            throw new IllegalArgumentException("Table.batchInsert called with no column data. table=" + table);
+
+        List<List<Object>> paramList = new ArrayList<>(rowFields.size());
+        int rowNum = 0;
+
+        for (Map<String, Object> fields : rowFields)
+        {
+            List<Object> params = new ArrayList<>(columns.size());
+            rowNum++;
+
+            for (int i = 0; i < columns.size(); i++)
+            {
+                ColumnInfo column = columns.get(i);
+                Object value = fields.get(column.getName());
+
+                if (null == value || value instanceof String && 0 == ((String) value).length())
+                {
+                    if (!column.isAutoIncrement() &&
+                            column.isRequired() &&
+                            !Table.AUTOPOPULATED_COLUMN_NAMES.contains(column.getName()) &&
+                            column.getJdbcDefaultValue() == null)
+                    {
+                        throw new RuntimeValidationException("A value is required for field '" + column.getName() + "'", column.getName());
+                    }
+
+                    params.add(new Parameter.TypedValue(null, column.getJdbcType()));
+                    continue;
+                }
+
+                for (ColumnValidator v : validators.get(i))
+                {
+                    String msg = v.validate(rowNum, value);
+                    if (msg != null)
+                        throw new RuntimeValidationException(msg, column.getName());
+                }
+
+                if (value instanceof Parameter.JdbcParameterValue)
+                    params.add(value);
+                else
+                    params.add(new Parameter.TypedValue(value, column.getJdbcType()));
+            }
+
+            paramList.add(params);
+        }
+
+        String sql = "INSERT INTO " + table.getSelectName() + "\n\t(" + columnSQL + ")\n\tVALUES (" + valueSQL + ")";
+
+        try
+        {
+            batchExecute(table.getSchema(), sql, paramList);
+            notifyTableUpdate(table);
+        }
+        catch (SQLException e)
+        {
+            throw new RuntimeSQLException(e);
+        }
+    }
+
+
     public static <K> K update(@Nullable User user, TableInfo table, K fieldsIn, Object pkVals)
     {
         return update(user, table, fieldsIn, pkVals, null, Level.WARN);
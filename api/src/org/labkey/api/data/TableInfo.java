@@ -44,6 +44,7 @@ import org.labkey.api.view.ViewContext;
 import org.labkey.data.xml.TableType;
 import org.labkey.data.xml.queryCustomView.FilterType;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -484,11 +485,43 @@ public interface TableInfo extends TableDescription, HasPermission, SchemaTreeNo
                         @Nullable Map<String, Object> newRow, @Nullable Map<String, Object> oldRow, Map<String, Object> extraContext)
             throws ValidationException;
 
+    /**
+     * Fire triggers for a batch of rows, with the same effect as calling {@link #fireRowTrigger} for each row, but
+     * giving triggers that support it (see Trigger.canBatch()) all of the rows at once. The lists are parallel; newRows
+     * or oldRows may be null when the trigger type has no such rows.
+     * @return The errors for each row, or null for rows that passed.
+     */
+    default List<ValidationException> fireRowTriggers(Container c, User user, TriggerType type, boolean before, List<Integer> rowNumbers,
+                                                      @Nullable List<Map<String, Object>> newRows, @Nullable List<Map<String, Object>> oldRows, Map<String, Object> extraContext)
+    {
+        List<ValidationException> errors = new ArrayList<>(rowNumbers.size());
+
+        for (int i = 0; i < rowNumbers.size(); i++)
+        {
+            try
+            {
+                fireRowTrigger(c, user, type, before, rowNumbers.get(i), null == newRows ? null : newRows.get(i), null == oldRows ? null : oldRows.get(i), extraContext);
+                errors.add(null);
+            }
+            catch (ValidationException vex)
+            {
+                errors.add(vex);
+            }
+        }
+
+        return errors;
+    }
+
     /**
      * Return true if there are trigger scripts associated with this table.
      */
     boolean hasTriggers(Container c);
 
+    /**
+     * Return true if any of the triggers would rather process rows in batches for this event; see {@link #fireRowTriggers}.
+     */
+    default boolean canBatchTriggers(Container c, TriggerType type, boolean before) { return false; }
+
     /**
      * Return true if all trigger scripts support streaming.
      */
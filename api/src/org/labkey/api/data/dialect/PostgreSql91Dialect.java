@@ -35,7 +35,10 @@ import org.springframework.jdbc.BadSqlGrammarException;
 import javax.servlet.ServletException;
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.io.Reader;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -59,6 +62,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -1880,4 +1884,127 @@ public abstract class PostgreSql91Dialect extends SqlDialect
     {
         return true;
     }
+
+    @Override
+    public boolean supportsMultiRowReselect(ColumnInfo column)
+    {
+        // The keys are drawn from the column's sequence up front, so it has to be a SERIAL (not a trigger-assigned) integer
+        return column.isAutoIncrement() && column.getJdbcType() == JdbcType.INTEGER && !column.getParentTable().hasDbTriggers();
+    }
+
+    @Override
+    public SQLFragment getMultiRowInsertReselectSql(String tableSelectName, List<String> columnNames, int rowCount, ColumnInfo column)
+    {
+        // RETURNING can't refer to the VALUES rows, and neither its order nor the order sequence values are assigned to
+        // the rows is documented. So draw the keys from the column's sequence first and insert row n with key k[n]; the
+        // ordinal n is then known for each key. Joining to RETURNING returns only the keys that were actually inserted.
+        String columnName = null != column.getMetaDataName() ? column.getMetaDataName() : column.getName();
+        String sequence = "pg_get_serial_sequence(" + getStringHandler().quoteStringLiteral(tableSelectName) + ", " +
+                getStringHandler().quoteStringLiteral(columnName) + ")";
+        String keyColumn = column.getSelectName();
+        String values = StringUtils.repeat("?", ", ", columnNames.size());
+
+        SQLFragment sql = new SQLFragment("WITH keys AS (SELECT ARRAY(SELECT nextval(").append(sequence)
+                .append(") FROM generate_series(1, ").append(rowCount).append(")) AS k),\n");
+        sql.append("inserted AS (INSERT INTO ").append(tableSelectName).append(" (").append(StringUtils.join(columnNames, ", "))
+                .append(", ").append(keyColumn).append(")\nVALUES ");
+        for (int row = 1; row <= rowCount; row++)
+        {
+            if (row > 1)
+                sql.append(",\n");
+            sql.append("(").append(values).append(", (SELECT k[").append(row).append("] FROM keys))");
+        }
+        sql.append("\nRETURNING ").append(keyColumn).append(" AS generated)\n");
+        sql.append("SELECT inserted.generated, g.n FROM keys CROSS JOIN generate_series(1, ").append(rowCount).append(") AS g(n)\n");
+        sql.append("INNER JOIN inserted ON inserted.generated = keys.k[g.n]");
+        return sql;
+    }
+
+    @Override
+    public boolean supportsCopyIn()
+    {
+        return null != getCopyManagerMethods();
+    }
+
+    @Override
+    public long copyIn(Connection conn, String tableSelectName, List<String> columnNames, Reader data) throws SQLException
+    {
+        CopyManagerMethods methods = getCopyManagerMethods();
+        if (null == methods)
+            return super.copyIn(conn, tableSelectName, columnNames, data);
+
+        String sql = "COPY " + tableSelectName + " (" + StringUtils.join(columnNames, ", ") + ") FROM STDIN";
+
+        try
+        {
+            // The driver's connection sits under our ConnectionWrapper (which only unwraps one level) and the pool's proxy
+            Object pgConnection = conn.isWrapperFor(methods.pgConnectionClass) ? conn.unwrap(methods.pgConnectionClass) : conn.unwrap(Connection.class).unwrap(methods.pgConnectionClass);
+            Object copyManager = methods.getCopyAPI.invoke(pgConnection);
+            return (Long) methods.copyIn.invoke(copyManager, sql, data);
+        }
+        catch (InvocationTargetException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException)
+                throw (SQLException) cause;
+            if (cause instanceof IOException)
+                throw new SQLException("Error reading COPY data", cause);
+            throw new RuntimeException(cause);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The server reports where a COPY failed as context, e.g. "Where: COPY testtable, line 3, column intnotnull: ..."
+    private static final Pattern COPY_LINE_PATTERN = Pattern.compile("\\bCOPY .+?, line (\\d+)");
+
+    @Override
+    public @Nullable Integer getCopyInErrorLine(SQLException x)
+    {
+        if (null == x.getMessage())
+            return null;
+        Matcher m = COPY_LINE_PATTERN.matcher(x.getMessage());
+        return m.find() ? Integer.valueOf(m.group(1)) : null;
+    }
+
+    private static volatile CopyManagerMethods _copyManagerMethods = null;
+    private static volatile boolean _copyManagerResolved = false;
+
+    // The PostgreSQL JDBC driver isn't a compile-time dependency, so reach its COPY API via reflection
+    private static @Nullable CopyManagerMethods getCopyManagerMethods()
+    {
+        if (!_copyManagerResolved)
+        {
+            try
+            {
+                Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection");
+                Class<?> copyManagerClass = Class.forName("org.postgresql.copy.CopyManager");
+                _copyManagerMethods = new CopyManagerMethods(pgConnectionClass, pgConnectionClass.getMethod("getCopyAPI"),
+                        copyManagerClass.getMethod("copyIn", String.class, Reader.class));
+            }
+            catch (ReflectiveOperationException e)
+            {
+                LOG.info("PostgreSQL COPY API is not available; bulk inserts will use batched statements");
+            }
+            _copyManagerResolved = true;
+        }
+
+        return _copyManagerMethods;
+    }
+
+    private static class CopyManagerMethods
+    {
+        private final Class<?> pgConnectionClass;
+        private final Method getCopyAPI;
+        private final Method copyIn;
+
+        private CopyManagerMethods(Class<?> pgConnectionClass, Method getCopyAPI, Method copyIn)
+        {
+            this.pgConnectionClass = pgConnectionClass;
+            this.getCopyAPI = getCopyAPI;
+            this.copyIn = copyIn;
+        }
+    }
 }
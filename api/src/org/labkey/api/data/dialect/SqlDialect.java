@@ -40,6 +40,7 @@ import org.springframework.jdbc.BadSqlGrammarException;
 import javax.servlet.ServletException;
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.io.Reader;
 import java.lang.reflect.Method;
 import java.sql.CallableStatement;
 import java.sql.Connection;
@@ -1589,4 +1590,56 @@ public abstract class SqlDialect
     {
         return false;
     }
+
+    // return true if getMultiRowInsertReselectSql() can return the generated values of this column from a multi-row INSERT
+    public boolean supportsMultiRowReselect(ColumnInfo column)
+    {
+        return false;
+    }
+
+    /**
+     * Returns a multi-row INSERT of rowCount rows into the columns (one ? per value, row by row) that also returns the
+     * column's generated value for every inserted row. Databases don't promise to return those in VALUES order, so each
+     * result row has two columns: the generated value and the 1-based position of its row in VALUES.
+     */
+    public SQLFragment getMultiRowInsertReselectSql(String tableSelectName, List<String> columnNames, int rowCount, ColumnInfo column)
+    {
+        throw new UnsupportedOperationException("Multi-row reselect is not supported by " + getProductName());
+    }
+
+    /** Appends rowCount VALUES rows of columnCount parameters, optionally followed by each row's 1-based position */
+    protected static void appendMultiRowValues(SQLFragment sql, int columnCount, int rowCount, boolean appendOrdinal)
+    {
+        String values = StringUtils.repeat("?", ", ", columnCount);
+        for (int row = 1; row <= rowCount; row++)
+        {
+            if (row > 1)
+                sql.append(",\n");
+            sql.append("(").append(values);
+            if (appendOrdinal)
+                sql.append(", ").append(row);
+            sql.append(")");
+        }
+    }
+
+    // return true if copyIn() can bulk load rows, e.g., via PostgreSQL's COPY ... FROM STDIN
+    public boolean supportsCopyIn()
+    {
+        return false;
+    }
+
+    /**
+     * Bulk loads rows into a table. data is in PostgreSQL's COPY text format: one line per row, tab-delimited columns
+     * in the order of columnNames, with \N for null. Returns the number of rows loaded.
+     */
+    public long copyIn(Connection conn, String tableSelectName, List<String> columnNames, Reader data) throws SQLException
+    {
+        throw new UnsupportedOperationException("COPY is not supported by " + getProductName());
+    }
+
+    // return the (1-based) line of copyIn() data that caused this exception, or null if the exception doesn't say
+    public @Nullable Integer getCopyInErrorLine(SQLException x)
+    {
+        return null;
+    }
 }
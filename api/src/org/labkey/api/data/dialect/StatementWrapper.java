@@ -22,6 +22,7 @@ import org.apache.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.action.SpringActionController;
 import org.labkey.api.collections.OneBasedList;
+import org.labkey.api.data.ConnectionLeakTracker;
 import org.labkey.api.data.ConnectionWrapper;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.QueryLogging;
@@ -1759,7 +1760,7 @@ public class StatementWrapper implements Statement, PreparedStatement, CallableS
         try
         {
             _stmt.close();
-            if (AppProps.getInstance().isDevMode() && _closingStackTrace == null)
+            if (AppProps.getInstance().isDevMode() && _closingStackTrace == null && ConnectionLeakTracker.shouldSample())
             {
                 _closingStackTrace = new Throwable("Remembering stack for closing Statement on thread " + Thread.currentThread().getName());
             }
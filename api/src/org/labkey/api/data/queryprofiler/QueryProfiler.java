@@ -62,6 +62,8 @@ import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /*
 * User: adam
@@ -88,6 +90,11 @@ public class QueryProfiler
     private long _upTimeAtLastReset;
     private boolean _hasBeenReset = false;
 
+    // Compilation of LabKey SQL queries into TableInfos; updated directly by request threads, so not guarded by LOCK
+    private final LongAdder _compileCount = new LongAdder();
+    private final LongAdder _compileTime = new LongAdder();
+    private final LongAdder _compileCacheHits = new LongAdder();
+
     private final List<DatabaseQueryListener> _listeners = new CopyOnWriteArrayList<>();
 
     public static QueryProfiler getInstance()
@@ -226,6 +233,19 @@ public class QueryProfiler
         return stackTrace;
     }
 
+    /** Records a query definition compiled into a TableInfo (i.e., a compiled query cache miss) */
+    public void trackCompile(long elapsedNanos)
+    {
+        _compileCount.increment();
+        _compileTime.add(elapsedNanos);
+    }
+
+    /** Records a request for a TableInfo that was served from the compiled query cache */
+    public void trackCompileCacheHit()
+    {
+        _compileCacheHits.increment();
+    }
+
     public void resetAllStatistics()
     {
         synchronized (_lock)
@@ -251,6 +271,9 @@ public class QueryProfiler
             _backgroundQueryTime = 0;
             _uniqueQueryCountEstimate = 0;
             _requestCountAtLastReset = ViewServlet.getRequestCount();
+            _compileCount.reset();
+            _compileTime.reset();
+            _compileCacheHits.reset();
 
             RuntimeMXBean runtimeBean = ManagementFactory.getRuntimeMXBean();
             if (runtimeBean != null)
@@ -307,6 +330,19 @@ public class QueryProfiler
                         out.println("<td>Query Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_backgroundQueryTime) + "</td>");
                         out.println("</tr>");
                         out.println("  <tr><td style=\"border-top:1px solid\" colspan=5>&nbsp;</td></tr>");
+
+                        long compiles = _compileCount.sum();
+                        long hits = _compileCacheHits.sum();
+                        out.println("  <tr><td style=\"border-top:1px solid;text-align:center\" colspan=5>LabKey SQL Compilation</td></tr>");
+                        out.println("  <tr><td>Compile Count:</td><td style=\"text-align:right\">" + Formats.commaf0.format(compiles) + "</td>");
+                        out.println("<td style=\"width:10px\">&nbsp;</td>");
+                        out.println("<td>Compile Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(TimeUnit.NANOSECONDS.toMillis(_compileTime.sum())) + "</td>");
+                        out.println("</tr>\n  <tr>");
+                        out.println("<td>Cache Hits:</td><td style=\"text-align:right\">" + Formats.commaf0.format(hits) + "</td>");
+                        out.println("<td style=\"width:10px\">&nbsp;</td>");
+                        out.println("<td>Cache Hit Rate:</td><td style=\"text-align:right\">" + (0 == compiles + hits ? "&nbsp;" : Formats.percent1.format((double) hits / (compiles + hits))) + "</td>");
+                        out.println("</tr>");
+                        out.println("  <tr><td style=\"border-top:1px solid\" colspan=5>&nbsp;</td></tr>");
                         out.println("  <tr><td colspan=5>&nbsp;</td></tr>");
 
                         out.println("  <tr><td>Total Unique Queries");
@@ -31,8 +31,10 @@ import org.labkey.api.view.ViewContext;
 
 import javax.script.ScriptException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -67,6 +69,100 @@ import java.util.Objects;
         return false;
     }
 
+    /**
+     * Scripts with a row function always take batches, so the function is called for each row of the batch in one
+     * script scope rather than entering the script once per row. Scripts can also handle a whole batch in one call by
+     * defining a function named for the row method plus "Batch", e.g. <code>beforeInsertBatch(rows, errors)</code>,
+     * <code>beforeUpdateBatch(rows, oldRows, errors)</code> or <code>afterDeleteBatch(oldRows, errors)</code>, where
+     * errors is an array with one ValidationException per row.
+     */
+    @Override
+    public boolean canBatch(TableInfo.TriggerType event, boolean before)
+    {
+        String methodName = getRowMethodName(event, before);
+        if (null == methodName || !_script.evaluated())
+            return false;
+
+        try
+        {
+            return _script.hasFn(methodName + "Batch") || _script.hasFn(methodName);
+        }
+        catch (ScriptException e)
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public void rowTriggers(TableInfo table, Container c, User user, TableInfo.TriggerType event, boolean before, List<Integer> rowNumbers,
+                            @Nullable List<Map<String, Object>> newRows, @Nullable List<Map<String, Object>> oldRows,
+                            List<ValidationException> errors, Map<String, Object> extraContext)
+    {
+        String methodName = getRowMethodName(event, before);
+        if (null == methodName)
+        {
+            Trigger.super.rowTriggers(table, c, user, event, before, rowNumbers, newRows, oldRows, errors, extraContext);
+            return;
+        }
+
+        String batchMethodName = methodName + "Batch";
+
+        _invokeTableScript(c, user, extraContext, () -> {
+            if (_script.hasFn(batchMethodName))
+            {
+                Boolean success = _script.invokeFn(Boolean.class, batchMethodName, getRowArgs(event, newRows, oldRows, errors));
+                if (success != null && !success)
+                    errors.forEach(rowErrors -> rowErrors.addGlobalError(batchMethodName + " validation failed"));
+            }
+            else if (_script.hasFn(methodName))
+            {
+                // Call the row function for each row, but in one scope
+                List<Object[]> argsList = new ArrayList<>(errors.size());
+                for (int i = 0; i < errors.size(); i++)
+                    argsList.add(getRowArgs(event, null == newRows ? null : newRows.get(i), null == oldRows ? null : oldRows.get(i), errors.get(i)));
+
+                List<Boolean> results = _script.invokeFnForEach(Boolean.class, methodName, argsList);
+                for (int i = 0; i < results.size(); i++)
+                {
+                    Boolean success = results.get(i);
+                    if (success != null && !success)
+                        errors.get(i).addGlobalError(methodName + " validation failed");
+                }
+            }
+            return null;
+        });
+
+        if (isConnectionClosed(table.getSchema().getScope()))
+            errors.forEach(rowErrors -> rowErrors.addGlobalError("script error: " + methodName + " trigger closed the connection, possibly due to constraint violation"));
+    }
+
+    private static @Nullable String getRowMethodName(TableInfo.TriggerType event, boolean before)
+    {
+        switch (event)
+        {
+            case INSERT:
+            case UPDATE:
+            case DELETE:
+                return (before ? "before" : "after") + event.getMethodName();
+            default:
+                return null;
+        }
+    }
+
+    // Same argument order as the row methods below: new row (insert, update), old row (update, delete), errors
+    private static Object[] getRowArgs(TableInfo.TriggerType event, Object newRow, Object oldRow, Object errors)
+    {
+        switch (event)
+        {
+            case INSERT:
+                return new Object[]{newRow, errors};
+            case UPDATE:
+                return new Object[]{newRow, oldRow, errors};
+            default:
+                return new Object[]{oldRow, errors};
+        }
+    }
+
     @Override
     public void init(TableInfo table, Container c, User user, TableInfo.TriggerType event, BatchValidationException errors, Map<String, Object> extraContext)
     {
@@ -154,6 +250,19 @@ import java.util.Objects;
 
 
     private <T> T _invokeTableScript(Container c, User user, Class<T> resultType, String methodName, Map<String, Object> extraContext, Object... args)
+    {
+        return _invokeTableScript(c, user, extraContext, () -> _script.hasFn(methodName) ? _script.invokeFn(resultType, methodName, args) : null);
+    }
+
+
+    @FunctionalInterface
+    private interface ScriptInvocation<T>
+    {
+        T invoke() throws ScriptException, NoSuchMethodException;
+    }
+
+
+    private <T> T _invokeTableScript(Container c, User user, Map<String, Object> extraContext, ScriptInvocation<T> invocation)
     {
         try
         {
@@ -180,10 +289,7 @@ import java.util.Objects;
                     _script.eval(bindings);
                 }
 
-                if (_script.hasFn(methodName))
-                {
-                    return _script.invokeFn(resultType, methodName, args);
-                }
+                return invocation.invoke();
             }
             finally
             {
@@ -197,8 +303,6 @@ import java.util.Objects;
         {
             throw new UnexpectedException(e);
         }
-
-        return null;
     }
 
 
@@ -17,21 +17,41 @@ package org.labkey.api.data.triggers;
 
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.collections.CaseInsensitiveHashMap;
+import org.labkey.api.data.AbstractTableInfo;
 import org.labkey.api.data.Container;
+import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.TableInfo;
+import org.labkey.api.data.TestSchema;
+import org.labkey.api.dataiterator.DataIterator;
+import org.labkey.api.dataiterator.DataIteratorContext;
+import org.labkey.api.dataiterator.ListofMapsDataIterator;
+import org.labkey.api.dataiterator.TriggerDataBuilderHelper;
 import org.labkey.api.module.Module;
 import org.labkey.api.query.QueryService;
+import org.labkey.api.query.UserSchema;
+import org.labkey.api.query.ValidationException;
 import org.labkey.api.script.ScriptReference;
 import org.labkey.api.script.ScriptService;
+import org.labkey.api.security.User;
 import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.JunitUtil;
 import org.labkey.api.util.Path;
+import org.labkey.api.util.TestContext;
 import org.labkey.api.util.UnexpectedException;
 
+import javax.script.ScriptContext;
 import javax.script.ScriptException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * User: kevink
@@ -123,4 +143,255 @@ public class ScriptTriggerFactory implements TriggerFactory
         return scripts;
     }
 
+
+    public static class TestCase extends Assert
+    {
+        private static final int ROWS = 1500;
+
+        /** Stands in for a compiled trigger script, with Java functions in place of the script's top-level functions */
+        private static class TestScript implements ScriptReference
+        {
+            private final String _name;
+            private final Map<String, Function<Object[], Object>> _functions;
+            private boolean _evaluated = false;
+
+            TestScript(String name, Map<String, Function<Object[], Object>> functions)
+            {
+                _name = name;
+                _functions = functions;
+            }
+
+            @Override
+            public ScriptContext getContext()
+            {
+                return null;
+            }
+
+            @Override
+            public Object eval()
+            {
+                _evaluated = true;
+                return null;
+            }
+
+            @Override
+            public Object eval(Map<String, ?> bindings)
+            {
+                return eval();
+            }
+
+            @Override
+            public <T> T eval(Class<T> resultType)
+            {
+                eval();
+                return null;
+            }
+
+            @Override
+            public <T> T eval(Class<T> resultType, Map<String, ?> bindings)
+            {
+                return eval(resultType);
+            }
+
+            @Override
+            public boolean evaluated()
+            {
+                return _evaluated;
+            }
+
+            @Override
+            public boolean hasFn(String name)
+            {
+                return _functions.containsKey(name);
+            }
+
+            @Override
+            public boolean hasFn(Object thiz, String name)
+            {
+                return hasFn(name);
+            }
+
+            @Override
+            public Object invokeFn(String name, Object... args) throws NoSuchMethodException
+            {
+                Function<Object[], Object> fn = _functions.get(name);
+                if (null == fn)
+                    throw new NoSuchMethodException(name);
+                return fn.apply(args);
+            }
+
+            @Override
+            public <T> T invokeFn(Class<T> resultType, String name, Object... args) throws NoSuchMethodException
+            {
+                return resultType.cast(invokeFn(name, args));
+            }
+
+            @Override
+            public Object invokeFn(Object thiz, String name, Object... args) throws NoSuchMethodException
+            {
+                return invokeFn(name, args);
+            }
+
+            @Override
+            public <T> T invokeFn(Class<T> resultType, Object thiz, String name, Object... args) throws NoSuchMethodException
+            {
+                return invokeFn(resultType, name, args);
+            }
+
+            @Override
+            public String toString()
+            {
+                return _name;
+            }
+        }
+
+        // One script with only per-row functions and one with batch functions on the same table, in one import
+        @Test
+        @SuppressWarnings("unchecked")
+        public void testRowAndBatchScripts() throws Exception
+        {
+            List<String> calls = new ArrayList<>();
+
+            // Adds one to Value and rejects r10
+            TestScript rowScript = new TestScript("rowScript", Map.of(
+                "beforeInsert", args -> {
+                    Map<String, Object> row = (Map<String, Object>) args[0];
+                    calls.add("beforeInsert");
+                    row.put("Value", (Integer) row.get("Value") + 1);
+                    if ("r10".equals(row.get("Name")))
+                        ((ValidationException) args[1]).addGlobalError("rowScript rejected r10");
+                    return true;
+                },
+                "afterInsert", args -> {
+                    calls.add("afterInsert");
+                    return true;
+                }));
+
+            // Multiplies Value by ten and rejects r1200
+            TestScript batchScript = new TestScript("batchScript", Map.of(
+                "beforeInsertBatch", args -> {
+                    List<Map<String, Object>> rows = (List<Map<String, Object>>) args[0];
+                    List<ValidationException> errors = (List<ValidationException>) args[1];
+                    calls.add("beforeInsertBatch " + rows.size());
+                    for (int i = 0; i < rows.size(); i++)
+                    {
+                        Map<String, Object> row = rows.get(i);
+                        row.put("Value", (Integer) row.get("Value") * 10);
+                        if ("r1200".equals(row.get("Name")))
+                            errors.get(i).addGlobalError("batchScript rejected r1200");
+                    }
+                    return true;
+                },
+                "afterInsertBatch", args -> {
+                    List<Map<String, Object>> rows = (List<Map<String, Object>>) args[0];
+                    calls.add("afterInsertBatch " + rows.size());
+                    // The after triggers see the rows as the before triggers left them
+                    for (Map<String, Object> row : rows)
+                        assertEquals(rowValue((String) row.get("Name")), row.get("Value"));
+                    return true;
+                }));
+
+            Container c = JunitUtil.getTestContainer();
+            User user = TestContext.get().getUser();
+            AbstractTableInfo table = new AbstractTableInfo(TestSchema.getInstance().getSchema(), "BatchTriggerTest")
+            {
+                private final List<Trigger> _triggers = List.of(new ScriptTrigger(c, this, rowScript), new ScriptTrigger(c, this, batchScript));
+
+                @Override
+                protected SQLFragment getFromSQL()
+                {
+                    return null;
+                }
+
+                @Override
+                public UserSchema getUserSchema()
+                {
+                    return null;
+                }
+
+                @Override
+                protected @NotNull Collection<Trigger> getTriggers(Container c)
+                {
+                    return _triggers;
+                }
+            };
+
+            List<Map<String, Object>> rows = new ArrayList<>(ROWS);
+            for (int i = 1; i <= ROWS; i++)
+            {
+                Map<String, Object> row = new CaseInsensitiveHashMap<>();
+                row.put("Name", "r" + i);
+                row.put("Value", i);
+                rows.add(row);
+            }
+
+            // Nothing between the before and after triggers, where an import would insert the rows
+            DataIteratorContext context = new DataIteratorContext();
+            TriggerDataBuilderHelper helper = new TriggerDataBuilderHelper(table, c, user, new HashMap<>(), false);
+            DataIterator it = helper.after(helper.before(new ListofMapsDataIterator(rows.get(0).keySet(), rows))).getDataIterator(context);
+
+            int nameIndex = -1, valueIndex = -1;
+            for (int i = 1; i <= it.getColumnCount(); i++)
+            {
+                if ("Name".equalsIgnoreCase(it.getColumnInfo(i).getName()))
+                    nameIndex = i;
+                else if ("Value".equalsIgnoreCase(it.getColumnInfo(i).getName()))
+                    valueIndex = i;
+            }
+
+            List<String> names = new ArrayList<>();
+            while (it.next())
+            {
+                String name = (String) it.get(nameIndex);
+                names.add(name);
+                assertEquals(name, (Object) rowValue(name), it.get(valueIndex));
+            }
+            it.close();
+
+            // The rejected rows stop there, and everything else comes through in order
+            assertEquals(ROWS - 2, names.size());
+            assertFalse(names.contains("r10"));
+            assertFalse(names.contains("r1200"));
+            assertEquals("r11", names.get(9));
+
+            // Each batch runs the per-row script over its rows, then the batch script over the rows that passed. Rows
+            // rejected by the before triggers aren't in the after batches, so the second read ahead reaches into the
+            // before triggers' second batch.
+            assertEquals(List.of(
+                    "beforeInsert x1000", "beforeInsertBatch 999",
+                    "beforeInsert x500", "beforeInsertBatch 500",
+                    "afterInsert x1000", "afterInsertBatch 1000",
+                    "afterInsert x498", "afterInsertBatch 498"),
+                    collapse(calls));
+
+            // Errors are reported against the rows that failed, not the batches
+            List<ValidationException> errors = context.getErrors().getRowErrors();
+            assertEquals(2, errors.size());
+            assertEquals(10, errors.get(0).getRowNumber());
+            assertTrue(errors.get(0).getMessage().contains("rowScript rejected r10"));
+            assertEquals(1200, errors.get(1).getRowNumber());
+            assertTrue(errors.get(1).getMessage().contains("batchScript rejected r1200"));
+        }
+
+        // The row script adds one, then the batch script multiplies by ten
+        private static Integer rowValue(String name)
+        {
+            return (Integer.parseInt(name.substring(1)) + 1) * 10;
+        }
+
+        // Runs of per-row calls become "name xN"
+        private static List<String> collapse(List<String> calls)
+        {
+            List<String> collapsed = new ArrayList<>();
+            for (int i = 0; i < calls.size(); )
+            {
+                int j = i;
+                while (j < calls.size() && calls.get(j).equals(calls.get(i)))
+                    j++;
+                collapsed.add(calls.get(i).contains(" ") ? calls.get(i) : calls.get(i) + " x" + (j - i));
+                i = calls.get(i).contains(" ") ? i + 1 : j;
+            }
+            return collapsed;
+        }
+    }
 }
@@ -22,6 +22,7 @@ import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.query.ValidationException;
 import org.labkey.api.security.User;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -40,6 +41,13 @@ public interface Trigger
      */
     default boolean canStream() { return false; }
 
+    /**
+     * True if this trigger would rather process rows in batches (see {@link #rowTriggers}) than one at a time for the
+     * given event. If any trigger on a table asks for batches, callers that can read ahead fire row triggers in batches,
+     * and the other triggers on the table get their rows one at a time through the default rowTriggers().
+     */
+    default boolean canBatch(TableInfo.TriggerType event, boolean before) { return false; }
+
     default void batchTrigger(TableInfo table, Container c, User user, TableInfo.TriggerType event, boolean before, BatchValidationException errors, Map<String, Object> extraContext)
     {
         if (before)
@@ -93,6 +101,28 @@ public interface Trigger
         }
     }
 
+    /**
+     * Row trigger for a batch of rows. The lists are parallel, with one entry per row; newRows or oldRows is null when
+     * the event has no such rows, as for {@link #rowTrigger}. Errors for a row are added to (or replace) its entry in
+     * errors. By default, calls rowTrigger() for each row.
+     */
+    default void rowTriggers(TableInfo table, Container c, User user, TableInfo.TriggerType event, boolean before, List<Integer> rowNumbers,
+                             @Nullable List<Map<String, Object>> newRows, @Nullable List<Map<String, Object>> oldRows,
+                             List<ValidationException> errors, Map<String, Object> extraContext)
+    {
+        for (int i = 0; i < rowNumbers.size(); i++)
+        {
+            try
+            {
+                rowTrigger(table, c, user, event, before, rowNumbers.get(i), null == newRows ? null : newRows.get(i), null == oldRows ? null : oldRows.get(i), errors.get(i), extraContext);
+            }
+            catch (ValidationException vex)
+            {
+                errors.set(i, vex);
+            }
+        }
+    }
+
     default void beforeInsert(TableInfo table, Container c,
                               User user, @Nullable Map<String, Object> newRow,
                               ValidationException errors, Map<String, Object> extraContext) throws ValidationException
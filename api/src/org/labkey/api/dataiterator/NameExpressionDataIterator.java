@@ -17,17 +17,46 @@ package org.labkey.api.dataiterator;
 
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.collections.ArrayListMap;
+import org.labkey.api.collections.CaseInsensitiveHashMap;
+import org.labkey.api.data.AbstractTableInfo;
+import org.labkey.api.data.BaseColumnInfo;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.ContainerManager;
+import org.labkey.api.data.CoreSchema;
+import org.labkey.api.data.JdbcType;
 import org.labkey.api.data.NameGenerator;
+import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.TableInfo;
+import org.labkey.api.data.TestSchema;
 import org.labkey.api.query.BatchValidationException;
+import org.labkey.api.query.LookupForeignKey;
+import org.labkey.api.query.UserSchema;
 import org.labkey.api.query.ValidationException;
+import org.labkey.api.security.User;
+import org.labkey.api.util.GUID;
+import org.labkey.api.util.JunitUtil;
 import org.labkey.api.util.Pair;
+import org.labkey.api.util.TestContext;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Generates a name for each row that doesn't have one, using the row's name expression. Rows are read from the input in
+ * batches so the lookups used by those expressions (e.g., ${Parent/Name}) can be resolved with one query per batch.
+ */
 public class NameExpressionDataIterator extends WrapperDataIterator
 {
+    private static final int BATCH_SIZE = 1000;
+
     private final DataIteratorContext _context;
     private Map<String, Pair<NameGenerator, NameGenerator.State>> _nameGeneratorMap = new HashMap<>();
     private Map<String, String> _newNames = new HashMap<>();
@@ -35,6 +64,12 @@ public class NameExpressionDataIterator extends WrapperDataIterator
     private Integer _expressionCol;
     private TableInfo _parentTable;
 
+    // The current batch of input rows (values indexed by column) and the current position in the batch. Rows are only
+    // viewed as maps, over the shared column name lookup, when a name expression needs them.
+    private final List<Object[]> _batch = new ArrayList<>(BATCH_SIZE);
+    private final ArrayListMap.FindMap<String> _findMap;
+    private int _batchIndex = -1;
+
     public NameExpressionDataIterator(DataIterator di, DataIteratorContext context, @Nullable TableInfo parentTable)
     {
         super(DataIteratorUtil.wrapMap(di, false));
@@ -46,6 +81,10 @@ public class NameExpressionDataIterator extends WrapperDataIterator
         _expressionCol = map.get("nameExpression");
         assert _nameCol != null;
         assert _expressionCol != null;
+
+        _findMap = new ArrayListMap.FindMap<>(new CaseInsensitiveHashMap<>());
+        for (int i = 0; i <= di.getColumnCount(); i++)
+            _findMap.putIfAbsent(di.getColumnInfo(i).getName(), i);
     }
 
     MapDataIterator getInput()
@@ -58,11 +97,13 @@ public class NameExpressionDataIterator extends WrapperDataIterator
         return _context.getErrors();
     }
 
-    private void addNameGenerator(String nameExpression)
+    private Pair<NameGenerator, NameGenerator.State> getNameGenerator(String nameExpression)
     {
-        NameGenerator nameGen = new NameGenerator(nameExpression, _parentTable, false);
-        NameGenerator.State state = nameGen.createState(false);
-        _nameGeneratorMap.put(nameExpression, Pair.of(nameGen, state));
+        return _nameGeneratorMap.computeIfAbsent(nameExpression, expr -> {
+            NameGenerator nameGen = new NameGenerator(expr, _parentTable, false);
+            NameGenerator.State state = nameGen.createState(false);
+            return Pair.of(nameGen, state);
+        });
     }
 
     @Override
@@ -70,35 +111,85 @@ public class NameExpressionDataIterator extends WrapperDataIterator
     {
         // Clear cache of generated names
         _newNames.clear();
-        return super.next();
+
+        if (++_batchIndex >= _batch.size())
+        {
+            readBatch();
+            _batchIndex = 0;
+        }
+
+        return _batchIndex < _batch.size();
+    }
+
+    private void readBatch() throws BatchValidationException
+    {
+        _batch.clear();
+        int columnCount = getColumnCount();
+
+        while (_batch.size() < BATCH_SIZE && super.next())
+        {
+            Object[] row = new Object[columnCount + 1];
+            for (int i = 0; i <= columnCount; i++)
+                row[i] = super.get(i);
+
+            _batch.add(row);
+        }
+
+        prefetchLookups();
+    }
+
+    private void prefetchLookups()
+    {
+        Map<String, List<Map<String, Object>>> rowsByExpression = new HashMap<>();
+
+        for (Object[] row : _batch)
+        {
+            String nameExpression = (String) row[_expressionCol];
+            if (nameExpression == null || getCurrentName(row) != null || !getNameGenerator(nameExpression).first.hasLookups())
+                continue;
+
+            rowsByExpression.computeIfAbsent(nameExpression, expr -> new ArrayList<>()).add(asMap(row));
+        }
+
+        for (Map.Entry<String, List<Map<String, Object>>> entry : rowsByExpression.entrySet())
+            getNameGenerator(entry.getKey()).second.prefetchLookups(entry.getValue());
+    }
+
+    @Nullable
+    private Object getCurrentName(Object[] row)
+    {
+        Object curName = row[_nameCol];
+        if (curName instanceof String)
+            curName = StringUtils.isEmpty((String)curName) ? null : curName;
+        return curName;
+    }
+
+    private Map<String, Object> asMap(Object[] row)
+    {
+        ArrayListMap<String, Object> map = new ArrayListMap<>(_findMap, Arrays.asList(row));
+        map.setReadOnly(true);
+        return map;
     }
 
     @Override
     public Object get(int i)
     {
+        Object[] row = _batch.get(_batchIndex);
+
         if (i == _nameCol)
         {
-            Object curName = super.get(_nameCol);
-            if (curName instanceof String)
-                curName = StringUtils.isEmpty((String)curName) ? null : curName;
-
+            Object curName = getCurrentName(row);
             if (curName != null)
                 return curName;
 
-            Map<String, Object> currentRow = getInput().getMap();
-
             try
             {
-                String nameExpression = (String) super.get(_expressionCol);
-                if (!_nameGeneratorMap.containsKey(nameExpression))
-                {
-                    addNameGenerator(nameExpression);
-                }
+                String nameExpression = (String) row[_expressionCol];
 
                 if (_newNames.get(nameExpression) == null)
                 {
-                    Pair<NameGenerator, NameGenerator.State> nameGenPair = _nameGeneratorMap.get(nameExpression);
-                    _newNames.put(nameExpression, nameGenPair.first.generateName(nameGenPair.second, currentRow));
+                    Pair<NameGenerator, NameGenerator.State> nameGenPair = getNameGenerator(nameExpression);
+                    _newNames.put(nameExpression, nameGenPair.first.generateName(nameGenPair.second, asMap(row)));
                 }
                 String newName = _newNames.get(nameExpression);
                 if (!StringUtils.isEmpty(newName))
@@ -110,7 +201,113 @@ public class NameExpressionDataIterator extends WrapperDataIterator
             }
         }
 
-        return super.get(i);
+        return row[i];
     }
 
+    @Override
+    public void beforeFirst()
+    {
+        super.beforeFirst();
+        _batch.clear();
+        _newNames.clear();
+        _batchIndex = -1;
+    }
+
+    public static class TestCase extends Assert
+    {
+        private static final int ROWS = 2500;
+
+        private Container _folder;
+        private List<Container> _children;
+
+        @Before
+        public void setUp()
+        {
+            User user = TestContext.get().getUser();
+            Container existing = ContainerManager.getChild(JunitUtil.getTestContainer(), "NameExpressionDataIteratorTest");
+            if (existing != null)
+                ContainerManager.deleteAll(existing, user);
+
+            _folder = ContainerManager.createContainer(JunitUtil.getTestContainer(), "NameExpressionDataIteratorTest");
+            _children = new ArrayList<>();
+            for (int i = 0; i < 3; i++)
+                _children.add(ContainerManager.createContainer(_folder, "child" + i));
+        }
+
+        @After
+        public void tearDown()
+        {
+            if (_folder != null)
+                ContainerManager.deleteAll(_folder, TestContext.get().getUser());
+        }
+
+        // Rows name themselves after the folder they look up, across several read-ahead batches, with lookups that are
+        // missing, null or not needed because the row already has a name
+        @Test
+        public void testLookupsAcrossBatches() throws Exception
+        {
+            AbstractTableInfo table = new AbstractTableInfo(TestSchema.getInstance().getSchema(), "NameExpressionTest")
+            {
+                @Override
+                protected SQLFragment getFromSQL()
+                {
+                    return null;
+                }
+
+                @Override
+                public UserSchema getUserSchema()
+                {
+                    return null;
+                }
+            };
+            BaseColumnInfo folderCol = new BaseColumnInfo("Folder", table, JdbcType.VARCHAR);
+            folderCol.setFk(new LookupForeignKey("EntityId")
+            {
+                @Override
+                public TableInfo getLookupTableInfo()
+                {
+                    return CoreSchema.getInstance().getTableInfoContainers();
+                }
+            });
+            table.addColumn(folderCol);
+            table.addColumn(new BaseColumnInfo("Index", table, JdbcType.INTEGER));
+
+            String missing = GUID.makeGUID();
+            List<Map<String, Object>> rows = new ArrayList<>(ROWS);
+            List<String> expected = new ArrayList<>(ROWS);
+            for (int i = 1; i <= ROWS; i++)
+            {
+                Map<String, Object> row = new CaseInsensitiveHashMap<>();
+                row.put("Index", i);
+                row.put("nameExpression", i % 11 == 0 ? "plain-${Index}" : "${Folder/Name}-${Index}");
+                row.put("name", i % 7 == 0 ? "preset-" + i : i % 13 == 0 ? "" : null);
+
+                int lookup = i % 5;
+                row.put("Folder", lookup < _children.size() ? _children.get(lookup).getId() : lookup == 3 ? missing : null);
+
+                if (i % 7 == 0)
+                    expected.add("preset-" + i);
+                else if (i % 11 == 0)
+                    expected.add("plain-" + i);
+                else if (lookup < _children.size())
+                    expected.add("child" + lookup + "-" + i);
+                else
+                    expected.add("-" + i);
+
+                rows.add(row);
+            }
+
+            DataIteratorContext context = new DataIteratorContext();
+            DataIterator it = new NameExpressionDataIterator(new ListofMapsDataIterator(rows.get(0).keySet(), rows), context, table);
+            int nameIndex = DataIteratorUtil.createColumnNameMap(it).get("name");
+
+            List<Object> names = new ArrayList<>(ROWS);
+            while (it.next())
+                names.add(it.get(nameIndex));
+            it.close();
+
+            assertFalse(context.getErrors().getMessage(), context.getErrors().hasErrors());
+            assertEquals(expected, names);
+        }
+    }
 }
@@ -20,6 +20,7 @@ import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 import org.labkey.api.collections.CaseInsensitiveHashMap;
 import org.labkey.api.collections.SwapQueue;
@@ -30,26 +31,37 @@ import org.labkey.api.data.DbScope;
 import org.labkey.api.data.JdbcType;
 import org.labkey.api.data.Parameter;
 import org.labkey.api.data.Parameter.ParameterMap;
+import org.labkey.api.data.ParameterMapStatement;
 import org.labkey.api.data.RuntimeSQLException;
 import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.SqlExecutor;
 import org.labkey.api.data.SqlSelector;
 import org.labkey.api.data.Table;
+import org.labkey.api.data.TableInfo;
+import org.labkey.api.data.TestSchema;
 import org.labkey.api.data.dialect.SqlDialect;
 import org.labkey.api.exceptions.OptimisticConflictException;
 import org.labkey.api.exp.MvFieldWrapper;
 import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.QueryUpdateService;
+import org.labkey.api.query.ValidationException;
 import org.labkey.api.util.CPUTimer;
 import org.labkey.api.util.GUID;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.TestContext;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -85,6 +97,10 @@ public class StatementDataIterator extends AbstractDataIterator
     int _currentBatchSize = 0;
     int _currentTxSize = 0;
     int _txSize = -1;
+    boolean _useCopyIn = false;
+    CopyInBuffer _copyIn = null;
+    boolean _useMultiRowInsert = false;
+    MultiRowInsertBuffer _multiRowInsert = null;
     Logger _log = null;
     CPUTimer _elapsed = new CPUTimer("StatementDataIterator@" + System.identityHashCode(this) + ".elapsed");
     CPUTimer _execute = new CPUTimer("StatementDataIterator@" + System.identityHashCode(this) + ".execute()");
@@ -123,6 +139,28 @@ public class StatementDataIterator extends AbstractDataIterator
     }
 
 
+    /*
+     * Load batches with the dialect's bulk load (e.g. PostgreSQL COPY) instead of executing the statement, when the
+     * statement is a plain INSERT (see ParameterMap.getInsertTarget()) and nothing needs per-row results. Falls back to
+     * the batched statement for the remaining rows if a value comes along that can't be written in COPY format.
+     */
+    void setUseCopyIn(boolean useCopyIn)
+    {
+        _useCopyIn = useCopyIn;
+    }
+
+
+    /*
+     * When the generated RowId is returned, insert rows a batch at a time with multi-row INSERTs that reselect the keys,
+     * rather than executing the statement once per row. Requires a plain INSERT (see ParameterMap.getInsertTarget());
+     * ObjectIds come from exp.Object inserts in the same script, so those are still inserted one row at a time.
+     */
+    void setUseMultiRowInsert(boolean useMultiRowInsert)
+    {
+        _useMultiRowInsert = useMultiRowInsert;
+    }
+
+
     /*
      * EmbargoDataIterator and a StatementDataIterator can be paired such that the EmbargoDataIterator
      * does not 'release' rows until the statement that operates on that row (e.g. inserts it) has been
@@ -211,7 +249,24 @@ public class StatementDataIterator extends AbstractDataIterator
         if (contextTxSize != null && contextTxSize > 1)
             _txSize = contextTxSize;
 
-        if (_stmts.length > 1)
+        ParameterMapStatement.InsertTarget target = _stmts[0].getInsertTarget();
+        if (_useCopyIn && _batchSize > 1 && _txSize == -1 && null == _embargoDataIterator && null == _rowIdIndex && null == _objectIdIndex &&
+                null != target && null == target.getReselectColumn() && _stmts[0].getScope().getSqlDialect().supportsCopyIn())
+        {
+            TargetRowMapper mapper = TargetRowMapper.create(target, _bindings[0]);
+            if (null != mapper)
+                _copyIn = new CopyInBuffer(mapper);
+        }
+
+        if (_useMultiRowInsert && _txSize == -1 && null == _embargoDataIterator && null != _rowIdIndex && null == _objectIdIndex &&
+                null != target && null != target.getReselectColumn())
+        {
+            TargetRowMapper mapper = TargetRowMapper.create(target, _bindings[0]);
+            if (null != mapper)
+                _multiRowInsert = new MultiRowInsertBuffer(mapper);
+        }
+
+        if (_stmts.length > 1 && null == _copyIn)
         {
             _asyncThread = new Thread(new _Runnable(_stmts[1]), "StatementDataIterator executor");
             _asyncThread.start();
@@ -322,6 +377,9 @@ public class StatementDataIterator extends AbstractDataIterator
     {
         try
         {
+            if (null != _multiRowInsert)
+                return _nextMultiRow();
+
             boolean hasNextRow = _data.next();
 
             if (hasNextRow)
@@ -330,29 +388,41 @@ public class StatementDataIterator extends AbstractDataIterator
                 assert( n > _currentRowNumber);
                 _currentRowNumber = n;
 
-                log("<clear and set parameters on " + _currentStmt + ">");
-                _currentStmt.clearParameters();
-                for (Triple binding : _currentBinding)
+                if (null != _copyIn && !_copyIn.addRow(_currentRowNumber))
                 {
-                    Object value = binding.from.get();
-                    if (null == value)
-                        continue;
-                    if (value instanceof MvFieldWrapper)
-                    {
-                        if (null != binding.mv)
-                            binding.mv.setValue(((MvFieldWrapper) value).getMvIndicator());
-                        binding.to.setValue(((MvFieldWrapper) value).getValue());
-                    }
-                    else
+                    // Load what we have, then switch to the statement (the background thread was never started)
+                    if (_currentBatchSize > 0)
+                        processBatch(_currentBatchSize, _currentRowNumber);
+                    _copyIn = null;
+                    _useAsynchronousExecute = false;
+                }
+
+                if (null == _copyIn)
+                {
+                    log("<clear and set parameters on " + _currentStmt + ">");
+                    _currentStmt.clearParameters();
+                    for (Triple binding : _currentBinding)
                     {
-                        binding.to.setValue(value);
+                        Object value = binding.from.get();
+                        if (null == value)
+                            continue;
+                        if (value instanceof MvFieldWrapper)
+                        {
+                            if (null != binding.mv)
+                                binding.mv.setValue(((MvFieldWrapper) value).getMvIndicator());
+                            binding.to.setValue(((MvFieldWrapper) value).getValue());
+                        }
+                        else
+                        {
+                            binding.to.setValue(value);
+                        }
                     }
+                    log("</clear and set parameters on " + _currentStmt + ">");
                 }
-                log("</clear and set parameters on " + _currentStmt + ">");
 
                 checkShouldCancel();
 
-                if (_batchSize > 1)
+                if (_batchSize > 1 && null == _copyIn)
                     _currentStmt.addBatch();
                 _currentBatchSize++;
                 _currentTxSize++;
@@ -392,7 +462,7 @@ public class StatementDataIterator extends AbstractDataIterator
                 x = x.getNextException();
             if (StringUtils.startsWith(x.getSQLState(), "22") || RuntimeSQLException.isConstraintException(x))
             {
-                getRowError().addGlobalError(x);
+                getFailedRowError().addGlobalError(x);
 //              see bug21719
 //              Sometimes (always?) Postgres leaves the connection unusable after a constraint exception, so we can't continue even if we want to
                 throw _errors;
@@ -408,11 +478,61 @@ public class StatementDataIterator extends AbstractDataIterator
         }
     }
 
+    // COPY loads a whole batch at once, so report an error against the row the database complained about, if it said
+    private ValidationException getFailedRowError()
+    {
+        Integer rowNumber = null == _copyIn ? null : _copyIn.getFailedRowNumber();
+        if (null == rowNumber)
+            return getRowError();
+
+        ValidationException rowError = new ValidationException();
+        rowError.setRowNumber(rowNumber);
+        _errors.addRowError(rowError);
+        return rowError;
+    }
+
+    // Hands back the next buffered row, after reading ahead and inserting another batch if needed
+    private boolean _nextMultiRow() throws SQLException, BatchValidationException
+    {
+        if (!_multiRowInsert.next())
+        {
+            while (!_multiRowInsert.isFull() && _data.next())
+            {
+                int n = (Integer)_data.get(0);
+                assert( n > _currentRowNumber);
+                _currentRowNumber = n;
+                _multiRowInsert.addRow(_data);
+                checkShouldCancel();
+            }
+
+            int count = _multiRowInsert.insert(_currentStmt);
+            if (0 == count)
+            {
+                if (_errors.getExtraContext() != null)
+                    _errors.getExtraContext().put("hasNextRow", false);
+                return false;
+            }
+            afterExecute(_currentStmt, count, _currentRowNumber);
+
+            _multiRowInsert.next();
+        }
+
+        _keyValues.set(_rowIdIndex, _multiRowInsert.getKey());
+        return true;
+    }
+
     private void processBatch(int batchSize, int rowNumber) throws SQLException, BatchValidationException
     {
         assert _execute.start();
 
-        if (_batchSize == 1)
+        if (null != _copyIn)
+        {
+            log("<copyIn() on " + _currentStmt + ">");
+            _copyIn.load(_currentStmt);
+            afterExecute(_currentStmt, batchSize, rowNumber);
+            log("</copyIn() on " + _currentStmt + ">");
+        }
+        else if (_batchSize == 1)
         {
             assert batchSize == 1;
             /* use .execute() for handling keys */
@@ -492,6 +612,8 @@ public class StatementDataIterator extends AbstractDataIterator
     {
         if (null != _keyColumnInfo.get(i))
             return _keyValues.get(i);
+        if (null != _multiRowInsert && _multiRowInsert.hasCurrent())
+            return _multiRowInsert.get(i);
         return _data.get(i);
     }
 
@@ -524,6 +646,318 @@ public class StatementDataIterator extends AbstractDataIterator
     }
 
 
+    /**
+     * Maps the current row of the source onto the columns of a plain INSERT, taking each column's value from the source
+     * bound to its parameter (or from the constant the INSERT would have used).
+     */
+    static class TargetRowMapper
+    {
+        private final ParameterMapStatement.InsertTarget _target;
+        private final Triple[] _bindings;
+        private final int[] _toColumn;      // index into the target's columns for each binding's parameter
+        private final int[] _mvColumn;      // ... and for its MV indicator parameter, or -1
+        private final JdbcType[] _types;
+
+        private TargetRowMapper(ParameterMapStatement.InsertTarget target, Triple[] bindings, int[] toColumn, int[] mvColumn)
+        {
+            _target = target;
+            _bindings = bindings;
+            _toColumn = toColumn;
+            _mvColumn = mvColumn;
+            _types = new JdbcType[target.getSources().size()];
+
+            for (int i = 0; i < _types.length; i++)
+            {
+                Object source = target.getSources().get(i);
+                _types[i] = source instanceof Parameter ? ((Parameter) source).getType() : null;
+            }
+        }
+
+        /** Returns null if some bound parameter isn't one of the target's columns */
+        static @Nullable TargetRowMapper create(@Nullable ParameterMapStatement.InsertTarget target, Triple[] bindings)
+        {
+            if (null == target)
+                return null;
+
+            IdentityHashMap<Object, Integer> columns = new IdentityHashMap<>();
+            for (int i = 0; i < target.getSources().size(); i++)
+            {
+                Object source = target.getSources().get(i);
+                if (source instanceof Parameter)
+                    columns.put(source, i);
+            }
+
+            int[] toColumn = new int[bindings.length];
+            int[] mvColumn = new int[bindings.length];
+            for (int i = 0; i < bindings.length; i++)
+            {
+                Integer to = columns.get(bindings[i].to);
+                Integer mv = null == bindings[i].mv ? Integer.valueOf(-1) : columns.get(bindings[i].mv);
+                if (null == to || null == mv)
+                    return null;
+                toColumn[i] = to;
+                mvColumn[i] = mv;
+            }
+
+            return new TargetRowMapper(target, bindings, toColumn, mvColumn);
+        }
+
+        int getColumnCount()
+        {
+            return _types.length;
+        }
+
+        @Nullable JdbcType getType(int column)
+        {
+            return _types[column];
+        }
+
+        /** Fills row with the current value of every target column, as it would be passed to Parameter.setValue() */
+        void getRow(Object[] row)
+        {
+            for (int i = 0; i < row.length; i++)
+            {
+                Object source = _target.getSources().get(i);
+                row[i] = source instanceof Parameter ? null : source;
+            }
+
+            for (int i = 0; i < _bindings.length; i++)
+            {
+                Object value = _bindings[i].from.get();
+                if (value instanceof MvFieldWrapper)
+                {
+                    if (-1 != _mvColumn[i])
+                        row[_mvColumn[i]] = ((MvFieldWrapper) value).getMvIndicator();
+                    value = ((MvFieldWrapper) value).getValue();
+                }
+                row[_toColumn[i]] = value;
+            }
+        }
+    }
+
+
+    /** Accumulates a batch of rows in COPY text format, remembering which source row each line came from */
+    static class CopyInBuffer
+    {
+        private final TargetRowMapper _mapper;
+        private final Object[] _row;
+        private final StringBuilder _line = new StringBuilder();
+        private final StringBuilder _data = new StringBuilder();
+        private final List<Integer> _rowNumbers = new ArrayList<>();
+        private Integer _failedRowNumber = null;
+
+        CopyInBuffer(TargetRowMapper mapper)
+        {
+            _mapper = mapper;
+            _row = new Object[mapper.getColumnCount()];
+        }
+
+        /** Returns false, leaving the batch unchanged, if the current row has a value that can't be written */
+        boolean addRow(int rowNumber) throws SQLException
+        {
+            _mapper.getRow(_row);
+
+            _line.setLength(0);
+            for (int i = 0; i < _row.length; i++)
+            {
+                if (i > 0)
+                    _line.append('\t');
+                if (!appendCopyValue(_line, Parameter.getValueToBind(_row[i], _mapper.getType(i)), _mapper.getType(i)))
+                    return false;
+            }
+            _data.append(_line).append('\n');
+            _rowNumbers.add(rowNumber);
+            return true;
+        }
+
+        void load(ParameterMap stmt) throws SQLException
+        {
+            try
+            {
+                stmt.copyIn(new StringReader(_data.toString()));
+            }
+            catch (SQLException x)
+            {
+                Integer line = stmt.getScope().getSqlDialect().getCopyInErrorLine(x);
+                if (null != line && line >= 1 && line <= _rowNumbers.size())
+                    _failedRowNumber = _rowNumbers.get(line - 1);
+                throw x;
+            }
+            finally
+            {
+                _data.setLength(0);
+                _rowNumbers.clear();
+            }
+        }
+
+        /** The source row number of the line that made the last load() fail, if the dialect could tell */
+        @Nullable Integer getFailedRowNumber()
+        {
+            return _failedRowNumber;
+        }
+    }
+
+
+    /**
+     * Reads ahead a batch of source rows, inserts them with one multi-row INSERT that returns their generated keys, and
+     * then hands the rows back one at a time, each with its key. Every column of a buffered row is copied, since the
+     * source has moved on by the time the row is returned.
+     */
+    static class MultiRowInsertBuffer
+    {
+        private final TargetRowMapper _mapper;
+        private final int _maxRows;
+        private final List<Object[]> _values = new ArrayList<>();
+        private final List<Object[]> _sourceRows = new ArrayList<>();
+        private List<Integer> _keys = Collections.emptyList();
+        private int _current = -1;
+
+        MultiRowInsertBuffer(TargetRowMapper mapper)
+        {
+            _mapper = mapper;
+            // Stay well under the bind parameter limits (SQL Server allows 2100 per statement and 1000 rows per VALUES)
+            _maxRows = Math.max(1, Math.min(1000, 2000 / Math.max(1, mapper.getColumnCount())));
+        }
+
+        boolean isFull()
+        {
+            return _values.size() >= _maxRows;
+        }
+
+        /** Buffers the source's current row */
+        void addRow(DataIterator data)
+        {
+            Object[] values = new Object[_mapper.getColumnCount()];
+            _mapper.getRow(values);
+            _values.add(values);
+
+            Object[] sourceRow = new Object[data.getColumnCount() + 1];
+            for (int i = 0; i < sourceRow.length; i++)
+                sourceRow[i] = data.get(i);
+            _sourceRows.add(sourceRow);
+        }
+
+        /** Inserts the buffered rows, returning how many there were */
+        int insert(ParameterMap stmt) throws SQLException
+        {
+            int count = _values.size();
+            _current = -1;
+            if (0 == count)
+                return 0;
+
+            List<Integer> keys = stmt.insertRows(_values);
+            _keys = null == keys ? Collections.emptyList() : keys;
+            _values.clear();
+            return count;
+        }
+
+        /** Moves to the next inserted row; returns false once they've all been handed back */
+        boolean next()
+        {
+            if (_current + 1 >= _sourceRows.size())
+            {
+                _sourceRows.clear();
+                _current = -1;
+                return false;
+            }
+            _current++;
+            return true;
+        }
+
+        boolean hasCurrent()
+        {
+            return -1 != _current;
+        }
+
+        Object get(int i)
+        {
+            return _sourceRows.get(_current)[i];
+        }
+
+        /** insertRows() matches the keys to rows by position, so the key list is in row order */
+        @Nullable Integer getKey()
+        {
+            return _current < _keys.size() ? _keys.get(_current) : null;
+        }
+    }
+
+
+    /**
+     * Appends a value (as returned by Parameter.getValueToBind()) in PostgreSQL's COPY text format. Returns false for
+     * values that wouldn't be converted the same way the JDBC driver converts them when binding the INSERT's parameters,
+     * e.g., files, arrays, binary data, or a Boolean bound to an integer column.
+     */
+    static boolean appendCopyValue(StringBuilder sb, @Nullable Object value, @Nullable JdbcType type)
+    {
+        if (null == value)
+        {
+            sb.append("\\N");
+            return true;
+        }
+
+        boolean binary = type == JdbcType.BINARY || type == JdbcType.VARBINARY || type == JdbcType.LONGVARBINARY || type == JdbcType.OTHER;
+        boolean text = null != type && type.isText() && !binary;
+        String s = null;
+
+        if (value instanceof String)
+        {
+            if (!binary)
+                s = (String) value;
+        }
+        else if (null == type)
+        {
+            // Untyped parameters are left to the driver
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+        {
+            if (type.isNumeric() || text)
+                s = value.toString();
+        }
+        else if (value instanceof Number)
+        {
+            if (type.isReal() || text)
+                s = value.toString();
+        }
+        else if (value instanceof Boolean)
+        {
+            if (type == JdbcType.BOOLEAN)
+                s = value.toString();
+        }
+        else if (value instanceof java.sql.Time)
+        {
+            if (type == JdbcType.TIME)
+                s = value.toString();
+        }
+        else if (value instanceof java.sql.Timestamp || value instanceof java.sql.Date)
+        {
+            if (type == JdbcType.TIMESTAMP || type == JdbcType.DATE)
+                s = value.toString();
+        }
+        else if (value instanceof GUID)
+        {
+            if (text)
+                s = value.toString();
+        }
+
+        if (null == s)
+            return false;
+
+        for (int i = 0; i < s.length(); i++)
+        {
+            char ch = s.charAt(i);
+            switch (ch)
+            {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(ch);
+            }
+        }
+        return true;
+    }
+
+
     class _Runnable implements Runnable
     {
         private final ParameterMap _firstEmpty;
@@ -763,6 +1197,213 @@ public class StatementDataIterator extends AbstractDataIterator
             }
             assertEquals(count, generator.totalRows);
         }
+
+        @Test
+        public void testMultiRowInsert() throws BatchValidationException
+        {
+            DataIteratorContext context = new DataIteratorContext();
+            NoopParameterMap pm = new NoopParameterMap(new AtomicInteger(-1))
+            {
+                int nextKey = 100;
+
+                @Override
+                public List<Integer> insertRows(List<Object[]> rows)
+                {
+                    List<Integer> keys = new ArrayList<>(rows.size());
+                    for (Object[] row : rows)
+                    {
+                        assertEquals(1, row[0]);
+                        keys.add(nextKey++);
+                    }
+                    return keys;
+                }
+            };
+            BaseColumnInfo rowId = new BaseColumnInfo("RowId", JdbcType.INTEGER);
+            pm.setInsertTarget(new ParameterMapStatement.InsertTarget("t", List.of("I"), List.of(pm.getParameter("I")), rowId));
+
+            // More rows than fit in one multi-row INSERT
+            StatementDataIterator sdi = new StatementDataIterator(new DummyDataIterator(context, 2500), context, pm);
+            sdi.setRowIdColumn(-1, rowId);
+            sdi.setUseMultiRowInsert(true);
+
+            int count = 0;
+            while (sdi.next())
+            {
+                assertEquals(count, sdi.get(0));
+                assertEquals(100 + count, sdi.get(2));
+                count++;
+            }
+            assertEquals(2500, count);
+        }
+
+        @Test
+        public void testCopyValues()
+        {
+            assertEquals("\\N", copyValue(null, JdbcType.INTEGER));
+            assertEquals("42", copyValue(42, JdbcType.INTEGER));
+            assertEquals("42", copyValue(42L, JdbcType.VARCHAR));
+            assertEquals("1.5", copyValue(1.5, JdbcType.DOUBLE));
+            assertEquals("true", copyValue(Boolean.TRUE, JdbcType.BOOLEAN));
+            assertEquals("2019-03-04 05:06:07.0", copyValue(java.sql.Timestamp.valueOf("2019-03-04 05:06:07"), JdbcType.TIMESTAMP));
+            assertEquals("a\\\\b\\tc\\nd\\re", copyValue("a\\b\tc\nd\re", JdbcType.VARCHAR));
+
+            // Not converted the way the driver would, so these rows go through the statement instead
+            assertNull(copyValue(1.5, JdbcType.INTEGER));
+            assertNull(copyValue(Boolean.TRUE, JdbcType.INTEGER));
+            assertNull(copyValue(java.sql.Time.valueOf("05:06:07"), JdbcType.TIMESTAMP));
+            assertNull(copyValue("abc", JdbcType.LONGVARBINARY));
+            assertNull(copyValue(new Object(), JdbcType.VARCHAR));
+            assertNull(copyValue(42, null));
+        }
+
+        private String copyValue(Object value, JdbcType type)
+        {
+            StringBuilder sb = new StringBuilder();
+            return appendCopyValue(sb, value, type) ? sb.toString() : null;
+        }
+
+        @Test
+        public void testCopyInTableInsert()
+        {
+            TableInfo table = TestSchema.getInstance().getTableInfoTestTable();
+            Assume.assumeTrue("COPY is not supported by " + table.getSqlDialect().getProductName(), table.getSqlDialect().supportsCopyIn());
+            String prefix = GUID.makeHash();
+
+            try
+            {
+                // Text that needs escaping in COPY format (including a literal \N) and null values
+                String[] text = {"tab\there", "line\nbreak\r\nend", "back\\slash", "\\N", "quotes '\" and \u00b5"};
+                List<Map<String, Object>> rows = new ArrayList<>();
+                for (int i = 0; i < text.length; i++)
+                    rows.add(testRow(prefix + text[i], i, null));
+
+                DataIteratorContext context = new DataIteratorContext();
+                TableInsertDataIterator insert = insert(table, rows, context);
+                assertFalse(context.getErrors().hasErrors());
+                assertNotNull("Expected rows to be loaded with COPY", insert._copyIn);
+
+                Map<String, Object>[] inserted = selectRows(table, prefix);
+                assertEquals(text.length, inserted.length);
+                for (int i = 0; i < text.length; i++)
+                {
+                    assertEquals(prefix + text[i], inserted[i].get("Text"));
+                    assertNull(inserted[i].get("IntNull"));
+                    assertNull(inserted[i].get("RealNull"));
+                    assertNull(inserted[i].get("BitNull"));
+                }
+
+                // A Boolean bound to an integer column isn't written to COPY the way the driver binds it, so the rows
+                // before it are copied and the rest go through the statement
+                String fallback = prefix + "fallback";
+                rows = new ArrayList<>();
+                for (int i = 0; i < 5; i++)
+                    rows.add(testRow(fallback + i, 10 + i, 2 == i ? Boolean.TRUE : i));
+
+                context = new DataIteratorContext();
+                insert = insert(table, rows, context);
+                assertFalse(context.getErrors().hasErrors());
+                assertNull("Expected a fallback to the statement", insert._copyIn);
+
+                inserted = selectRows(table, fallback);
+                assertEquals(5, inserted.length);
+                for (int i = 0; i < 5; i++)
+                {
+                    assertEquals(fallback + i, inserted[i].get("Text"));
+                    assertEquals(2 == i ? 1 : i, ((Number) inserted[i].get("IntNull")).intValue());
+                }
+
+                // The error is reported against the row that's too long for the Text column, not the last row of the batch
+                String error = prefix + "error";
+                rows = new ArrayList<>();
+                for (int i = 0; i < 5; i++)
+                    rows.add(testRow(3 == i ? error + StringUtils.repeat('x', 200) : error + i, 20 + i, null));
+
+                context = new DataIteratorContext();
+                insert(table, rows, context);
+                assertTrue(context.getErrors().hasErrors());
+                assertEquals(1, context.getErrors().getRowErrors().size());
+                assertEquals(4, context.getErrors().getRowErrors().get(0).getRowNumber());
+                assertEquals(0, selectRows(table, error).length);
+            }
+            finally
+            {
+                new SqlExecutor(table.getSchema()).execute("DELETE FROM test.testtable WHERE Text LIKE ?", prefix + "%");
+            }
+        }
+
+        @Test
+        public void testMultiRowInsertTable() throws BatchValidationException
+        {
+            TableInfo table = TestSchema.getInstance().getTableInfoTestTable();
+            Assume.assumeTrue("Multi-row reselect is not supported by " + table.getSqlDialect().getProductName(),
+                    table.getSqlDialect().supportsMultiRowReselect(table.getColumn("RowId")));
+            String prefix = GUID.makeHash();
+
+            try
+            {
+                // Enough rows for several multi-row INSERTs, each row identified by its IntNotNull
+                int rowCount = 500;
+                List<Map<String, Object>> rows = new ArrayList<>();
+                for (int i = 0; i < rowCount; i++)
+                    rows.add(testRow(prefix + i, i, null));
+
+                DataIteratorContext context = new DataIteratorContext();
+                context.setInsertOption(QueryUpdateService.InsertOption.INSERT);
+                context.setSelectIds(true);
+                SimpleTranslator translate = new SimpleTranslator(new ListofMapsDataIterator(rows.get(0).keySet(), rows), context);
+                translate.selectAll();
+                translate.addBuiltInColumns(context, JunitUtil.getTestContainer(), TestContext.get().getUser(), table, false);
+                TableInsertDataIterator insert = TableInsertDataIterator.create(translate, table, context);
+
+                Map<String, Integer> columns = DataIteratorUtil.createColumnNameMap(insert);
+                Map<Integer, Integer> reselected = new HashMap<>();
+                while (insert.next())
+                    reselected.put(((Number) insert.get(columns.get("RowId"))).intValue(), ((Number) insert.get(columns.get("IntNotNull"))).intValue());
+                assertFalse(context.getErrors().hasErrors());
+                assertNotNull("Expected rows to be inserted with multi-row INSERTs", insert._multiRowInsert);
+                assertEquals(rowCount, reselected.size());
+
+                // Each reselected RowId belongs to the row it was returned for
+                Map<Integer, Integer> stored = new HashMap<>();
+                new SqlSelector(table.getSchema(), "SELECT RowId, IntNotNull FROM test.testtable WHERE Text LIKE ?", prefix + "%")
+                        .forEach(rs -> stored.put(rs.getInt(1), rs.getInt(2)));
+                assertEquals(stored, reselected);
+            }
+            finally
+            {
+                new SqlExecutor(table.getSchema()).execute("DELETE FROM test.testtable WHERE Text LIKE ?", prefix + "%");
+            }
+        }
+
+        private Map<String, Object> testRow(String text, int intNotNull, @Nullable Object intNull)
+        {
+            Map<String, Object> row = new CaseInsensitiveHashMap<>();
+            row.put("Text", text);
+            row.put("IntNotNull", intNotNull);
+            row.put("IntNull", intNull);
+            row.put("RealNull", null);
+            row.put("BitNull", null);
+            row.put("BitNotNull", true);
+            row.put("DatetimeNotNull", new Date());
+            return row;
+        }
+
+        private TableInsertDataIterator insert(TableInfo table, List<Map<String, Object>> rows, DataIteratorContext context)
+        {
+            context.setInsertOption(QueryUpdateService.InsertOption.IMPORT);
+            SimpleTranslator translate = new SimpleTranslator(new ListofMapsDataIterator(rows.get(0).keySet(), rows), context);
+            translate.selectAll();
+            translate.addBuiltInColumns(context, JunitUtil.getTestContainer(), TestContext.get().getUser(), table, false);
+
+            TableInsertDataIterator insert = TableInsertDataIterator.create(translate, table, context);
+            new Pump(insert, context).run();
+            return insert;
+        }
+
+        private Map<String, Object>[] selectRows(TableInfo table, String prefix)
+        {
+            return new SqlSelector(table.getSchema(), "SELECT Text, IntNull, RealNull, BitNull FROM test.testtable WHERE Text LIKE ? ORDER BY IntNotNull", prefix + "%").getMapArray();
+        }
     }
 
     static class DummyDataIterator extends AbstractDataIterator
@@ -262,11 +262,15 @@ public class TableInsertDataIterator extends StatementDataIterator implements Da
             {
                 _stmts = new Parameter.ParameterMap[]{stmt, stmt.copy()};
                 setUseAsynchronousExecute(true);
+                // Plain INSERTs (no merge, no reselected ids, no ad hoc properties) may be bulk loaded instead, see StatementUtils
+                setUseCopyIn(!_selectIds && null != stmt.getInsertTarget());
             }
             else
             {
                 _stmts = new Parameter.ParameterMap[]{stmt};
                 setUseAsynchronousExecute(false);
+                // Reselected RowIds can still be inserted a batch at a time, if the INSERT is a plain one
+                setUseMultiRowInsert(null != _rowIdIndex && null != stmt.getInsertTarget());
             }
 
             super.init();
@@ -21,6 +21,9 @@ import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.query.ValidationException;
 import org.labkey.api.security.User;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -30,6 +33,9 @@ import java.util.Map;
  */
 public class TriggerDataBuilderHelper
 {
+    /** Rows read ahead when a trigger asks for batches, see TableInfo.fireRowTriggers() */
+    static final int BATCH_SIZE = 1000;
+
     final Container _c;
     final TableInfo _target;
     private final User _user;
@@ -87,6 +93,7 @@ public class TriggerDataBuilderHelper
         final BatchValidationException _errors;
         boolean _firstRow = true;
         Map<String,Object> _currentRow = null;
+        RowBatch _batch = null;
 
         BeforeIterator(DataIterator di, DataIteratorContext context)
         {
@@ -123,8 +130,14 @@ public class TriggerDataBuilderHelper
                 _target.fireBatchTrigger(_c, _user, TableInfo.TriggerType.INSERT, true, getErrors(), _extraContext);
                 firedInit = true;
                 _firstRow = false;
+                // Ask after init(), since a script's functions aren't known until it has been evaluated
+                if (_target.canBatchTriggers(_c, TableInfo.TriggerType.INSERT, true))
+                    _batch = new RowBatch();
             }
 
+            if (null != _batch)
+                return nextBatched();
+
             while (getInput().next())
             {
                 int rowNumber = (Integer)getInput().get(0);
@@ -145,6 +158,29 @@ public class TriggerDataBuilderHelper
         }
 
 
+        private boolean nextBatched() throws BatchValidationException
+        {
+            while (true)
+            {
+                if (!_batch.next())
+                {
+                    if (!_batch.read(getInput(), false))
+                        return false;
+                    _batch.setErrors(_target.fireRowTriggers(_c, _user, TableInfo.TriggerType.INSERT, true, _batch.getRowNumbers(), _batch.getRows(), null, _extraContext));
+                    _batch.next();
+                }
+
+                _currentRow = _batch.getRow();
+                ValidationException vex = _batch.getRowErrors();
+                if (null == vex)
+                    return true;
+
+                getErrors().addRowError(vex.fillIn(_target.getPublicSchemaName(), _target.getName(), _currentRow, _batch.getRowNumber()));
+                _context.checkShouldCancel();
+            }
+        }
+
+
         @Override
         public Object get(int i)
         {
@@ -152,6 +188,8 @@ public class TriggerDataBuilderHelper
             String name = getColumnInfo(i).getName();
             if (_currentRow.containsKey(name))
                 return _currentRow.get(name);
+            if (null != _batch)
+                return _batch.get(i);
             return super.get(i);
         }
     }
@@ -182,6 +220,9 @@ public class TriggerDataBuilderHelper
         final DataIteratorContext _context;
         final BatchValidationException _errors;
 
+        boolean _firstRow = true;
+        RowBatch _batch = null;
+
         AfterIterator(DataIterator di, DataIteratorContext context)
         {
             super(DataIteratorUtil.wrapMap(di,true));
@@ -205,9 +246,28 @@ public class TriggerDataBuilderHelper
             boolean hasNext = false;
             try
             {
+                if (null != _batch)
+                {
+                    hasNext = nextBatched(false);
+                    return hasNext;
+                }
+
                 hasNext = getInput().next();
                 if (hasNext)
                 {
+                    if (_firstRow)
+                    {
+                        // Reading the first row pulled it through BeforeIterator, which fires init(), so only now
+                        // do we know whether the triggers want batches
+                        _firstRow = false;
+                        if (_target.canBatchTriggers(_c, TableInfo.TriggerType.INSERT, false))
+                        {
+                            _batch = new RowBatch();
+                            hasNext = nextBatched(true);
+                            return hasNext;
+                        }
+                    }
+
                     int rowNumber = (Integer)getInput().get(0);
                     Map<String,Object> newRow = getInput().getMap();
                     try
@@ -227,5 +287,117 @@ public class TriggerDataBuilderHelper
                     _target.fireBatchTrigger(_c, _user, TableInfo.TriggerType.INSERT, false, getErrors(), _extraContext);
             }
         }
+
+        private boolean nextBatched(boolean includeCurrent) throws BatchValidationException
+        {
+            if (!includeCurrent && _batch.next())
+                return true;
+
+            if (!_batch.read(getInput(), includeCurrent))
+                return false;
+
+            List<ValidationException> errors = _target.fireRowTriggers(_c, _user, TableInfo.TriggerType.INSERT, false, _batch.getRowNumbers(), _batch.getRows(), null, _extraContext);
+            for (int i = 0; i < errors.size(); i++)
+            {
+                ValidationException vex = errors.get(i);
+                if (null != vex)
+                    getErrors().addRowError(vex.fillIn(_target.getPublicSchemaName(), _target.getName(), _batch.getRows().get(i), _batch.getRowNumbers().get(i)));
+            }
+
+            return _batch.next();
+        }
+
+        @Override
+        public Object get(int i)
+        {
+            if (null != _batch)
+                return _batch.get(i);
+            return super.get(i);
+        }
+
+        @Override
+        public boolean isScrollable()
+        {
+            return null == _batch && super.isScrollable();
+        }
+    }
+
+
+    /** Rows read ahead from a MapDataIterator, so that their row triggers can be fired together */
+    private static class RowBatch
+    {
+        private final List<Integer> _rowNumbers = new ArrayList<>(BATCH_SIZE);
+        private final List<Map<String, Object>> _rows = new ArrayList<>(BATCH_SIZE);
+        private final List<Object[]> _values = new ArrayList<>(BATCH_SIZE);
+        private List<ValidationException> _errors = Collections.emptyList();
+        private int _index = -1;
+
+        /**
+         * Reads up to BATCH_SIZE rows, starting with the input's current row if includeCurrent, and positions the batch
+         * before its first row. Returns false if there were no rows left.
+         */
+        boolean read(MapDataIterator input, boolean includeCurrent) throws BatchValidationException
+        {
+            _rowNumbers.clear();
+            _rows.clear();
+            _values.clear();
+            _errors = Collections.emptyList();
+            _index = -1;
+
+            while (_rows.size() < BATCH_SIZE && (includeCurrent || input.next()))
+            {
+                includeCurrent = false;
+                Object[] values = new Object[input.getColumnCount() + 1];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = input.get(i);
+                _rowNumbers.add((Integer)values[0]);
+                _rows.add(input.getMap());
+                _values.add(values);
+            }
+
+            return !_rows.isEmpty();
+        }
+
+        boolean next()
+        {
+            if (_index < _rows.size())
+                _index++;
+            return _index < _rows.size();
+        }
+
+        List<Integer> getRowNumbers()
+        {
+            return _rowNumbers;
+        }
+
+        List<Map<String, Object>> getRows()
+        {
+            return _rows;
+        }
+
+        void setErrors(List<ValidationException> errors)
+        {
+            _errors = errors;
+        }
+
+        int getRowNumber()
+        {
+            return _rowNumbers.get(_index);
+        }
+
+        Map<String, Object> getRow()
+        {
+            return _rows.get(_index);
+        }
+
+        Object get(int i)
+        {
+            return _values.get(_index)[i];
+        }
+
+        ValidationException getRowErrors()
+        {
+            return _errors.isEmpty() ? null : _errors.get(_index);
+        }
     }
 }
@@ -53,4 +53,13 @@ public interface FileSystemDirectoryListener
      * Indicates that events might have been lost or discarded. The method is always invoked when overflow occurs (regardless of registration).
      */
     void overflow();
+
+    /**
+     * The directory is no longer being watched, usually because it was deleted or moved, so no further events will be
+     * delivered for it. Listeners that still care about the directory must register again.
+     * @param directory
+     */
+    default void directoryInvalidated(Path directory)
+    {
+    }
 }
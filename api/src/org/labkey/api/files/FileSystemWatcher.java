@@ -29,4 +29,14 @@ public interface FileSystemWatcher
     @SuppressWarnings("unchecked")
     void addListener(Path directory, FileSystemDirectoryListener listener, Kind<Path>... events) throws IOException;
     void removeListener(Path directory, FileSystemDirectoryListener listener);
+
+    /**
+     * Returns true if changes to this directory would be found by periodically re-listing it (e.g., on network file
+     * systems, which don't support native notification), rather than by the operating system notifying us. Polling is
+     * much more expensive, so callers watching many directories may prefer not to.
+     */
+    default boolean usesPolling(Path directory) throws IOException
+    {
+        return false;
+    }
 }
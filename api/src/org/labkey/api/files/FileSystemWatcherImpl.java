@@ -89,36 +89,48 @@ public class FileSystemWatcherImpl implements FileSystemWatcher
     @SafeVarargs
     public final void addListener(Path directory, FileSystemDirectoryListener listener, Kind<Path>... events) throws IOException
     {
-        // Associate a new PathListenerManager with this directory, if one doesn't already exist
-        PathListenerManager plm = new PathListenerManager();
-        PathListenerManager previous = _listenerMap.putIfAbsent(directory, plm);     // Atomic operation
-        String fileStoreType = Files.getFileStore(directory).type();
-        if (null != fileStoreType)
-            fileStoreType = fileStoreType.toLowerCase();
+        String fileStoreType = getFileStoreType(directory);
 
-        // Register directory with the WatchService, if it's new
-        if (null == previous)
+        while (true)
         {
-            // ensure we catch variations such as both nfs and nfs4
-            if (null != fileStoreType && ( fileStoreType.startsWith("cifs") || fileStoreType.startsWith("smbfs") || fileStoreType.startsWith("nfs") ))
+            // Associate a new PathListenerManager with this directory, if one doesn't already exist
+            PathListenerManager plm = new PathListenerManager();
+            PathListenerManager previous = _listenerMap.putIfAbsent(directory, plm);     // Atomic operation
+
+            // Register directory with the WatchService, if it's new
+            if (null == previous)
             {
-                LOG.debug("Detected network file system type '" + fileStoreType + "'. Create polling file watcher service and register this directory there for directory: " + directory.toAbsolutePath().toString());
-                _pollingWatcher.register(directory, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                try
+                {
+                    if (isNetworkFileStore(fileStoreType))
+                    {
+                        LOG.debug("Detected network file system type '" + fileStoreType + "'. Create polling file watcher service and register this directory there for directory: " + directory.toAbsolutePath().toString());
+                        _pollingWatcher.register(directory, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    }
+                    else
+                    {
+                        LOG.debug("Detected local file system type '" + fileStoreType + "'. Register path with standard watcher service for directory: " + directory.toAbsolutePath().toString());
+                        plm.setWatchKey(directory.register(_watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));  // Register all events (future listener might request events that current listener doesn't)
+                    }
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    // Don't leave behind a manager that looks registered but isn't
+                    _listenerMap.remove(directory, plm);
+                    throw e;
+                }
             }
             else
             {
-                LOG.debug("Detected local file system type '" + fileStoreType + "'. Register path with standard watcher service for directory: " + directory.toAbsolutePath().toString());
-                directory.register(_watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);  // Register all events (future listener might request events that current listener doesn't)
+                LOG.debug("Detected previously registered file watcher service for file system of type '" + fileStoreType + "'. for directory: " + directory.toAbsolutePath().toString());
+                plm = previous;
             }
-        }
-        else
-        {
-            LOG.debug("Detected previously registered file watcher service for file system of type '" + fileStoreType + "'. for directory: " + directory.toAbsolutePath().toString());
-            plm = previous;
-        }
 
-        // Add the listener and its requested events
-        plm.addListener(listener, events);
+            // Add the listener and its requested events. This fails only if the manager's last listener was just
+            // removed, in which case it's on its way out of the map and we start over.
+            if (plm.addListener(listener, events))
+                break;
+        }
 
         LOG.debug("Registered a file listener on " + directory.toString());
     }
@@ -128,11 +140,34 @@ public class FileSystemWatcherImpl implements FileSystemWatcher
         PathListenerManager plm = _listenerMap.get(directory);
         if (plm != null)
         {
-            plm.removeListener(listener);
+            if (plm.removeListener(listener))
+            {
+                // That was the last listener, so stop watching the directory and release the OS watch
+                _listenerMap.remove(directory, plm);
+                plm.cancel();
+            }
             LOG.debug("Removed a file listener on " + directory.toString());
         }
     }
 
+    @Override
+    public boolean usesPolling(Path directory) throws IOException
+    {
+        return isNetworkFileStore(getFileStoreType(directory));
+    }
+
+    private static String getFileStoreType(Path directory) throws IOException
+    {
+        String fileStoreType = Files.getFileStore(directory).type();
+        return null != fileStoreType ? fileStoreType.toLowerCase() : null;
+    }
+
+    // ensure we catch variations such as both nfs and nfs4
+    private static boolean isNetworkFileStore(String fileStoreType)
+    {
+        return null != fileStoreType && (fileStoreType.startsWith("cifs") || fileStoreType.startsWith("smbfs") || fileStoreType.startsWith("nfs"));
+    }
+
 
     // Not a daemon thread because listeners could be performing I/O and other tasks that are dangerous to interrupt.
     private class FileSystemWatcherThread extends Thread implements ShutdownListener
@@ -180,9 +215,17 @@ public class FileSystemWatcherImpl implements FileSystemWatcher
                     finally
                     {
                         // Always reset the watchKey, even if a listener throws, otherwise we'll never see another event on this directory.
-                        // If watch key is no longer valid, then I guess we should remove the listener manager.
+                        // If watch key is no longer valid (e.g., the directory was deleted), remove the listener manager and tell its
+                        // listeners. Leave alone a manager that has since registered the directory again with a different key.
                         if (!watchKey.reset() && null != watchedPath)
-                            _listenerMap.remove(watchedPath);        // TODO: create an event to notify listeners?
+                        {
+                            PathListenerManager plm = _listenerMap.get(watchedPath);
+                            if (null != plm && plm.isWatchKey(watchKey) && _listenerMap.remove(watchedPath, plm))
+                            {
+                                plm.cancel();
+                                plm.fireInvalidated(watchedPath);
+                            }
+                        }
                     }
                 }
             }
@@ -228,20 +271,58 @@ public class FileSystemWatcherImpl implements FileSystemWatcher
     {
         // CopyOnWriteArrayList is thread-safe for write and iteration, and reasonably efficient for small lists with high read/write ratio
         private final List<ListenerContext> _list = new CopyOnWriteArrayList<>();
+        private WatchKey _watchKey = null;     // null for directories registered with the polling watcher
+        private boolean _cancelled = false;
+
+        private synchronized void setWatchKey(WatchKey watchKey)
+        {
+            _watchKey = watchKey;
+            if (_cancelled)
+                watchKey.cancel();
+        }
+
+        private synchronized boolean isWatchKey(WatchKey watchKey)
+        {
+            return null == _watchKey || _watchKey == watchKey;
+        }
 
-        private void addListener(FileSystemDirectoryListener listener, Kind<Path>[] events)
+        /** @return false if this manager has been cancelled and can't accept listeners */
+        private synchronized boolean addListener(FileSystemDirectoryListener listener, Kind<Path>[] events)
         {
+            if (_cancelled)
+                return false;
+
             // Track the listener and its requested events (the only ones we'll fire)
             _list.add(new ListenerContext(listener, events));
+            return true;
         }
 
-        private void removeListener(FileSystemDirectoryListener listener)
+        /** @return true if that was the last listener, in which case this manager is cancelled */
+        private synchronized boolean removeListener(FileSystemDirectoryListener listener)
         {
             for (ListenerContext listenerContext : _list)
             {
                 if (listenerContext.getListener().equals(listener))
                     _list.remove(listenerContext);
             }
+
+            if (_list.isEmpty())
+                _cancelled = true;
+
+            return _cancelled;
+        }
+
+        private synchronized void cancel()
+        {
+            _cancelled = true;
+            if (null != _watchKey)
+                _watchKey.cancel();
+        }
+
+        private void fireInvalidated(Path watchedPath)
+        {
+            LOG.debug("No longer watching " + watchedPath);
+            _list.forEach(listenerContext -> listenerContext.fireInvalidated(watchedPath));
         }
 
         private void fireEvents(WatchEvent<Path> event, Path watchedPath)
@@ -298,6 +379,11 @@ public class FileSystemWatcherImpl implements FileSystemWatcher
             _listener.overflow();
         }
 
+        private void fireInvalidated(Path watchedPath)
+        {
+            _listener.directoryInvalidated(watchedPath);
+        }
+
         public FileSystemDirectoryListener getListener()
         {
             return _listener;
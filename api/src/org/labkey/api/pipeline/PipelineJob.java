@@ -1743,6 +1743,26 @@ abstract public class PipelineJob extends Job implements Serializable
         return false;
     }
 
+    /** The kind of resource a job mostly consumes. The local pipeline queue runs each class in its own worker pool. */
+    public enum ResourceClass
+    {
+        cpu,
+        io,
+        interactive
+    }
+
+    /** Override for jobs that are compute-bound (e.g., analysis) or short and user-facing (e.g., small imports) */
+    public ResourceClass getResourceClass()
+    {
+        return ResourceClass.io;
+    }
+
+    /** Jobs with a higher priority are started first by the local pipeline queue; ties run in submission order */
+    public int getQueuePriority()
+    {
+        return 0;
+    }
+
     synchronized public void setSubmitted()
     {
         _submitted = true;
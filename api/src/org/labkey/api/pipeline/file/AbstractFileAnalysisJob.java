@@ -219,6 +219,13 @@ abstract public class AbstractFileAnalysisJob extends PipelineJob implements Fil
         return PipelineJobService.get().getTaskPipeline(getTaskPipelineId());
     }
 
+    @Override
+    public ResourceClass getResourceClass()
+    {
+        // Analysis pipelines spend their time in external tools and conversions
+        return ResourceClass.cpu;
+    }
+
     abstract public TaskId getTaskPipelineId();
 
     abstract public AbstractFileAnalysisJob createSingleFileJob(File file);
@@ -68,6 +68,8 @@ abstract public class UserSchema extends AbstractSchema implements MemTrackable
     protected final SchemaKey _path;
     protected final String _description;
 
+    // true if this schema's tables depend only on the user, container and container filter, so tables compiled from its
+    // custom queries may be cached across requests
     protected boolean _cacheTableInfos = false;
     protected boolean _restricted = false;      // restricted schemas will return null from getSchema()
     protected final Collection<UserSchemaCustomizer> _schemaCustomizers;
@@ -107,6 +109,12 @@ abstract public class UserSchema extends AbstractSchema implements MemTrackable
     }
 
 
+    public boolean isCacheTableInfos()
+    {
+        return _cacheTableInfos && !_restricted;
+    }
+
+
     public void setRestricted(boolean restricted)
     {
         _restricted = restricted;
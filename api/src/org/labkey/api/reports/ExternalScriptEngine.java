@@ -115,7 +115,8 @@ public class ExternalScriptEngine extends AbstractScriptEngine implements LabKey
 
         try (CustomTiming t = MiniProfiler.custom("exec", StringUtils.join(pb.command(), " ")))
         {
-            int exitCode = runProcess(context, pb, output, timeout, TimeUnit.SECONDS);
+            Integer pooledExitCode = runPooled(scriptFile, context, output, timeout, TimeUnit.SECONDS);
+            int exitCode = null != pooledExitCode ? pooledExitCode : runProcess(context, pb, output, timeout, TimeUnit.SECONDS);
             if (exitCode != 0)
             {
                 throw new ScriptException("An error occurred when running the script '" + scriptFile.getName() + "', exit code: " + exitCode + ").\n" + output.toString());
@@ -125,6 +126,40 @@ public class ExternalScriptEngine extends AbstractScriptEngine implements LabKey
         }
     }
 
+    /**
+     * Runs the script on a warm worker if a {@link ScriptWorkerPool} is configured for this engine.
+     * @return the exit code, or null if the script wasn't run and should be run in a new process instead
+     */
+    @Nullable
+    protected Integer runPooled(File scriptFile, ScriptContext context, StringBuffer output, long timeout, TimeUnit timeoutUnit) throws ScriptException
+    {
+        ScriptWorkerPool workers = ScriptWorkerPool.get(_def);
+        if (null == workers)
+            return null;
+
+        Writer writer = context.getWriter() == _originalWriter ? null : context.getWriter();
+
+        try
+        {
+            int exitCode = workers.run(getWorkingDir(context), scriptFile, timeout, timeoutUnit, output, writer);
+            appendConsoleOutput(context, output);
+            return exitCode;
+        }
+        catch (ScriptWorkerPool.WorkerUnavailableException e)
+        {
+            return null;
+        }
+        catch (IOException e)
+        {
+            throw new ScriptException(e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new ScriptException(e);
+        }
+    }
+
     public Object eval(Reader reader, ScriptContext context) throws ScriptException
     {
         BufferedReader br = new BufferedReader(reader);
@@ -0,0 +1,813 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.reports;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.labkey.api.mbean.LabKeyManagement;
+import org.labkey.api.reader.Readers;
+import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.ShutdownListener;
+
+import javax.management.DynamicMBean;
+import javax.management.StandardMBean;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of pre-started interpreter processes for an external script engine, so rendering a report doesn't pay for
+ * interpreter startup and package loading every time. Each worker runs a small driver loop, supplied by the admin, that
+ * speaks a line-based protocol over stdin/stdout:
+ * <pre>
+ *   PING                                  worker replies &lt;&lt;&lt;LABKEY-PONG&gt;&gt;&gt;
+ *   RUN, working dir, script, temp dir    (four lines) worker runs the script with the working dir as its current
+ *                                         directory and the temp dir as its scratch space, echoes the script's output,
+ *                                         then writes &lt;&lt;&lt;LABKEY-JOB-END&gt;&gt;&gt; followed by the exit code
+ * </pre>
+ *
+ * Pools are opt-in per engine definition name via system properties, and are configured only by them: the engine
+ * definition's program path, command line and output file settings are ignored for pooled jobs.
+ * <pre>
+ *   -Dlabkey.scriptWorkerPool.[engine name].command=Rscript labkey:scriptWorker.R   (required)
+ *   -Dlabkey.scriptWorkerPool.[engine name].size=2
+ *   -Dlabkey.scriptWorkerPool.[engine name].maxJobsPerWorker=100
+ * </pre>
+ * A "labkey:" argument in the command names one of the reference drivers shipped alongside this class,
+ * scriptWorker.R and scriptWorker.py, which run each job in a fresh global environment or module namespace and undo
+ * the job's attached packages, imported modules, options, environment variables and working directory afterwards.
+ * <p/>
+ * Pooled jobs run one after another in the same interpreter process, whatever user or container they come from. Even
+ * with the reference drivers a job can leave state behind that a later job sees (loaded native code, modified base
+ * functions, files in the worker's home directory), so only enable a pool when every user who can author scripts for
+ * that engine is within one trust boundary, e.g. site and application admins or a single project's developers;
+ * otherwise leave the engine unpooled so each script gets its own process.
+ *
+ * Workers are started with a minimal environment, in a private home directory, and each job gets a fresh temp dir that
+ * is deleted afterwards. A worker is health checked when started and again before reuse if it's been idle a while, and
+ * is recycled after maxJobsPerWorker jobs or after any failure or timeout. Remote and Docker engines are never pooled.
+ * Usage statistics are exposed through JMX (type "ScriptWorkerPool").
+ */
+public class ScriptWorkerPool implements ScriptWorkerPoolMXBean
+{
+    private static final Logger LOG = Logger.getLogger(ScriptWorkerPool.class);
+
+    static final String PONG = "<<<LABKEY-PONG>>>";
+    static final String JOB_END = "<<<LABKEY-JOB-END>>>";
+
+    private static final String PROPERTY_PREFIX = "labkey.scriptWorkerPool.";
+    private static final String DRIVER_PREFIX = "labkey:";
+    private static final List<String> REFERENCE_DRIVERS = Arrays.asList("scriptWorker.R", "scriptWorker.py");
+    private static final List<String> ENVIRONMENT_WHITELIST = Arrays.asList("PATH", "LANG", "LC_ALL", "LC_CTYPE", "SYSTEMROOT", "R_HOME", "R_LIBS", "R_LIBS_SITE", "R_LIBS_USER", "PYTHONPATH");
+    private static final Map<String, ScriptWorkerPool> POOLS = new ConcurrentHashMap<>();
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Script worker reader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static
+    {
+        ContextListener.addShutdownListener(new ShutdownListener()
+        {
+            @Override
+            public String getName()
+            {
+                return "Script worker pools";
+            }
+
+            @Override
+            public void shutdownPre()
+            {
+            }
+
+            @Override
+            public void shutdownStarted()
+            {
+                POOLS.values().forEach(ScriptWorkerPool::close);
+                READERS.shutdownNow();
+            }
+        });
+    }
+
+    private final String _name;
+    private final Config _config;
+    private final BlockingQueue<Worker> _idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger _live = new AtomicInteger();
+    private final AtomicInteger _workerCounter = new AtomicInteger();
+    private volatile boolean _closed = false;
+
+    private final AtomicLong _jobsRun = new AtomicLong();
+    private final AtomicLong _jobsFailed = new AtomicLong();
+    private final AtomicLong _jobsTimedOut = new AtomicLong();
+    private final AtomicLong _workersStarted = new AtomicLong();
+    private final AtomicLong _workersRecycled = new AtomicLong();
+    private final AtomicLong _healthCheckFailures = new AtomicLong();
+    private final AtomicLong _unavailable = new AtomicLong();
+    private final AtomicLong _totalJobMillis = new AtomicLong();
+
+    public static class Config
+    {
+        private final List<String> _command;
+        private int _maxWorkers = 2;
+        private int _maxJobsPerWorker = 100;
+        private long _borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(1);
+        private long _healthCheckTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+        private long _idleCheckMillis = TimeUnit.MINUTES.toMillis(1);
+        private File _workerRoot = new File(FileUtil.getTempDirectory(), "scriptWorkers");
+
+        public Config(@NotNull List<String> command)
+        {
+            _command = command;
+        }
+
+        public Config setMaxWorkers(int maxWorkers)
+        {
+            _maxWorkers = maxWorkers;
+            return this;
+        }
+
+        public Config setMaxJobsPerWorker(int maxJobsPerWorker)
+        {
+            _maxJobsPerWorker = maxJobsPerWorker;
+            return this;
+        }
+
+        public Config setBorrowTimeoutMillis(long borrowTimeoutMillis)
+        {
+            _borrowTimeoutMillis = borrowTimeoutMillis;
+            return this;
+        }
+
+        public Config setHealthCheckTimeoutMillis(long healthCheckTimeoutMillis)
+        {
+            _healthCheckTimeoutMillis = healthCheckTimeoutMillis;
+            return this;
+        }
+
+        public Config setIdleCheckMillis(long idleCheckMillis)
+        {
+            _idleCheckMillis = idleCheckMillis;
+            return this;
+        }
+
+        public Config setWorkerRoot(File workerRoot)
+        {
+            _workerRoot = workerRoot;
+            return this;
+        }
+    }
+
+    /** Thrown when no worker could be started or borrowed in time; callers should just launch a process instead */
+    public static class WorkerUnavailableException extends Exception
+    {
+        public WorkerUnavailableException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /** Returns the pool configured for this engine definition, or null if it isn't pooled */
+    public static @Nullable ScriptWorkerPool get(ExternalScriptEngineDefinition def)
+    {
+        if (!def.isEnabled() || def.isRemote() || def.isDocker() || null == def.getName())
+            return null;
+
+        String prefix = PROPERTY_PREFIX + def.getName() + ".";
+        String command = System.getProperty(prefix + "command");
+        if (StringUtils.isBlank(command))
+            return null;
+
+        return POOLS.computeIfAbsent(def.getName() + "|" + command, key -> {
+            File workerRoot = new File(FileUtil.getTempDirectory(), "scriptWorkers");
+            List<String> args = new ArrayList<>();
+            for (String arg : StringUtils.split(command))
+            {
+                try
+                {
+                    args.add(arg.startsWith(DRIVER_PREFIX) ? extractDriver(arg.substring(DRIVER_PREFIX.length()), workerRoot).getAbsolutePath() : arg);
+                }
+                catch (IOException e)
+                {
+                    LOG.error("Unable to configure script worker pool for " + def.getName() + ": " + e.getMessage());
+                    return null;
+                }
+            }
+
+            Config config = new Config(args)
+                .setMaxWorkers(Integer.getInteger(prefix + "size", 2))
+                .setMaxJobsPerWorker(Integer.getInteger(prefix + "maxJobsPerWorker", 100))
+                .setWorkerRoot(workerRoot);
+            return new ScriptWorkerPool(def.getName(), config, true);
+        });
+    }
+
+    /** Copies one of the reference drivers that ship with this class to the file system so an interpreter can run it */
+    static File extractDriver(String name, File dir) throws IOException
+    {
+        if (!REFERENCE_DRIVERS.contains(name))
+            throw new IOException("Unknown script worker driver \"" + name + "\", expected one of " + REFERENCE_DRIVERS);
+
+        try (InputStream in = ScriptWorkerPool.class.getResourceAsStream(name))
+        {
+            if (null == in)
+                throw new IOException("Script worker driver \"" + name + "\" is missing from the class path");
+
+            dir.mkdirs();
+            File driver = new File(dir, name);
+            Files.copy(in, driver.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return driver;
+        }
+    }
+
+    public ScriptWorkerPool(String name, Config config)
+    {
+        this(name, config, false);
+    }
+
+    private ScriptWorkerPool(String name, Config config, boolean register)
+    {
+        _name = name;
+        _config = config;
+
+        if (register)
+        {
+            DynamicMBean mbean = new StandardMBean(this, ScriptWorkerPoolMXBean.class, true);
+            LabKeyManagement.register(mbean, "ScriptWorkerPool", name);
+        }
+    }
+
+    /**
+     * Runs the script on a pooled worker, appending its console output to output (and writer, if provided).
+     * @return the script's exit code, or -1 if it was killed after exceeding the timeout
+     */
+    public int run(File workingDir, File scriptFile, long timeout, TimeUnit timeoutUnit, StringBuffer output, @Nullable Writer writer)
+            throws WorkerUnavailableException, IOException, InterruptedException
+    {
+        Worker worker = borrow();
+        boolean healthy = false;
+        long start = System.currentTimeMillis();
+        File tempDir = new File(worker._home, "job-" + worker._jobs);
+
+        try
+        {
+            tempDir.mkdirs();
+            worker.send("RUN", workingDir.getAbsolutePath(), scriptFile.getAbsolutePath(), tempDir.getAbsolutePath());
+
+            Future<Integer> result = READERS.submit(() -> worker.readJobOutput(output, writer));
+            try
+            {
+                Integer exitCode = timeout > 0 ? result.get(timeout, timeoutUnit) : result.get();
+                if (null == exitCode)
+                    throw new IOException("Script worker " + worker + " exited before completing the job");
+
+                healthy = true;
+                if (0 != exitCode)
+                    _jobsFailed.incrementAndGet();
+                return exitCode;
+            }
+            catch (TimeoutException e)
+            {
+                _jobsTimedOut.incrementAndGet();
+                worker.destroy();
+                result.cancel(true);
+
+                String msg = "Process killed after exceeding timeout of " + timeout + " " + timeoutUnit.name().toLowerCase() + "\n";
+                output.append(msg);
+                if (writer != null)
+                    writer.write(msg);
+                return -1;
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException)e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
+        catch (IOException e)
+        {
+            _jobsFailed.incrementAndGet();
+            throw e;
+        }
+        finally
+        {
+            _jobsRun.incrementAndGet();
+            _totalJobMillis.addAndGet(System.currentTimeMillis() - start);
+            FileUtil.deleteDir(tempDir);
+            release(worker, healthy);
+        }
+    }
+
+    private Worker borrow() throws WorkerUnavailableException, InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + _config._borrowTimeoutMillis;
+
+        while (!_closed)
+        {
+            Worker worker = _idle.poll();
+
+            if (null == worker)
+            {
+                if (_live.incrementAndGet() <= _config._maxWorkers)
+                {
+                    try
+                    {
+                        return startWorker();
+                    }
+                    catch (IOException e)
+                    {
+                        _live.decrementAndGet();
+                        _unavailable.incrementAndGet();
+                        LOG.warn("Unable to start script worker for " + _name + ": " + e.getMessage());
+                        throw new WorkerUnavailableException(e.getMessage());
+                    }
+                }
+                _live.decrementAndGet();
+
+                long remaining = deadline - System.currentTimeMillis();
+                worker = remaining > 0 ? _idle.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (null == worker)
+                    break;
+            }
+
+            // Check a worker that's been sitting idle a while, in case it died or wedged in the meantime
+            if (worker.isAlive() && (System.currentTimeMillis() - worker._lastUsed < _config._idleCheckMillis || worker.ping()))
+                return worker;
+
+            _healthCheckFailures.incrementAndGet();
+            discard(worker);
+        }
+
+        _unavailable.incrementAndGet();
+        throw new WorkerUnavailableException("No script worker available for " + _name);
+    }
+
+    private void release(Worker worker, boolean healthy)
+    {
+        worker._jobs++;
+        worker._lastUsed = System.currentTimeMillis();
+
+        if (!healthy || _closed || !worker.isAlive() || worker._jobs >= _config._maxJobsPerWorker)
+            discard(worker);
+        else
+            _idle.offer(worker);
+    }
+
+    private void discard(Worker worker)
+    {
+        worker.destroy();
+        _live.decrementAndGet();
+        _workersRecycled.incrementAndGet();
+    }
+
+    private Worker startWorker() throws IOException
+    {
+        File home = new File(_config._workerRoot, FileUtil.makeLegalName(_name) + "-" + _workerCounter.incrementAndGet());
+        if (home.exists())
+            FileUtil.deleteDirectoryContents(home);
+        home.mkdirs();
+
+        ProcessBuilder pb = new ProcessBuilder(_config._command);
+        pb.directory(home);
+        pb.redirectErrorStream(true);
+
+        // Don't hand the server's environment (credentials, etc.) to the interpreter
+        Map<String, String> env = pb.environment();
+        env.keySet().retainAll(ENVIRONMENT_WHITELIST);
+        env.put("HOME", home.getAbsolutePath());
+        env.put("TMPDIR", home.getAbsolutePath());
+
+        Worker worker = new Worker(pb.start(), home);
+        _workersStarted.incrementAndGet();
+
+        if (!worker.ping())
+        {
+            _healthCheckFailures.incrementAndGet();
+            worker.destroy();
+            throw new IOException("Script worker " + _config._command + " did not respond to its health check");
+        }
+
+        return worker;
+    }
+
+    /** Stops every idle worker; busy workers are stopped as they're released */
+    public void close()
+    {
+        _closed = true;
+
+        Worker worker;
+        while (null != (worker = _idle.poll()))
+            discard(worker);
+    }
+
+    private class Worker
+    {
+        private final Process _process;
+        private final File _home;
+        private final BufferedReader _reader;
+        private final Writer _writer;
+        private int _jobs = 0;
+        private long _lastUsed = System.currentTimeMillis();
+
+        private Worker(Process process, File home)
+        {
+            _process = process;
+            _home = home;
+            _reader = Readers.getReader(process.getInputStream());
+            _writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        private boolean isAlive()
+        {
+            return _process.isAlive();
+        }
+
+        private void send(String... lines) throws IOException
+        {
+            for (String line : lines)
+            {
+                _writer.write(line);
+                _writer.write('\n');
+            }
+            _writer.flush();
+        }
+
+        private boolean ping()
+        {
+            try
+            {
+                send("PING");
+                Future<Boolean> pong = READERS.submit(() -> {
+                    String line;
+                    while (null != (line = _reader.readLine()))
+                    {
+                        // Ignore anything the driver prints while it starts up
+                        if (PONG.equals(line.trim()))
+                            return true;
+                    }
+                    return false;
+                });
+                return pong.get(_config._healthCheckTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (IOException | ExecutionException | TimeoutException e)
+            {
+                LOG.debug("Script worker health check failed for " + _name + ": " + e);
+                return false;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /** Returns the job's exit code, or null if the worker exited first */
+        private @Nullable Integer readJobOutput(StringBuffer output, @Nullable Writer writer) throws IOException
+        {
+            String line;
+            while (null != (line = _reader.readLine()))
+            {
+                // The marker can follow output that didn't end with a newline
+                int end = line.indexOf(JOB_END);
+                if (end >= 0)
+                {
+                    if (end > 0)
+                    {
+                        output.append(line, 0, end);
+                        if (writer != null)
+                            writer.write(line.substring(0, end));
+                    }
+                    if (writer != null)
+                        writer.flush();
+                    try
+                    {
+                        return Integer.parseInt(line.substring(end + JOB_END.length()).trim());
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        throw new IOException("Unexpected job status from script worker: " + line);
+                    }
+                }
+
+                output.append(line);
+                output.append('\n');
+                if (writer != null)
+                {
+                    writer.write(line);
+                    writer.write('\n');
+                    // flush after every write so LogPrintWriter will forward the message to the Log4j Logger
+                    writer.flush();
+                }
+            }
+            return null;
+        }
+
+        private void destroy()
+        {
+            _process.destroyForcibly();
+            FileUtil.deleteDir(_home);
+        }
+
+        @Override
+        public String toString()
+        {
+            return _name + " worker in " + _home;
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return _name;
+    }
+
+    @Override
+    public int getMaxWorkers()
+    {
+        return _config._maxWorkers;
+    }
+
+    @Override
+    public int getLiveWorkers()
+    {
+        return _live.get();
+    }
+
+    @Override
+    public int getIdleWorkers()
+    {
+        return _idle.size();
+    }
+
+    @Override
+    public long getJobsRun()
+    {
+        return _jobsRun.get();
+    }
+
+    @Override
+    public long getJobsFailed()
+    {
+        return _jobsFailed.get();
+    }
+
+    @Override
+    public long getJobsTimedOut()
+    {
+        return _jobsTimedOut.get();
+    }
+
+    @Override
+    public long getWorkersStarted()
+    {
+        return _workersStarted.get();
+    }
+
+    @Override
+    public long getWorkersRecycled()
+    {
+        return _workersRecycled.get();
+    }
+
+    @Override
+    public long getHealthCheckFailures()
+    {
+        return _healthCheckFailures.get();
+    }
+
+    @Override
+    public long getUnavailable()
+    {
+        return _unavailable.get();
+    }
+
+    @Override
+    public long getTotalJobMillis()
+    {
+        return _totalJobMillis.get();
+    }
+
+
+    public static class TestCase extends Assert
+    {
+        // A stub interpreter: runs each job's "script" with sh, from the job's working directory
+        private static final String STUB_DRIVER =
+            "while read cmd; do\n" +
+            "  case \"$cmd\" in\n" +
+            "    PING) echo '" + PONG + "' ;;\n" +
+            "    RUN) read dir; read script; read tmp; (cd \"$dir\" && TMPDIR=\"$tmp\" sh \"$script\" 2>&1); echo \"" + JOB_END + " $?\" ;;\n" +
+            "  esac\n" +
+            "done\n";
+
+        private File _root;
+        private ScriptWorkerPool _pool;
+
+        private ScriptWorkerPool createPool(int maxJobsPerWorker) throws IOException
+        {
+            Assume.assumeFalse("Stub interpreter requires sh", SystemUtils.IS_OS_WINDOWS);
+
+            _root = FileUtil.createTempDirectory("scriptWorkerPoolTest");
+            File driver = new File(_root, "driver.sh");
+            Files.write(driver.toPath(), STUB_DRIVER.getBytes(StandardCharsets.UTF_8));
+
+            return createPool(Arrays.asList("sh", driver.getAbsolutePath()), maxJobsPerWorker);
+        }
+
+        private ScriptWorkerPool createPool(List<String> command, int maxJobsPerWorker)
+        {
+            Config config = new Config(command)
+                .setMaxWorkers(1)
+                .setMaxJobsPerWorker(maxJobsPerWorker)
+                .setWorkerRoot(new File(_root, "workers"));
+            _pool = new ScriptWorkerPool("test", config);
+            return _pool;
+        }
+
+        private File writeScript(String name, String script) throws IOException
+        {
+            File file = new File(_root, name);
+            Files.write(file.toPath(), script.getBytes(StandardCharsets.UTF_8));
+            return file;
+        }
+
+        @After
+        public void cleanup()
+        {
+            if (null != _pool)
+                _pool.close();
+            if (null != _root)
+                FileUtil.deleteDir(_root);
+        }
+
+        @Test
+        public void testRunAndReuse() throws Exception
+        {
+            ScriptWorkerPool pool = createPool(10);
+            File script = writeScript("hello.sh", "echo hello from `basename $PWD`\n");
+            File workingDir = new File(_root, "report");
+            workingDir.mkdirs();
+
+            for (int i = 0; i < 3; i++)
+            {
+                StringBuffer output = new StringBuffer();
+                StringWriter writer = new StringWriter();
+                assertEquals(0, pool.run(workingDir, script, 10, TimeUnit.SECONDS, output, writer));
+                assertEquals("hello from report\n", output.toString());
+                assertEquals("hello from report\n", writer.toString());
+            }
+
+            assertEquals(3, pool.getJobsRun());
+            assertEquals(1, pool.getWorkersStarted());
+            assertEquals(1, pool.getIdleWorkers());
+        }
+
+        @Test
+        public void testExitCodeAndRecycling() throws Exception
+        {
+            ScriptWorkerPool pool = createPool(2);
+            File script = writeScript("fail.sh", "echo failing\nexit 3\n");
+
+            StringBuffer output = new StringBuffer();
+            assertEquals(3, pool.run(_root, script, 10, TimeUnit.SECONDS, output, null));
+            assertEquals("failing\n", output.toString());
+            assertEquals(1, pool.getJobsFailed());
+
+            // The second job reaches maxJobsPerWorker, so the worker is recycled and the next job starts a new one
+            pool.run(_root, script, 10, TimeUnit.SECONDS, new StringBuffer(), null);
+            assertEquals(1, pool.getWorkersRecycled());
+            pool.run(_root, script, 10, TimeUnit.SECONDS, new StringBuffer(), null);
+            assertEquals(2, pool.getWorkersStarted());
+        }
+
+        @Test
+        public void testTimeout() throws Exception
+        {
+            ScriptWorkerPool pool = createPool(10);
+            File script = writeScript("sleep.sh", "sleep 30\n");
+
+            StringBuffer output = new StringBuffer();
+            assertEquals(-1, pool.run(_root, script, 1, TimeUnit.SECONDS, output, null));
+            assertTrue(output.toString().startsWith("Process killed after exceeding timeout"));
+            assertEquals(1, pool.getJobsTimedOut());
+            assertEquals(0, pool.getLiveWorkers());
+        }
+
+        @Test
+        public void testPythonReferenceDriver() throws Exception
+        {
+            Assume.assumeTrue("Reference driver test requires python3", canRun("python3", "--version"));
+
+            _root = FileUtil.createTempDirectory("scriptWorkerPoolTest");
+            File driver = extractDriver("scriptWorker.py", _root);
+            ScriptWorkerPool pool = createPool(Arrays.asList("python3", "-u", driver.getAbsolutePath()), 10);
+            File workingDir = new File(_root, "report");
+            workingDir.mkdirs();
+
+            File leaky = writeScript("leaky.py", "import os, sys\nleaked = 1\nsys.path.append('leaked')\nos.environ['LEAKED'] = '1'\nprint('first')\n");
+            File probe = writeScript("probe.py", "import os, sys\nprint('leaked' in globals(), 'leaked' in sys.path, os.environ.get('LEAKED'), os.path.basename(os.getcwd()))\n");
+            File partial = writeScript("partial.py", "import sys\nsys.stdout.write('no newline')\nsys.exit(3)\n");
+            File error = writeScript("error.py", "raise ValueError('boom')\n");
+
+            StringBuffer output = new StringBuffer();
+            assertEquals(0, pool.run(workingDir, leaky, 10, TimeUnit.SECONDS, output, null));
+            assertEquals("first\n", output.toString());
+
+            // The next job on the same worker doesn't see the first job's globals, sys.path or environment
+            output = new StringBuffer();
+            assertEquals(0, pool.run(workingDir, probe, 10, TimeUnit.SECONDS, output, null));
+            assertEquals("False False None report\n", output.toString());
+
+            output = new StringBuffer();
+            assertEquals(3, pool.run(_root, partial, 10, TimeUnit.SECONDS, output, null));
+            assertEquals("no newline", output.toString());
+
+            output = new StringBuffer();
+            assertEquals(1, pool.run(_root, error, 10, TimeUnit.SECONDS, output, null));
+            assertTrue(output.toString().contains("ValueError: boom"));
+
+            assertEquals(1, pool.getWorkersStarted());
+        }
+
+        private static boolean canRun(String... command)
+        {
+            try
+            {
+                Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+                return process.waitFor(10, TimeUnit.SECONDS) && 0 == process.exitValue();
+            }
+            catch (IOException e)
+            {
+                return false;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Test
+        public void testUnavailable() throws Exception
+        {
+            createPool(10);
+            Config config = new Config(Arrays.asList("sh", "-c", "exit 1")).setWorkerRoot(new File(_root, "broken"));
+            ScriptWorkerPool broken = new ScriptWorkerPool("broken", config);
+
+            try
+            {
+                broken.run(_root, writeScript("noop.sh", "true\n"), 10, TimeUnit.SECONDS, new StringBuffer(), null);
+                fail("Expected WorkerUnavailableException");
+            }
+            catch (WorkerUnavailableException e)
+            {
+                assertEquals(1, broken.getUnavailable());
+                assertEquals(0, broken.getLiveWorkers());
+            }
+        }
+    }
+}
@@ -101,6 +101,13 @@ public class RReportJob extends PipelineJob implements Serializable
         return _jobIdentifier.get();
     }
 
+    @Override
+    public ResourceClass getResourceClass()
+    {
+        // Time goes to the R process, not the database
+        return ResourceClass.cpu;
+    }
+
     public ActionURL getStatusHref()
     {
         File statusFile = getLogFile();
@@ -0,0 +1,79 @@
+# Reference ScriptWorkerPool driver for Python. Each job runs as __main__ in a fresh module namespace, and afterwards
+# the worker drops any modules the job imported and restores sys.path, environment variables, the working directory
+# and the standard streams, so one job doesn't see another's globals or monkey patches. This is cleanup, not a sandbox:
+# native extensions stay loaded and a job can still tamper with the interpreter, so only pool scripts that are allowed
+# to share an interpreter (see ScriptWorkerPool).
+#
+#   -Dlabkey.scriptWorkerPool.[engine name].command=python3 -u labkey:scriptWorker.py
+
+import gc
+import os
+import runpy
+import sys
+import traceback
+
+PONG = "<<<LABKEY-PONG>>>"
+JOB_END = "<<<LABKEY-JOB-END>>>"
+
+
+def run_job(script):
+    try:
+        runpy.run_path(script, run_name="__main__")
+        return 0
+    except SystemExit as e:
+        if e.code is None:
+            return 0
+        if isinstance(e.code, int):
+            return e.code
+        print(e.code, file=sys.stderr)
+        return 1
+    except BaseException:
+        traceback.print_exc()
+        return 1
+
+
+def main():
+    channel = sys.stdin
+    home = os.getcwd()
+    modules = set(sys.modules)
+    path = list(sys.path)
+    environ = dict(os.environ)
+
+    while True:
+        cmd = channel.readline()
+        if not cmd:
+            break
+        cmd = cmd.strip()
+
+        if cmd == "PING":
+            print(PONG, flush=True)
+        elif cmd == "RUN":
+            work_dir = channel.readline().rstrip("\n")
+            script = channel.readline().rstrip("\n")
+            temp_dir = channel.readline().rstrip("\n")
+
+            os.environ["TMPDIR"] = temp_dir
+            sys.argv = [script]
+            sys.stdin = open(os.devnull)
+            status = 1
+            try:
+                os.chdir(work_dir)
+                status = run_job(script)
+            finally:
+                sys.stdin.close()
+                sys.stdin = sys.__stdin__
+                sys.stdout = sys.__stdout__
+                sys.stderr = sys.__stderr__
+                for name in set(sys.modules) - modules:
+                    del sys.modules[name]
+                sys.path[:] = path
+                os.environ.clear()
+                os.environ.update(environ)
+                os.chdir(home)
+                gc.collect()
+                sys.stderr.flush()
+                print("%s %d" % (JOB_END, status), flush=True)
+
+
+if __name__ == "__main__":
+    main()
@@ -17,6 +17,8 @@ package org.labkey.api.script;
 
 import javax.script.ScriptContext;
 import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -67,4 +69,17 @@ public interface ScriptReference
      */
     Object invokeFn(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException;
     <T> T invokeFn(Class<T> resultType, Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException;
+
+    /**
+     * Calls a top-level JavaScript function once for each set of arguments, returning the results in order. The same
+     * as calling {@link #invokeFn(Class, String, Object...)} in a loop, except that implementations may set up the
+     * execution context and runtime scope once for all of the calls.
+     */
+    default <T> List<T> invokeFnForEach(Class<T> resultType, String name, List<Object[]> argsList) throws ScriptException, NoSuchMethodException
+    {
+        List<T> results = new ArrayList<>(argsList.size());
+        for (Object[] args : argsList)
+            results.add(invokeFn(resultType, name, args));
+        return results;
+    }
 }
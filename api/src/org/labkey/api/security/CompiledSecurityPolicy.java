@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.security;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.security.permissions.Permission;
+import org.labkey.api.security.roles.Role;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The role assignments of an immutable {@link SecurityPolicy} compiled into permission bitmasks. Every permission class
+ * gets a dense bit index the first time it's seen, each assignment is compiled into the mask of its role's permissions,
+ * and the effective mask for a group set plus contextual roles is cached, so a repeated permission check is a bit test.
+ *
+ * Compiled state records SecurityPolicyManager.getModificationCount() and is discarded once that changes (on policy,
+ * group membership, or role permission changes).
+ */
+class CompiledSecurityPolicy
+{
+    private static final Map<Class<? extends Permission>, Integer> PERMISSION_INDEXES = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_PERMISSION_INDEX = new AtomicInteger();
+    private static final int MAX_EFFECTIVE_MASKS = 1000;
+
+    private final long _modificationCount;
+    private final int[] _principals;    // Sorted, matching SecurityPolicy's assignment order; a principal may repeat
+    private final BitSet[] _masks;      // Permissions granted to _principals[i] by that assignment
+    private final Map<MaskKey, BitSet> _effectiveMasks = new ConcurrentHashMap<>();
+
+    CompiledSecurityPolicy(@NotNull Collection<RoleAssignment> assignments, long modificationCount)
+    {
+        _modificationCount = modificationCount;
+        _principals = new int[assignments.size()];
+        _masks = new BitSet[assignments.size()];
+
+        int i = 0;
+        for (RoleAssignment assignment : assignments)
+        {
+            _principals[i] = assignment.getUserId();
+            _masks[i] = getMask(assignment.getRole());
+            i++;
+        }
+    }
+
+    boolean isCurrent()
+    {
+        return _modificationCount == SecurityPolicyManager.getModificationCount();
+    }
+
+    static int getIndex(@NotNull Class<? extends Permission> permission)
+    {
+        Integer index = PERMISSION_INDEXES.get(permission);
+        return null != index ? index : PERMISSION_INDEXES.computeIfAbsent(permission, p -> NEXT_PERMISSION_INDEX.getAndIncrement());
+    }
+
+    private static BitSet getMask(@Nullable Role role)
+    {
+        BitSet mask = new BitSet();
+
+        if (null != role)
+            for (Class<? extends Permission> permission : role.getPermissions())
+                mask.set(getIndex(permission));
+
+        return mask;
+    }
+
+    /**
+     * Returns the permissions granted to the given (sorted) principal ids, plus those granted by the contextual roles.
+     * The returned mask is shared; callers must not modify it.
+     */
+    @NotNull BitSet getEffectiveMask(@NotNull int[] principals, @NotNull Set<Role> contextualRoles, @Nullable Set<Role> additionalContextualRoles)
+    {
+        if (null == additionalContextualRoles)
+            additionalContextualRoles = Collections.emptySet();
+
+        BitSet mask = _effectiveMasks.get(new MaskKey(principals, contextualRoles, additionalContextualRoles));
+
+        if (null == mask)
+        {
+            mask = computeEffectiveMask(principals, contextualRoles, additionalContextualRoles);
+
+            if (_effectiveMasks.size() >= MAX_EFFECTIVE_MASKS)
+                _effectiveMasks.clear();
+
+            // Copy everything the caller owns, since the key outlives this call
+            _effectiveMasks.put(new MaskKey(principals.clone(), new HashSet<>(contextualRoles), new HashSet<>(additionalContextualRoles)), mask);
+        }
+
+        return mask;
+    }
+
+    // Same single pass over the sorted assignments and principal ids as SecurityPolicy.getPermissions()
+    private BitSet computeEffectiveMask(int[] principals, Set<Role> contextualRoles, Set<Role> additionalContextualRoles)
+    {
+        BitSet mask = new BitSet();
+        int assignmentIdx = 0;
+        int principalsIdx = 0;
+
+        while (assignmentIdx < _principals.length && principalsIdx < principals.length)
+        {
+            if (_principals[assignmentIdx] == principals[principalsIdx])
+                mask.or(_masks[assignmentIdx++]);
+            else if (_principals[assignmentIdx] < principals[principalsIdx])
+                assignmentIdx++;
+            else
+                principalsIdx++;
+        }
+
+        for (Role role : contextualRoles)
+            mask.or(getMask(role));
+
+        for (Role role : additionalContextualRoles)
+            mask.or(getMask(role));
+
+        return mask;
+    }
+
+    private static class MaskKey
+    {
+        private final int[] _principals;
+        private final Set<Role> _contextualRoles;
+        private final Set<Role> _additionalContextualRoles;
+        private final int _hashCode;
+
+        private MaskKey(int[] principals, Set<Role> contextualRoles, Set<Role> additionalContextualRoles)
+        {
+            _principals = principals;
+            _contextualRoles = contextualRoles;
+            _additionalContextualRoles = additionalContextualRoles;
+            _hashCode = 31 * (31 * Arrays.hashCode(principals) + contextualRoles.hashCode()) + additionalContextualRoles.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            MaskKey that = (MaskKey) o;
+
+            return _hashCode == that._hashCode && Arrays.equals(_principals, that._principals) &&
+                    Objects.equals(_contextualRoles, that._contextualRoles) && Objects.equals(_additionalContextualRoles, that._additionalContextualRoles);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+    }
+}
@@ -109,6 +109,8 @@ public class GroupMembershipCache
         // invalidate all computed group lists (getAllGroups())
         if (principal instanceof Group)
             CACHE.removeUsingPrefix(ALL_GROUP_MEMBERSHIPS_PREFIX);
+
+        SecurityPolicyManager.incrementModificationCount();
     }
 
 
@@ -117,6 +119,7 @@ public class GroupMembershipCache
         CACHE.remove(ALL_GROUP_MEMBERSHIPS_PREFIX + principal.getUserId());
         CACHE.remove(IMMEDIATE_GROUP_MEMBERSHIPS_PREFIX + principal.getUserId());
         CACHE.remove(GROUP_MEMBERS_PREFIX + principal.getUserId());
+        SecurityPolicyManager.incrementModificationCount();
     }
 
 
@@ -66,6 +66,12 @@ public class MutableSecurityPolicy extends SecurityPolicy
         _resource = resource;
     }
 
+    @Override
+    protected boolean isCompilable()
+    {
+        return false;
+    }
+
     public void addRoleAssignment(@NotNull UserPrincipal principal, @NotNull Class<? extends Role> roleClass)
     {
         addRoleAssignment(principal, RoleManager.getRole(roleClass));
@@ -20,6 +20,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.cache.CacheManager;
 import org.labkey.api.cache.Throttle;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerManager;
 import org.labkey.api.security.permissions.AdminPermission;
 import org.labkey.api.security.permissions.DeletePermission;
@@ -27,11 +30,17 @@ import org.labkey.api.security.permissions.InsertPermission;
 import org.labkey.api.security.permissions.Permission;
 import org.labkey.api.security.permissions.ReadPermission;
 import org.labkey.api.security.permissions.UpdatePermission;
+import org.labkey.api.security.roles.AuthorRole;
+import org.labkey.api.security.roles.EditorRole;
+import org.labkey.api.security.roles.FolderAdminRole;
+import org.labkey.api.security.roles.ReaderRole;
 import org.labkey.api.security.roles.Role;
 import org.labkey.api.security.roles.RoleManager;
+import org.labkey.api.util.GUID;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -43,6 +52,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.stream.IntStream;
 
 /**
  * Represents a security policy for a {@link org.labkey.api.security.SecurableResource}. You can get a security policy for a resource
@@ -64,6 +74,8 @@ public class SecurityPolicy implements HasPermission
 
     protected Date _modified; // Updated in MutableSecurityPolicy subclass
 
+    private volatile @Nullable CompiledSecurityPolicy _compiled = null;
+
     public SecurityPolicy(@NotNull String resourceId, @NotNull String resourceClass, @NotNull String containerId, @NotNull Collection<RoleAssignment> assignments, @Nullable Date lastModified)
     {
         _resourceId = resourceId;
@@ -277,7 +289,8 @@ public class SecurityPolicy implements HasPermission
     public boolean hasPermission(@NotNull UserPrincipal principal, @NotNull Class<? extends Permission> permission, @Nullable Set<Role> contextualRoles)
     {
         testPermissionIsRegistered(permission);
-        boolean ret = getPermissions(principal, contextualRoles).contains(permission);
+        BitSet mask = getPermissionMask(principal, contextualRoles);
+        boolean ret = null != mask ? mask.get(CompiledSecurityPolicy.getIndex(permission)) : getPermissions(principal, contextualRoles).contains(permission);
         SecurityLogger.log("SecurityPolicy.hasPermission " + permission.getSimpleName(), principal, this, ret);
         return ret;
     }
@@ -299,7 +312,26 @@ public class SecurityPolicy implements HasPermission
     public boolean hasPermissions(@NotNull UserPrincipal principal, @NotNull Set<Class<? extends Permission>> permissions, @Nullable Set<Role> contextualRoles)
     {
         permissions.forEach(this::testPermissionIsRegistered);
-        boolean ret = getPermissions(principal, contextualRoles).containsAll(permissions);
+        BitSet mask = getPermissionMask(principal, contextualRoles);
+        boolean ret;
+
+        if (null != mask)
+        {
+            ret = true;
+            for (Class<? extends Permission> requiredPerm : permissions)
+            {
+                if (!mask.get(CompiledSecurityPolicy.getIndex(requiredPerm)))
+                {
+                    ret = false;
+                    break;
+                }
+            }
+        }
+        else
+        {
+            ret = getPermissions(principal, contextualRoles).containsAll(permissions);
+        }
+
         SecurityLogger.log("SecurityPolicy.hasPermissions " + permissions.toString(), principal, this, ret);
         return ret;
     }
@@ -315,10 +347,11 @@ public class SecurityPolicy implements HasPermission
     {
         permissions.forEach(this::testPermissionIsRegistered);
         boolean ret = false;
-        Set<Class<? extends Permission>> grantedPerms = getPermissions(principal, contextualRoles);
+        BitSet mask = getPermissionMask(principal, contextualRoles);
+        Set<Class<? extends Permission>> grantedPerms = null != mask ? null : getPermissions(principal, contextualRoles);
         for (Class<? extends Permission> requiredPerm : permissions)
         {
-            if (grantedPerms.contains(requiredPerm))
+            if (null != mask ? mask.get(CompiledSecurityPolicy.getIndex(requiredPerm)) : grantedPerms.contains(requiredPerm))
             {
                 ret = true;
                 break;
@@ -339,6 +372,38 @@ public class SecurityPolicy implements HasPermission
         }
     }
 
+    /**
+     * Returns the principal's effective permissions as a mask indexed by CompiledSecurityPolicy.getIndex(), or null if this
+     * policy can't be compiled. Equivalent to getPermissions(principal, contextualRoles), but doesn't build a new set on
+     * every call. The mask is shared; don't modify it.
+     */
+    private @Nullable BitSet getPermissionMask(@NotNull UserPrincipal principal, @Nullable Set<Role> contextualRoles)
+    {
+        if (!isCompilable())
+            return null;
+
+        CompiledSecurityPolicy compiled = _compiled;
+
+        if (null == compiled || !compiled.isCurrent())
+        {
+            // Read the count before compiling, so a concurrent change leaves this compiled state already stale
+            long modificationCount = SecurityPolicyManager.getModificationCount();
+            compiled = new CompiledSecurityPolicy(_assignments, modificationCount);
+            _compiled = compiled;
+        }
+
+        return compiled.getEffectiveMask(principal.getGroups(), getContextualRoles(principal), contextualRoles);
+    }
+
+    /**
+     * Permission checks compile this policy's role assignments into bitmasks, which is only valid if the assignments
+     * never change. Subclasses that allow changes must return false.
+     */
+    protected boolean isCompilable()
+    {
+        return true;
+    }
+
     protected Set<Class<? extends Permission>> getPermissions(@NotNull int[] principals, @Nullable Set<Role> contextualRoles)
     {
         Set<Class<? extends Permission>> perms = new HashSet<>();
@@ -531,4 +596,132 @@ public class SecurityPolicy implements HasPermission
 
         return false;
     }
+
+
+    public static class TestCase extends Assert
+    {
+        private static final List<Class<? extends Permission>> PERMISSIONS = List.of(ReadPermission.class, InsertPermission.class, UpdatePermission.class, DeletePermission.class, AdminPermission.class);
+
+        @Test
+        public void testCompiledPermissions()
+        {
+            SecurityPolicy policy = createPolicy();
+            MutableSecurityPolicy mutable = new MutableSecurityPolicy(policy);
+
+            // Every combination of the assigned principals, with and without both kinds of contextual roles
+            for (int combination = 0; combination < 16; combination++)
+            {
+                final int members = combination;
+                int[] groups = IntStream.of(1001, 1002, 1003, 1004).filter(id -> 0 != (members & (1 << (id - 1001)))).toArray();
+
+                for (Set<Role> principalRoles : List.of(Collections.<Role>emptySet(), Set.of(RoleManager.getRole(ReaderRole.class))))
+                {
+                    UserPrincipal principal = createPrincipal(groups, principalRoles);
+
+                    for (Set<Role> contextualRoles : Arrays.asList(null, Set.of(RoleManager.getRole(AuthorRole.class))))
+                    {
+                        Set<Class<? extends Permission>> expected = policy.getPermissions(principal, contextualRoles);
+
+                        for (Class<? extends Permission> perm : PERMISSIONS)
+                        {
+                            assertEquals(expected.contains(perm), policy.hasPermission(principal, perm, contextualRoles));
+                            assertEquals(expected.contains(perm), mutable.hasPermission(principal, perm, contextualRoles));
+                        }
+
+                        assertEquals(expected.containsAll(PERMISSIONS), policy.hasPermissions(principal, new HashSet<>(PERMISSIONS), contextualRoles));
+                        assertEquals(expected.contains(ReadPermission.class) || expected.contains(AdminPermission.class), policy.hasOneOf(principal, List.of(ReadPermission.class, AdminPermission.class), contextualRoles));
+                    }
+                }
+            }
+
+            // Mutable policies are never compiled, so changes are seen immediately and don't leak into the original
+            UserPrincipal principal = createPrincipal(new int[]{1001, 1004}, Collections.emptySet());
+            assertTrue(policy.hasPermission(principal, ReadPermission.class));
+            assertFalse(policy.hasPermission(principal, InsertPermission.class));
+            mutable.addRoleAssignment(principal, RoleManager.getRole(EditorRole.class));
+            assertTrue(mutable.hasPermission(principal, InsertPermission.class));
+            assertFalse(policy.hasPermission(principal, InsertPermission.class));
+
+            // Recompiling after a security change gives the same answers
+            SecurityPolicyManager.incrementModificationCount();
+            assertTrue(policy.hasPermission(principal, ReadPermission.class));
+            assertFalse(policy.hasPermission(principal, InsertPermission.class));
+        }
+
+        // Not a pass/fail test; logs the cost of compiled permission checks vs. building the permission set on every check
+        @Test
+        public void benchmarkHasPermission()
+        {
+            SecurityPolicy policy = createPolicy();
+            UserPrincipal principal = createPrincipal(new int[]{1001, 1003, 1004}, Collections.emptySet());
+            int iterations = 1_000_000;
+            int granted = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                if (policy.hasPermission(principal, PERMISSIONS.get(i % PERMISSIONS.size())))
+                    granted++;
+            long compiledNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                if (policy.getPermissions(principal, null).contains(PERMISSIONS.get(i % PERMISSIONS.size())))
+                    granted--;
+            long setNanos = System.nanoTime() - start;
+
+            assertEquals(0, granted);
+            LOG.info(iterations + " permission checks: compiled " + compiledNanos / 1_000_000 + "ms, permission sets " + setNanos / 1_000_000 + "ms");
+        }
+
+        private SecurityPolicy createPolicy()
+        {
+            String resourceId = GUID.makeGUID();
+            List<RoleAssignment> assignments = new ArrayList<>();
+            assignments.add(createAssignment(resourceId, 1001, ReaderRole.class));
+            assignments.add(createAssignment(resourceId, 1002, EditorRole.class));
+            assignments.add(createAssignment(resourceId, 1003, AuthorRole.class));
+            assignments.add(createAssignment(resourceId, 1003, ReaderRole.class));
+            assignments.add(createAssignment(resourceId, 1005, FolderAdminRole.class));
+            return new SecurityPolicy(resourceId, Container.class.getName(), GUID.makeGUID(), assignments, null);
+        }
+
+        private RoleAssignment createAssignment(String resourceId, int userId, Class<? extends Role> roleClass)
+        {
+            RoleAssignment assignment = new RoleAssignment();
+            assignment.setResourceId(resourceId);
+            assignment.setUserId(userId);
+            assignment.setRole(RoleManager.getRole(roleClass));
+            return assignment;
+        }
+
+        private UserPrincipal createPrincipal(int[] groups, Set<Role> contextualRoles)
+        {
+            return new UserPrincipal("test", 1004, PrincipalType.USER)
+            {
+                @Override
+                public int[] getGroups()
+                {
+                    return groups;
+                }
+
+                @Override
+                public Set<Role> getContextualRoles(SecurityPolicy policy)
+                {
+                    return new HashSet<>(contextualRoles);
+                }
+
+                @Override
+                public boolean isInGroup(int group)
+                {
+                    return Arrays.stream(groups).anyMatch(id -> id == group);
+                }
+
+                @Override
+                public boolean isActive()
+                {
+                    return true;
+                }
+            };
+        }
+    }
 }
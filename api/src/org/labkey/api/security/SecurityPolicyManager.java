@@ -53,6 +53,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Handles persistence and loading of {@link SecurityPolicy} information over {@link SecurableResource}s.
@@ -65,6 +66,10 @@ public class SecurityPolicyManager
     private static final Logger logger = Logger.getLogger(SecurityPolicyManager.class);
     private static final CoreSchema core = CoreSchema.getInstance();
     private static final Cache<String, SecurityPolicy> CACHE = new DatabaseCache<>(core.getSchema().getScope(), CacheManager.UNLIMITED, "SecurityPolicies");
+    // Bumped on every policy or group membership change, so callers that cache permission-derived state can detect staleness
+    private static final AtomicLong MODIFICATION_COUNT = new AtomicLong();
+    // One instance, so a transaction registers a single POSTCOMMIT bump however many changes it makes
+    private static final Runnable INCREMENT_MODIFICATION_COUNT = MODIFICATION_COUNT::incrementAndGet;
 
     @NotNull
     public static SecurityPolicy getPolicy(@NotNull SecurableResource resource)
@@ -307,18 +312,41 @@ public class SecurityPolicyManager
     private static void remove(SecurableResource resource)
     {
         CACHE.remove(cacheKey(resource));
+        incrementModificationCount();
     }
 
 
     private static void remove(SecurityPolicy policy)
     {
         CACHE.remove(cacheKey(policy));
+        incrementModificationCount();
     }
 
     /** Clear all cached SecurityPolicy instances */
     public static void removeAll()
     {
         CACHE.clear();
+        incrementModificationCount();
+    }
+
+    /**
+     * Returns a counter that changes whenever any security policy, group membership, or role's permissions change. Caches of
+     * permission-derived state (e.g., the search security filter, compiled policies) include this in their keys so they
+     * never serve stale results.
+     */
+    public static long getModificationCount()
+    {
+        return MODIFICATION_COUNT.get();
+    }
+
+    /**
+     * Call after changing something that affects permission checks outside of policies and groups, e.g., a role's permissions.
+     * Inside a transaction the count is bumped again after commit: until then other connections still read the old
+     * policies and groups, and anything they derive and cache under the new count would otherwise outlive the change.
+     */
+    public static void incrementModificationCount()
+    {
+        core.getSchema().getScope().addCommitTask(INCREMENT_MODIFICATION_COUNT, DbScope.CommitTaskOption.IMMEDIATE, DbScope.CommitTaskOption.POSTCOMMIT);
     }
 
     public static void exportRoleAssignments(SecurityPolicy policy, RoleAssignmentsType roleAssignments)
@@ -26,6 +26,7 @@ import org.labkey.api.module.ModuleLoader;
 import org.labkey.api.security.Group;
 import org.labkey.api.security.SecurableResource;
 import org.labkey.api.security.SecurityPolicy;
+import org.labkey.api.security.SecurityPolicyManager;
 import org.labkey.api.security.User;
 import org.labkey.api.security.UserPrincipal;
 import org.labkey.api.security.permissions.Permission;
@@ -111,6 +112,7 @@ public abstract class AbstractRole implements Role
         Set<Class<? extends Permission>> p = new HashSet<>(_permissions);
         p.add(perm);
         _permissions = Collections.unmodifiableSet(p);
+        SecurityPolicyManager.incrementModificationCount();
     }
 
     @NotNull
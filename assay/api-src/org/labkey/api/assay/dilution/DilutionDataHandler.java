@@ -135,6 +135,18 @@ public abstract class DilutionDataHandler extends AbstractExperimentDataHandler
             DilutionAssayRun assayResults = getAssayResults(run, user, dataFile, null, useRunForPlates, recalculateStats);
             List<Map<String, Object>> results = new ArrayList<>();
 
+            // Every sample is fit with every curve type below; the fits are independent, so compute them together up front
+            if (assayResults.getSavedCurveFitType() != StatsService.CurveFitType.NONE)
+            {
+                List<DilutionCurve> curves = new ArrayList<>();
+                for (DilutionSummary summary : assayResults.getSummaries())
+                {
+                    for (StatsService.CurveFitType type : StatsService.CurveFitType.values())
+                        curves.add(summary.getDilutionCurve(type));
+                }
+                PlateService.get().fitDilutionCurves(curves);
+            }
+
             for (int summaryIndex = 0; summaryIndex < assayResults.getSummaries().length; summaryIndex++)
             {
                 DilutionSummary dilution = assayResults.getSummaries()[summaryIndex];
@@ -182,7 +182,7 @@ public class DilutionSummary implements Serializable
         return _assay.getPercent(getDataToSampleMap().get(data), data);
     }
 
-    private DilutionCurve getDilutionCurve(StatsService.CurveFitType type) throws FitFailedException
+    DilutionCurve getDilutionCurve(StatsService.CurveFitType type) throws FitFailedException
     {
         if (!_dilutionCurve.containsKey(type))
         {
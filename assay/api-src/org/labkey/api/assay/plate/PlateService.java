@@ -27,6 +27,7 @@ import org.labkey.api.services.ServiceRegistry;
 import org.labkey.api.view.ActionURL;
 
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -214,6 +215,13 @@ public interface PlateService
      */
     DilutionCurve getDilutionCurve(List<WellGroup> wellGroups, boolean assumeDecreasing, DilutionCurve.PercentCalculator percentCalculator, StatsService.CurveFitType type) throws FitFailedException;
 
+    /**
+     * Computes the fit parameters of the given curves ahead of use. Curves over independent well groups are fit concurrently.
+     * @param curves Curves previously returned by getDilutionCurve.
+     * @throws FitFailedException Thrown if any of the curves cannot be fit to its data points.
+     */
+    void fitDilutionCurves(Collection<? extends DilutionCurve> curves) throws FitFailedException;
+
 
     /**
      * A PlateDetailsResolver implementation provides a URL where a detailed, plate-type specific
@@ -16,13 +16,23 @@
 
 package org.labkey.assay.plate;
 
+import org.labkey.api.assay.dilution.DilutionCurve;
 import org.labkey.api.data.statistics.CurveFit;
 import org.labkey.api.data.statistics.DoublePoint;
 import org.labkey.api.data.statistics.FitFailedException;
 import org.labkey.api.data.statistics.StatsService;
 import org.labkey.api.assay.plate.WellGroup;
+import org.labkey.api.util.UnexpectedException;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: klum
@@ -30,6 +40,16 @@ import java.util.List;
  */
 public abstract class ParameterCurveImpl extends WellGroupCurveImpl
 {
+    private static final int FIT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // One pool for all curve fits, so concurrent assay imports share FIT_THREADS threads rather than each starting their own
+    private static final AtomicInteger FIT_THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService FIT_EXECUTOR = Executors.newFixedThreadPool(FIT_THREADS, r -> {
+        Thread t = new Thread(r, "Curve fit " + FIT_THREAD_COUNT.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
     public ParameterCurveImpl(List<? extends WellGroup> wellGroups, boolean assumeDecreasing, PercentCalculator percentCalculator, StatsService.CurveFitType fitType) throws FitFailedException
     {
         super(wellGroups, assumeDecreasing, percentCalculator, fitType);
@@ -54,6 +74,49 @@ public abstract class ParameterCurveImpl extends WellGroupCurveImpl
         return curveFit;
     }
 
+    /**
+     * Computes the fit parameters for every parameter curve in the collection. Each curve fits its own copy of its well
+     * group data, so independent curves are fit concurrently. Other curve types are cheap and are left to fit on demand.
+     */
+    public static void fitCurves(Collection<? extends DilutionCurve> curves) throws FitFailedException
+    {
+        List<CurveFit> fits = new ArrayList<>();
+        for (DilutionCurve curve : curves)
+        {
+            // Check validity on this thread, since that walks the well groups, which curves of different fit types share
+            if (curve instanceof ParameterCurveImpl && curve.isValid())
+                fits.add(((ParameterCurveImpl) curve).getCurveFit());
+        }
+
+        if (fits.size() < 2 || FIT_THREADS < 2)
+        {
+            for (CurveFit fit : fits)
+                fit.getParameters();
+            return;
+        }
+
+        List<Callable<CurveFit.Parameters>> tasks = new ArrayList<>(fits.size());
+        for (CurveFit fit : fits)
+            tasks.add(fit::getParameters);
+
+        try
+        {
+            for (Future<CurveFit.Parameters> future : FIT_EXECUTOR.invokeAll(tasks))
+                future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new FitFailedException("Interrupted while fitting curves");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof FitFailedException)
+                throw (FitFailedException) e.getCause();
+            throw UnexpectedException.wrap(e.getCause());
+        }
+    }
+
     public static class FourParameterCurve extends ParameterCurveImpl
     {
         public FourParameterCurve(List<? extends WellGroup> wellGroups, boolean assumeDecreasing, PercentCalculator percentCalculator) throws FitFailedException
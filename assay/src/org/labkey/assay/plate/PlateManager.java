@@ -57,6 +57,7 @@ import org.labkey.api.view.ActionURL;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -685,4 +686,10 @@ public class PlateManager implements PlateService
     {
         return CurveFitFactory.getCurveImpl(wellGroups, assumeDecreasing, percentCalculator, type);
     }
+
+    @Override
+    public void fitDilutionCurves(Collection<? extends DilutionCurve> curves) throws FitFailedException
+    {
+        ParameterCurveImpl.fitCurves(curves);
+    }
 }
@@ -52,6 +52,11 @@ public abstract class WellGroupCurveImpl implements DilutionCurve
 
     protected abstract CurveFit createCurveFit(StatsService.CurveFitType fitType) throws FitFailedException;
 
+    protected CurveFit getCurveFit()
+    {
+        return _curveFit;
+    }
+
     protected DoublePoint[] renderCurve() throws FitFailedException
     {
         return isValid() ? _curveFit.renderCurve(CURVE_SEGMENT_COUNT) : new DoublePoint[0];
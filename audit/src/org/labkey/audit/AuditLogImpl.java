@@ -27,11 +27,13 @@ import org.labkey.api.data.DbScope;
 import org.labkey.api.data.SimpleFilter;
 import org.labkey.api.data.Sort;
 import org.labkey.api.data.TableInfo;
+import org.labkey.api.exp.property.Domain;
 import org.labkey.api.query.UserSchema;
 import org.labkey.api.security.User;
 import org.labkey.api.security.UserManager;
 import org.labkey.api.util.ContextListener;
 import org.labkey.api.util.Pair;
+import org.labkey.api.util.ShutdownListener;
 import org.labkey.api.util.StartupListener;
 import org.labkey.api.view.ActionURL;
 import org.labkey.api.view.HttpView;
@@ -40,11 +42,17 @@ import org.labkey.audit.model.LogManager;
 import org.labkey.audit.query.AuditQuerySchema;
 
 import javax.servlet.ServletContext;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * User: Karl Lum
@@ -52,14 +60,23 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class AuditLogImpl implements AuditLogService, StartupListener
 {
+    // Must be initialized before _instance, which creates the writer and its queue
+    private static final int WRITER_QUEUE_CAPACITY = Integer.getInteger("labkey.audit.writerQueueCapacity", 10000);
     private static final AuditLogImpl _instance = new AuditLogImpl();
 
     private static final Logger _log = Logger.getLogger(AuditLogImpl.class);
 
+    // Queued events that aren't part of a transaction are written in the background in batches of up to WRITER_BATCH_SIZE.
+    // When the writer falls labkey.audit.writerQueueCapacity events behind, callers write their events synchronously instead.
+    private static final int WRITER_BATCH_SIZE = 1000;
+    private static final long FLUSH_TIMEOUT = 30 * 1000;
+
     private Queue<Pair<User, AuditTypeEvent>> _eventTypeQueue = new LinkedList<>();
     private AtomicBoolean  _logToDatabase = new AtomicBoolean(false);
     private static final Object STARTUP_LOCK = new Object();
 
+    private final AuditEventWriter _writer = new AuditEventWriter();
+
     public static AuditLogImpl get()
     {
         return _instance;
@@ -81,6 +98,9 @@ public class AuditLogImpl implements AuditLogService, StartupListener
     {
         synchronized (STARTUP_LOCK)
         {
+            // Provider domains may have been created or updated during startup
+            LogManager.get().clearEventTables();
+            _writer.start();
             _logToDatabase.set(true);
 
             while (!_eventTypeQueue.isEmpty())
@@ -103,41 +123,50 @@ public class AuditLogImpl implements AuditLogService, StartupListener
         return _addEvent(user, type);
     }
 
-    private <K extends AuditTypeEvent> K _addEvent(User user, K event)
+    @Override
+    public void queueEvent(User user, AuditTypeEvent event)
     {
+        // Events added before startup is complete are queued by _addEvent()
+        if (!_logToDatabase.get())
+        {
+            _addEvent(user, event);
+            return;
+        }
+
         try (var ignored = SpringActionController.ignoreSqlUpdates())
         {
-            assert event.getContainer() != null : "Container cannot be null";
+            user = prepareEvent(user, event);
+
+            DbScope scope = LogManager.get().getSchema().getScope();
 
-            if (event.getContainer() == null)
+            if (scope.isTransactionActive())
             {
-                _log.warn("container was not specified for event type " + event.getEventType() + "; defaulting to root container.");
-                Container root = ContainerManager.getRoot();
-                event.setContainer(root.getId());
+                TransactionEventBatch batch = scope.addCommitTask(new TransactionEventBatch(), DbScope.CommitTaskOption.PRECOMMIT);
+                scope.addCommitTask(batch._reopen, DbScope.CommitTaskOption.POSTCOMMIT);
+                if (batch.add(user, event))
+                    return;
             }
-
-            if (user == null)
+            else if (_writer.offer(user, event))
             {
-                if (HttpView.hasCurrentView() && HttpView.currentContext() != null)
-                    _log.warn("user was not specified for event type " + event.getEventType() + " in container " + ContainerManager.getForId(event.getContainer()).getPath() + "; defaulting to guest user.");
-                user = UserManager.getGuestUser();
+                return;
             }
 
-            // ensure some standard fields
-            if (event.getCreated() == null)
-                event.setCreated(new Date());
-            if (event.getCreatedBy() == null)
-                event.setCreatedBy(user);
-
-            Container c = ContainerManager.getForId(event.getContainer());
-            if (event.getProjectId() == null && c != null && c.getProject() != null)
-                event.setProjectId(c.getProject().getId());
+            // The transaction's batch has already been written or the writer is backed up (or shutting down)
+            LogManager.get()._insertEvent(user, event);
+        }
+        catch (RuntimeException e)
+        {
+            _log.error("Failed to insert audit log event", e);
+            AuditLogService.handleAuditFailure(user, e);
+            throw e;
+        }
+    }
 
-            if (event.getImpersonatedBy() == null && user.isImpersonated())
-            {
-                User impersonatingUser = user.getImpersonatingUser();
-                event.setImpersonatedBy(impersonatingUser.getUserId());
-            }
+    private <K extends AuditTypeEvent> K _addEvent(User user, K event)
+    {
+        try (var ignored = SpringActionController.ignoreSqlUpdates())
+        {
+            user = prepareEvent(user, event);
 
             if (!_logToDatabase.get())
             {
@@ -170,6 +199,323 @@ public class AuditLogImpl implements AuditLogService, StartupListener
         return null;
     }
 
+    /**
+     * Fill in the standard fields of the event
+     * @return the user to record the event for, which is the guest user if none was specified
+     */
+    private User prepareEvent(User user, AuditTypeEvent event)
+    {
+        assert event.getContainer() != null : "Container cannot be null";
+
+        if (event.getContainer() == null)
+        {
+            _log.warn("container was not specified for event type " + event.getEventType() + "; defaulting to root container.");
+            Container root = ContainerManager.getRoot();
+            event.setContainer(root.getId());
+        }
+
+        if (user == null)
+        {
+            if (HttpView.hasCurrentView() && HttpView.currentContext() != null)
+                _log.warn("user was not specified for event type " + event.getEventType() + " in container " + ContainerManager.getForId(event.getContainer()).getPath() + "; defaulting to guest user.");
+            user = UserManager.getGuestUser();
+        }
+
+        // ensure some standard fields
+        if (event.getCreated() == null)
+            event.setCreated(new Date());
+        if (event.getCreatedBy() == null)
+            event.setCreatedBy(user);
+
+        Container c = ContainerManager.getForId(event.getContainer());
+        if (event.getProjectId() == null && c != null && c.getProject() != null)
+            event.setProjectId(c.getProject().getId());
+
+        if (event.getImpersonatedBy() == null && user.isImpersonated())
+        {
+            User impersonatingUser = user.getImpersonatingUser();
+            event.setImpersonatedBy(impersonatingUser.getUserId());
+        }
+
+        return user;
+    }
+
+    private static void insertEvents(List<Pair<User, AuditTypeEvent>> events)
+    {
+        try (var ignored = SpringActionController.ignoreSqlUpdates())
+        {
+            LogManager.get()._insertEvents(events);
+        }
+        catch (RuntimeException e)
+        {
+            _log.error("Failed to insert " + events.size() + " audit log events", e);
+            AuditLogService.handleAuditFailure(events.get(0).first, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Events queued within a transaction. Registered as a PRECOMMIT task, so the events are inserted as part of the
+     * transaction just before it commits, and never inserted if it rolls back. All instances are equal, so each
+     * transaction gets a single batch.
+     *
+     * Commit tasks stay registered after commitAndKeepConnection(), so a POSTCOMMIT task reopens the batch for the
+     * events of the transaction's next commit. Only events queued between the write and the commit (e.g., by later
+     * PRECOMMIT tasks) are inserted one at a time.
+     */
+    private static class TransactionEventBatch implements Runnable
+    {
+        private final List<Pair<User, AuditTypeEvent>> _events = new ArrayList<>();
+        private final Runnable _reopen = this::reopen;     // One instance, so it's registered once per transaction
+        private boolean _written = false;
+
+        /**
+         * @return false if the batch has already been written, in which case the caller must insert the event itself
+         */
+        private synchronized boolean add(User user, AuditTypeEvent event)
+        {
+            if (_written)
+                return false;
+
+            _events.add(new Pair<>(user, event));
+            return true;
+        }
+
+        @Override
+        public void run()
+        {
+            List<Pair<User, AuditTypeEvent>> events;
+
+            synchronized (this)
+            {
+                _written = true;
+                events = new ArrayList<>(_events);
+                _events.clear();
+            }
+
+            if (!events.isEmpty())
+                insertEvents(events);
+        }
+
+        private synchronized void reopen()
+        {
+            _written = false;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof TransactionEventBatch;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return TransactionEventBatch.class.hashCode();
+        }
+    }
+
+    /**
+     * Writes events queued outside of a transaction in batches. The queue is bounded; offer() fails when it's full or
+     * the server is shutting down, and the caller then writes the event itself. Anything still queued at shutdown is
+     * written before the server stops.
+     */
+    private static class AuditEventWriter extends Thread implements ShutdownListener
+    {
+        private final BlockingQueue<QueuedEvent> _queue = new LinkedBlockingQueue<>(WRITER_QUEUE_CAPACITY);
+        private final Object _offerLock = new Object();
+        private final Object _flushLock = new Object();
+        private volatile long _queuedSeq = 0;      // Sequence number of the last event queued; guarded by _offerLock
+        private volatile long _writtenSeq = 0;     // Sequence number of the last event written (or failed)
+        private final AtomicLong _failed = new AtomicLong();
+        private volatile boolean _shuttingDown = false;
+
+        // Not a daemon thread, because it writes to the database and needs to shut down gracefully
+        private AuditEventWriter()
+        {
+            setName(AuditEventWriter.class.getSimpleName());
+            ContextListener.addShutdownListener(this);
+        }
+
+        private boolean offer(User user, AuditTypeEvent event)
+        {
+            if (_shuttingDown || !isAlive())
+                return false;
+
+            // Number events in queue order, so the writer can publish how far it's gotten
+            synchronized (_offerLock)
+            {
+                long seq = _queuedSeq + 1;
+
+                if (!_queue.offer(new QueuedEvent(user, event, seq)))
+                    return false;
+
+                _queuedSeq = seq;
+                return true;
+            }
+        }
+
+        /**
+         * Waits for the events queued before this call to be written, so callers can read their own audit events.
+         * Events queued afterwards don't hold it up. Gives up after FLUSH_TIMEOUT.
+         */
+        private void flush()
+        {
+            if (currentThread() == this)
+                return;
+
+            long target = _queuedSeq;
+            long failedBefore = _failed.get();
+            long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+
+            synchronized (_flushLock)
+            {
+                while (_writtenSeq < target && isAlive())
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+
+                    if (remaining <= 0)
+                    {
+                        _log.warn("Timed out waiting for queued audit events to be written");
+                        break;
+                    }
+
+                    try
+                    {
+                        _flushLock.wait(remaining);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            long failed = _failed.get() - failedBefore;
+            if (failed > 0)
+                _log.warn(failed + " queued audit event(s) could not be written while waiting for the audit log; see the errors logged above");
+        }
+
+        @Override
+        public void run()
+        {
+            List<QueuedEvent> batch = new ArrayList<>(WRITER_BATCH_SIZE);
+
+            // Keep going after shutdown starts until the queue is empty
+            while (!_shuttingDown || !_queue.isEmpty())
+            {
+                try
+                {
+                    QueuedEvent first = _queue.poll(1, TimeUnit.SECONDS);
+
+                    if (null == first)
+                        continue;
+
+                    batch.add(first);
+                }
+                catch (InterruptedException e)
+                {
+                    _log.debug(getClass().getSimpleName() + " is terminating due to interruption");
+                    break;
+                }
+
+                _queue.drainTo(batch, WRITER_BATCH_SIZE - 1);
+                write(batch);
+                batch.clear();
+            }
+        }
+
+        private void write(List<QueuedEvent> batch)
+        {
+            try
+            {
+                insertEvents(batch.stream().map(e -> e.event).collect(Collectors.toList()));
+            }
+            catch (RuntimeException batchFailure)
+            {
+                // insertEvents() has logged the batch failure. Retry one event at a time, so a single bad event doesn't
+                // lose the rest of the batch, and record each event that still can't be written.
+                for (QueuedEvent e : batch)
+                {
+                    try (var ignored = SpringActionController.ignoreSqlUpdates())
+                    {
+                        LogManager.get()._insertEvent(e.event.first, e.event.second);
+                    }
+                    catch (RuntimeException x)
+                    {
+                        _failed.incrementAndGet();
+                        _log.error("Failed to write queued audit event of type " + e.event.second.getEventType() + " in container " + e.event.second.getContainer(), x);
+
+                        try
+                        {
+                            AuditLogService.handleAuditFailure(e.event.first, x);
+                        }
+                        catch (RuntimeException handlerFailure)
+                        {
+                            // Don't let a failing handler stop the writer thread
+                            _log.error("Audit failure handler failed", handlerFailure);
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                // Queue order is sequence order, so the last event in the batch is the newest one written
+                _writtenSeq = batch.get(batch.size() - 1).seq;
+
+                synchronized (_flushLock)
+                {
+                    _flushLock.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void shutdownPre()
+        {
+            _shuttingDown = true;
+        }
+
+        @Override
+        public void shutdownStarted()
+        {
+            try
+            {
+                join(FLUSH_TIMEOUT);
+            }
+            catch (InterruptedException e)
+            {
+                currentThread().interrupt();
+            }
+
+            // Write anything the writer didn't get to
+            List<QueuedEvent> remaining = new ArrayList<>();
+            _queue.drainTo(remaining);
+
+            if (!remaining.isEmpty())
+                write(remaining);
+        }
+    }
+
+    private static class QueuedEvent
+    {
+        private final Pair<User, AuditTypeEvent> event;
+        private final long seq;
+
+        private QueuedEvent(User user, AuditTypeEvent event, long seq)
+        {
+            this.event = new Pair<>(user, event);
+            this.seq = seq;
+        }
+    }
+
+    @Override
+    public void auditDomainChanged(Domain domain)
+    {
+        LogManager.get().clearEventTables();
+    }
+
     @Override
     public String getTableName()
     {
@@ -179,6 +525,7 @@ public class AuditLogImpl implements AuditLogService, StartupListener
     @Override
     public TableInfo getTable(ViewContext context, String name)
     {
+        _writer.flush();
         UserSchema schema = createSchema(context.getUser(), context.getContainer());
         return schema.getTable(name);
     }
@@ -193,12 +540,14 @@ public class AuditLogImpl implements AuditLogService, StartupListener
     @Override
     public <K extends AuditTypeEvent> K getAuditEvent(User user, String eventType, int rowId)
     {
+        _writer.flush();
         return LogManager.get().getAuditEvent(user, eventType, rowId);
     }
 
     @Override
     public <K extends AuditTypeEvent> List<K> getAuditEvents(Container container, User user, String eventType, @Nullable SimpleFilter filter, @Nullable Sort sort)
     {
+        _writer.flush();
         return LogManager.get().getAuditEvents(container, user, eventType, filter, sort);
     }
 
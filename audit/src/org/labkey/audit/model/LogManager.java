@@ -40,12 +40,16 @@ import org.labkey.api.exp.property.DomainKind;
 import org.labkey.api.exp.property.DomainProperty;
 import org.labkey.api.query.UserSchema;
 import org.labkey.api.security.User;
+import org.labkey.api.util.Pair;
 import org.labkey.api.view.HttpView;
 import org.labkey.audit.AuditSchema;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * User: Karl Lum
@@ -58,6 +62,8 @@ public class LogManager
     private static final int COMMENT_MAX = 500;
     private static final int STRING_KEY_MAX = 1000;
 
+    private final Map<String, EventTable> _eventTables = new ConcurrentHashMap<>();
+
     private LogManager(){}
     static public LogManager get()
     {
@@ -75,33 +81,103 @@ public class LogManager
     }
 
     public <K extends AuditTypeEvent> K _insertEvent(User user, K type)
+    {
+        logEvent(type);
+
+        EventTable eventTable = getEventTable(user, type);
+
+        if (eventTable != null)
+        {
+            // consider using etl data iterator for inserts
+            type = validateFields(eventTable, type);
+            K ret = Table.insert(user, eventTable.getTable(), type);
+            return ret;
+        }
+        return null;
+    }
+
+    /**
+     * Inserts a list of events using one batched insert per event type. Unlike _insertEvent(), the generated RowIds
+     * are not set on the events.
+     */
+    public void _insertEvents(List<Pair<User, AuditTypeEvent>> events)
+    {
+        Map<EventTable, List<Map<String, Object>>> rows = new LinkedHashMap<>();
+
+        for (Pair<User, AuditTypeEvent> event : events)
+        {
+            logEvent(event.second);
+
+            EventTable eventTable = getEventTable(event.first, event.second);
+
+            if (eventTable != null)
+                rows.computeIfAbsent(eventTable, t -> new ArrayList<>()).add(toRow(eventTable, event.first, event.second));
+        }
+
+        for (Map.Entry<EventTable, List<Map<String, Object>>> entry : rows.entrySet())
+            Table.batchInsert(null, entry.getKey().getTable(), entry.getValue());
+    }
+
+    /**
+     * Clear the cached provider tables. Called at startup and whenever an audit domain is invalidated, see
+     * AbstractAuditDomainKind.invalidate().
+     */
+    public void clearEventTables()
+    {
+        _eventTables.clear();
+    }
+
+    private void logEvent(AuditTypeEvent type)
     {
         Logger auditLogger = Logger.getLogger("org.labkey.audit.event." + type.getEventType().replaceAll(" ", ""));
         auditLogger.info(type.getAuditLogMessage());
+    }
 
+    @Nullable
+    private EventTable getEventTable(User user, AuditTypeEvent type)
+    {
         AuditTypeProvider provider = AuditLogService.get().getAuditProvider(type.getEventType());
 
-        if (provider != null)
+        if (provider == null)
+            return null;
+
+        String key = provider.getEventName().toLowerCase();
+        EventTable eventTable = _eventTables.get(key);
+
+        if (eventTable == null)
         {
             Container c = ContainerManager.getForId(type.getContainer());
 
             UserSchema schema = AuditLogService.getAuditLogSchema(user, c != null ? c : ContainerManager.getRoot());
 
-                if (schema != null)
-                {
-                    TableInfo table = schema.getTable(provider.getEventName(), false);
+            if (schema != null)
+            {
+                TableInfo table = schema.getTable(provider.getEventName(), false);
 
                 if (table instanceof DefaultAuditTypeTable)
                 {
-                    // consider using etl data iterator for inserts
-                    type = validateFields(provider, type);
-                    TableInfo dbTable = ((DefaultAuditTypeTable)table).getRealTable();
-                    K ret = Table.insert(user, dbTable, type);
-                    return ret;
+                    eventTable = new EventTable(provider, ((DefaultAuditTypeTable)table).getRealTable());
+                    _eventTables.put(key, eventTable);
                 }
             }
         }
-        return null;
+
+        return eventTable;
+    }
+
+    private Map<String, Object> toRow(EventTable eventTable, User user, AuditTypeEvent type)
+    {
+        ObjectFactory<AuditTypeEvent> factory = ObjectFactory.Registry.getFactory((Class<AuditTypeEvent>)type.getClass());
+        Map<String, Object> values = new CaseInsensitiveHashMap<>();
+        factory.toMap(type, values);
+        trimFields(eventTable, values);
+
+        // Rows in a batch can have different users, so fill in the user columns here, the same way Table.insert() does
+        values.put(Table.CREATED_BY_COLUMN_NAME, user.getUserId());
+        if (eventTable.getTable().getColumn(Table.MODIFIED_BY_COLUMN_NAME) != null)
+            values.put(Table.MODIFIED_BY_COLUMN_NAME, user.getUserId());
+
+        return values;
     }
 
     @Nullable
@@ -155,58 +231,96 @@ public class LogManager
      * Ensure that the string properties don't exceed the length of the provisioned columns.
      * Values will be trimmed to the max length.
      */
-    private <K extends AuditTypeEvent> K validateFields(@NotNull AuditTypeProvider provider, @NotNull K type)
+    private <K extends AuditTypeEvent> K validateFields(@NotNull EventTable eventTable, @NotNull K type)
     {
         ObjectFactory<K> factory = ObjectFactory.Registry.getFactory((Class<K>)type.<K>getClass());
         Map<String, Object> values = new CaseInsensitiveHashMap<>();
         factory.toMap(type, values);
 
+        if (trimFields(eventTable, values))
+            return factory.fromMap(values);
+        else
+            return type;
+    }
+
+    private boolean trimFields(@NotNull EventTable eventTable, @NotNull Map<String, Object> values)
+    {
         boolean changed = false;
-        Domain domain = provider.getDomain();
 
-        DomainKind domainKind = domain.getDomainKind();
-        for (PropertyStorageSpec prop : domainKind.getBaseProperties(domain))
+        for (FieldLimit limit : eventTable.getLimits())
         {
-            Object value = values.get(prop.getName());
-            if (prop.getJdbcType().isText() && value instanceof String)
+            Object value = values.get(limit._name);
+            if (value instanceof String && ((String)value).length() > limit._scale)
             {
-                int scale = prop.getSize();
-                if (((String)value).length() > scale)
-                {
-                    _log.warn("Audit field input : \n" + prop.getName() + "\nexceeded the maximum length : " + scale);
-                    String trimmed = ((String)value).substring(0, scale-3) + "...";
-                    values.put(prop.getName(), trimmed);
-                    changed = true;
-                }
+                _log.warn("Audit field input : \n" + limit._name + "\nexceeded the maximum length : " + limit._scale);
+                String trimmed;
+                if (limit._ellipsis)
+                    trimmed = ((String)value).substring(0, limit._scale-3) + "...";
+                else
+                    trimmed = ((String) value).substring(0, limit._scale);
+                values.put(limit._name, trimmed);
+                changed = true;
             }
         }
 
-        for (DomainProperty dp : domain.getProperties())
+        return changed;
+    }
+
+    /**
+     * A provider's storage table plus the maximum lengths of its string columns. Resolving these means looking up the
+     * schema, table, and domain, so they're cached per provider instead of being looked up for every event.
+     */
+    private static class EventTable
+    {
+        private final TableInfo _table;
+        private final List<FieldLimit> _limits = new ArrayList<>();
+
+        private EventTable(AuditTypeProvider provider, TableInfo table)
         {
-            // For now, only check for string length like we were doing for the old audit event fields
-            PropertyDescriptor pd = dp.getPropertyDescriptor();
-            Object value = values.get(dp.getName());
-            if (pd.isStringType() && value instanceof String)
+            _table = table;
+
+            Domain domain = provider.getDomain();
+
+            DomainKind domainKind = domain.getDomainKind();
+            for (PropertyStorageSpec prop : domainKind.getBaseProperties(domain))
             {
+                if (prop.getJdbcType().isText())
+                    _limits.add(new FieldLimit(prop.getName(), prop.getSize(), true));
+            }
+
+            for (DomainProperty dp : domain.getProperties())
+            {
+                // For now, only check for string length like we were doing for the old audit event fields
+                PropertyDescriptor pd = dp.getPropertyDescriptor();
                 int scale = dp.getScale();
-                if (scale > 0 && ((String)value).length() > scale)
-                {
-                    _log.warn("Audit field input : \n" + pd.getName() + "\nexceeded the maximum length : " + scale);
-                    String trimmed;
-                    if (scale > 100)
-                        trimmed = ((String)value).substring(0, scale-3) + "...";
-                    else
-                        trimmed = ((String) value).substring(0, scale);
-                    values.put(pd.getName(), trimmed);
-                    changed = true;
-                }
+                if (pd.isStringType() && scale > 0)
+                    _limits.add(new FieldLimit(pd.getName(), scale, scale > 100));
             }
         }
 
-        if (changed)
-            return factory.fromMap(values);
-        else
-            return type;
+        private TableInfo getTable()
+        {
+            return _table;
+        }
+
+        private List<FieldLimit> getLimits()
+        {
+            return _limits;
+        }
+    }
+
+    private static class FieldLimit
+    {
+        private final String _name;
+        private final int _scale;
+        private final boolean _ellipsis;
+
+        private FieldLimit(String name, int scale, boolean ellipsis)
+        {
+            _name = name;
+            _scale = scale;
+            _ellipsis = ellipsis;
+        }
     }
 
 }
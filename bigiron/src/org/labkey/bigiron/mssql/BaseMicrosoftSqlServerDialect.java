@@ -342,6 +342,34 @@ abstract class BaseMicrosoftSqlServerDialect extends SqlDialect
     }
 
 
+    @Override
+    public boolean supportsMultiRowReselect(ColumnInfo column)
+    {
+        // OUTPUT without INTO isn't allowed on tables with triggers, and the table variable version assumes one row
+        return !column.getParentTable().hasDbTriggers();
+    }
+
+
+    @Override
+    public SQLFragment getMultiRowInsertReselectSql(String tableSelectName, List<String> columnNames, int rowCount, ColumnInfo column)
+    {
+        // The order of INSERT ... OUTPUT rows (and of identity values in a VALUES list) isn't guaranteed, but MERGE's
+        // OUTPUT can return a source column, so each source row carries its position in VALUES
+        String ordinal = "_RowOrdinal_";
+        List<String> sourceColumns = new ArrayList<>(columnNames.size());
+        for (int i = 0; i < columnNames.size(); i++)
+            sourceColumns.add("s" + i);
+
+        SQLFragment sql = new SQLFragment("MERGE INTO ").append(tableSelectName).append(" USING (VALUES ");
+        appendMultiRowValues(sql, columnNames.size(), rowCount, true);
+        sql.append(") AS src (").append(StringUtils.join(sourceColumns, ", ")).append(", ").append(ordinal).append(")\n");
+        sql.append("ON 1 = 0\nWHEN NOT MATCHED THEN INSERT (").append(StringUtils.join(columnNames, ", ")).append(")\n");
+        sql.append("VALUES (src.").append(StringUtils.join(sourceColumns, ", src.")).append(")\n");
+        sql.append("OUTPUT INSERTED.").append(column.getSelectName()).append(", src.").append(ordinal).append(";");
+        return sql;
+    }
+
+
     public String _addReselect(SQLFragment sql, String columnName, boolean useOutputIntoTableVar, @Nullable String proposedVariable)
     {
         ReselectType type = getReselectType(sql.getRawSQL());
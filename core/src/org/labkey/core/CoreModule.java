@@ -179,6 +179,7 @@ import org.labkey.core.admin.writer.SecurityGroupWriterFactory;
 import org.labkey.core.analytics.AnalyticsController;
 import org.labkey.core.analytics.AnalyticsServiceImpl;
 import org.labkey.core.attachment.AttachmentServiceImpl;
+import org.labkey.core.attachment.DocumentCache;
 import org.labkey.core.dialect.PostgreSql92Dialect;
 import org.labkey.core.dialect.PostgreSqlDialectFactory;
 import org.labkey.core.junit.JunitController;
@@ -791,6 +792,10 @@ public class CoreModule extends SpringModule implements SearchService.DocumentPr
         ContextListener.addShutdownListener(TempTableTracker.getShutdownListener());
         ContextListener.addShutdownListener(DavController.getShutdownListener());
 
+        // Attachment bytes cached by a previous run may be permission-protected, so don't leave them lying around
+        DocumentCache.clearStore();
+        ContextListener.addShutdownListener(DocumentCache.getShutdownListener());
+
         // Export action stats on graceful shutdown
         ContextListener.addShutdownListener(new ShutdownListener() {
             @Override
@@ -25,6 +25,7 @@ import org.labkey.api.cache.StringKeyCache;
 import org.labkey.api.collections.CsvSet;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.CoreSchema;
+import org.labkey.api.data.DbScope;
 import org.labkey.api.data.SimpleFilter;
 import org.labkey.api.data.Sort;
 import org.labkey.api.data.TableSelector;
@@ -70,15 +71,22 @@ public class AttachmentCache
     }
 
 
+    // Clear right away and again once the transaction ends, so a concurrent load of the old rows doesn't stick
     static void removeAttachments(AttachmentParent parent)
     {
-        CACHE.remove(getKey(parent));
+        CoreSchema.getInstance().getScope().addCommitTask(() -> {
+            CACHE.remove(getKey(parent));
+            DocumentCache.removeDocuments(parent);
+        }, DbScope.CommitTaskOption.IMMEDIATE, DbScope.CommitTaskOption.POSTCOMMIT, DbScope.CommitTaskOption.POSTROLLBACK);
     }
 
 
     static void removeAttachments(Container c)
     {
-        CACHE.removeUsingPrefix(c.getId());
+        CoreSchema.getInstance().getScope().addCommitTask(() -> {
+            CACHE.removeUsingPrefix(c.getId());
+            DocumentCache.removeDocuments(c);
+        }, DbScope.CommitTaskOption.IMMEDIATE, DbScope.CommitTaskOption.POSTCOMMIT, DbScope.CommitTaskOption.POSTROLLBACK);
     }
 
 
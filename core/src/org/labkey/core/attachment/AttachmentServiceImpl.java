@@ -40,6 +40,7 @@ import org.labkey.api.data.*;
 import org.labkey.api.exp.Lsid;
 import org.labkey.api.files.FileContentService;
 import org.labkey.api.files.MissingRootDirectoryException;
+import org.labkey.api.module.Module;
 import org.labkey.api.module.ModuleLoader;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.QuerySettings;
@@ -66,6 +67,7 @@ import org.labkey.api.util.PageFlowUtil;
 import org.labkey.api.util.Pair;
 import org.labkey.api.util.Path;
 import org.labkey.api.util.ResultSetUtil;
+import org.labkey.api.util.StringUtilsLabKey;
 import org.labkey.api.util.TestContext;
 import org.labkey.api.util.URLHelper;
 import org.labkey.api.view.ActionURL;
@@ -90,6 +92,7 @@ import org.springframework.validation.BindException;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.beans.PropertyChangeEvent;
 import java.io.File;
@@ -115,6 +118,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * User: adam
@@ -123,6 +127,8 @@ import java.util.TreeSet;
  */
 public class AttachmentServiceImpl implements AttachmentService, ContainerManager.ContainerListener
 {
+    // Serializes adds to the same parent (so the exists() check holds) without serializing every upload on the server
+    private static final LockManager<String> PARENT_LOCK_MANAGER = new LockManager<>(61);
     private static final MimeMap _mimeMap = new MimeMap();
     private static final String UPLOAD_LOG = ".upload.log";
     private static final Map<String, AttachmentType> ATTACHMENT_TYPE_MAP = new HashMap<>();
@@ -145,7 +151,9 @@ public class AttachmentServiceImpl implements AttachmentService, ContainerManage
         boolean asAttachment = null==mime || !mime.canInline();
 
         response.reset();
-        writeDocument(new ResponseWriter(response), parent, filename, asAttachment);
+
+        if (!isNotModified(response, parent, filename))
+            writeDocument(new ResponseWriter(response), parent, filename, asAttachment);
 
         User user = null;
         try
@@ -166,6 +174,30 @@ public class AttachmentServiceImpl implements AttachmentService, ContainerManage
     }
 
 
+    // Tag database documents with their content hash, and tell the browser if its copy is still current
+    private boolean isNotModified(HttpServletResponse response, AttachmentParent parent, String filename)
+    {
+        if (parent instanceof AttachmentDirectory)
+            return false;
+
+        checkSecurityPolicy(parent);
+        DocumentCache.CachedDocument doc = DocumentCache.get(parent, filename);
+        if (null == doc)
+            return false;
+
+        response.setHeader("ETag", doc.getETag());
+
+        HttpServletRequest request = HttpView.currentRequest();
+        if (null != request && doc.getETag().equals(request.getHeader("If-None-Match")))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        return false;
+    }
+
+
     @Override
     public void addAuditEvent(User user, AttachmentParent parent, String filename, String comment)
     {
@@ -225,7 +257,7 @@ public class AttachmentServiceImpl implements AttachmentService, ContainerManage
 
 
     @Override
-    public synchronized void addAttachments(AttachmentParent parent, List<AttachmentFile> files, @NotNull User user) throws IOException
+    public void addAttachments(AttachmentParent parent, List<AttachmentFile> files, @NotNull User user) throws IOException
     {
         if (null == user)
             throw new IllegalArgumentException("Cannot add attachments for the null user");
@@ -239,6 +271,20 @@ public class AttachmentServiceImpl implements AttachmentService, ContainerManage
             throw new AttachmentService.DuplicateFilenameException(duplicates);
         }
 
+        ReentrantLock lock = PARENT_LOCK_MANAGER.getLock(parent.getContainerId() + ":" + parent.getEntityId());
+        lock.lock();
+        try
+        {
+            addAttachmentsLocked(parent, files, user);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void addAttachmentsLocked(AttachmentParent parent, List<AttachmentFile> files, @NotNull User user) throws IOException
+    {
         Set<String> filesToSkip = new TreeSet<>();
         File fileLocation = parent instanceof AttachmentDirectory ? ((AttachmentDirectory) parent).getFileSystemDirectory() : null;
 
@@ -915,6 +961,10 @@ public class AttachmentServiceImpl implements AttachmentService, ContainerManage
     public void writeDocument(DocumentWriter writer, AttachmentParent parent, String name, boolean asAttachment) throws ServletException, IOException
     {
         checkSecurityPolicy(parent);
+
+        if (!(parent instanceof AttachmentDirectory) && writeCachedDocument(writer, parent, name, asAttachment))
+            return;
+
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -993,10 +1043,61 @@ public class AttachmentServiceImpl implements AttachmentService, ContainerManage
     }
 
 
+    // Returns false if the document isn't in the document cache, so the caller should read it from the database
+    private boolean writeCachedDocument(DocumentWriter writer, AttachmentParent parent, String name, boolean asAttachment) throws IOException
+    {
+        DocumentCache.CachedDocument doc = DocumentCache.get(parent, name);
+        if (null == doc)
+            return false;
+
+        InputStream s;
+        try
+        {
+            s = doc.openInputStream();
+        }
+        catch (IOException e)
+        {
+            return false;   // Evicted since the lookup
+        }
+
+        try (s)
+        {
+            writer.setContentType(doc.getContentType());
+            if (asAttachment)
+                writer.setContentDisposition("attachment; filename=\"" + name + "\"");
+            else
+                writer.setContentDisposition("inline; filename=\"" + name + "\"");
+
+            if (doc.getSize() > 0)
+                writer.setContentLength((int)doc.getSize());
+
+            IOUtils.copy(s, writer.getOutputStream());
+        }
+
+        return true;
+    }
+
+
     @NotNull
     public InputStream getInputStream(AttachmentParent parent, String name) throws FileNotFoundException
     {
         checkSecurityPolicy(parent);
+
+        if (!(parent instanceof AttachmentDirectory))
+        {
+            DocumentCache.CachedDocument doc = DocumentCache.get(parent, name);
+            if (null != doc)
+            {
+                try
+                {
+                    return doc.openInputStream();
+                }
+                catch (IOException e)
+                {
+                    // Evicted since the lookup; read the database instead
+                }
+            }
+        }
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -1767,6 +1868,62 @@ public class AttachmentServiceImpl implements AttachmentService, ContainerManage
         }
 
 
+        @Test
+        public void testDocumentCache() throws IOException
+        {
+            User user = TestContext.get().getUser();
+            assertNotNull("Should have access to a user", user);
+
+            // clean up if anything was left over from last time
+            if (null != ContainerManager.getForPath(_testDirName))
+                ContainerManager.deleteAll(ContainerManager.getForPath(_testDirName), user);
+
+            Container proj = ContainerManager.ensureContainer(_testDirName);
+            Container container = ContainerManager.ensureContainer(_testDirName + "/Test");
+            AttachmentService service = AttachmentService.get();
+            Module core = ModuleLoader.getInstance().getModule(CoreModule.CORE_MODULE_NAME);
+
+            SecureDocumentParent parent1 = new SecureDocumentParent(GUID.makeGUID(), container, core);
+            parent1.addRoleAssignment(user, ReaderRole.class);
+            SecureDocumentParent parent2 = new SecureDocumentParent(GUID.makeGUID(), container, core);
+            parent2.addRoleAssignment(user, ReaderRole.class);
+
+            for (SecureDocumentParent parent : Arrays.asList(parent1, parent2))
+            {
+                MultipartFile f = new MockMultipartFile("file.txt", "file.txt", "text/plain", "Hello World".getBytes());
+                service.addAttachments(parent, SpringAttachmentFile.createList(Collections.singletonMap("file.txt", f)), user);
+            }
+
+            // identical content is stored once, under one ETag
+            DocumentCache.CachedDocument doc1 = DocumentCache.get(parent1, "file.txt");
+            DocumentCache.CachedDocument doc2 = DocumentCache.get(parent2, "file.txt");
+            assertNotNull("Document should be cached", doc1);
+            assertNotNull("Document should be cached", doc2);
+            assertEquals(doc1.getETag(), doc2.getETag());
+            assertEquals("text/plain", doc1.getContentType());
+            assertEquals(11, doc1.getSize());
+
+            try (InputStream is = service.getInputStream(parent1, "file.txt"))
+            {
+                assertEquals("Hello World", IOUtils.toString(is, StringUtilsLabKey.DEFAULT_CHARSET));
+            }
+
+            // deleting one parent's attachments doesn't affect the other
+            service.deleteAttachments(parent1);
+            assertNull("Deleted document should not be cached", DocumentCache.get(parent1, "file.txt"));
+            try (InputStream is = service.getInputStream(parent2, "file.txt"))
+            {
+                assertEquals("Hello World", IOUtils.toString(is, StringUtilsLabKey.DEFAULT_CHARSET));
+            }
+
+            service.deleteAttachments(parent2);
+            SecurityPolicyManager.deletePolicy(parent1);
+            SecurityPolicyManager.deletePolicy(parent2);
+
+            // clean up
+            ContainerManager.deleteAll(proj, user);
+        }
+
         private void assertSameFile(File a, File b)
         {
             if (a.equals(b))
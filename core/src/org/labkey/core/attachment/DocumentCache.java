@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.core.attachment;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.attachments.AttachmentParent;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.cache.StringKeyCache;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.CoreSchema;
+import org.labkey.api.data.SQLFragment;
+import org.labkey.api.data.SqlSelector;
+import org.labkey.api.settings.AppProps;
+import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.ShutdownListener;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of attachment document bytes, so repeated downloads of the same attachment don't stream the blob out of
+ * core.Documents every time. Files are named by the SHA-1 of their content, so identical documents attached to
+ * different parents are stored once, and the hash doubles as an ETag. The store is bounded by total size and evicts
+ * the least recently used content first.
+ *
+ * The in-memory map from (container, parent, name) to content hash is invalidated along with AttachmentCache, whenever
+ * attachments are added, deleted, renamed or moved. Documents stored on the file system (AttachmentDirectory) aren't
+ * cached here.
+ *
+ * Cached documents may be permission-protected, so the store lives in a directory only the server's own account can
+ * read, is scoped to this server's GUID, and is deleted at startup and shutdown.
+ */
+public class DocumentCache
+{
+    private static final Logger LOG = Logger.getLogger(DocumentCache.class);
+
+    private static final long MAX_STORE_SIZE = 512L * 1024 * 1024;
+    private static final long MAX_DOCUMENT_SIZE = MAX_STORE_SIZE / 16;
+
+    private static final StringKeyCache<CachedDocument> CACHE = CacheManager.getStringKeyCache(10000, CacheManager.DAY, "Attachment documents");
+    private static final ContentStore STORE = new ContentStore(MAX_STORE_SIZE);
+
+    // Bumped by every removal, so a load that raced with a change doesn't cache what it read
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    /**
+     * Returns the cached document, reading it from the database into the cache first if needed. Returns null if the
+     * document doesn't exist or is too large to cache; callers should then fall back to reading the database directly.
+     */
+    static @Nullable CachedDocument get(AttachmentParent parent, String name)
+    {
+        String key = getKey(parent) + name;
+        CachedDocument doc = CACHE.get(key);
+
+        if (null != doc && STORE.touch(doc.getHash()))
+            return doc;
+
+        long generation = GENERATION.get();
+        doc = load(parent, name);
+
+        if (null != doc && generation == GENERATION.get())
+            CACHE.put(key, doc);
+
+        return doc;
+    }
+
+    static void removeDocuments(AttachmentParent parent)
+    {
+        GENERATION.incrementAndGet();
+        CACHE.removeUsingPrefix(getKey(parent));
+    }
+
+    static void removeDocuments(Container c)
+    {
+        GENERATION.incrementAndGet();
+        CACHE.removeUsingPrefix(c.getId());
+    }
+
+    /** Deletes anything a previous run left behind; called at startup, before any document is cached */
+    public static void clearStore()
+    {
+        STORE.clear();
+    }
+
+    public static ShutdownListener getShutdownListener()
+    {
+        return new ShutdownListener()
+        {
+            @Override
+            public String getName()
+            {
+                return "Attachment document cache";
+            }
+
+            @Override
+            public void shutdownPre()
+            {
+            }
+
+            @Override
+            public void shutdownStarted()
+            {
+                CACHE.clear();
+                STORE.clear();
+            }
+        };
+    }
+
+    private static String getKey(AttachmentParent parent)
+    {
+        return parent.getContainerId() + ":" + parent.getEntityId() + ":";
+    }
+
+    private static @Nullable CachedDocument load(AttachmentParent parent, String name)
+    {
+        CoreSchema core = CoreSchema.getInstance();
+
+        // Check the size first, so documents too large to cache are never read out of the database here
+        Map<String, Object> info = new SqlSelector(core.getSchema(), selectDocument(parent, name, "DocumentType, DocumentSize")).getMap();
+        if (null == info)
+            return null;
+
+        Number size = (Number)info.get("DocumentSize");
+        if (null != size && size.longValue() > MAX_DOCUMENT_SIZE)
+            return null;
+
+        CachedDocument[] result = new CachedDocument[1];
+
+        new SqlSelector(core.getSchema(), selectDocument(parent, name, "Document")).forEach(rs -> {
+            try (InputStream is = rs.getBinaryStream("Document"))
+            {
+                if (null != is)
+                {
+                    String hash = STORE.add(is);
+                    result[0] = new CachedDocument(hash, (String)info.get("DocumentType"), STORE.getFile(hash).length());
+                }
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Unable to cache document " + name + ": " + e.getMessage());
+            }
+        });
+
+        return result[0];
+    }
+
+    private static SQLFragment selectDocument(AttachmentParent parent, String name, String columns)
+    {
+        SQLFragment sql = new SQLFragment("SELECT " + columns + " FROM ").append(CoreSchema.getInstance().getTableInfoDocuments());
+        if (null == parent.getEntityId())
+        {
+            sql.append(" WHERE Parent IS NULL AND DocumentName = ?");
+            sql.add(name);
+        }
+        else
+        {
+            sql.append(" WHERE Container = ? AND Parent = ? AND DocumentName = ?");
+            sql.addAll(parent.getContainerId(), parent.getEntityId(), name);
+        }
+        return sql;
+    }
+
+
+    static class CachedDocument
+    {
+        private final String _hash;
+        private final String _contentType;
+        private final long _size;
+
+        private CachedDocument(String hash, String contentType, long size)
+        {
+            _hash = hash;
+            _contentType = contentType;
+            _size = size;
+        }
+
+        String getHash()
+        {
+            return _hash;
+        }
+
+        String getContentType()
+        {
+            return _contentType;
+        }
+
+        long getSize()
+        {
+            return _size;
+        }
+
+        /** Strong ETag for the content; the same for every attachment with identical bytes */
+        String getETag()
+        {
+            return "\"" + _hash + "\"";
+        }
+
+        /** The content may be evicted at any time; callers fall back to the database if this fails */
+        @NotNull InputStream openInputStream() throws IOException
+        {
+            return new FileInputStream(STORE.getFile(_hash));
+        }
+    }
+
+
+    /** Content-addressed files plus an LRU of their sizes, so the total stays under the limit */
+    private static class ContentStore
+    {
+        private final long _maxSize;
+        private final Map<String, Long> _sizes = new LinkedHashMap<>(16, 0.75f, true);    // Guarded by this
+        private long _totalSize = 0;                                                       // Guarded by this
+        private volatile File _dir = null;                                                 // Set under this
+
+        private ContentStore(long maxSize)
+        {
+            _maxSize = maxSize;
+        }
+
+        private static File getDirectory()
+        {
+            return new File(FileUtil.getTempDirectory(), "labkeyDocumentCache-" + AppProps.getInstance().getServerGUID());
+        }
+
+        private synchronized File ensureDirectory() throws IOException
+        {
+            if (null != _dir)
+                return _dir;
+
+            File dir = getDirectory();
+
+            // Nothing from a previous run is tracked, so start empty. Creating the directory fails if something else
+            // managed to put it back in the meantime, rather than writing documents into a directory we don't own.
+            if (dir.exists() && !FileUtil.deleteDir(dir))
+                throw new IOException("Unable to delete document cache directory " + dir);
+
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+            {
+                Files.createDirectory(dir.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            }
+            else
+            {
+                Files.createDirectory(dir.toPath());
+                if (!(dir.setReadable(false, false) && dir.setReadable(true, true) &&
+                      dir.setWritable(false, false) && dir.setWritable(true, true) &&
+                      dir.setExecutable(false, false) && dir.setExecutable(true, true)))
+                {
+                    FileUtil.deleteDir(dir);
+                    throw new IOException("Unable to restrict access to document cache directory " + dir);
+                }
+            }
+
+            _dir = dir;
+            return dir;
+        }
+
+        /** Forgets and deletes all stored content, along with the directory itself */
+        synchronized void clear()
+        {
+            _sizes.clear();
+            _totalSize = 0;
+            _dir = null;
+
+            File dir = getDirectory();
+            if (dir.exists() && !FileUtil.deleteDir(dir))
+                LOG.warn("Unable to delete document cache directory " + dir);
+        }
+
+        File getFile(String hash) throws FileNotFoundException
+        {
+            File dir = _dir;
+            if (null == dir)
+                throw new FileNotFoundException("Document cache has been cleared");
+            return new File(dir, hash);
+        }
+
+        /** Marks the content as recently used; returns false if it's no longer stored */
+        synchronized boolean touch(String hash)
+        {
+            // Content is only tracked while the directory exists
+            return null != _sizes.get(hash) && new File(_dir, hash).exists();
+        }
+
+        /** Copies the stream into the store, returning the hash of its content */
+        String add(InputStream is) throws IOException
+        {
+            File dir = ensureDirectory();
+
+            File temp = File.createTempFile("document", ".tmp", dir);
+            String hash;
+
+            try
+            {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                try (OutputStream out = new DigestOutputStream(new FileOutputStream(temp), digest))
+                {
+                    is.transferTo(out);
+                }
+                hash = Hex.encodeHexString(digest.digest());
+
+                synchronized (this)
+                {
+                    if (dir != _dir)
+                        throw new IOException("Document cache was cleared while caching a document");
+
+                    File file = new File(dir, hash);
+                    // Identical content is already stored (get() also marks it as recently used)
+                    if (null != _sizes.get(hash) && file.exists())
+                        return hash;
+
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    long size = file.length();
+                    Long previous = _sizes.put(hash, size);
+                    _totalSize += size - (null == previous ? 0 : previous);
+                    evict(dir, hash);
+                }
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            finally
+            {
+                if (temp.exists() && !temp.delete())
+                    LOG.debug("Unable to delete " + temp);
+            }
+
+            return hash;
+        }
+
+        // Drop least recently used content until we're under the limit, keeping the entry that was just added
+        private synchronized void evict(File dir, String keep)
+        {
+            Iterator<Map.Entry<String, Long>> iter = _sizes.entrySet().iterator();
+
+            while (_totalSize > _maxSize && iter.hasNext())
+            {
+                Map.Entry<String, Long> entry = iter.next();
+                if (entry.getKey().equals(keep))
+                    continue;
+
+                iter.remove();
+                _totalSize -= entry.getValue();
+
+                // An open stream keeps reading from a deleted file on most platforms; if the delete fails, the file is
+                // simply orphaned until the next restart
+                if (!new File(dir, entry.getKey()).delete())
+                    LOG.debug("Unable to delete cached document " + entry.getKey());
+            }
+        }
+    }
+}
@@ -31,6 +31,21 @@ import java.util.Map;
  */
 public class ParameterCurveFit extends DefaultCurveFit implements CurveFit
 {
+    // Parameter vector layout used by the least-squares fit; in log scale the inflection point is held as log10(x)
+    private static final int MIN = 0;
+    private static final int MAX = 1;
+    private static final int INFLECTION = 2;
+    private static final int SLOPE = 3;
+    private static final int ASYMMETRY = 4;
+
+    private static final double GRID_STEP = 10;
+    private static final int SEED_ANGLE_STEPS = 30;
+    private static final int SEED_ASYMMETRY_STEPS = 10;
+    private static final double MAX_SLOPE = Math.abs(Math.tan((SEED_ANGLE_STEPS / 2 - 1) * Math.PI / SEED_ANGLE_STEPS));
+    private static final int FIT_SEED_COUNT = 3;
+    private static final int MAX_ITERATIONS = 200;
+    private static final double CONVERGENCE_TOLERANCE = 1e-10;
+
     private StatsService.CurveFitType _fitType;
 
     private static class SigmoidalParameters implements CurveFit.Parameters, Cloneable
@@ -117,7 +132,9 @@ public class ParameterCurveFit extends DefaultCurveFit implements CurveFit
         double minValue = values.get(0);
         double maxValue = values.get(values.size() - 1);
 
-        return calculateFitParameters(minValue, maxValue);
+        SigmoidalParameters fit = calculateLeastSquaresParameters(minValue, maxValue);
+
+        return fit != null ? fit : calculateGridSearchParameters(minValue, maxValue);
     }
 
     @Override
@@ -149,11 +166,294 @@ public class ParameterCurveFit extends DefaultCurveFit implements CurveFit
         throw new IllegalArgumentException("params is not an instance of SigmoidalParameters");
     }
 
-    private SigmoidalParameters calculateFitParameters(double minValue, double maxValue)
+    /**
+     * Fits the curve by Levenberg-Marquardt nonlinear least squares. The search is bounded to the same region the grid
+     * search explores (min and max may move up to 100 beyond the data, the inflection point stays within the range of
+     * the dilutions, slope and asymmetry stay within the grid's angles) but every parameter, including the inflection
+     * point, is optimized continuously. A coarse scan over slope and asymmetry picks the starting points.
+     *
+     * @return the best fit found, or null if none of the starting points converged to a finite fit
+     */
+    SigmoidalParameters calculateLeastSquaresParameters(double minValue, double maxValue)
+    {
+        DoublePoint[] data = getData();
+        boolean fivePL = _fitType == StatsService.CurveFitType.FIVE_PARAMETER;
+        int paramCount = fivePL ? 5 : 4;
+
+        double[] lower = new double[paramCount];
+        double[] upper = new double[paramCount];
+        lower[MIN] = Math.max(minValue - 100, Math.min(minValue, -GRID_STEP));
+        upper[MIN] = minValue;
+        lower[MAX] = maxValue;
+        upper[MAX] = Math.min(maxValue + 100, Math.max(maxValue, 100 + GRID_STEP));
+        lower[INFLECTION] = toFitScale(getMinimumX().getX());
+        upper[INFLECTION] = toFitScale(getMaximumX().getX());
+        lower[SLOPE] = -MAX_SLOPE;
+        upper[SLOPE] = MAX_SLOPE;
+        if (fivePL)
+        {
+            lower[ASYMMETRY] = 0;
+            upper[ASYMMETRY] = Math.PI;
+        }
+
+        if (Double.isNaN(lower[INFLECTION]) || Double.isInfinite(lower[INFLECTION]) || Double.isNaN(upper[INFLECTION]) || Double.isInfinite(upper[INFLECTION]))
+            return null;
+
+        double inflection = getInterpolatedCutoffXValue(minValue + 0.5 * (maxValue - minValue));
+        double seedInflection = Double.isInfinite(inflection) || Double.isNaN(inflection) ?
+                (lower[INFLECTION] + upper[INFLECTION]) / 2 : clamp(toFitScale(inflection), lower[INFLECTION], upper[INFLECTION]);
+
+        // Score the grid search's slope (and asymmetry) angles with min, max and inflection taken from the data, and
+        // start a fit from each of the most promising
+        List<double[]> seeds = new ArrayList<>();
+        List<Double> seedErrors = new ArrayList<>();
+        int asymmetrySteps = fivePL ? SEED_ASYMMETRY_STEPS : 1;
+        for (int i = 0; i < SEED_ANGLE_STEPS; i++)
+        {
+            for (int j = 0; j < asymmetrySteps; j++)
+            {
+                double[] seed = new double[paramCount];
+                seed[MIN] = minValue;
+                seed[MAX] = maxValue;
+                seed[INFLECTION] = seedInflection;
+                seed[SLOPE] = clamp(Math.tan(i * Math.PI / SEED_ANGLE_STEPS), lower[SLOPE], upper[SLOPE]);
+                if (fivePL)
+                    seed[ASYMMETRY] = (j + 1) * Math.PI / (SEED_ASYMMETRY_STEPS + 1);
+
+                double error = sumOfSquares(seed, data);
+                if (Double.isNaN(error))
+                    continue;
+
+                int index = 0;
+                while (index < seedErrors.size() && seedErrors.get(index) <= error)
+                    index++;
+                if (index < FIT_SEED_COUNT)
+                {
+                    seeds.add(index, seed);
+                    seedErrors.add(index, error);
+                    if (seeds.size() > FIT_SEED_COUNT)
+                    {
+                        seeds.remove(FIT_SEED_COUNT);
+                        seedErrors.remove(FIT_SEED_COUNT);
+                    }
+                }
+            }
+        }
+
+        SigmoidalParameters bestFit = null;
+        for (double[] seed : seeds)
+        {
+            double[] fitted = levenbergMarquardt(seed, lower, upper, data);
+            SigmoidalParameters parameters = toParameters(fitted);
+            parameters.fitError = calculateFitError(parameters);
+
+            if (!Double.isNaN(parameters.fitError) && (bestFit == null || parameters.fitError < bestFit.fitError))
+                bestFit = parameters;
+        }
+        return bestFit;
+    }
+
+    private double[] levenbergMarquardt(double[] start, double[] lower, double[] upper, DoublePoint[] data)
+    {
+        int n = start.length;
+        double[] params = start.clone();
+        double[] residuals = residuals(params, data);
+        double cost = dot(residuals, residuals);
+        double lambda = 1e-3;
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++)
+        {
+            double[][] jacobian = jacobian(params, residuals, lower, upper, data);
+
+            // Normal equations: (JtJ + lambda * diag(JtJ)) delta = -Jt r
+            double[][] jtj = new double[n][n];
+            double[] jtr = new double[n];
+            for (int row = 0; row < residuals.length; row++)
+            {
+                for (int i = 0; i < n; i++)
+                {
+                    jtr[i] += jacobian[row][i] * residuals[row];
+                    for (int j = 0; j < n; j++)
+                        jtj[i][j] += jacobian[row][i] * jacobian[row][j];
+                }
+            }
+
+            // Parameters sitting on a bound that the gradient would push further out are held fixed for this step
+            boolean[] fixed = new boolean[n];
+            for (int i = 0; i < n; i++)
+                fixed[i] = (params[i] <= lower[i] && jtr[i] > 0) || (params[i] >= upper[i] && jtr[i] < 0);
+
+            boolean improved = false;
+            while (!improved && lambda < 1e10)
+            {
+                double[][] a = new double[n][n];
+                double[] b = new double[n];
+                for (int i = 0; i < n; i++)
+                {
+                    if (fixed[i])
+                    {
+                        a[i][i] = 1;
+                        continue;
+                    }
+                    for (int j = 0; j < n; j++)
+                        a[i][j] = fixed[j] ? 0 : jtj[i][j];
+                    a[i][i] += lambda * Math.max(jtj[i][i], 1e-12);
+                    b[i] = -jtr[i];
+                }
+
+                double[] delta = solve(a, b);
+                if (delta != null)
+                {
+                    double[] candidate = new double[n];
+                    for (int i = 0; i < n; i++)
+                        candidate[i] = clamp(params[i] + delta[i], lower[i], upper[i]);
+
+                    double[] candidateResiduals = residuals(candidate, data);
+                    double candidateCost = dot(candidateResiduals, candidateResiduals);
+
+                    if (!Double.isNaN(candidateCost) && candidateCost < cost)
+                    {
+                        double decrease = cost - candidateCost;
+                        params = candidate;
+                        residuals = candidateResiduals;
+                        cost = candidateCost;
+                        lambda = Math.max(lambda / 10, 1e-12);
+                        improved = true;
+
+                        if (decrease <= CONVERGENCE_TOLERANCE * (cost + CONVERGENCE_TOLERANCE))
+                            return params;
+                    }
+                }
+
+                if (!improved)
+                    lambda *= 10;
+            }
+
+            if (!improved)
+                break;
+        }
+        return params;
+    }
+
+    private double[][] jacobian(double[] params, double[] residuals, double[] lower, double[] upper, DoublePoint[] data)
+    {
+        double[][] jacobian = new double[residuals.length][params.length];
+        for (int i = 0; i < params.length; i++)
+        {
+            // Forward difference, stepping backward when we're up against the upper bound
+            double h = 1e-7 * Math.max(Math.abs(params[i]), 1);
+            if (params[i] + h > upper[i])
+                h = -h;
+
+            double[] shifted = params.clone();
+            shifted[i] = clamp(params[i] + h, lower[i], upper[i]);
+            double actualStep = shifted[i] - params[i];
+            if (actualStep == 0)
+                continue;
+
+            double[] shiftedResiduals = residuals(shifted, data);
+            for (int row = 0; row < residuals.length; row++)
+                jacobian[row][i] = (shiftedResiduals[row] - residuals[row]) / actualStep;
+        }
+        return jacobian;
+    }
+
+    private double[] residuals(double[] params, DoublePoint[] data)
+    {
+        SigmoidalParameters parameters = toParameters(params);
+        double[] residuals = new double[data.length];
+        for (int i = 0; i < data.length; i++)
+            residuals[i] = fitCurve(data[i].getX(), parameters) - data[i].getY();
+        return residuals;
+    }
+
+    private double sumOfSquares(double[] params, DoublePoint[] data)
+    {
+        double[] residuals = residuals(params, data);
+        return dot(residuals, residuals);
+    }
+
+    private SigmoidalParameters toParameters(double[] params)
+    {
+        SigmoidalParameters parameters = new SigmoidalParameters();
+        parameters.min = params[MIN];
+        parameters.max = params[MAX];
+        parameters.inflection = hasXLogScale() ? Math.pow(10, params[INFLECTION]) : params[INFLECTION];
+        parameters.slope = params[SLOPE];
+        parameters.asymmetry = params.length > ASYMMETRY ? params[ASYMMETRY] : 1;
+        return parameters;
+    }
+
+    private double toFitScale(double x)
+    {
+        return hasXLogScale() ? Math.log10(x) : x;
+    }
+
+    private static double clamp(double value, double lower, double upper)
+    {
+        return Math.max(lower, Math.min(upper, value));
+    }
+
+    private static double dot(double[] a, double[] b)
+    {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++)
+            sum += a[i] * b[i];
+        return sum;
+    }
+
+    // Gaussian elimination with partial pivoting; returns null if the system is singular
+    private static double[] solve(double[][] a, double[] b)
+    {
+        int n = b.length;
+        for (int col = 0; col < n; col++)
+        {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++)
+            {
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col]))
+                    pivot = row;
+            }
+            if (Math.abs(a[pivot][col]) < 1e-300 || Double.isNaN(a[pivot][col]))
+                return null;
+
+            double[] tempRow = a[col];
+            a[col] = a[pivot];
+            a[pivot] = tempRow;
+            double temp = b[col];
+            b[col] = b[pivot];
+            b[pivot] = temp;
+
+            for (int row = col + 1; row < n; row++)
+            {
+                double factor = a[row][col] / a[col][col];
+                b[row] -= factor * b[col];
+                for (int k = col; k < n; k++)
+                    a[row][k] -= factor * a[col][k];
+            }
+        }
+
+        double[] x = new double[n];
+        for (int row = n - 1; row >= 0; row--)
+        {
+            double sum = b[row];
+            for (int k = row + 1; k < n; k++)
+                sum -= a[row][k] * x[k];
+            x[row] = sum / a[row][row];
+        }
+        return x;
+    }
+
+    /**
+     * Brute-force search over a fixed grid of min, max, slope and asymmetry values, with the inflection point
+     * interpolated from the data. Used when the least-squares fit doesn't converge, and as the baseline the
+     * least-squares fit is checked against.
+     */
+    SigmoidalParameters calculateGridSearchParameters(double minValue, double maxValue)
     {
         SigmoidalParameters bestFit = null;
         SigmoidalParameters parameters = new SigmoidalParameters();
-        double step = 10;
+        double step = GRID_STEP;
         if (_fitType == StatsService.CurveFitType.FOUR_PARAMETER)
             parameters.asymmetry = 1;
 
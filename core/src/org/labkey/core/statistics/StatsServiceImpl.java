@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Created by klum on 1/14/14.
@@ -100,32 +101,32 @@ public class StatsServiceImpl implements StatsService
 
             CurveValidation v1 = new CurveValidation(new double[]{12.54, 12.04, 9.11, 7.48, .576, -.512, 1.99, -6.60});
             v1.setResults(CurveFitType.POLYNOMIAL, new CurveResults(2, .044, .052));
-            v1.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(2.5, .031, .045));
-            v1.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(2.2, .046, .054));
+            v1.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(2.04, .044, .052));
+            v1.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(2.00, .044, .052));
             validations.add(v1);
 
             CurveValidation v2 = new CurveValidation(new double[]{93.28, 88.65, 74.12, 46.16, 28.34, 17.41, 6.17, -1.79});
             v2.setResults(CurveFitType.POLYNOMIAL, new CurveResults(5.4, .414, .424));
-            v2.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(3.4, .403, .403));
-            v2.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(3.1, .420, .420));
+            v2.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(2.60, .419, .419));
+            v2.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(1.45, .425, .425));
             validations.add(v2);
 
             CurveValidation v3 = new CurveValidation(new double[]{10.79, 3.21, .599, 9.96, 9.5, 8.39, 1.56, -5.81});
             v3.setResults(CurveFitType.POLYNOMIAL, new CurveResults(4.1, .055, .056));
-            v3.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(4.7, .048, .049));
-            v3.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(4.6, .080, .082));
+            v3.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(4.55, .054, .055));
+            v3.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(4.48, .076, .079));
             validations.add(v3);
 
             CurveValidation v4 = new CurveValidation(new double[]{75.94, 58.52, 39.42, 28.84, 19.37, 9.91, 6.04, -7.35});
             v4.setResults(CurveFitType.POLYNOMIAL, new CurveResults(2.4, .259, .273));
-            v4.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(4.5, .226, .247));
-            v4.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(3.7, .245, .262));
+            v4.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(3.10, .260, .271));
+            v4.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(2.87, .258, .263));
             validations.add(v4);
 
             CurveValidation v5 = new CurveValidation(new double[]{89.34, 74.24, 45.69, 18.34, .365, -1.65, -.77, -16.59});
             v5.setResults(CurveFitType.POLYNOMIAL, new CurveResults(5.9, .207, .263));
-            v5.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(5, .201, .263));
-            v5.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(5.1, .221, .277));
+            v5.setResults(CurveFitType.FOUR_PARAMETER, new CurveResults(4.90, .203, .266));
+            v5.setResults(CurveFitType.FIVE_PARAMETER, new CurveResults(3.86, .210, .267));
             validations.add(v5);
 
             for (CurveValidation validation : validations)
@@ -146,6 +147,52 @@ public class StatsServiceImpl implements StatsService
             }
         }
 
+        @Test
+        public void TestLeastSquaresVersusGridSearch()
+        {
+            // The least-squares fit explores the same parameter region as the grid search, so it should never fit worse.
+            // Check it against noisy sigmoidal curves of all shapes plus some that are pure noise.
+            Random random = new Random(8675309);
+
+            for (int i = 0; i < 200; i++)
+            {
+                CurveFitType fitType = i % 2 == 0 ? CurveFitType.FOUR_PARAMETER : CurveFitType.FIVE_PARAMETER;
+                double min = random.nextDouble() * 40 - 20;
+                double max = 40 + random.nextDouble() * 70;
+                double logInflection = 1.5 + random.nextDouble() * 4;
+                double slope = (random.nextBoolean() ? -1 : 1) * (0.2 + random.nextDouble() * 2);
+                double asymmetry = fitType == CurveFitType.FIVE_PARAMETER ? 0.3 + random.nextDouble() * 2 : 1;
+                double noise = random.nextDouble() * 8;
+
+                DoublePoint[] data = new DoublePoint[8];
+                double dilution = 20;
+                for (int j = 0; j < data.length; j++)
+                {
+                    double y = i % 10 == 0 ? random.nextDouble() * 100 - 10 :
+                            min + (max - min) / Math.pow(1 + Math.pow(10, (logInflection - Math.log10(dilution)) * slope), asymmetry) + random.nextGaussian() * noise;
+                    data[j] = new DoublePoint(dilution, y);
+                    dilution *= 4;
+                }
+
+                double minValue = Double.MAX_VALUE;
+                double maxValue = -Double.MAX_VALUE;
+                for (DoublePoint point : data)
+                {
+                    minValue = Math.min(minValue, point.getY());
+                    maxValue = Math.max(maxValue, point.getY());
+                }
+
+                ParameterCurveFit fit = new ParameterCurveFit(data, fitType);
+                CurveFit.Parameters leastSquares = fit.calculateLeastSquaresParameters(minValue, maxValue);
+                assertNotNull("Least-squares fit failed for curve " + i, leastSquares);
+
+                double gridError = fit.calculateFitError(fit.calculateGridSearchParameters(minValue, maxValue));
+                double leastSquaresError = fit.calculateFitError(leastSquares);
+                assertTrue("Least-squares fit error " + leastSquaresError + " exceeds grid search fit error " + gridError + " for curve " + i,
+                        leastSquaresError <= gridError + 0.001);
+            }
+        }
+
         private static class CurveValidation
         {
             private double[] _data;
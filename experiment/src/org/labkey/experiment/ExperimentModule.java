@@ -504,6 +504,7 @@ public class ExperimentModule extends SpringModule implements SearchService.Docu
             LSIDRelativizer.TestCase.class,
             Lsid.TestCase.class,
             LsidUtils.TestCase.class,
+            Material.TestCase.class,
             PropertyController.TestCase.class
         );
     }
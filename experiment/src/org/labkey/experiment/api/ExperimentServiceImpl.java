@@ -175,6 +175,7 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -2225,7 +2226,6 @@ public class ExperimentServiceImpl implements ExperimentService
         }
 
         options.setUseObjectIds(true);
-        SQLFragment sqlf = generateExperimentTreeSQLObjectIdsSeeds(seedObjectIds, options);
         Set<Integer> dataIds = new HashSet<>();
         Set<Integer> materialIds = new HashSet<>();
         Set<Integer> runIds = new HashSet<>();
@@ -2249,7 +2249,7 @@ public class ExperimentServiceImpl implements ExperimentService
             }
         }
 
-        new SqlSelector(getExpSchema(), sqlf).forEachMap((m)->
+        Consumer<Map<String, Object>> processRow = (m)->
         {
             Integer depth = (Integer)m.get("depth");
             String parentLSID = (String)m.get("parent_lsid");
@@ -2299,7 +2299,14 @@ public class ExperimentServiceImpl implements ExperimentService
                         objectLsids.add(childLSID);
                 }
             }
-        });
+        };
+
+        // Walk the in-memory edge index if we can (and it's current); otherwise run the recursive lineage query
+        if (!LineageIndex.get().isUsable(options) || !LineageIndex.get().forEachLineageRow(seedObjectIds, options, processRow))
+        {
+            SQLFragment sqlf = generateExperimentTreeSQLObjectIdsSeeds(seedObjectIds, options);
+            new SqlSelector(getExpSchema(), sqlf).forEachMap(processRow::accept);
+        }
 
         Set<ExpData> datas;
         List<ExpDataImpl> expDatas = getExpDatas(dataIds);
@@ -2579,6 +2586,23 @@ public class ExperimentServiceImpl implements ExperimentService
         TableInfo edge = getTinfoEdge();
         int count = new SqlExecutor(edge.getSchema().getScope()).execute("DELETE FROM " + edge /* + (edge.getSqlDialect().isSqlServer() ? " WITH (TABLOCK, HOLDLOCK)" : "")  */ + " WHERE runId="+runId);
         LOG.debug("Removed edges for run " + runId + "; count = " + count);
+        LineageIndex.get().runEdgesChanged(List.of(runId));
+    }
+
+    // Edges referencing these objects are about to be deleted; have the lineage index reload the runs they belong to
+    private void beforeDeleteObjectEdges(SQLFragment objectIdFrag)
+    {
+        // Skip the query if there's nothing loaded to maintain; dropping the index covers a load that races this delete
+        if (!LineageIndex.get().isLoaded())
+        {
+            LineageIndex.get().invalidate();
+            return;
+        }
+
+        SQLFragment sql = new SQLFragment("SELECT DISTINCT RunId FROM ").append(getTinfoEdge(), "e")
+                .append(" WHERE FromObjectId ").append(objectIdFrag)
+                .append(" OR ToObjectId ").append(objectIdFrag);
+        LineageIndex.get().runEdgesChanged(new SqlSelector(getExpSchema(), sql).getArrayList(Integer.class));
     }
 
     // prepare for bulk insert of edges
@@ -2700,6 +2724,7 @@ public class ExperimentServiceImpl implements ExperimentService
                     " (fromObjectId, toObjectId, runId)\n"+
                     "VALUES (?, ?, ?)";
             Table.batchExecute(getExpSchema(), edgeSql, params);
+            LineageIndex.get().runEdgesChanged(params.stream().map(p -> (Integer)p.get(2)).collect(toSet()));
         }
         catch (SQLException e)
         {
@@ -2985,6 +3010,7 @@ public class ExperimentServiceImpl implements ExperimentService
             {
                 LOG.debug("Deleting all edges");
                 Table.delete(getTinfoEdge());
+                LineageIndex.get().invalidate();
             }
 
             // Local cache of SampleSet LSID to objectId. The SampleSet objectId will be used as the node's ownerObjectId.
@@ -3901,6 +3927,8 @@ public class ExperimentServiceImpl implements ExperimentService
                 SQLFragment objectIdFrag = new SQLFragment("IN (SELECT ObjectId FROM exp.Object WHERE ObjectURI ");
                 objectIdFrag.append(lsidInFrag).append(")");
 
+                beforeDeleteObjectEdges(objectIdFrag);
+
                 TableInfo edge = getTinfoEdge();
                 SQLFragment deleteEdgeSql = new SQLFragment("DELETE FROM ").append(String.valueOf(edge))
                         .append(" WHERE ")
@@ -4181,6 +4209,8 @@ public class ExperimentServiceImpl implements ExperimentService
                     throw new SQLException("Attempting to delete a Data from another container");
                 }
 
+                beforeDeleteObjectEdges(new SQLFragment("= (select objectid from exp.object where objecturi = ?)", data.getLSID()));
+
                 SQLFragment deleteSql = new SQLFragment()
                     .append("DELETE FROM ").append(String.valueOf(getTinfoDataAliasMap())).append(" WHERE LSID = ?;\n").add(data.getLSID())
                     .append("DELETE FROM ").append(String.valueOf(getTinfoEdge())).append(" WHERE fromObjectId = (select objectid from exp.object where objecturi = ?);").add(data.getLSID())
@@ -4359,6 +4389,7 @@ public class ExperimentServiceImpl implements ExperimentService
                     "DELETE FROM " + getTinfoEdge() + "\nWHERE fromObjectId IN (SELECT ObjectId FROM " + getTinfoObject() + " WHERE Container = ?);\n"+
                     "DELETE FROM " + getTinfoEdge() + "\nWHERE toObjectId IN (SELECT ObjectId FROM " + getTinfoObject() + " WHERE Container = ?);";
             new SqlExecutor(getExpSchema()).execute(deleteObjEdges, c, c);
+            LineageIndex.get().invalidate();
 
             SimpleFilter containerFilter = SimpleFilter.createContainerFilter(c);
             Table.delete(getTinfoDataAliasMap(), containerFilter);
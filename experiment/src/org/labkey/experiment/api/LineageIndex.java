@@ -0,0 +1,865 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.experiment.api;
+
+import com.google.common.collect.Iterables;
+import org.apache.log4j.Logger;
+import org.labkey.api.collections.CaseInsensitiveHashMap;
+import org.labkey.api.data.DbScope;
+import org.labkey.api.data.SQLFragment;
+import org.labkey.api.data.SqlSelector;
+import org.labkey.api.data.dialect.SqlDialect;
+import org.labkey.api.exp.api.ExpLineageOptions;
+import org.labkey.api.util.CPUTimer;
+import org.labkey.api.util.JobRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import static org.labkey.api.exp.OntologyManager.getTinfoObject;
+
+/**
+ * In-memory adjacency index over exp.Edge, so lineage can be walked without running the recursive CTE from
+ * ExperimentRunGraph2.jsp on every request. The index is loaded on first use and then maintained one run at a time:
+ * when a run's edges are inserted or deleted, the run's edges are reloaded after the transaction commits (nothing
+ * happens if it rolls back). Bulk edge deletes just drop the index so it's reloaded on next use.
+ *
+ * Every write to exp.Edge must tell the index (runEdgesChanged() or invalidate()). Each transaction that does bumps a
+ * committed generation just before it commits and an applied generation once its changes are in the index; while the
+ * two differ, callers fall back to the CTE instead of reading an index that's missing committed edges. Edges can still
+ * be written without telling the index, since ExperimentService.getTinfoEdge() is public, so every VERIFY_INTERVAL a
+ * background task compares the index's edge count and checksum with exp.Edge and drops the index if they differ.
+ *
+ * Because the index only reflects committed edges, it can't be used by a thread with an active transaction on the exp
+ * scope; those callers (and lookup queries, which embed the CTE in SQL) continue to use the database.
+ */
+class LineageIndex
+{
+    private static final Logger LOG = Logger.getLogger(LineageIndex.class);
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("labkey.experiment.lineageIndex", "true"));
+    private static final LineageIndex INSTANCE = new LineageIndex();
+    private static final long VERIFY_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+    private Graph _graph = null;    // Guarded by _lock; null until loaded or after invalidate()
+
+    // The index is current when every edge change that has committed has also been applied
+    private final AtomicLong _committedGeneration = new AtomicLong();
+    private final AtomicLong _appliedGeneration = new AtomicLong();
+
+    private final AtomicLong _lastVerified = new AtomicLong(System.currentTimeMillis());
+    private long _lastVerifiedCommitted = -1;   // Generations seen by the previous verify(), to spot a stuck commit
+    private long _lastVerifiedApplied = -1;
+
+    static LineageIndex get()
+    {
+        return INSTANCE;
+    }
+
+    private LineageIndex()
+    {
+    }
+
+    private static DbScope getScope()
+    {
+        return ExperimentServiceImpl.get().getExpSchema().getScope();
+    }
+
+    /**
+     * @return true if lineage can be computed from the index on this thread
+     */
+    boolean isUsable(ExpLineageOptions options)
+    {
+        return ENABLED && !options.isForLookup() && !getScope().isTransactionActive();
+    }
+
+    boolean isLoaded()
+    {
+        _lock.readLock().lock();
+        try
+        {
+            return null != _graph;
+        }
+        finally
+        {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Note that the edges of these runs have been changed. If a transaction is active, the runs' edges are reloaded
+     * after it commits; otherwise they're reloaded now.
+     */
+    void runEdgesChanged(Collection<Integer> runIds)
+    {
+        if (runIds.isEmpty())
+            return;
+
+        DbScope scope = getScope();
+
+        if (scope.isTransactionActive())
+        {
+            getPendingChanges(scope).add(runIds);
+        }
+        else
+        {
+            _committedGeneration.incrementAndGet();
+            try
+            {
+                reloadRuns(runIds);
+            }
+            finally
+            {
+                _appliedGeneration.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drop the index (after the current transaction commits, if there is one); it will be reloaded on next use
+     */
+    void invalidate()
+    {
+        DbScope scope = getScope();
+
+        if (scope.isTransactionActive())
+        {
+            getPendingChanges(scope).invalidate();
+        }
+        else
+        {
+            _committedGeneration.incrementAndGet();
+            clear();
+            _appliedGeneration.incrementAndGet();
+        }
+    }
+
+    // Commit tasks stay registered after commitAndKeepConnection(), so each commit of the transaction bumps both generations
+    private PendingChanges getPendingChanges(DbScope scope)
+    {
+        scope.addCommitTask(new CommitStarting(), DbScope.CommitTaskOption.PRECOMMIT);
+        return scope.addCommitTask(new PendingChanges(), DbScope.CommitTaskOption.POSTCOMMIT);
+    }
+
+    private void clear()
+    {
+        _lock.writeLock().lock();
+        try
+        {
+            _graph = null;
+        }
+        finally
+        {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    private void reloadRuns(Collection<Integer> runIds)
+    {
+        _lock.writeLock().lock();
+        try
+        {
+            // Nothing to do if we haven't loaded yet; the load will pick up these edges
+            if (null == _graph)
+                return;
+
+            // Query while holding the lock so concurrent reloads of the same run are applied in commit order
+            Map<Integer, EdgeList> edges = new HashMap<>();
+            for (List<Integer> partition : Iterables.partition(runIds, 1000))
+            {
+                SQLFragment sql = new SQLFragment("SELECT RunId, FromObjectId, ToObjectId FROM ")
+                        .append(ExperimentServiceImpl.get().getTinfoEdge(), "e")
+                        .append(" WHERE RunId ");
+                getScope().getSqlDialect().appendInClauseSql(sql, partition);
+                new SqlSelector(getScope(), sql).forEach(rs -> edges.computeIfAbsent(rs.getInt(1), runId -> new EdgeList()).add(rs.getInt(2), rs.getInt(3)));
+            }
+
+            for (Integer runId : runIds)
+            {
+                _graph.removeRun(runId);
+                EdgeList runEdges = edges.get(runId);
+                if (null != runEdges)
+                    _graph.addRun(runId, runEdges.toArray());
+            }
+        }
+        finally
+        {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    // Caller must hold the write lock
+    private void load()
+    {
+        if (null != _graph)
+            return;
+
+        CPUTimer timer = new CPUTimer("load lineage index");
+        timer.start();
+
+        Graph graph = new Graph();
+        EdgeList runEdges = new EdgeList();
+        int[] currentRunId = {-1};
+
+        SQLFragment sql = new SQLFragment("SELECT RunId, FromObjectId, ToObjectId FROM ")
+                .append(ExperimentServiceImpl.get().getTinfoEdge(), "e")
+                .append(" ORDER BY RunId");
+
+        new SqlSelector(getScope(), sql).forEach(rs -> {
+            int runId = rs.getInt(1);
+            if (runId != currentRunId[0])
+            {
+                if (runEdges.size() > 0)
+                    graph.addRun(currentRunId[0], runEdges.toArray());
+                runEdges.clear();
+                currentRunId[0] = runId;
+            }
+            runEdges.add(rs.getInt(2), rs.getInt(3));
+        });
+
+        if (runEdges.size() > 0)
+            graph.addRun(currentRunId[0], runEdges.toArray());
+
+        _graph = graph;
+
+        timer.stop();
+        LOG.debug("Loaded lineage index: " + graph.getEdgeCount() + " edges for " + graph.getRunCount() + " runs in " + timer.getDuration());
+    }
+
+    /**
+     * Walk the index from the seeds and pass each edge reached to the block as a row, in the shape produced by the
+     * lineage SQL from ExperimentServiceImpl.generateExperimentTreeSQL() (depth, parent_/child_ lsid, exptype,
+     * cpastype, and rowid). Depth, exp type, and cpas type options are applied just as the SQL applies them.
+     *
+     * @return false, without calling the block, if committed edge changes haven't been applied to the index yet; the
+     * caller should use the CTE
+     */
+    boolean forEachLineageRow(Collection<Integer> seedObjectIds, ExpLineageOptions options, Consumer<Map<String, Object>> block)
+    {
+        SqlDialect dialect = getScope().getSqlDialect();
+        int defaultDepth = dialect.isSqlServer() ? 100 : 1000;
+        int depth = options.getDepth() == 0 ? defaultDepth : options.getDepth();
+
+        List<Edge> up = List.of();
+        List<Edge> down = List.of();
+        boolean current;
+
+        lockLoaded();
+        try
+        {
+            current = _committedGeneration.get() == _appliedGeneration.get();
+            if (current)
+            {
+                if (options.isParents())
+                    up = _graph.walk(seedObjectIds, true, Math.abs(depth));
+                if (options.isChildren())
+                    down = _graph.walk(seedObjectIds, false, depth);
+            }
+        }
+        finally
+        {
+            _lock.readLock().unlock();
+        }
+
+        scheduleVerify();
+
+        if (!current)
+            return false;
+
+        Set<Integer> objectIds = new HashSet<>();
+        for (Edge edge : up)
+        {
+            objectIds.add(edge.from);
+            objectIds.add(edge.to);
+        }
+        for (Edge edge : down)
+        {
+            objectIds.add(edge.from);
+            objectIds.add(edge.to);
+        }
+
+        Map<Integer, Node> nodes = resolveNodes(objectIds);
+        String expType = options.getExpType() != null && !"NULL".equalsIgnoreCase(options.getExpType()) ? options.getExpType() : null;
+        String cpasType = options.getCpasType() != null && !"NULL".equalsIgnoreCase(options.getCpasType()) ? options.getCpasType() : null;
+
+        // Filters apply to the parent end when walking up and the child end when walking down
+        for (Edge edge : up)
+        {
+            Node parent = nodes.get(edge.from);
+            if (matches(parent, expType, cpasType))
+                block.accept(toRow(-edge.depth, parent, nodes.get(edge.to)));
+        }
+
+        for (Edge edge : down)
+        {
+            Node child = nodes.get(edge.to);
+            if (matches(child, expType, cpasType))
+                block.accept(toRow(edge.depth, nodes.get(edge.from), child));
+        }
+
+        return true;
+    }
+
+    private void scheduleVerify()
+    {
+        long last = _lastVerified.get();
+        long now = System.currentTimeMillis();
+
+        if (now - last >= VERIFY_INTERVAL && _lastVerified.compareAndSet(last, now))
+            JobRunner.getDefault().execute(this::verify);
+    }
+
+    /**
+     * Compare the index to exp.Edge by edge count and by a checksum of every edge's (from, to, run), and drop the index
+     * if they differ, most likely because edges were written without telling the index. The query runs without the
+     * lock; the result only counts if no edge change committed or was applied while it ran.
+     */
+    synchronized void verify()
+    {
+        Graph graph;
+        long committed;
+        long applied;
+        long edgeCount;
+        long checksum;
+
+        _lock.readLock().lock();
+        try
+        {
+            graph = _graph;
+            committed = _committedGeneration.get();
+            applied = _appliedGeneration.get();
+            edgeCount = null == graph ? 0 : graph.getEdgeCount();
+            checksum = null == graph ? 0 : graph.getChecksum();
+        }
+        finally
+        {
+            _lock.readLock().unlock();
+        }
+
+        if (null == graph)
+            return;
+
+        if (committed != applied)
+        {
+            // A commit that fails after its PRECOMMIT tasks run never gets to POSTCOMMIT, which would leave the index
+            // unused until restart. If nothing has moved since the last check, count it as applied and start over.
+            if (committed == _lastVerifiedCommitted && applied == _lastVerifiedApplied)
+            {
+                LOG.warn("Lineage index generations haven't moved since the last check; reloading the index");
+                clear();
+                _appliedGeneration.addAndGet(committed - applied);
+            }
+            _lastVerifiedCommitted = committed;
+            _lastVerifiedApplied = applied;
+            return;
+        }
+
+        SQLFragment sql = new SQLFragment("SELECT COUNT(*), SUM(((CAST(FromObjectId AS BIGINT) * 31 + ToObjectId) * 31 + RunId) % ")
+                .append(Graph.CHECKSUM_MODULUS).append(") FROM ")
+                .append(ExperimentServiceImpl.get().getTinfoEdge(), "e");
+
+        long[] counts = new long[2];
+        new SqlSelector(getScope(), sql).forEach(rs -> {
+            counts[0] = rs.getLong(1);
+            counts[1] = rs.getLong(2);  // NULL (no edges) reads as 0
+        });
+
+        if (counts[0] == edgeCount && counts[1] == checksum)
+            return;
+
+        _lock.writeLock().lock();
+        try
+        {
+            // Changes that committed while the query ran may explain the difference; the next check will tell
+            if (_graph == graph && _committedGeneration.get() == committed && _appliedGeneration.get() == applied)
+            {
+                LOG.warn("Lineage index doesn't match exp.Edge; edges may have been written without updating the index. Dropping it.");
+                _graph = null;
+            }
+        }
+        finally
+        {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    private boolean matches(Node node, String expType, String cpasType)
+    {
+        if (null != expType && (null == node || !expType.equals(node.expType)))
+            return false;
+
+        return null == cpasType || null != node && cpasType.equals(node.cpasType);
+    }
+
+    private Map<String, Object> toRow(int depth, Node parent, Node child)
+    {
+        Map<String, Object> row = new CaseInsensitiveHashMap<>();
+        row.put("depth", depth);
+
+        if (null != parent)
+        {
+            row.put("parent_exptype", parent.expType);
+            row.put("parent_cpastype", parent.cpasType);
+            row.put("parent_lsid", parent.lsid);
+            row.put("parent_rowid", parent.rowId);
+        }
+
+        if (null != child)
+        {
+            row.put("child_exptype", child.expType);
+            row.put("child_cpastype", child.cpasType);
+            row.put("child_lsid", child.lsid);
+            row.put("child_rowid", child.rowId);
+        }
+
+        return row;
+    }
+
+    /** Take the read lock, loading the index first if needed; the caller must release the read lock */
+    private void lockLoaded()
+    {
+        _lock.readLock().lock();
+
+        if (null == _graph)
+        {
+            // Load under the write lock, then downgrade to the read lock so the graph can't be dropped before we walk it
+            _lock.readLock().unlock();
+            _lock.writeLock().lock();
+            try
+            {
+                load();
+                _lock.readLock().lock();
+            }
+            finally
+            {
+                _lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private Map<Integer, Node> resolveNodes(Set<Integer> objectIds)
+    {
+        Map<Integer, Node> nodes = new HashMap<>(objectIds.size() * 2);
+        if (objectIds.isEmpty())
+            return nodes;
+
+        ExperimentServiceImpl svc = ExperimentServiceImpl.get();
+        SqlDialect dialect = getScope().getSqlDialect();
+
+        for (List<Integer> partition : Iterables.partition(objectIds, 1000))
+        {
+            // Same precedence as the COALESCE()s in the CTE: Material, Data, ExperimentRun, then plain Object
+            SQLFragment sql = new SQLFragment();
+            sql.append("SELECT ObjectId, 1 AS Priority, 'Material' AS ExpType, CpasType, LSID, RowId FROM ").append(svc.getTinfoMaterial(), "m").append(" WHERE ObjectId ");
+            dialect.appendInClauseSql(sql, partition);
+            sql.append("\nUNION ALL\nSELECT ObjectId, 2, 'Data', CpasType, LSID, RowId FROM ").append(svc.getTinfoData(), "d").append(" WHERE ObjectId ");
+            dialect.appendInClauseSql(sql, partition);
+            sql.append("\nUNION ALL\nSELECT ObjectId, 3, 'ExperimentRun', ProtocolLSID, LSID, RowId FROM ").append(svc.getTinfoExperimentRun(), "r").append(" WHERE ObjectId ");
+            dialect.appendInClauseSql(sql, partition);
+            sql.append("\nUNION ALL\nSELECT ObjectId, 4, 'Object', NULL, ObjectURI, ObjectId FROM ").append(getTinfoObject(), "o").append(" WHERE ObjectId ");
+            dialect.appendInClauseSql(sql, partition);
+
+            new SqlSelector(getScope(), sql).forEach(rs -> {
+                Node node = new Node(rs.getInt(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getInt(6));
+                nodes.merge(rs.getInt(1), node, (a, b) -> a.priority <= b.priority ? a : b);
+            });
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Registered as a PRECOMMIT task alongside PendingChanges; from here until PendingChanges runs, the index is behind.
+     */
+    private class CommitStarting implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            _committedGeneration.incrementAndGet();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof CommitStarting;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return CommitStarting.class.hashCode();
+        }
+    }
+
+    /**
+     * Registered as a POSTCOMMIT task; all instances are equal so each transaction collects its changes in one task.
+     */
+    private class PendingChanges implements Runnable
+    {
+        private final Set<Integer> _runIds = new HashSet<>();
+        private boolean _invalidate = false;
+
+        private synchronized void add(Collection<Integer> runIds)
+        {
+            _runIds.addAll(runIds);
+        }
+
+        private synchronized void invalidate()
+        {
+            _invalidate = true;
+        }
+
+        @Override
+        public synchronized void run()
+        {
+            try
+            {
+                if (_invalidate)
+                    clear();
+                else
+                    reloadRuns(_runIds);
+            }
+            finally
+            {
+                // Start over in case the transaction commits again
+                _runIds.clear();
+                _invalidate = false;
+                _appliedGeneration.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof PendingChanges;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return PendingChanges.class.hashCode();
+        }
+    }
+
+    private static class Node
+    {
+        private final int priority;
+        private final String expType;
+        private final String cpasType;
+        private final String lsid;
+        private final int rowId;
+
+        private Node(int priority, String expType, String cpasType, String lsid, int rowId)
+        {
+            this.priority = priority;
+            this.expType = expType;
+            this.cpasType = cpasType;
+            this.lsid = lsid;
+            this.rowId = rowId;
+        }
+    }
+
+    static class Edge
+    {
+        final int from;
+        final int to;
+        final int depth;
+
+        private Edge(int from, int to, int depth)
+        {
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * The edge graph itself: adjacency in both directions plus the edges contributed by each run, so a run's edges
+     * can be replaced. Not thread-safe; LineageIndex guards it with its lock. Package-private for LineagePerfTest.
+     */
+    static class Graph
+    {
+        // Each edge contributes ((from * 31 + to) * 31 + run) % CHECKSUM_MODULUS, computed the same way in SQL
+        static final long CHECKSUM_MODULUS = 1000000007L;
+
+        private final IntMultiMap _parents = new IntMultiMap();     // toObjectId -> fromObjectIds
+        private final IntMultiMap _children = new IntMultiMap();    // fromObjectId -> toObjectIds
+        private final Map<Integer, long[]> _runEdges = new HashMap<>();
+        private long _edgeCount = 0;
+        private long _checksum = 0;
+
+        private static long checksum(int from, int to, int runId)
+        {
+            return (((long)from * 31 + to) * 31 + runId) % CHECKSUM_MODULUS;
+        }
+
+        void addRun(int runId, long[] edges)
+        {
+            removeRun(runId);
+
+            for (long edge : edges)
+            {
+                int from = (int)(edge >>> 32);
+                int to = (int)edge;
+                _children.add(from, to);
+                _parents.add(to, from);
+                _checksum += checksum(from, to, runId);
+            }
+
+            _runEdges.put(runId, edges);
+            _edgeCount += edges.length;
+        }
+
+        void removeRun(int runId)
+        {
+            long[] edges = _runEdges.remove(runId);
+            if (null == edges)
+                return;
+
+            for (long edge : edges)
+            {
+                int from = (int)(edge >>> 32);
+                int to = (int)edge;
+                _children.remove(from, to);
+                _parents.remove(to, from);
+                _checksum -= checksum(from, to, runId);
+            }
+
+            _edgeCount -= edges.length;
+        }
+
+        long getEdgeCount()
+        {
+            return _edgeCount;
+        }
+
+        long getChecksum()
+        {
+            return _checksum;
+        }
+
+        int getRunCount()
+        {
+            return _runEdges.size();
+        }
+
+        /**
+         * Breadth-first walk from the seeds, returning each edge reached along with the depth at which it was first
+         * reached. Edges back into a seed are skipped, matching the cycle check in the recursive CTE.
+         */
+        List<Edge> walk(Collection<Integer> seedObjectIds, boolean up, int maxDepth)
+        {
+            IntMultiMap adjacency = up ? _parents : _children;
+            Set<Integer> seeds = new HashSet<>(seedObjectIds);
+            Set<Long> seenEdges = new HashSet<>();
+            Set<Integer> visited = new HashSet<>(seeds);
+            List<Edge> result = new ArrayList<>();
+
+            int[] frontier = seeds.stream().mapToInt(Integer::intValue).toArray();
+
+            for (int depth = 1; depth <= maxDepth && frontier.length > 0; depth++)
+            {
+                IntList next = new IntList();
+
+                for (int node : frontier)
+                {
+                    int[] neighbors = adjacency.get(node);
+                    int count = null == neighbors ? 0 : neighbors[0];
+
+                    for (int i = 1; i <= count; i++)
+                    {
+                        int neighbor = neighbors[i];
+                        if (seeds.contains(neighbor))
+                            continue;
+
+                        int from = up ? neighbor : node;
+                        int to = up ? node : neighbor;
+
+                        if (seenEdges.add(((long)from << 32) | (to & 0xFFFFFFFFL)))
+                            result.add(new Edge(from, to, depth));
+
+                        if (visited.add(neighbor))
+                            next.add(neighbor);
+                    }
+                }
+
+                frontier = next.toArray();
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Open addressing map from an int key to a multiset of int values, to keep millions of nodes from costing a boxed
+     * Integer and a collection apiece. Each value array holds its count in element 0. Keys are never removed; a key
+     * whose values have all been removed just maps to an empty array until the index is reloaded.
+     */
+    static class IntMultiMap
+    {
+        private static final int EMPTY = Integer.MIN_VALUE;
+
+        private int[] _keys = newKeys(1024);
+        private int[][] _values = new int[1024][];
+        private int _size = 0;
+
+        private static int[] newKeys(int capacity)
+        {
+            int[] keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private int slot(int[] keys, int key)
+        {
+            int mask = keys.length - 1;
+            int i = (key * 0x9E3779B9) & mask;
+
+            while (keys[i] != EMPTY && keys[i] != key)
+                i = (i + 1) & mask;
+
+            return i;
+        }
+
+        int[] get(int key)
+        {
+            int i = slot(_keys, key);
+            return _keys[i] == key ? _values[i] : null;
+        }
+
+        void add(int key, int value)
+        {
+            if (_size * 2 >= _keys.length)
+                resize();
+
+            int i = slot(_keys, key);
+
+            if (_keys[i] != key)
+            {
+                _keys[i] = key;
+                _values[i] = new int[2];    // most nodes have a single parent or child
+                _size++;
+            }
+
+            int[] values = _values[i];
+            int count = values[0];
+
+            if (count + 1 == values.length)
+                _values[i] = values = Arrays.copyOf(values, values.length * 2);
+
+            values[count + 1] = value;
+            values[0] = count + 1;
+        }
+
+        void remove(int key, int value)
+        {
+            int i = slot(_keys, key);
+            if (_keys[i] != key)
+                return;
+
+            int[] values = _values[i];
+            int count = values[0];
+
+            for (int j = 1; j <= count; j++)
+            {
+                if (values[j] == value)
+                {
+                    values[j] = values[count];
+                    values[0] = count - 1;
+                    return;
+                }
+            }
+        }
+
+        private void resize()
+        {
+            int[] oldKeys = _keys;
+            int[][] oldValues = _values;
+            _keys = newKeys(oldKeys.length * 2);
+            _values = new int[_keys.length][];
+
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] != EMPTY)
+                {
+                    int j = slot(_keys, oldKeys[i]);
+                    _keys[j] = oldKeys[i];
+                    _values[j] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /** Growable list of packed (from, to) edges */
+    static class EdgeList
+    {
+        private long[] _edges = new long[16];
+        private int _size = 0;
+
+        void add(int from, int to)
+        {
+            if (_size == _edges.length)
+                _edges = Arrays.copyOf(_edges, _size * 2);
+
+            _edges[_size++] = ((long)from << 32) | (to & 0xFFFFFFFFL);
+        }
+
+        int size()
+        {
+            return _size;
+        }
+
+        void clear()
+        {
+            _size = 0;
+        }
+
+        long[] toArray()
+        {
+            return Arrays.copyOf(_edges, _size);
+        }
+    }
+
+    private static class IntList
+    {
+        private int[] _values = new int[16];
+        private int _size = 0;
+
+        void add(int value)
+        {
+            if (_size == _values.length)
+                _values = Arrays.copyOf(_values, _size * 2);
+
+            _values[_size++] = value;
+        }
+
+        int[] toArray()
+        {
+            return Arrays.copyOf(_values, _size);
+        }
+    }
+}
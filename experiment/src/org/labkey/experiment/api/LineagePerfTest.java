@@ -25,6 +25,7 @@ import org.junit.Test;
 import org.labkey.api.collections.CaseInsensitiveHashMap;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.DbScope;
+import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.SimpleFilter;
 import org.labkey.api.data.Sort;
 import org.labkey.api.data.SqlSelector;
@@ -34,6 +35,7 @@ import org.labkey.api.exp.ExperimentException;
 import org.labkey.api.exp.Lsid;
 import org.labkey.api.exp.api.ExpData;
 import org.labkey.api.exp.api.ExpDataClass;
+import org.labkey.api.exp.api.ExpLineage;
 import org.labkey.api.exp.api.ExpLineageOptions;
 import org.labkey.api.exp.api.ExpMaterial;
 import org.labkey.api.exp.api.ExpRun;
@@ -307,6 +309,7 @@ public class LineagePerfTest extends Assert
 
         CPUTimer newLineageQuery = new CPUTimer("new lineage query");
         CPUTimer newLineageGraph = new CPUTimer("new lineage graph");
+        CPUTimer newLineageCTE = new CPUTimer("new lineage CTE");
         CPUTimer newInsertMoreTimer = new CPUTimer("new insertMore");
 
         //
@@ -332,7 +335,7 @@ public class LineagePerfTest extends Assert
 
         LOG.info("TEST querying with exp.edge lineage: ");
         ExperimentalFeatureService.get().setFeatureEnabled(ExperimentServiceImpl.EXPERIMENTAL_LEGACY_LINEAGE, false, _user);
-        lineageQueries("NEW", newLineageQuery, newLineageGraph, newInsertMoreTimer, ss, firstData);
+        lineageQueries("NEW", newLineageQuery, newLineageGraph, newLineageCTE, newInsertMoreTimer, ss, firstData);
 
         elapsedTimer.stop();
 
@@ -347,6 +350,7 @@ public class LineagePerfTest extends Assert
 //        LOG.info(oldInsertMoreTimer);
         LOG.info(newLineageQuery);
         LOG.info(newLineageGraph);
+        LOG.info(newLineageCTE);
         LOG.info(newInsertMoreTimer);
         LOG.info(elapsedTimer);
     }
@@ -436,7 +440,7 @@ public class LineagePerfTest extends Assert
         return Pair.of(ss, data);
     }
 
-    private void lineageQueries(String prefix, CPUTimer lineageQuery, CPUTimer lineageGraph, CPUTimer insertMoreTimer, ExpSampleSet ss, ExpData firstData) throws ExperimentException
+    private void lineageQueries(String prefix, CPUTimer lineageQuery, CPUTimer lineageGraph, CPUTimer lineageCTE, CPUTimer insertMoreTimer, ExpSampleSet ss, ExpData firstData) throws ExperimentException
     {
         // parse the query once
         final StringBuilder sql = new StringBuilder()
@@ -504,9 +508,119 @@ public class LineagePerfTest extends Assert
 
             LOG.info("  lineage graph 2");
             lineageGraph.start();
-            ExperimentService.get().getLineage(_container, _user, sample, opt);
+            ExpLineage lineage = ExperimentService.get().getLineage(_container, _user, sample, opt);
             lineageGraph.stop();
+
+            // for comparison, the recursive query the lineage index replaces
+            LOG.info("  lineage CTE");
+            lineageCTE.start();
+            ExpLineageOptions cteOptions = new ExpLineageOptions();
+            cteOptions.setUseObjectIds(true);
+            SQLFragment cte = ExperimentServiceImpl.get().generateExperimentTreeSQLObjectIdsSeeds(List.of(sample.getObjectId()), cteOptions);
+            Set<String> cteLsids = new HashSet<>();
+            new SqlSelector(ExperimentService.get().getSchema(), cte).forEachMap(row -> {
+                cteLsids.add((String)row.get("parent_lsid"));
+                cteLsids.add((String)row.get("child_lsid"));
+            });
+            lineageCTE.stop();
+
+            cteLsids.remove(sample.getLSID());
+            Set<String> graphLsids = new HashSet<>();
+            lineage.getDatas().forEach(d -> graphLsids.add(d.getLSID()));
+            lineage.getMaterials().forEach(m -> graphLsids.add(m.getLSID()));
+            lineage.getRuns().forEach(r -> graphLsids.add(r.getLSID()));
+            assertEquals("Lineage graph doesn't match the lineage CTE", cteLsids, graphLsids);
+        }
+    }
+
+    /**
+     * Benchmark the in-memory lineage index on a synthetic graph of 1M nodes, without touching the database. Each
+     * derivation adds a run node between one or two parent samples and a child sample; parents are mostly picked from
+     * recent samples so derivation chains get deep.
+     */
+    @Test
+    public void lineageIndexPerformance()
+    {
+        final int nodeCount = 1_000_000;
+        final int recentWindow = 100;
+
+        CPUTimer buildTimer = new CPUTimer("build 1M node index");
+        CPUTimer parentsTimer = new CPUTimer("parents, depth 1000");
+        CPUTimer childrenTimer = new CPUTimer("children, depth 1000");
+        CPUTimer shallowTimer = new CPUTimer("parents+children, depth 2");
+
+        Random random = new Random(12345);
+        LineageIndex.Graph graph = new LineageIndex.Graph();
+        List<Integer> samples = new ArrayList<>(nodeCount / 2);
+
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        buildTimer.start();
+        int nextObjectId = 1;
+        int runId = 1;
+        while (nextObjectId < nodeCount)
+        {
+            int child = nextObjectId++;
+
+            if (samples.size() < recentWindow || random.nextInt(10) == 0)
+            {
+                // new root sample
+                samples.add(child);
+                continue;
+            }
+
+            int run = nextObjectId++;
+            LineageIndex.EdgeList edges = new LineageIndex.EdgeList();
+            int parentCount = random.nextInt(4) == 0 ? 2 : 1;
+            for (int i = 0; i < parentCount; i++)
+            {
+                int parent = random.nextInt(10) == 0
+                        ? samples.get(random.nextInt(samples.size()))
+                        : samples.get(samples.size() - 1 - random.nextInt(recentWindow));
+                edges.add(parent, run);
+            }
+            edges.add(run, child);
+            graph.addRun(runId++, edges.toArray());
+            samples.add(child);
+        }
+        buildTimer.stop();
+
+        System.gc();
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+        LOG.info("lineage index: " + graph.getEdgeCount() + " edges, " + graph.getRunCount() + " runs, approx " + ((usedAfter - usedBefore) / (1024 * 1024)) + "MB");
+
+        long parentEdges = 0;
+        long childEdges = 0;
+        for (int i = 0; i < 100; i++)
+        {
+            int seed = samples.get(random.nextInt(samples.size()));
+
+            parentsTimer.start();
+            parentEdges += graph.walk(List.of(seed), true, 1000).size();
+            parentsTimer.stop();
+
+            childrenTimer.start();
+            childEdges += graph.walk(List.of(seed), false, 1000).size();
+            childrenTimer.stop();
+
+            shallowTimer.start();
+            List<LineageIndex.Edge> up = graph.walk(List.of(seed), true, 2);
+            graph.walk(List.of(seed), false, 2);
+            shallowTimer.stop();
+
+            // a derived sample's run (depth 1) and the run's inputs (depth 2) are always found
+            for (LineageIndex.Edge edge : up)
+                assertTrue(edge.depth == 1 ? edge.to == seed : edge.depth == 2);
         }
+
+        LOG.info("average edges reached: parents " + parentEdges / 100 + ", children " + childEdges / 100);
+        LOG.info(CPUTimer.header());
+        LOG.info(buildTimer);
+        LOG.info(parentsTimer);
+        LOG.info(childrenTimer);
+        LOG.info(shallowTimer);
     }
 
 }
@@ -443,6 +443,7 @@ public class LineageTest extends ExpProvisionedTableTestHelper
                 "runId", run.getRowId(), "fromObjectId", runObjectId, "toObjectId", b1ObjectId));
         Table.insert(null, edgeTable, Map.of(
                 "runId", run.getRowId(), "fromObjectId", runObjectId, "toObjectId", b2ObjectId));
+        LineageIndex.get().runEdgesChanged(List.of(run.getRowId()));
 
         // query the lineage
         ExpLineageOptions options = new ExpLineageOptions();
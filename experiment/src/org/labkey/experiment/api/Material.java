@@ -15,8 +15,13 @@
  */
 package org.labkey.experiment.api;
 
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.data.BeanObjectFactory;
 import org.labkey.api.exp.api.ExpMaterial;
 
+import java.util.Date;
+
 /**
  * Bean class for the exp.material table.
  * User: migra
@@ -44,4 +49,28 @@ public class Material extends RunItem
     {
         return getRowId();
     }
+
+
+    public static class TestCase extends Assert
+    {
+        // Samples are loaded by the thousands, so time their bean population against the reflection it replaced
+        @Test
+        public void compareBeanFactoryWithReflection() throws Exception
+        {
+            Material m = new Material();
+            m.setRowId(1234);
+            m.setLSID("urn:lsid:labkey.com:Sample.9.Blood:S-1234");
+            m.setName("S-1234");
+            m.setCpasType("urn:lsid:labkey.com:SampleSet.Folder-9:Blood");
+            m.setRunId(56);
+            m.setSourceApplicationId(78);
+            m.setCreated(new Date());
+            m.setCreatedBy(1001);
+            m.setModified(new Date());
+            m.setModifiedBy(1001);
+            m.setDescription("A sample");
+
+            BeanObjectFactory.TestCase.compareWithReflection(Material.class, m, 50_000);
+        }
+    }
 }
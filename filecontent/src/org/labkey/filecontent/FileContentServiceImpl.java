@@ -117,6 +117,7 @@ public class FileContentServiceImpl implements FileContentService
 
     private final ContainerListener _containerListener = new FileContentServiceContainerListener();
     private final List<FileListener> _fileListeners = new CopyOnWriteArrayList<>();
+    private final FileRootPathIndex _fileRootPathIndex = new FileRootPathIndex(this);
 
     private final List<DirectoryPattern> _ziploaderPattern = new CopyOnWriteArrayList<>();
 
@@ -149,42 +150,7 @@ public class FileContentServiceImpl implements FileContentService
         if (FileUtil.hasCloudScheme(path))
             return Collections.emptyList();
 
-        // If the path is under the default root, do optimistic simple match for containers under the default root
-        File defaultRoot = getSiteDefaultRoot();
-        java.nio.file.Path defaultRootPath = defaultRoot.toPath();
-        if (path.startsWith(defaultRootPath))
-        {
-            java.nio.file.Path rel = defaultRootPath.relativize(path);
-            if (rel.getNameCount() > 0)
-            {
-                Container root = ContainerManager.getRoot();
-                Container next = root;
-                while (rel.getNameCount() > 0)
-                {
-                    // check if there exists a child container that matches the next path segment
-                    java.nio.file.Path top = rel.subpath(0, 1);
-                    assert top != null;
-                    Container child = root.getChild(top.getFileName().toString());
-                    if (child == null)
-                        break;
-
-                    next = child;
-                    rel = rel.subpath(1, rel.getNameCount() - 1);
-                }
-
-                if (next != null && !next.equals(root))
-                {
-                    // verify our naive file path is correct for the container -- it may have a file root other than the default
-                    java.nio.file.Path fileRoot = getFileRootPath(next);
-                    if (fileRoot != null && path.startsWith(fileRoot))
-                        return Collections.singletonList(next);
-                }
-            }
-        }
-
-        // TODO: Create cache of file root and pipeline root paths -> list of containers
-
-        return Collections.emptyList();
+        return _fileRootPathIndex.getContainers(path);
     }
 
     @Override
@@ -232,6 +198,12 @@ public class FileContentServiceImpl implements FileContentService
 
     @Override
     public @Nullable java.nio.file.Path getFileRootPath(@NotNull Container c)
+    {
+        return getFileRootPath(c, true);
+    }
+
+    /** @param createDir whether to create the directory when the container uses a default root */
+    @Nullable java.nio.file.Path getFileRootPath(@Nullable Container c, boolean createDir)
     {
         if (c == null)
             return null;
@@ -248,7 +220,7 @@ public class FileContentServiceImpl implements FileContentService
             // check if there is a site wide file root
             if (root.getPath() == null || isUseDefaultRoot(c))
             {
-                return getDefaultRootPath(c, true);
+                return getDefaultRootPath(c, createDir);
             }
             else
                 return getNioPath(c, root.getPath());
@@ -746,6 +718,8 @@ public class FileContentServiceImpl implements FileContentService
         @Override
         public void containerCreated(Container c, User user)
         {
+            _fileRootPathIndex.invalidate();
+
             try
             {
                 // Will create directory if it's a default dir
@@ -760,6 +734,8 @@ public class FileContentServiceImpl implements FileContentService
         @Override
         public void containerDeleted(Container c, User user)
         {
+            _fileRootPathIndex.invalidate();
+
             java.nio.file.Path dir = null;
             try
             {
@@ -792,6 +768,8 @@ public class FileContentServiceImpl implements FileContentService
                 cloud default               local default -- move tree
                 cloud default               cloud default -- if change bucket, move tree
              *************************************************************/
+            _fileRootPathIndex.invalidate();
+
             if (isUseDefaultRoot(c))
             {
                 java.nio.file.Path srcParent = getFileRootPath(oldParent);
@@ -857,8 +835,17 @@ public class FileContentServiceImpl implements FileContentService
 
             switch (evt.property)
             {
+                case Parent:
+                case WebRoot:
+                case PipelineRoot:
+                case SiteRoot:
+                    _fileRootPathIndex.invalidate();
+                    break;
+
                 case Name:          // container rename event
                 {
+                    _fileRootPathIndex.invalidate();
+
                     String oldValue = (String) propertyChangeEvent.getOldValue();
                     String newValue = (String) propertyChangeEvent.getNewValue();
 
@@ -1638,6 +1625,41 @@ public class FileContentServiceImpl implements FileContentService
             assertPathsEqual("Incorrect file path", expectedFile, FileUtil.stringToPath(movedSubfolder, movedData.getDataFileUrl()).toFile());
         }
 
+        @Test
+        public void testGetContainersForFilePath()
+        {
+            //pre-clean
+            cleanup();
+
+            FileContentService svc = FileContentService.get();
+            Assert.assertNotNull(svc);
+
+            Container project1 = ContainerManager.createContainer(ContainerManager.getRoot(), PROJECT1);
+            Container subfolder1 = ContainerManager.createContainer(project1, PROJECT1_SUBFOLDER1);
+            Container subsubfolder = ContainerManager.createContainer(subfolder1, PROJECT1_SUBSUBFOLDER);
+
+            // default roots nest, so the deepest container wins
+            File project1File = new File(svc.getFileRoot(project1, ContentType.files), TXT_FILE);
+            File subsubfolderFile = new File(svc.getFileRoot(subsubfolder, ContentType.files), TXT_FILE);
+            Assert.assertEquals(Collections.singletonList(project1), svc.getContainersForFilePath(project1File.toPath()));
+            Assert.assertEquals(Collections.singletonList(subsubfolder), svc.getContainersForFilePath(subsubfolderFile.toPath()));
+
+            // a custom root that isn't under any other container's root maps to the folder and its children once it's set
+            File customRoot = new File(getTestRoot(), "CustomSubfolder");
+            customRoot.mkdirs();
+            File customFile = new File(customRoot, TXT_FILE);
+            Assert.assertTrue(svc.getContainersForFilePath(customFile.toPath()).isEmpty());
+
+            svc.setFileRoot(subfolder1, customRoot);
+            Assert.assertEquals(Collections.singletonList(subfolder1), svc.getContainersForFilePath(customFile.toPath()));
+            File movedSubsubfolderFile = new File(svc.getFileRoot(subsubfolder, ContentType.files), TXT_FILE);
+            Assert.assertEquals(Collections.singletonList(subsubfolder), svc.getContainersForFilePath(movedSubsubfolderFile.toPath()));
+
+            // and dropped once the folder is deleted
+            ContainerManager.deleteAll(subfolder1, TestContext.get().getUser());
+            Assert.assertTrue(svc.getContainersForFilePath(customFile.toPath()).isEmpty());
+        }
+
         @Test
         public void testWorkbooksAndTabs()
         {
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.filecontent;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.ContainerManager;
+import org.labkey.api.pipeline.PipeRoot;
+import org.labkey.api.pipeline.PipelineService;
+import org.labkey.api.util.FileUtil;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trie of the file root of every container plus every explicitly configured pipeline root, keyed by path segment, so
+ * the containers that own a file are found by longest-prefix match in O(path depth). Default, overridden and inherited
+ * file roots are all included; cloud roots are not.
+ *
+ * The trie is built on first use and discarded by FileContentServiceImpl's container listener whenever a container is
+ * created, deleted, moved or renamed, or a site, file or pipeline root changes. The next lookup rebuilds it.
+ */
+class FileRootPathIndex
+{
+    private static final Logger LOG = Logger.getLogger(FileRootPathIndex.class);
+
+    private final FileContentServiceImpl _svc;
+    private volatile Node _root = null;
+    private int _generation = 0;    // Guarded by this; lets a build tell whether it was invalidated while running
+
+    FileRootPathIndex(FileContentServiceImpl svc)
+    {
+        _svc = svc;
+    }
+
+    synchronized void invalidate()
+    {
+        _generation++;
+        _root = null;
+    }
+
+    /** Returns the containers whose file or pipeline root is the longest prefix of the path */
+    @NotNull List<Container> getContainers(@NotNull Path path)
+    {
+        List<Container> containers = new ArrayList<>();
+
+        for (String id : find(getRoot(), path))
+        {
+            Container c = ContainerManager.getForId(id);
+            if (null != c)
+                containers.add(c);
+        }
+
+        return containers;
+    }
+
+    private Node getRoot()
+    {
+        Node root = _root;
+
+        if (null == root)
+        {
+            int generation;
+            synchronized (this)
+            {
+                generation = _generation;
+            }
+
+            root = build();
+
+            synchronized (this)
+            {
+                // Don't publish a trie that missed an invalidation; it's still fine for this one lookup
+                if (generation == _generation)
+                    _root = root;
+            }
+        }
+
+        return root;
+    }
+
+    private Node build()
+    {
+        Node root = new Node();
+
+        for (Container c : ContainerManager.getAllChildren(ContainerManager.getRoot()))
+        {
+            if (c.isRoot())
+                continue;
+
+            try
+            {
+                add(root, _svc.getFileRootPath(c, false), c);
+            }
+            catch (RuntimeException e)
+            {
+                // e.g., a cloud root whose store isn't available; don't let one container break every lookup
+                LOG.warn("Unable to resolve file root for " + c.getPath() + ": " + e.getMessage());
+            }
+        }
+
+        PipelineService pipelineService = PipelineService.get();
+        if (null != pipelineService)
+        {
+            for (Map.Entry<Container, PipeRoot> entry : pipelineService.getAllPipelineRoots().entrySet())
+            {
+                if (!entry.getValue().isCloudRoot())
+                    add(root, entry.getValue().getRootNioPath(), entry.getKey());
+            }
+        }
+
+        return root;
+    }
+
+    static void add(@NotNull Node root, @Nullable Path path, @NotNull Container c)
+    {
+        if (null == path || FileUtil.hasCloudScheme(path))
+            return;
+
+        path = path.toAbsolutePath().normalize();
+        Node node = root.getOrCreateChild(String.valueOf(path.getRoot()));
+        for (Path name : path)
+            node = node.getOrCreateChild(name.toString());
+
+        if (!node._containerIds.contains(c.getId()))
+            node._containerIds.add(c.getId());
+    }
+
+    static @NotNull List<String> find(@NotNull Node root, @NotNull Path path)
+    {
+        path = path.toAbsolutePath().normalize();
+        List<String> found = Collections.emptyList();
+        Node node = root._children.get(String.valueOf(path.getRoot()));
+
+        for (int i = 0; null != node; i++)
+        {
+            if (!node._containerIds.isEmpty())
+                found = node._containerIds;
+            if (i == path.getNameCount())
+                break;
+            node = node._children.get(path.getName(i).toString());
+        }
+
+        return found;
+    }
+
+    // Not modified once the trie is published
+    static class Node
+    {
+        private final Map<String, Node> _children = new HashMap<>();
+        private final List<String> _containerIds = new ArrayList<>(1);
+
+        private Node getOrCreateChild(String name)
+        {
+            return _children.computeIfAbsent(name, n -> new Node());
+        }
+    }
+}
@@ -461,6 +461,34 @@ class ScriptReferenceImpl implements ScriptReference
         return invokeFn(Object.class, thiz, name, args);
     }
 
+    @Override
+    public <T> List<T> invokeFnForEach(Class<T> resultType, String name, List<Object[]> argsList) throws ScriptException, NoSuchMethodException
+    {
+        // compile and evaluate if necessary
+        if (!_evaluated)
+            eval();
+
+        // Enter the context and build the runtime scope (which installs require()) once for the whole list
+        Context ctx = Context.enter();
+        try
+        {
+            LOG.debug("Invoking method '" + name + "' " + argsList.size() + " times in script '" + _path.toString() + "'");
+            ScriptContext ctxt = getContext();
+            Scriptable scope = _engine.getRuntimeScope(ctxt);
+            List<T> results = new ArrayList<>(argsList.size());
+            for (Object[] args : argsList)
+            {
+                Object result = _engine.invokeMethod(scope, name, args);
+                results.add(result == null ? null : (T)ScriptUtils.jsToJava(result, resultType));
+            }
+            return results;
+        }
+        finally
+        {
+            Context.exit();
+        }
+    }
+
     @Override
     public boolean equals(Object o)
     {
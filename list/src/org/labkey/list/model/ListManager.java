@@ -215,6 +215,7 @@ public class ListManager implements SearchService.DocumentProvider
 
         ListDef ret = Table.insert(user, tinfo, builder.build());
         _listDefCache.remove(c.getId());
+        QueryService.get().updateLastModified();
         return ret;
     }
 
@@ -234,6 +235,7 @@ public class ListManager implements SearchService.DocumentProvider
             ListDef old = getList(c, def.getListId());
             ret = Table.update(user, getListMetadataTable(), def, new Object[]{c, def.getListId()});
             _listDefCache.remove(c.getId());
+            QueryService.get().updateLastModified();
             if (!old.getName().equals(ret.getName()))
             {
                 QueryChangeListener.QueryPropertyChange change = new QueryChangeListener.QueryPropertyChange<>(
@@ -267,6 +269,7 @@ public class ListManager implements SearchService.DocumentProvider
             // ok
         }
         _listDefCache.remove(c.getId());
+        QueryService.get().updateLastModified();
     }
 
 
@@ -70,6 +70,7 @@ public class ListQuerySchema extends UserSchema
     public ListQuerySchema(User user, Container container)
     {
         super(NAME, DESCR, user, container, ListSchema.getInstance().getSchema());
+        _cacheTableInfos = true;
     }
 
     @Override
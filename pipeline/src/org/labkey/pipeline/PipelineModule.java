@@ -41,8 +41,10 @@ import org.labkey.api.pipeline.file.PathMapperImpl;
 import org.labkey.api.pipeline.trigger.PipelineTriggerRegistry;
 import org.labkey.api.pipeline.trigger.PipelineTriggerType;
 import org.labkey.api.security.User;
+import org.labkey.api.usageMetrics.UsageMetricsService;
 import org.labkey.api.util.ContextListener;
 import org.labkey.api.util.PageFlowUtil;
+import org.labkey.api.util.UsageReportingLevel;
 import org.labkey.api.util.emailTemplate.EmailTemplateService;
 import org.labkey.api.view.BaseWebPartFactory;
 import org.labkey.api.view.DefaultWebPartFactory;
@@ -198,6 +200,13 @@ public class PipelineModule extends SpringModule implements ContainerManager.Con
         }
 
         AuditLogService.get().registerAuditType(new ProtocolManagementAuditProvider());
+
+        UsageMetricsService metricsService = UsageMetricsService.get();
+        if (null != metricsService && service.getPipelineQueue() instanceof PipelineQueueImpl)
+        {
+            PipelineQueueImpl queue = (PipelineQueueImpl) service.getPipelineQueue();
+            metricsService.registerUsageMetrics(UsageReportingLevel.MEDIUM, getName(), () -> Collections.singletonMap("localPipelineQueue", queue.getMetrics()));
+        }
     }
 
     @Override
@@ -282,7 +291,8 @@ public class PipelineModule extends SpringModule implements ContainerManager.Con
             PathMapperImpl.TestCase.class,
             PipelineCommandTestCase.class,
             PipelineJobMarshaller.TestCase.class,
-            PipelineJobServiceImpl.TestCase.class
+            PipelineJobServiceImpl.TestCase.class,
+            PipelineStatusFileImpl.TestCase.class
         );
     }
 
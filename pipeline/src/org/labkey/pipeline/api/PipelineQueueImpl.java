@@ -21,6 +21,7 @@ import org.junit.Test;
 import org.labkey.api.data.ConnectionWrapper;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerManager;
+import org.labkey.api.pipeline.NoSuchJobException;
 import org.labkey.api.pipeline.PipelineJob;
 import org.labkey.api.pipeline.PipelineJobData;
 import org.labkey.api.pipeline.PipelineJobService;
@@ -36,33 +37,94 @@ import org.labkey.api.view.ViewBackgroundInfo;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Runs all jobs in the web server with a simple thread pool.
+ * Runs all jobs in the web server. Each {@link PipelineJob.ResourceClass} gets its own worker pool, sized via the
+ * labkey.pipeline.cpuWorkers, labkey.pipeline.ioWorkers and labkey.pipeline.interactiveWorkers system properties.
+ * File analysis and R report jobs run in the cpu pool, background assay uploads in the interactive pool, and
+ * everything else (imports, reloads, exports, maintenance) in the io pool.
+ * Pending jobs are started in priority order and, within a priority, from the container with the fewest running
+ * jobs, subject to a per-container quota (labkey.pipeline.containerQuota). Each job is checkpointed to its status
+ * file as it's queued, so the JobRestarter can requeue everything that was pending when the server went down.
  */
 public class PipelineQueueImpl extends AbstractPipelineQueue
 {
     private static final Logger LOG = Logger.getLogger(PipelineQueueImpl.class);
-    private static final int MAX_RUNNING_JOBS = 10;
+    private static final int DEFAULT_CONTAINER_QUOTA = 2;
 
     private final List<PipelineJob> _pending = new ArrayList<>();
     private final List<PipelineJob> _running = new ArrayList<>();
 
-    // This is the list of jobs that have been submitted to JobRunner-- they
+    // This is the list of jobs that have been submitted to a JobRunner-- they
     // may be either running or pending.
     private final Set<PipelineJob> _submitted = new HashSet<>();
 
-    private final JobRunner _runner = new JobRunner("Pipeline", MAX_RUNNING_JOBS);
+    private final Map<PipelineJob.ResourceClass, JobRunner> _runners = new EnumMap<>(PipelineJob.ResourceClass.class);
+    private final Map<PipelineJob.ResourceClass, Integer> _workerCounts = new EnumMap<>(PipelineJob.ResourceClass.class);
+    private final Map<PipelineJob.ResourceClass, WaitStats> _waitStats = new EnumMap<>(PipelineJob.ResourceClass.class);
+    private final Map<PipelineJob, Long> _enqueueTimes = new HashMap<>();
+    private final int _containerQuota;
 
-    protected synchronized void enqueue(PipelineJob job)
+    public PipelineQueueImpl()
     {
-        _pending.add(job);
-        submitJobs();
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        _workerCounts.put(PipelineJob.ResourceClass.cpu, Integer.getInteger("labkey.pipeline.cpuWorkers", Math.max(2, processors / 2)));
+        _workerCounts.put(PipelineJob.ResourceClass.io, Integer.getInteger("labkey.pipeline.ioWorkers", 6));
+        _workerCounts.put(PipelineJob.ResourceClass.interactive, Integer.getInteger("labkey.pipeline.interactiveWorkers", 2));
+        _containerQuota = Math.max(1, Integer.getInteger("labkey.pipeline.containerQuota", DEFAULT_CONTAINER_QUOTA));
+
+        for (PipelineJob.ResourceClass resourceClass : PipelineJob.ResourceClass.values())
+        {
+            int workers = Math.max(1, _workerCounts.get(resourceClass));
+            _workerCounts.put(resourceClass, workers);
+            _runners.put(resourceClass, new JobRunner("Pipeline-" + resourceClass, workers));
+            _waitStats.put(resourceClass, new WaitStats());
+        }
+    }
+
+    protected void enqueue(PipelineJob job)
+    {
+        // Write the job store before taking the queue's monitor, so a slow database doesn't hold up every other job
+        checkpoint(job);
+
+        synchronized (this)
+        {
+            _pending.add(job);
+            _enqueueTimes.put(job, System.currentTimeMillis());
+            submitJobs();
+        }
+    }
+
+    // Store the serialized job with its status file so it survives a restart. Jobs without a status file (e.g., the
+    // test jobs below) simply aren't persisted.
+    private void checkpoint(PipelineJob job)
+    {
+        if (null == job.getLogFilePath())
+            return;
+
+        try
+        {
+            PipelineJobService.get().getJobStore().storeJob(job);
+        }
+        catch (NoSuchJobException e)
+        {
+            LOG.debug("No status file for job " + job.getJobGUID() + "; not persisting it");
+        }
+        catch (RuntimeException e)
+        {
+            LOG.warn("Unable to persist queued job " + job.getJobGUID(), e);
+        }
     }
 
     public boolean isLocal()
@@ -73,7 +135,7 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
 
     public boolean isTransient()
     {
-        // Only place for this queue is local server memory.
+        // Running state lives in local server memory; pending jobs are requeued from their status files on restart.
         return true;
     }
 
@@ -87,7 +149,7 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
         boolean removed = _pending.remove(job);
         assert removed;
         _running.add(job);
-        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.setPriority(PipelineJob.ResourceClass.interactive == job.getResourceClass() ? Thread.NORM_PRIORITY : Thread.NORM_PRIORITY - 1);
 
         // Set centrally to avoid needing to set in each job. See PipelineJobRunner for equivalent functionality
         // when running through Enterprise Pipeline
@@ -123,46 +185,140 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
     }
 
     /**
-     * Look through the pending jobs and see if there are any that can be submitted to the runner right now.
-     * Some jobs are single threaded.  There can be only one single threaded job in the queue at any time.
-     * Multi-threaded jobs are allowed to be run one per container.
+     * Look through the pending jobs and submit as many as can run right now. Some jobs are single threaded; there can
+     * be only one single threaded job running at any time. A job is submitted only if its resource class's pool has
+     * a free worker and its container is under quota. Among eligible jobs, higher priority wins; within a priority,
+     * the job from the container with the fewest submitted jobs wins, and then the oldest.
      *
-     * We do not submit a job to the JobRunner unless it is ok to run it right now.
-     * The JobRunner takes care of limiting the simultaneous jobs to {@link #MAX_RUNNING_JOBS}
+     * We do not submit a job to a JobRunner unless it is ok to run it right now, so the runners never queue.
      */
     private synchronized void submitJobs()
     {
         if (_pending.size() == 0)
             return;
-        HashSet<String> containers = new HashSet<>();
+
+        Map<String, Integer> containerCounts = new HashMap<>();
+        Map<PipelineJob.ResourceClass, Integer> poolCounts = new EnumMap<>(PipelineJob.ResourceClass.class);
         boolean singleThreadedJobFound = false;
+
         for (PipelineJob job : _submitted)
         {
-            containers.add(job.getContainerId());
+            containerCounts.merge(job.getContainerId(), 1, Integer::sum);
+            poolCounts.merge(job.getResourceClass(), 1, Integer::sum);
             if (!job.allowMultipleSimultaneousJobs())
-            {
                 singleThreadedJobFound = true;
-            }
         }
-        for (PipelineJob job : _pending.toArray(new PipelineJob[_pending.size()]))
+
+        // Stable sort, so submission order is preserved within a priority
+        List<PipelineJob> candidates = new ArrayList<>(_pending.size());
+        for (PipelineJob job : _pending)
         {
-            if (_submitted.contains(job))
-                continue;
-            if (!job.allowMultipleSimultaneousJobs() && singleThreadedJobFound)
-                continue;
-            if (containers.contains(job.getContainerId()))
-                continue;
-            _submitted.add(job);
-            containers.add(job.getContainerId());
-            _runner.execute(job);
-            job.setSubmitted();
-            if (!job.allowMultipleSimultaneousJobs())
+            if (!_submitted.contains(job))
+                candidates.add(job);
+        }
+        candidates.sort(Comparator.comparingInt(PipelineJob::getQueuePriority).reversed());
+
+        while (!candidates.isEmpty())
+        {
+            PipelineJob best = null;
+            int bestContainerCount = Integer.MAX_VALUE;
+
+            for (PipelineJob job : candidates)
             {
+                if (null != best && job.getQueuePriority() < best.getQueuePriority())
+                    break;
+                if (!job.allowMultipleSimultaneousJobs() && singleThreadedJobFound)
+                    continue;
+                if (poolCounts.getOrDefault(job.getResourceClass(), 0) >= _workerCounts.get(job.getResourceClass()))
+                    continue;
+
+                int containerCount = containerCounts.getOrDefault(job.getContainerId(), 0);
+
+                if (containerCount >= _containerQuota)
+                    continue;
+
+                if (containerCount < bestContainerCount)
+                {
+                    best = job;
+                    bestContainerCount = containerCount;
+                }
+            }
+
+            if (null == best)
+                break;
+
+            candidates.remove(best);
+            _submitted.add(best);
+            containerCounts.merge(best.getContainerId(), 1, Integer::sum);
+            poolCounts.merge(best.getResourceClass(), 1, Integer::sum);
+            if (!best.allowMultipleSimultaneousJobs())
                 singleThreadedJobFound = true;
+
+            Long enqueued = _enqueueTimes.remove(best);
+            if (null != enqueued)
+                _waitStats.get(best.getResourceClass()).add(System.currentTimeMillis() - enqueued);
+
+            _runners.get(best.getResourceClass()).execute(best);
+            best.setSubmitted();
+        }
+    }
+
+    /**
+     * Queue depth and wait time statistics for each worker pool, suitable for usage metrics or an admin page
+     */
+    public synchronized Map<String, Object> getMetrics()
+    {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+
+        for (PipelineJob.ResourceClass resourceClass : PipelineJob.ResourceClass.values())
+        {
+            int pending = 0;
+            long oldestWait = 0;
+
+            for (PipelineJob job : _pending)
+            {
+                if (job.getResourceClass() == resourceClass && !_submitted.contains(job))
+                {
+                    pending++;
+                    Long enqueued = _enqueueTimes.get(job);
+                    if (null != enqueued)
+                        oldestWait = Math.max(oldestWait, now - enqueued);
+                }
             }
+
+            int running = (int)_submitted.stream().filter(job -> job.getResourceClass() == resourceClass).count();
+            WaitStats stats = _waitStats.get(resourceClass);
+
+            Map<String, Object> pool = new LinkedHashMap<>();
+            pool.put("workers", _workerCounts.get(resourceClass));
+            pool.put("pending", pending);
+            pool.put("running", running);
+            pool.put("started", stats._count);
+            pool.put("averageWaitMs", stats._count == 0 ? 0 : stats._total / stats._count);
+            pool.put("maxWaitMs", stats._max);
+            pool.put("oldestPendingWaitMs", oldestWait);
+            metrics.put(resourceClass.name(), pool);
         }
+
+        metrics.put("containerQuota", _containerQuota);
+
+        return metrics;
     }
 
+    private static class WaitStats
+    {
+        private long _count = 0;
+        private long _total = 0;
+        private long _max = 0;
+
+        private void add(long wait)
+        {
+            _count++;
+            _total += wait;
+            _max = Math.max(_max, wait);
+        }
+    }
 
     boolean inContainer(Container c, PipelineJob job)
     {
@@ -190,6 +346,7 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
             {
                 job.cancel(false);
                 it.remove();
+                _enqueueTimes.remove(job);
                 job.getLogger().info("Cancelling job by removing from job queue.");
                 PipelineJob.logStartStopInfo("Cancelling job by removing from job queue. Job ID: " + job.getJobGUID() + ", " + statusFile.getFilePath());
                 // It should already be set to CANCELLING. Set to CANCELLED to indicate that it's dead.
@@ -388,7 +545,8 @@ public class PipelineQueueImpl extends AbstractPipelineQueue
             data = queue.getJobDataInMemory(null);
 
 
-            assertEquals(0, queue._runner.getJobCount());
+            for (JobRunner runner : queue._runners.values())
+                assertEquals(0, runner.getJobCount());
             assertEquals(jobs.length, counter.get());
         }
     }
@@ -17,6 +17,9 @@
 package org.labkey.pipeline.api;
 
 import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.data.BeanObjectFactory;
 import org.labkey.api.data.Entity;
 import org.labkey.api.pipeline.PipelineJob;
 import org.labkey.api.pipeline.PipelineJobService;
@@ -418,4 +421,28 @@ public class PipelineStatusFileImpl extends Entity implements Serializable, Pipe
     {
         _activeHostName = activeHostName;
     }
+
+
+    public static class TestCase extends Assert
+    {
+        // The job list polls these beans constantly, so time their population against the reflection it replaced
+        @Test
+        public void compareBeanFactoryWithReflection() throws Exception
+        {
+            PipelineStatusFileImpl sf = new PipelineStatusFileImpl();
+            sf.setRowId(42);
+            sf.setJob("6d2b1c1e-8d3e-1037-8c1b-0e1f2a3b4c5d");
+            sf.setProvider("Test provider");
+            sf.setStatus(PipelineJob.TaskStatus.running.toString());
+            sf.setInfo("step 2 of 3");
+            sf.setFilePath("/data/pipeline/job.log");
+            sf.setDataUrl("/labkey/home/pipeline-status-details.view?rowId=42");
+            sf.setDescription("Test job");
+            sf.setEmail("admin@example.com");
+            sf.setActiveTaskId("{org.labkey.api.pipeline.file.FileAnalysisTaskPipeline}/test");
+            sf.setActiveHostName("localhost");
+
+            BeanObjectFactory.TestCase.compareWithReflection(PipelineStatusFileImpl.class, sf, 50_000);
+        }
+    }
 }
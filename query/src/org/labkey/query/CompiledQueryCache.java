@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.query;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.ContainerFilter;
+import org.labkey.api.data.ContainerManager;
+import org.labkey.api.data.TableInfo;
+import org.labkey.api.data.queryprofiler.QueryProfiler;
+import org.labkey.api.exp.PropertyType;
+import org.labkey.api.exp.list.ListDefinition;
+import org.labkey.api.exp.list.ListService;
+import org.labkey.api.exp.property.Domain;
+import org.labkey.api.exp.property.DomainProperty;
+import org.labkey.api.query.DefaultSchema;
+import org.labkey.api.query.QueryException;
+import org.labkey.api.query.UserSchema;
+import org.labkey.api.security.Group;
+import org.labkey.api.security.MutableSecurityPolicy;
+import org.labkey.api.security.SecurityManager;
+import org.labkey.api.security.SecurityPolicyManager;
+import org.labkey.api.security.User;
+import org.labkey.api.security.roles.ReaderRole;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.TestContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Server-wide cache of the locked TableInfos compiled from custom (LabKey SQL) queries, so repeated requests for the same
+ * query don't re-parse, re-bind and re-resolve lookups every time. A compiled TableInfo holds on to the user and schema
+ * that created it, so entries are only shared between requests by the same user in the same container, and only for
+ * schemas whose tables don't depend on any other per-request state (see UserSchema.isCacheTableInfos()).
+ *
+ * Nothing is ever explicitly removed. Keys include the query's SQL and metadata, the container filter, the security
+ * policy modification count and the query metadata generation, which QueryService.updateLastModified() bumps for query,
+ * domain, schema and module resource changes. Once any of those changes, stale entries simply stop matching and age out.
+ */
+class CompiledQueryCache
+{
+    private static final Cache<List<Object>, TableInfo> CACHE = CacheManager.getCache(1000, CacheManager.HOUR, "Compiled query TableInfos");
+
+    /** Returns null if tables compiled for this query and schema can't be shared across requests */
+    static @Nullable List<Object> getKey(@NotNull QueryDefinitionImpl def, @NotNull UserSchema schema, @Nullable ContainerFilter cf,
+                                         boolean includeMetadata, boolean skipSuggestedColumns, boolean allowDuplicateColumns)
+    {
+        User user = schema.getUser();
+        if (!schema.isCacheTableInfos() || !def.isCompiledTableShareable() || null == user || user.isImpersonated())
+            return null;
+
+        String cfKey = null == cf ? "~defaultCF~" : cf.getCacheKey(schema.getContainer());
+        if (null == cfKey)
+            return null;
+
+        return Arrays.asList(schema.getClass(), schema.getSchemaPath(), schema.getContainer().getId(), user.getUserId(),
+                def.getName().toLowerCase(), def.getSql(), def.getMetadataXml(), cfKey, includeMetadata, skipSuggestedColumns,
+                allowDuplicateColumns, SecurityPolicyManager.getModificationCount(), QueryServiceImpl.get().getMetadataGeneration());
+    }
+
+    static @Nullable TableInfo get(@Nullable List<Object> key)
+    {
+        if (null == key)
+            return null;
+
+        TableInfo table = CACHE.get(key);
+        if (null != table)
+            QueryProfiler.getInstance().trackCompileCacheHit();
+        return table;
+    }
+
+    /** Locks and caches a freshly compiled table, unless it takes named parameters (see 37732) */
+    static void put(@Nullable List<Object> key, @NotNull TableInfo table)
+    {
+        if (null == key || !table.getNamedParameters().isEmpty())
+            return;
+
+        table.setLocked(true);
+        CACHE.put(key, table);
+    }
+
+
+    public static class TestCase extends Assert
+    {
+        private static final String FOLDER_NAME = "_testCompiledQueryCache";
+        private static final String LIST_NAME = "CompiledQueryCacheList";
+        private static final String QUERY_NAME = "CompiledQueryCacheQuery";
+
+        private Container _c;
+        private ListDefinition _list;
+
+        private User getUser()
+        {
+            return TestContext.get().getUser();
+        }
+
+        @Before
+        public void setUp() throws Exception
+        {
+            Container parent = JunitUtil.getTestContainer();
+            Container existing = parent.getChild(FOLDER_NAME);
+            if (null != existing)
+                ContainerManager.deleteAll(existing, getUser());
+            _c = ContainerManager.createContainer(parent, FOLDER_NAME);
+
+            _list = ListService.get().createList(_c, LIST_NAME, ListDefinition.KeyType.AutoIncrementInteger);
+            _list.setKeyName("RowId");
+            addProperty(requireNonNull(_list.getDomain()), "Name");
+            _list.save(getUser());
+        }
+
+        @After
+        public void tearDown()
+        {
+            ContainerManager.deleteAll(_c, getUser());
+        }
+
+        private void addProperty(Domain d, String name)
+        {
+            DomainProperty p = d.addProperty();
+            p.setPropertyURI(d.getTypeURI() + "#" + name);
+            p.setName(name);
+            p.setRangeURI(PropertyType.STRING.getTypeUri());
+        }
+
+        private void grantGuestsRead()
+        {
+            MutableSecurityPolicy policy = new MutableSecurityPolicy(SecurityPolicyManager.getPolicy(_c));
+            policy.addRoleAssignment(requireNonNull(SecurityManager.getGroup(Group.groupGuests)), ReaderRole.class);
+            SecurityPolicyManager.savePolicy(policy);
+        }
+
+        private UserSchema lists(User user)
+        {
+            return (UserSchema)requireNonNull(DefaultSchema.get(user, _c).getSchema("lists"));
+        }
+
+        /** A fresh definition each time, so its own per-instance table cache never answers for the shared one */
+        private CustomQueryDefinitionImpl newDef(UserSchema schema)
+        {
+            CustomQueryDefinitionImpl def = new CustomQueryDefinitionImpl(schema.getUser(), _c, schema, QUERY_NAME);
+            def.setSql("SELECT * FROM " + LIST_NAME);
+            return def;
+        }
+
+        private TableInfo compile(CustomQueryDefinitionImpl def)
+        {
+            List<QueryException> errors = new ArrayList<>();
+            TableInfo table = def.getTable(def.getSchema(), errors, true);
+            assertTrue(errors.toString(), errors.isEmpty());
+            assertNotNull(table);
+            return table;
+        }
+
+        @Test
+        public void testCacheHit()
+        {
+            UserSchema lists = lists(getUser());
+            assertTrue("ListQuerySchema should opt in to sharing compiled tables", lists.isCacheTableInfos());
+
+            CustomQueryDefinitionImpl def = newDef(lists);
+            assertNotNull(getKey(def, lists, null, true, false, false));
+
+            TableInfo first = compile(def);
+            assertTrue(first.isLocked());
+            assertSame(first, compile(newDef(lists)));
+            assertSame(first, compile(newDef(lists(getUser()))));
+
+            // Flags that change what gets compiled are part of the key
+            assertNotEquals(getKey(def, lists, null, true, false, false), getKey(def, lists, null, false, false, false));
+        }
+
+        @Test
+        public void testInvalidatedByUpdateLastModified()
+        {
+            UserSchema lists = lists(getUser());
+            TableInfo first = compile(newDef(lists));
+
+            QueryServiceImpl.get().updateLastModified();
+
+            TableInfo second = compile(newDef(lists));
+            assertNotSame(first, second);
+            assertSame(second, compile(newDef(lists)));
+        }
+
+        @Test
+        public void testInvalidatedByDomainChange() throws Exception
+        {
+            UserSchema lists = lists(getUser());
+            TableInfo first = compile(newDef(lists));
+            assertNull(first.getColumn("Extra"));
+
+            // Provisioning the new column invalidates the storage table, which bumps the metadata generation
+            Domain d = requireNonNull(_list.getDomain());
+            addProperty(d, "Extra");
+            d.save(getUser());
+
+            TableInfo second = compile(newDef(lists(getUser())));
+            assertNotSame(first, second);
+            assertNotNull("Compiled table should pick up the new list column", second.getColumn("Extra"));
+        }
+
+        @Test
+        public void testInvalidatedBySecurityChange()
+        {
+            UserSchema lists = lists(getUser());
+            TableInfo first = compile(newDef(lists));
+
+            grantGuestsRead();
+
+            TableInfo second = compile(newDef(lists(getUser())));
+            assertNotSame(first, second);
+        }
+
+        @Test
+        public void testInvalidatedByMetadataChange()
+        {
+            UserSchema lists = lists(getUser());
+            TableInfo first = compile(newDef(lists));
+            assertNotEquals("Renamed", first.getColumn("Name").getLabel());
+
+            CustomQueryDefinitionImpl def = newDef(lists);
+            def.setMetadataXml("<tables xmlns=\"http://labkey.org/data/xml\"><table tableName=\"" + QUERY_NAME + "\" tableDbType=\"NOT_IN_DB\">" +
+                    "<columns><column columnName=\"Name\"><columnTitle>Renamed</columnTitle></column></columns></table></tables>");
+            TableInfo second = compile(def);
+            assertNotSame(first, second);
+            assertEquals("Renamed", second.getColumn("Name").getLabel());
+
+            // The original definition still maps to the original table
+            assertSame(first, compile(newDef(lists)));
+        }
+
+        @Test
+        public void testUserAndContainerFilterIsolation()
+        {
+            UserSchema lists = lists(getUser());
+            CustomQueryDefinitionImpl def = newDef(lists);
+
+            // Another user never sees this user's compiled table
+            grantGuestsRead();
+            UserSchema guestLists = lists(User.guest);
+            List<Object> guestKey = getKey(newDef(guestLists), guestLists, null, true, false, false);
+            assertNotNull(guestKey);
+            assertNotEquals(getKey(def, lists, null, true, false, false), guestKey);
+
+            // Different container filters compile (and cache) separately
+            List<Object> currentKey = getKey(def, lists, ContainerFilter.CURRENT, true, false, false);
+            List<Object> everythingKey = getKey(def, lists, ContainerFilter.EVERYTHING, true, false, false);
+            assertNotEquals(currentKey, everythingKey);
+            assertNotEquals(getKey(def, lists, null, true, false, false), currentKey);
+
+            // Granting guests access changed the security key, so compile the baseline after that
+            lists = lists(getUser());
+            TableInfo first = compile(newDef(lists));
+            CustomQueryDefinitionImpl cfDef = newDef(lists);
+            cfDef.setContainerFilter(ContainerFilter.EVERYTHING);
+            TableInfo everything = compile(cfDef);
+            assertNotSame(first, everything);
+            assertSame(first, compile(newDef(lists)));
+        }
+
+        @Test
+        public void testNotShared()
+        {
+            // Only schemas that opt in are shared; the core schema's tables depend on more than user and container
+            UserSchema core = (UserSchema)requireNonNull(DefaultSchema.get(getUser(), _c).getSchema("core"));
+            assertFalse(core.isCacheTableInfos());
+            assertNull(getKey(new CustomQueryDefinitionImpl(getUser(), _c, core, QUERY_NAME), core, null, true, false, false));
+
+            // Session queries are never shared
+            UserSchema lists = lists(getUser());
+            CustomQueryDefinitionImpl temporary = newDef(lists);
+            temporary.setIsTemporary(true);
+            assertNull(getKey(temporary, lists, null, true, false, false));
+        }
+    }
+}
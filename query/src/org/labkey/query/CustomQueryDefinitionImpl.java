@@ -57,4 +57,11 @@ public class CustomQueryDefinitionImpl extends QueryDefinitionImpl
     {
         return getQueryDef().getSql();
     }
+
+    @Override
+    protected boolean isCompiledTableShareable()
+    {
+        // Session queries are per-user scratch space, so they're never shared
+        return !isTemporary();
+    }
 }
@@ -32,6 +32,7 @@ import org.labkey.api.data.ContainerFilter;
 import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.DisplayColumn;
 import org.labkey.api.data.TableInfo;
+import org.labkey.api.data.queryprofiler.QueryProfiler;
 import org.labkey.api.query.CustomView;
 import org.labkey.api.query.DetailsURL;
 import org.labkey.api.query.FieldKey;
@@ -98,9 +99,7 @@ public abstract class QueryDefinitionImpl implements QueryDefinition
     private ContainerFilter _containerFilter;
     private boolean _temporary = false;
 
-    // todo: spec 25628 making _cache static prevents the entire map of all tableInfos from being reloaded each time GetQueryViewsAction instantiates a new copy of QueryDefintionImpl
-    // but may make _cache susceptible to concurrency conflicts or security problems -- more investigation is needed
-    // private static Map<Pair<String, Boolean>, TableInfo> _cache = new HashMap<>();
+    // Per-instance cache of tables; see CompiledQueryCache for the server-wide cache that's shared across instances (spec 25628)
     private  Map<Pair<String, Boolean>, TableInfo> _cache = new HashMap<>();
 
     private Map<String, TableType> _metadataTableMap = null;
@@ -533,14 +532,31 @@ public abstract class QueryDefinitionImpl implements QueryDefinition
             TableInfo table = _cache.get(key);
             if (table == null)
             {
-                // Occasionally called with a get, but simple table creation is not a serious vector for CSRF attacks
-                try (var ignored = SpringActionController.ignoreSqlUpdates())
-                {
-                    table = createTable(schema, errors, includeMetadata, null, skipSuggestedColumns, allowDuplicateColumns);
-                }
+                List<Object> sharedKey = CompiledQueryCache.getKey(this, schema, _containerFilter, includeMetadata, skipSuggestedColumns, allowDuplicateColumns);
+                table = CompiledQueryCache.get(sharedKey);
 
                 if (null == table)
-                    return null;
+                {
+                    if (null == errors)
+                        errors = new ArrayList<>();
+                    int errorCount = errors.size();
+                    long start = System.nanoTime();
+
+                    // Occasionally called with a get, but simple table creation is not a serious vector for CSRF attacks
+                    try (var ignored = SpringActionController.ignoreSqlUpdates())
+                    {
+                        table = createTable(schema, errors, includeMetadata, null, skipSuggestedColumns, allowDuplicateColumns);
+                    }
+
+                    QueryProfiler.getInstance().trackCompile(System.nanoTime() - start);
+
+                    if (null == table)
+                        return null;
+
+                    // Tables with errors or warnings are rebuilt each time so every caller sees them
+                    if (errors.size() == errorCount)
+                        CompiledQueryCache.put(sharedKey, table);
+                }
 
                 log.debug("Caching table " + schema.getName() + "." + table.getName());
                 _cache.put(key, table);
@@ -748,6 +764,15 @@ public abstract class QueryDefinitionImpl implements QueryDefinition
         return _temporary;
     }
 
+    /**
+     * Whether tables compiled from this definition may be shared across requests via CompiledQueryCache. Only saved custom
+     * queries qualify; see CustomQueryDefinitionImpl.
+     */
+    protected boolean isCompiledTableShareable()
+    {
+        return false;
+    }
+
     public void setIsSnapshot(boolean f)
     {
         if (isSnapshot() == f)
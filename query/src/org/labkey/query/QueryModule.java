@@ -97,7 +97,9 @@ import org.labkey.query.controllers.OlapController;
 import org.labkey.query.controllers.QueryController;
 import org.labkey.query.controllers.SqlController;
 import org.labkey.query.jdbc.QueryDriver;
+import org.labkey.query.olap.BitSetQueryImpl;
 import org.labkey.query.olap.MemberSet;
+import org.labkey.query.olap.MemberSetCache;
 import org.labkey.query.olap.ServerManager;
 import org.labkey.query.olap.metadata.MetadataElementBase;
 import org.labkey.query.olap.rolap.RolapReader;
@@ -342,6 +344,7 @@ public class QueryModule extends DefaultModule
     public Set<Class> getIntegrationTests()
     {
         return Set.of(
+            CompiledQueryCache.TestCase.class,
             ModuleReportCache.TestCase.class,
             MultiValueTest.class,
             OlapController.TestCase.class,
@@ -370,9 +373,11 @@ public class QueryModule extends DefaultModule
         return Set.of(
             AggregateQueryDataTransform.TestCase.class,
             AttachmentReport.TestCase.class,
+            BitSetQueryImpl.TestCase.class,
             FilterClauseBuilder.TestCase.class,
             JdbcType.TestCase.class,
             MemberSet.TestCase.class,
+            MemberSetCache.TestCase.class,
             MetadataElementBase.TestCase.class,
             QNode.TestCase.class,
             ReportsController.SerializationTest.class,
@@ -194,6 +194,8 @@ public class QueryServiceImpl implements QueryService
     private QueryAnalysisService _queryAnalysisService;
 
     private final AtomicLong _metadataLastModified = new AtomicLong(new Date().getTime());
+    private final AtomicLong _metadataGeneration = new AtomicLong();
+    private final Runnable _incrementMetadataGeneration = _metadataGeneration::incrementAndGet;
 
     private final List<CompareType> COMPARE_TYPES = new CopyOnWriteArrayList<>(Arrays.asList(
             CompareType.EQUAL,
@@ -413,6 +415,23 @@ public class QueryServiceImpl implements QueryService
     public void updateLastModified()
     {
         _metadataLastModified.set(new Date().getTime());
+        _metadataGeneration.incrementAndGet();
+
+        // Most changes happen inside a transaction; bump again once they're visible to other threads so nothing compiled
+        // against the old state in the meantime lingers under the new generation
+        DbScope scope = DbScope.getLabKeyScope();
+        if (scope.isTransactionActive())
+            scope.addCommitTask(_incrementMetadataGeneration, DbScope.CommitTaskOption.POSTCOMMIT);
+    }
+
+    /**
+     * Incremented on every updateLastModified(), i.e., whenever a query, domain, schema or module resource changes. Unlike
+     * the timestamp it can't stand still across two changes in the same millisecond, so caches of compiled query state
+     * include it in their keys.
+     */
+    public long getMetadataGeneration()
+    {
+        return _metadataGeneration.get();
     }
 
 
@@ -2957,7 +2976,8 @@ public class QueryServiceImpl implements QueryService
                                 break;
                             }
                         }
-                        AuditLogService.get().addEvent(user, event);
+                        // One event per row, so let the audit log batch them up
+                        AuditLogService.get().queueEvent(user, event);
                     }
                     break;
                 }
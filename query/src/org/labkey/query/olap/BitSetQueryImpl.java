@@ -19,8 +19,9 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
 import org.labkey.api.cache.CacheManager;
-import org.labkey.api.cache.StringKeyCache;
 import org.labkey.api.collections.CaseInsensitiveHashMap;
 import org.labkey.api.collections.CaseInsensitiveHashSet;
 import org.labkey.api.data.Container;
@@ -62,10 +63,12 @@ import org.olap4j.metadata.Property;
 import org.springframework.validation.BindException;
 
 import java.io.IOException;
+import java.lang.reflect.Proxy;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -76,7 +79,12 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 import static org.labkey.query.olap.QubeQuery.OP;
 
@@ -1036,107 +1044,102 @@ public class BitSetQueryImpl
             rowMembers = new ArrayList<>();
             colMembers = new ArrayList<>();
 
-            HashMap<String,MemberSet> quickCache = new HashMap<>();
             for (Member rowMember : rowsExpr.getCollection())
             {
                 if (rowMember.isCalculated() && rowsExpr.skipCalculated())
                     continue;
+                rowMembers.add(rowMember);
+            }
 
-                MemberSet rowMemberSet = null;
-
+            // columns are only reported if there is at least one row
+            if (!rowMembers.isEmpty())
+            {
                 for (Member colMember : colsExpr.getCollection())
                 {
                     if (colMember.isCalculated() && colsExpr.skipCalculated())
                         continue;
+                    colMembers.add(colMember);
+                }
+            }
 
-                    // first time through rowMembers isEmpty
-                    if (rowMembers.isEmpty())
-                        colMembers.add(colMember);
-
-                    int count;
+            // OPTIMIZATION: nothing to do if either filter returned empty set
+            if (0 == countFilterSet || 0 == countWhereSet)
+            {
+                for (int i = 0; i < rowMembers.size() * colMembers.size(); i++)
+                    measureValues.add(0);
+            }
+            else if (!colMembers.isEmpty())
+            {
+                // collect the members associated with each row and column member up front (these may hit the database)
+                // if there is a whereFilter, we collect the set of members in the joinLevel,
+                // otherwise we collect members from the measureLevel
+                Level memberLevel = 0 < countWhereSet ? joinLevel : countDistinctLevel;
+                MemberSet[] rowMemberSets = new MemberSet[rowMembers.size()];
+                for (int r = 0; r < rowMemberSets.length; r++)
+                    rowMemberSets[r] = _dataSourceHelper.membersQuery(memberLevel, rowMembers.get(r));
 
-                    // OPTIMIZATION: nothing to do if either filter returned empty set
-                    if (0 == countFilterSet || 0 == countWhereSet)
+                HashMap<String,MemberSet> quickCache = new HashMap<>();
+                MemberSet[] colMemberSets = new MemberSet[colMembers.size()];
+                for (int c = 0; c < colMemberSets.length; c++)
+                {
+                    Member colMember = colMembers.get(c);
+                    MemberSet colMemberSet = quickCache.get(colMember.getUniqueName());
+                    if (null == colMemberSet)
                     {
-                        count = 0;
+                        colMemberSet = _dataSourceHelper.membersQuery(memberLevel, colMember);
+                        quickCache.put(colMember.getUniqueName(), colMemberSet);
                     }
-                    else
-                    {
-                        // first time we see this row, cache the members associated with the row member
-                        // if there is a whereFilter, we cache the set of members in the joinLevel,
-                        // otherwise we cache members from the measureLevel
-                        if (null == rowMemberSet)
-                        {
-                            if (0 < countWhereSet)
-                                rowMemberSet = _dataSourceHelper.membersQuery(joinLevel, rowMember);
-                            else
-                                rowMemberSet = _dataSourceHelper.membersQuery(countDistinctLevel, rowMember);
-                        }
-
-                        // first time we see this column, cache the members associated with the column member
-                        // if there is a whereFilter, we cache the set of members in the joinLevel,
-                        // otherwise we cache members from the measureLevel
-                        // for perf we stack away in quickCache so we don't have to recompute anything on the next row.
-                        MemberSet colMemberSet = quickCache.get(colMember.getUniqueName());
-                        if (null == colMemberSet)
-                        {
-                            if (0 < countWhereSet)
-                                colMemberSet = _dataSourceHelper.membersQuery(joinLevel, colMember);
-                            else
-                                colMemberSet = _dataSourceHelper.membersQuery(countDistinctLevel, colMember);
-                            quickCache.put(colMember.getUniqueName(),colMemberSet);
-                        }
+                    colMemberSets[c] = colMemberSet;
+                }
 
+                // at this point we have a subset of joinLevel or measureLevel members for each row and column
 
-                        // at this point we have a subset of joinLevel or measureLevel members for the current row and column
+                // if joinLevel == measureLevel then countWhere should be -1
+                assert joinLevel != countDistinctLevel || countWhereSet == -1;
 
-                        // if joinLevel == measureLevel then countWhere should be -1
-                        assert joinLevel != countDistinctLevel || countWhereSet == -1;
+                int[][] counts;
 
-                        if (0 < countWhereSet || joinLevel != countDistinctLevel)
+                if (0 < countWhereSet || joinLevel != countDistinctLevel)
+                {
+                    // mapping the joined members to the measureLevel goes through the data source helper, so stay on this thread
+                    counts = new int[rowMemberSets.length][colMemberSets.length];
+                    for (int r = 0; r < rowMemberSets.length; r++)
+                    {
+                        for (int c = 0; c < colMemberSets.length; c++)
                         {
                             // if there is a whereFilter
                             // collect the joinLevel members that intersect the current row and column membersets and the whereFilter
                             MemberSet join = null == whereSet ?
-                                    MemberSet.intersect(rowMemberSet, colMemberSet) :
-                                    MemberSet.intersect(rowMemberSet, colMemberSet, whereSet);
+                                    MemberSet.intersect(rowMemberSets[r], colMemberSets[c]) :
+                                    MemberSet.intersect(rowMemberSets[r], colMemberSets[c], whereSet);
 
                             // now find the associated members in the measureLevel and filter if necessary
                             // TODO avoid new MemberSetResult() wrapper
                             MemberSet countMemberSet = _dataSourceHelper.membersQuery(new MemberSetResult(countDistinctLevel), new MemberSetResult(join));
                             if (null == filterSet)
                             {
-                                count = countMemberSet.size();
+                                counts[r][c] = countMemberSet.size();
                                 if (null != allNullMember && countMemberSet.contains(allNullMember))
-                                    count -= 1;
+                                    counts[r][c] -= 1;
                             }
                             else
                             {
-                                count = MemberSet.countIntersect(countMemberSet, filterSet);
+                                counts[r][c] = MemberSet.countIntersect(countMemberSet, filterSet);
                                 if (null != allNullMember && countMemberSet.contains(allNullMember) && filterSet.contains(allNullMember))
-                                    count -= 1;
-                            }
-                        }
-                        else
-                        {
-                            // simple case, just intersect everything and return the count
-                            if (null == filterSet)
-                            {
-                                count = MemberSet.countIntersect(rowMemberSet, colMemberSet);
-                                if (null != allNullMember && rowMemberSet.contains(allNullMember) && colMemberSet.contains(allNullMember))
-                                    count -= 1;
-                            }
-                            else
-                            {
-                                count = MemberSet.countIntersect(rowMemberSet, colMemberSet, filterSet);
-                                if (null != allNullMember && rowMemberSet.contains(allNullMember) && colMemberSet.contains(allNullMember) && filterSet.contains(allNullMember))
-                                    count -= 1;
+                                    counts[r][c] -= 1;
                             }
                         }
                     }
-                    measureValues.add(count);
                 }
-                rowMembers.add(rowMember);
+                else
+                {
+                    // simple case, just intersect everything and return the count
+                    counts = countIntersectCells(rowMemberSets, colMemberSets, filterSet, allNullMember);
+                }
+
+                for (int[] row : counts)
+                    for (int count : row)
+                        measureValues.add(count);
             }
         }
 
@@ -1144,6 +1147,66 @@ public class BitSetQueryImpl
     }
 
 
+    // Intersecting the row and column sets is pure CPU work on sealed MemberSets, so large cross joins are spread over a
+    // bounded pool instead of tying up one core. Small ones aren't worth the hand-off.
+    private static final int PARALLEL_CELL_THRESHOLD = 256;
+    private static final ForkJoinPool _cellPool = new ForkJoinPool(Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors() - 1)));
+
+    static int[][] countIntersectCells(MemberSet[] rowMemberSets, MemberSet[] colMemberSets, @Nullable MemberSet filterSet, @Nullable Member allNullMember)
+    {
+        int[][] counts = new int[rowMemberSets.length][colMemberSets.length];
+        IntConsumer countRow = r -> {
+            for (int c = 0; c < colMemberSets.length; c++)
+                counts[r][c] = countIntersectCell(rowMemberSets[r], colMemberSets[c], filterSet, allNullMember);
+        };
+
+        if ((long)rowMemberSets.length * colMemberSets.length < PARALLEL_CELL_THRESHOLD || rowMemberSets.length < 2)
+        {
+            for (int r = 0; r < rowMemberSets.length; r++)
+                countRow.accept(r);
+            return counts;
+        }
+
+        try
+        {
+            _cellPool.submit(() -> IntStream.range(0, rowMemberSets.length).parallel().forEach(countRow)).get();
+        }
+        catch (InterruptedException x)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(x);
+        }
+        catch (ExecutionException x)
+        {
+            if (x.getCause() instanceof RuntimeException)
+                throw (RuntimeException)x.getCause();
+            if (x.getCause() instanceof Error)
+                throw (Error)x.getCause();
+            throw new RuntimeException(x.getCause());
+        }
+
+        return counts;
+    }
+
+    private static int countIntersectCell(MemberSet rowMemberSet, MemberSet colMemberSet, @Nullable MemberSet filterSet, @Nullable Member allNullMember)
+    {
+        int count;
+        if (null == filterSet)
+        {
+            count = MemberSet.countIntersect(rowMemberSet, colMemberSet);
+            if (null != allNullMember && rowMemberSet.contains(allNullMember) && colMemberSet.contains(allNullMember))
+                count -= 1;
+        }
+        else
+        {
+            count = MemberSet.countIntersect(rowMemberSet, colMemberSet, filterSet);
+            if (null != allNullMember && rowMemberSet.contains(allNullMember) && colMemberSet.contains(allNullMember) && filterSet.contains(allNullMember))
+                count -= 1;
+        }
+        return count;
+    }
+
+
     MemberSet filter(Level measureLevel, Result filterAxisResult, MemberSet containerMembers) throws SQLException
     {
         List<Result> list = new ArrayList<>();
@@ -1385,7 +1448,8 @@ public class BitSetQueryImpl
     }
 
 
-    static StringKeyCache<MemberSet> _resultsCache = CacheManager.getStringKeyCache(CacheManager.UNLIMITED, TimeUnit.DAYS.toMillis(1), "olap - count distinct queries");
+    // bounded by the estimated size of the cached sets rather than their number
+    static final MemberSetCache _resultsCache = new MemberSetCache("olap - count distinct queries", TimeUnit.DAYS.toMillis(1), Runtime.getRuntime().maxMemory() / 10);
 
     MemberSet resultsCacheGet(String query)
     {
@@ -2582,4 +2646,78 @@ public class BitSetQueryImpl
     {
         _log.error(msg, x);
     }
+
+
+    public static class TestCase extends Assert
+    {
+        @Test
+        public void testCountIntersectCells() throws OlapException
+        {
+            String[] names = new String[200];
+            for (int i = 0; i < names.length; i++)
+                names[i] = "Member" + i;
+            Level l = (Level)Proxy.newProxyInstance(MemberSet.class.getClassLoader(), new Class<?>[]{Level.class}, new MemberSet.MockLevelProxy(MemberSet.h, "Participant", 1, names));
+            List<Member> members = l.getMembers();
+
+            MemberSet[] rows = new MemberSet[20];
+            MemberSet[] cols = new MemberSet[25];
+            assertTrue("Should take the parallel path", rows.length * cols.length >= PARALLEL_CELL_THRESHOLD);
+
+            for (int r = 0; r < rows.length; r++)
+            {
+                int modulus = r + 2;
+                rows[r] = memberSet(members, ordinal -> ordinal % modulus == 0);
+            }
+            for (int c = 0; c < cols.length; c++)
+            {
+                int modulus = c + 3;
+                cols[c] = memberSet(members, ordinal -> ordinal % modulus == 1 || ordinal == 0);
+            }
+            MemberSet filter = memberSet(members, ordinal -> ordinal < 150);
+            Member allNullMember = members.get(0);
+
+            // Every combination of filter and null member must match cell-by-cell (and so serial) counts
+            for (MemberSet filterSet : Arrays.asList(null, filter))
+            {
+                for (Member nullMember : Arrays.asList(null, allNullMember))
+                {
+                    int[][] counts = countIntersectCells(rows, cols, filterSet, nullMember);
+                    assertEquals(rows.length, counts.length);
+
+                    for (int r = 0; r < rows.length; r++)
+                    {
+                        for (int c = 0; c < cols.length; c++)
+                        {
+                            int[][] serial = countIntersectCells(new MemberSet[]{rows[r]}, new MemberSet[]{cols[c]}, filterSet, nullMember);
+                            assertEquals(serial[0][0], counts[r][c]);
+                            assertEquals(expectedCount(rows[r], cols[c], filterSet, nullMember), counts[r][c]);
+                        }
+                    }
+                }
+            }
+        }
+
+        private static MemberSet memberSet(List<Member> members, IntPredicate ordinals)
+        {
+            MemberSet set = new MemberSet();
+            for (Member m : members)
+            {
+                if (ordinals.test(m.getOrdinal()))
+                    set.add(m);
+            }
+            set.seal();
+            return set;
+        }
+
+        private static int expectedCount(MemberSet row, MemberSet col, @Nullable MemberSet filter, @Nullable Member nullMember)
+        {
+            int count = 0;
+            for (Member m : row)
+            {
+                if (col.contains(m) && (null == filter || filter.contains(m)) && (null == nullMember || m.getOrdinal() != nullMember.getOrdinal()))
+                    count++;
+            }
+            return count;
+        }
+    }
 }
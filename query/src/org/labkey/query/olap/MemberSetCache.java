@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.query.olap;
+
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.cache.CacheListener;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.cache.StringKeyCache;
+import org.labkey.api.mbean.LabKeyManagement;
+import org.olap4j.OlapException;
+import org.olap4j.metadata.Level;
+
+import javax.management.DynamicMBean;
+import javax.management.StandardMBean;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of MemberSet query results bounded by their estimated size in bytes rather than by entry count, since a single
+ * large dataspace result can outweigh thousands of small ones. Entries live in a regular StringKeyCache (so admin
+ * console statistics and "clear caches" work as usual) while this class tracks their sizes and expiration times in LRU
+ * order, evicting the least recently used results once the total goes over budget and dropping expired results from
+ * both. Size and eviction statistics are exposed through JMX (type "OlapCache").
+ */
+public class MemberSetCache implements MemberSetCacheMXBean
+{
+    private final StringKeyCache<MemberSet> _cache;
+    private final String _debugName;
+    private final long _defaultTimeToLive;
+    private final long _maxBytes;
+
+    private final Map<String, Entry> _sizes = new LinkedHashMap<>(16, 0.75f, true);   // Guarded by this
+    private long _totalBytes = 0;                                                       // Guarded by this
+    private long _nextExpiration = Long.MAX_VALUE;                                      // Guarded by this
+
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _evictedBytes = new AtomicLong();
+    private final AtomicLong _rejections = new AtomicLong();
+
+    // The admin console clears the underlying cache directly; forget the sizes along with it
+    final CacheListener _clearListener = this::forgetAll;
+
+    private static class Entry
+    {
+        private final long _size;
+        private final long _expires;
+
+        private Entry(long size, long expires)
+        {
+            _size = size;
+            _expires = expires;
+        }
+    }
+
+    MemberSetCache(String debugName, long defaultTimeToLive, long maxBytes)
+    {
+        this(CacheManager.getStringKeyCache(CacheManager.UNLIMITED, defaultTimeToLive, debugName), debugName, defaultTimeToLive, maxBytes);
+
+        CacheManager.addListener(_clearListener);
+
+        DynamicMBean mbean = new StandardMBean(this, MemberSetCacheMXBean.class, true);
+        LabKeyManagement.register(mbean, "OlapCache", debugName);
+    }
+
+    // Used directly by tests, which pass a temporary cache and don't register with CacheManager or JMX
+    MemberSetCache(StringKeyCache<MemberSet> cache, String debugName, long defaultTimeToLive, long maxBytes)
+    {
+        _cache = cache;
+        _debugName = debugName;
+        _defaultTimeToLive = defaultTimeToLive;
+        _maxBytes = maxBytes;
+    }
+
+    @Nullable MemberSet get(String key)
+    {
+        MemberSet m = _cache.get(key);
+
+        synchronized (this)
+        {
+            // Marks the entry as recently used, or drops the size of an entry that has expired
+            if (null != m)
+                _sizes.get(key);
+            else
+                forget(key);
+        }
+
+        return m;
+    }
+
+    void put(String key, MemberSet m)
+    {
+        put(key, m, null);
+    }
+
+    void put(String key, MemberSet m, @Nullable Long timeToLive)
+    {
+        long size = m.getMemorySizeInBytes();
+
+        // Caching this would push everything else out
+        if (size > _maxBytes)
+        {
+            _rejections.incrementAndGet();
+            return;
+        }
+
+        if (null == timeToLive)
+            _cache.put(key, m);
+        else
+            _cache.put(key, m, timeToLive);
+
+        long ttl = null == timeToLive ? _defaultTimeToLive : timeToLive;
+        long expires = ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE;
+
+        synchronized (this)
+        {
+            Entry previous = _sizes.put(key, new Entry(size, expires));
+            _totalBytes += size - (null == previous ? 0 : previous._size);
+            _nextExpiration = Math.min(_nextExpiration, expires);
+            removeExpired();
+            evict(key);
+        }
+    }
+
+    void removeUsingPrefix(String prefix)
+    {
+        _cache.removeUsingPrefix(prefix);
+
+        synchronized (this)
+        {
+            Iterator<Map.Entry<String, Entry>> iter = _sizes.entrySet().iterator();
+            while (iter.hasNext())
+            {
+                Map.Entry<String, Entry> entry = iter.next();
+                if (entry.getKey().startsWith(prefix))
+                {
+                    iter.remove();
+                    _totalBytes -= entry.getValue()._size;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear()
+    {
+        _cache.clear();
+        forgetAll();
+    }
+
+    // Drop least recently used results until we're under budget, keeping the entry that was just added
+    private synchronized void evict(String keep)
+    {
+        Iterator<Map.Entry<String, Entry>> iter = _sizes.entrySet().iterator();
+
+        while (_totalBytes > _maxBytes && iter.hasNext())
+        {
+            Map.Entry<String, Entry> entry = iter.next();
+            if (entry.getKey().equals(keep))
+                continue;
+
+            long size = entry.getValue()._size;
+            iter.remove();
+            _totalBytes -= size;
+            _cache.remove(entry.getKey());
+            _evictions.incrementAndGet();
+            _evictedBytes.addAndGet(size);
+        }
+    }
+
+    // Expired results don't count against the budget. Drop them from the underlying cache at the same time, so the two
+    // never disagree about what's cached. Only scans when the earliest known expiration has passed.
+    private synchronized void removeExpired()
+    {
+        long now = System.currentTimeMillis();
+        if (now < _nextExpiration)
+            return;
+
+        long next = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Entry>> iter = _sizes.entrySet().iterator();
+
+        while (iter.hasNext())
+        {
+            Map.Entry<String, Entry> entry = iter.next();
+            if (entry.getValue()._expires <= now)
+            {
+                iter.remove();
+                _totalBytes -= entry.getValue()._size;
+                _cache.remove(entry.getKey());
+            }
+            else
+            {
+                next = Math.min(next, entry.getValue()._expires);
+            }
+        }
+
+        _nextExpiration = next;
+    }
+
+    private synchronized void forget(String key)
+    {
+        Entry entry = _sizes.remove(key);
+        if (null != entry)
+            _totalBytes -= entry._size;
+    }
+
+    private synchronized void forgetAll()
+    {
+        _sizes.clear();
+        _totalBytes = 0;
+        _nextExpiration = Long.MAX_VALUE;
+    }
+
+    @Override
+    public String getDebugName()
+    {
+        return _debugName;
+    }
+
+    @Override
+    public synchronized int getSize()
+    {
+        removeExpired();
+        return _sizes.size();
+    }
+
+    @Override
+    public synchronized long getEstimatedBytes()
+    {
+        removeExpired();
+        return _totalBytes;
+    }
+
+    @Override
+    public long getMaxBytes()
+    {
+        return _maxBytes;
+    }
+
+    @Override
+    public long getEvictions()
+    {
+        return _evictions.get();
+    }
+
+    @Override
+    public long getEvictedBytes()
+    {
+        return _evictedBytes.get();
+    }
+
+    @Override
+    public long getRejections()
+    {
+        return _rejections.get();
+    }
+
+
+    public static class TestCase extends Assert
+    {
+        private StringKeyCache<MemberSet> _underlying;
+
+        @Before
+        public void setUp()
+        {
+            _underlying = CacheManager.getTemporaryCache(CacheManager.UNLIMITED, CacheManager.HOUR, "MemberSetCache test", null);
+        }
+
+        @After
+        public void tearDown()
+        {
+            _underlying.close();
+        }
+
+        private static MemberSet memberSet(int members) throws OlapException
+        {
+            String[] names = new String[members];
+            for (int i = 0; i < members; i++)
+                names[i] = "Member" + i;
+            Level l = (Level)Proxy.newProxyInstance(MemberSet.class.getClassLoader(), new Class<?>[]{Level.class}, new MemberSet.MockLevelProxy(MemberSet.h, "Level" + members, 1, names));
+            MemberSet m = new MemberSet(l, l.getMembers());
+            m.seal();
+            return m;
+        }
+
+        @Test
+        public void testEviction() throws OlapException
+        {
+            MemberSet m = memberSet(100);
+            long size = m.getMemorySizeInBytes();
+            MemberSetCache cache = new MemberSetCache(_underlying, "test", CacheManager.HOUR, 3 * size + size / 2);
+
+            cache.put("a", m);
+            cache.put("b", m);
+            cache.put("c", m);
+            assertEquals(3, cache.getSize());
+            assertEquals(3 * size, cache.getEstimatedBytes());
+
+            // Replacing an entry doesn't double count it
+            cache.put("c", m);
+            assertEquals(3 * size, cache.getEstimatedBytes());
+
+            // "a" is now more recently used than "b", so "b" goes first
+            assertSame(m, cache.get("a"));
+            cache.put("d", m);
+            assertNull(cache.get("b"));
+            assertNull(_underlying.get("b"));
+            assertSame(m, cache.get("a"));
+            assertSame(m, cache.get("c"));
+            assertSame(m, cache.get("d"));
+            assertEquals(3, cache.getSize());
+            assertEquals(3 * size, cache.getEstimatedBytes());
+            assertEquals(1, cache.getEvictions());
+            assertEquals(size, cache.getEvictedBytes());
+
+            // Anything bigger than the whole budget is never cached
+            MemberSet big = memberSet(100_000);
+            assertTrue(big.getMemorySizeInBytes() > cache.getMaxBytes());
+            cache.put("big", big);
+            assertNull(cache.get("big"));
+            assertEquals(1, cache.getRejections());
+            assertEquals(3, cache.getSize());
+        }
+
+        @Test
+        public void testRemoveAndClear() throws OlapException
+        {
+            MemberSet m = memberSet(100);
+            long size = m.getMemorySizeInBytes();
+            MemberSetCache cache = new MemberSetCache(_underlying, "test", CacheManager.HOUR, 100 * size);
+
+            cache.put("p/a", m);
+            cache.put("p/b", m);
+            cache.put("q/c", m);
+            cache.removeUsingPrefix("p/");
+            assertEquals(1, cache.getSize());
+            assertEquals(size, cache.getEstimatedBytes());
+            assertNull(cache.get("p/a"));
+
+            cache.clear();
+            assertEquals(0, cache.getSize());
+            assertEquals(0, cache.getEstimatedBytes());
+            assertNull(cache.get("q/c"));
+
+            // The admin console's "clear caches" empties the underlying cache and then notifies the listener
+            cache.put("a", m);
+            cache.put("b", m);
+            _underlying.clear();
+            cache._clearListener.clearCaches();
+            assertEquals(0, cache.getSize());
+            assertEquals(0, cache.getEstimatedBytes());
+        }
+
+        @Test
+        public void testExpiration() throws Exception
+        {
+            MemberSet m = memberSet(100);
+            long size = m.getMemorySizeInBytes();
+            MemberSetCache cache = new MemberSetCache(_underlying, "test", CacheManager.HOUR, 2 * size + size / 2);
+
+            cache.put("short", m, 50L);
+            cache.put("long", m);
+            assertEquals(2 * size, cache.getEstimatedBytes());
+
+            Thread.sleep(100);
+
+            // The expired entry no longer counts against the budget, without anyone having to ask for it
+            assertEquals(1, cache.getSize());
+            assertEquals(size, cache.getEstimatedBytes());
+            assertNull(_underlying.get("short"));
+
+            // ...so there's room for two more without evicting the live one
+            cache.put("another", m);
+            assertSame(m, cache.get("long"));
+            assertSame(m, cache.get("another"));
+            assertEquals(0, cache.getEvictions());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.query.sql;
+
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.dialect.SqlDialect;
+import org.labkey.api.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server-wide cache of parsed LabKey SQL. The parse tree depends only on the SQL text and the dialect, so it's shared
+ * across users, containers and requests. The exception is moduleProperty() substitution, which depends on the container;
+ * those parses are never cached (see SqlParser.isContainerDependent()). Binding a query mutates its tree, so the cache
+ * holds a private copy and hands every caller a fresh copy of that.
+ */
+class ParsedQueryCache
+{
+    private static final Cache<Pair<SqlDialect, String>, ParsedQuery> CACHE = CacheManager.getCache(2000, CacheManager.DAY, "Parsed LabKey SQL");
+
+    static @Nullable ParsedQuery get(SqlDialect dialect, String sql)
+    {
+        return CACHE.get(new Pair<>(dialect, sql));
+    }
+
+    /** Call before the tree has been bound to a schema */
+    static void put(SqlDialect dialect, String sql, QNode root, List<QParameter> parameters)
+    {
+        ParsedQuery parsed = new ParsedQuery(root, parameters);
+        CACHE.put(new Pair<>(dialect, sql), parsed);
+    }
+
+    static class ParsedQuery
+    {
+        private final QNode _root;
+        private final List<QParameter> _parameters;
+
+        private ParsedQuery(QNode root, List<QParameter> parameters)
+        {
+            _root = root.copyTree();
+            _parameters = copy(parameters);
+        }
+
+        QNode getRoot()
+        {
+            return _root.copyTree();
+        }
+
+        ArrayList<QParameter> getParameters()
+        {
+            return copy(_parameters);
+        }
+
+        private static ArrayList<QParameter> copy(List<QParameter> parameters)
+        {
+            ArrayList<QParameter> copy = new ArrayList<>(parameters.size());
+            for (QParameter p : parameters)
+                copy.add((QParameter) p.copyTree());
+            return copy;
+        }
+    }
+}
@@ -303,6 +303,16 @@ public class QAggregate extends QExpr
             setHasTransformableAggregate(true);
     }
 
+    @Override
+    public QNode clone()
+    {
+        QNode ret = super.clone();
+        // clone() clears the flag (it normally comes from children), but MEDIAN sets it on itself in from()
+        if (Type.MEDIAN.equals(getType()))
+            ret.setHasTransformableAggregate(true);
+        return ret;
+    }
+
     @Override
     public void appendSql(SqlBuilder builder, Query query)
     {
@@ -289,13 +289,29 @@ public class Query
                 parseError(_parseErrors, "Schema is not available, check configuration: " + getSchema().getName(), null);
                 return;
             }
-            SqlParser parser = new SqlParser(getSchema().getDbSchema().getSqlDialect(), getSchema().getContainer());
-            parser.parseQuery(queryText, _parseErrors, _parseWarnings);
-            if (!_parseErrors.isEmpty())
-                return;
-            _parameters = parser.getParameters();
+            SqlDialect dialect = getSchema().getDbSchema().getSqlDialect();
+            QNode root;
+            ParsedQueryCache.ParsedQuery parsed = ParsedQueryCache.get(dialect, queryText);
+            if (null != parsed)
+            {
+                root = parsed.getRoot();
+                _parameters = parsed.getParameters();
+            }
+            else
+            {
+                int warningCount = _parseWarnings.size();
+                SqlParser parser = new SqlParser(dialect, getSchema().getContainer());
+                parser.parseQuery(queryText, _parseErrors, _parseWarnings);
+                if (!_parseErrors.isEmpty())
+                    return;
+                _parameters = parser.getParameters();
+                root = parser.getRoot();
+
+                // Only clean parses are shared; warnings are reported per Query and would be lost on a cache hit
+                if (null != root && warningCount == _parseWarnings.size() && !parser.isContainerDependent())
+                    ParsedQueryCache.put(dialect, queryText, root, _parameters);
+            }
 
-			QNode root = parser.getRoot();
             QueryRelation relation = createQueryRelation(this, root, false, skipSuggestedColumns);
 
             if (relation == null)
@@ -96,6 +96,7 @@ public class SqlParser
     ArrayList<QParameter> _parameters;
     final SqlDialect _dialect;
     Container _container = null;
+    boolean _containerDependent = false;
 
     //
     // PUBLIC
@@ -276,6 +277,13 @@ public class SqlParser
         return null==_parameters ? new ArrayList<QParameter>(0) : _parameters;
     }
 
+
+    /** true if the parse tree depends on the container (e.g., moduleProperty() substitution), not just the SQL text and dialect */
+    public boolean isContainerDependent()
+    {
+        return _containerDependent;
+    }
+
 	
     public QExpr parseExpr(String str, List<? super QueryParseException> errors)
     {
@@ -1191,6 +1199,8 @@ public class SqlParser
 
     private QFieldKey substituteModuleProperty(String moduleName, String propertyName)
     {
+        _containerDependent = true;
+
         if (StringUtils.isEmpty(moduleName) || StringUtils.isEmpty(propertyName))
         {
             _parseErrors.add(new QueryParseException("Expected two strings arguments to escape function: moduleProperty()", null, -1, -1));
@@ -1884,6 +1894,29 @@ public class SqlParser
             }
         }
 
+
+        // ParsedQueryCache hands out copies of the parse tree, so copies need to be indistinguishable from a fresh parse
+        @Test
+        public void testCopyTree()
+        {
+            for (Pair<String,String> test : parseStmts)
+            {
+                List<QueryParseException> errors = new ArrayList<>();
+                QNode e = new SqlParser().parseQuery(test.first,errors,null);
+                assertTrue(test.first + " has parse errors", errors.isEmpty());
+                QNode copy = e.copyTree();
+                assertNotSame(e, copy);
+                assertEquals(test.first, e, copy);
+                assertEquals(test.first, test.second, toPrefixString(copy));
+            }
+
+            List<QueryParseException> errors = new ArrayList<>();
+            QNode median = new SqlParser().parseQuery("SELECT MEDIAN(x) AS m FROM R GROUP BY y", errors, null);
+            assertTrue(errors.isEmpty());
+            assertTrue(median.hasTransformableAggregate());
+            assertTrue(median.copyTree().hasTransformableAggregate());
+        }
+
         @Test
         public void testSql()
         {
@@ -192,6 +192,7 @@ public class SearchModule extends DefaultModule
     {
         return Set.of
         (
+            DavCrawler.TestCase.class,
             LuceneSearchServiceImpl.TestCase.class,
             LuceneSearchServiceImpl.TikaTestCase.class
         );
@@ -54,6 +54,7 @@ import org.labkey.search.view.DefaultSearchResultTemplate;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -63,10 +64,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 
 /**
  * User: matthewb
@@ -83,6 +89,28 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     // Resources go here for preprocessing (this can be multi-threaded)
     final PriorityBlockingQueue<Item> _itemQueue = new PriorityBlockingQueue<>(1000, itemCompare);
 
+    // Preprocessed documents wait here for a writer thread. Bounded, so the preprocessing threads (Tika parsing, etc.)
+    // block rather than running arbitrarily far ahead of the writers and holding every parsed document in memory.
+    static final int WRITE_QUEUE_CAPACITY = 100;
+    final BlockingQueue<Item> _writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+
+    // Commit policy: commit once this many changes are uncommitted, once the oldest uncommitted change is this old, once
+    // the writer is buffering this much, or once indexing has been idle for a couple of seconds, whichever comes first.
+    private static final int COMMIT_MAX_DOCS = Integer.getInteger("labkey.search.commitMaxDocs", 10000);
+    private static final long COMMIT_MAX_AGE_MS = Long.getLong("labkey.search.commitMaxAgeSeconds", 60) * 1000;
+    private static final long COMMIT_MAX_BYTES = Long.getLong("labkey.search.commitMaxMB", 48) * 1024 * 1024;
+    private static final long COMMIT_IDLE_MS = 2000;
+
+    // Near-real-time reopen policy: new documents become searchable as soon as the writers catch up with the queue, and
+    // at least this often while they're busy, instead of reopening the searcher after every single document.
+    private static final long REFRESH_INTERVAL_MS = Long.getLong("labkey.search.refreshIntervalMs", 1000);
+
+    final StageStats _preprocessStats = new StageStats("Preprocessing");
+    final StageStats _handoffStats = new StageStats("Waiting for writer");
+    final StageStats _writeStats = new StageStats("Writing");
+    final StageStats _commitStats = new StageStats("Commits");
+    final StageStats _refreshStats = new StageStats("Searcher reopens");
+
     private final List<IndexTask> _tasks = new CopyOnWriteArrayList<>();
     private final _IndexTask _defaultTask = new _IndexTask("default");
 
@@ -227,6 +255,9 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
 
         int _preprocessAttempts = 0;
 
+        BooleanSupplier _write = null; // set by preprocessing, writes the prepared document to the index
+        long _prepared = 0;            // System.nanoTime() when handed to the writers
+
         long _modified = 0; // used by setLastIndexed
         long _start = 0;    // used by setLastIndexed
         long _complete = 0; // really just for debugging
@@ -315,7 +346,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     {
         if (_runQueue.size() > 0)
             return true;
-        int n = _itemQueue.size();
+        int n = _itemQueue.size() + _writeQueue.size();
         return n > 100;
     }
 
@@ -327,7 +358,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     @Override
     public void waitForIdle() throws InterruptedException
     {
-        if (_runQueue.size() == 0 && _itemQueue.size() < 4)
+        if (_runQueue.size() == 0 && _itemQueue.size() + _writeQueue.size() < 4)
             return;
         synchronized (_idleEvent)
         {
@@ -339,7 +370,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
 
     private void checkIdle()
     {
-        if (_runQueue.size() == 0 && _itemQueue.size() == 0)
+        if (_runQueue.size() == 0 && _itemQueue.size() == 0 && _writeQueue.isEmpty())
         {
             synchronized (_idleEvent)
             {
@@ -367,10 +398,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     {
         Runnable r = () -> {
             deleteIndexedContainer(id);
-            synchronized (_commitLock)
-            {
-                _countIndexedSinceCommit++;
-            }
+            noteUncommittedChange(HeartBeat.currentTimeMillis());
         };
         queueItem(new Item(defaultTask(), r, PRIORITY.background));
     }
@@ -484,10 +512,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     public void deleteResource(String id)
     {
         this.deleteDocument(id);
-        synchronized (_commitLock)
-        {
-            _countIndexedSinceCommit++;
-        }
+        noteUncommittedChange(HeartBeat.currentTimeMillis());
     }
 
 
@@ -495,10 +520,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     public void deleteResourcesForPrefix(String prefix)
     {
         this.deleteDocumentsForPrefix(prefix);
-        synchronized (_commitLock)
-        {
-            _countIndexedSinceCommit++;
-        }
+        noteUncommittedChange(HeartBeat.currentTimeMillis());
     }
 
 
@@ -736,6 +758,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         }
         _runQueue.clear();
         _itemQueue.clear();
+        _writeQueue.clear();
     }
 
 
@@ -758,10 +781,17 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         }
     }
 
+    /** Threads that resolve and parse documents; these no longer write to the index, so they can be more numerous */
     protected int getCountIndexingThreads()
     {
         int cpu = Runtime.getRuntime().availableProcessors();
-        return Math.max(1,cpu/4);
+        return Math.max(2,cpu/2);
+    }
+
+    /** Threads that write preprocessed documents; the index manager serializes writes, so more than one rarely helps */
+    protected int getCountWriterThreads()
+    {
+        return Integer.getInteger("labkey.search.writerThreads", 1);
     }
 
     protected void startThreads()
@@ -784,6 +814,14 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
             _threads.add(t);
         }
 
+        int countWriterThreads = Math.max(1, getCountWriterThreads());
+        for (int i=0 ; i<countWriterThreads ; i++)
+        {
+            Thread t = new Thread(group, writeRunnable, "SearchService:writer");
+            t.start();
+            _threads.add(t);
+        }
+
         {
             Thread t = new Thread(group, runRunnable, "SearchService:runner");
             t.start();
@@ -809,6 +847,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         _crawlerPaused = true;
         _runQueue.clear();
         _itemQueue.clear();
+        _writeQueue.clear();
         for (Thread t : _threads)
             t.interrupt();
     }
@@ -910,19 +949,39 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
 
     final Object _commitLock = new Object(){ public String toString() { return "COMMIT LOCK"; } };
     int _countIndexedSinceCommit = 0;
+    long _firstUncommittedTime = 0;
     long _lastIndexedTime = 0;
+    int _countIndexedSinceRefresh = 0;
+    long _lastRefreshTime = 0;
 
 
     public final void commit()
     {
         synchronized (_commitLock)
         {
+            long start = System.nanoTime();
             commitIndex();
+            _commitStats.add(start);
             _countIndexedSinceCommit = 0;
+            _firstUncommittedTime = 0;
+            // Committing reopens the searcher as well
+            _countIndexedSinceRefresh = 0;
+            _lastRefreshTime = HeartBeat.currentTimeMillis();
+        }
+    }
+
+
+    private void noteUncommittedChange(long ms)
+    {
+        synchronized (_commitLock)
+        {
+            if (0 == _countIndexedSinceCommit++)
+                _firstUncommittedTime = ms;
         }
     }
 
 
+    // Preprocessing threads: resolve each queued resource and parse it into a document, then hand it to the writers
     Runnable indexRunnable = () ->
     {
         while (!_shuttingDown)
@@ -937,13 +996,28 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
                 try {_log.warn("error in indexer", t);} catch (Throwable x){/* */}
             }
         }
+    };
+
+
+    // Writer threads: write preprocessed documents to the index, and apply the commit and searcher reopen policies
+    Runnable writeRunnable = () ->
+    {
+        while (!_shuttingDown)
+        {
+            try
+            {
+                _writeLoop();
+            }
+            catch (Throwable t)
+            {
+                // this should only happen if the catch/finally of the inner loop throws
+                try {_log.warn("error in index writer", t);} catch (Throwable x){/* */}
+            }
+        }
         synchronized (_commitLock)
         {
             if (_countIndexedSinceCommit > 0)
-            {
                 commit();
-                _countIndexedSinceCommit = 0;
-            }
         }
     };
 
@@ -951,9 +1025,12 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     {
         synchronized (_commitLock)
         {
-            // TODO: Add a check that allows commit in the case where we've been continuously pounding the indexer for a long time...
-            // either an oldest non-committed document check or a simple _countIndexedSinceCommit > n check.
-            if (_countIndexedSinceCommit > 0 && _lastIndexedTime + 2000 < ms && _runQueue.isEmpty())
+            if (_countIndexedSinceCommit == 0)
+                return;
+
+            // Idle alone isn't enough when indexing is continuous, so also commit based on count, age, and buffered size
+            boolean idle = _lastIndexedTime + COMMIT_IDLE_MS < ms && _runQueue.isEmpty() && _writeQueue.isEmpty();
+            if (idle || _countIndexedSinceCommit >= COMMIT_MAX_DOCS || _firstUncommittedTime + COMMIT_MAX_AGE_MS < ms || getUncommittedBytes() >= COMMIT_MAX_BYTES)
             {
                 commit();
             }
@@ -961,21 +1038,33 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     }
 
 
+    private void refreshCheck(long ms)
+    {
+        synchronized (_commitLock)
+        {
+            if (_countIndexedSinceRefresh > 0 && (_writeQueue.isEmpty() || _lastRefreshTime + REFRESH_INTERVAL_MS < ms))
+            {
+                long start = System.nanoTime();
+                refreshIndex();
+                _refreshStats.add(start);
+                _countIndexedSinceRefresh = 0;
+                _lastRefreshTime = ms;
+            }
+        }
+    }
+
+
     private void _indexLoop()
     {
         Item i = null;
-        boolean success = false;
+        boolean handedOff = false;
         try
         {
             i = getItemToIndex();
-            long ms = HeartBeat.currentTimeMillis();
 
             //TODO: _commitItem is never enqueued should this case be removed?
             if (null == i || _commitItem == i)
-            {
-                commitCheck(ms);
                 return;
-            }
 
             WebdavResource r = i.getResource();
             if (null == r || !r.exists())
@@ -984,18 +1073,19 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
                 // This is a strange case.  If this resource doesn't exist anymore, it is not really an error.
                 // see 34102: Search indexing is unreliable for wiki attachments
                 i.complete(true);
-                commitCheck(ms);
                 return;
             }
 
             i._modified = r.getLastModified();
 
             MemTracker.getInstance().put(r);
-            _log.debug("processAndIndex(" + i._id + ")");
+            _log.debug("preprocess(" + i._id + ")");
 
             Throwable[] out = new Throwable[] {null};
 
-            success = processAndIndex(i._id, i._res, out);
+            long start = System.nanoTime();
+            BooleanSupplier write = preprocess(i._id, i._res, out);
+            _preprocessStats.add(start);
 
             if (null != out[0])
             {
@@ -1004,6 +1094,67 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
                     t._listener.indexError(r,out[0]);
             }
 
+            if (null == write)
+            {
+                _log.debug("skipping " + i._id);
+                return;
+            }
+
+            i._write = write;
+            i._prepared = System.nanoTime();
+            while (!_writeQueue.offer(i, 1, TimeUnit.SECONDS))
+            {
+                if (_shuttingDown)
+                    return;
+            }
+            handedOff = true;
+        }
+        catch (InterruptedException x)
+        {
+        }
+        catch (Throwable x)
+        {
+            _log.error("Error indexing " + (null != i ? i._id : ""), x);
+        }
+        finally
+        {
+            try
+            {
+                // Once handed off, the writer completes the item
+                if (null != i && !handedOff)
+                    i.complete(false);
+            }
+            finally
+            {
+                DbScope.closeAllConnectionsForCurrentThread();
+            }
+        }
+    }
+
+
+    private void _writeLoop()
+    {
+        Item i = null;
+        boolean success = false;
+        try
+        {
+            i = _writeQueue.poll(1, TimeUnit.SECONDS);
+            long ms = HeartBeat.currentTimeMillis();
+
+            if (null == i)
+            {
+                refreshCheck(ms);
+                commitCheck(ms);
+                checkIdle();
+                return;
+            }
+
+            _handoffStats.add(i._prepared);
+
+            long start = System.nanoTime();
+            success = i._write.getAsBoolean();
+            _writeStats.add(start);
+
             if (success)
             {
                 i._res.setLastIndexed(i._start, i._modified);
@@ -1011,14 +1162,16 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
                 {
                     String category = (String)i.getResource().getProperties().get(PROPERTY.categories.toString());
                     incrementIndexStat(ms, category);
-                    _countIndexedSinceCommit++;
+                    noteUncommittedChange(ms);
+                    _countIndexedSinceRefresh++;
                     _lastIndexedTime = ms;
-                    if (_countIndexedSinceCommit > 10000)
-                        commit();
                 }
             }
             else
                 _log.debug("skipping " + i._id);
+
+            refreshCheck(ms);
+            commitCheck(ms);
         }
         catch (InterruptedException x)
         {
@@ -1042,6 +1195,54 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     }
 
 
+    /** Count, latency, and throughput of one stage of the indexing pipeline */
+    static class StageStats
+    {
+        private final String _name;
+        private final long _created = System.currentTimeMillis();
+        private final LongAdder _count = new LongAdder();
+        private final LongAdder _nanos = new LongAdder();
+        private final AtomicLong _maxNanos = new AtomicLong();
+
+        StageStats(String name)
+        {
+            _name = name;
+        }
+
+        void add(long startNanos)
+        {
+            long elapsed = System.nanoTime() - startNanos;
+            _count.increment();
+            _nanos.add(elapsed);
+            _maxNanos.accumulateAndGet(elapsed, Math::max);
+        }
+
+        String getName()
+        {
+            return _name;
+        }
+
+        long getCount()
+        {
+            return _count.sum();
+        }
+
+        @Override
+        public String toString()
+        {
+            long count = _count.sum();
+            if (0 == count)
+                return "none";
+
+            double seconds = Math.max(1, System.currentTimeMillis() - _created) / 1000.0;
+            double avgMs = _nanos.sum() / 1e6 / count;
+            double maxMs = _maxNanos.get() / 1e6;
+            return Formats.commaf0.format(count) + " (" + Formats.f2.format(count / seconds) + "/sec), average " +
+                    Formats.f2.format(avgMs) + " ms, max " + Formats.f2.format(maxMs) + " ms";
+        }
+    }
+
+
     private final ArrayList<SearchCategory> _searchCategories = new ArrayList<>();
     private final Object _categoriesLock = new Object();
 
@@ -1108,9 +1309,34 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     protected abstract void deleteIndexedContainer(String id);
     protected abstract void shutDown();
 
+    /** Make recently written documents visible to searches */
+    protected void refreshIndex()
+    {
+    }
+
+    /** Approximate size of the changes the index writer is buffering; used by the commit policy */
+    protected long getUncommittedBytes()
+    {
+        return 0;
+    }
+
+    /**
+     * Runs on a preprocessing thread. Resolves and parses the resource and returns the operation that writes it to the
+     * index, which will be run on a writer thread, or null if the resource can't be indexed.
+     */
+    protected @Nullable BooleanSupplier preprocess(String id, WebdavResource r, Throwable[] handledException)
+    {
+        return null;
+    }
+
+    /** Preprocess and write a single document immediately, bypassing the queues */
     public boolean processAndIndex(String id, WebdavResource r, Throwable[] handledException)
     {
-        return false;
+        BooleanSupplier write = preprocess(id, r, handledException);
+        if (null == write || !write.getAsBoolean())
+            return false;
+        refreshIndex();
+        return true;
     }
 
     protected final List<DocumentProvider> _documentProviders = new CopyOnWriteArrayList<>();
@@ -1254,6 +1480,10 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         map.put("Indexing history added/updated", sb.toString());
         map.put("Maximum allowed document size", getFileSizeLimit());
 
+        map.put("Indexing queues", "run " + _runQueue.size() + ", preprocess " + _itemQueue.size() + ", write " + _writeQueue.size() + " of " + WRITE_QUEUE_CAPACITY);
+        for (StageStats stats : Arrays.asList(_preprocessStats, _handoffStats, _writeStats, _commitStats, _refreshStats))
+            map.put(stats.getName(), stats.toString());
+
         return map;
     }
     
@@ -18,6 +18,10 @@ package org.labkey.search.model;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
 import org.labkey.api.cache.Cache;
 import org.labkey.api.cache.CacheManager;
 import org.labkey.api.data.Container;
@@ -25,37 +29,56 @@ import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.Filter;
 import org.labkey.api.data.SimpleFilter;
 import org.labkey.api.data.TableSelector;
+import org.labkey.api.files.FileSystemDirectoryListener;
+import org.labkey.api.files.FileSystemWatchers;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.resource.Resource;
 import org.labkey.api.search.SearchService;
+import org.labkey.api.security.SecurityPolicy;
+import org.labkey.api.security.SecurityPolicyManager;
 import org.labkey.api.security.User;
 import org.labkey.api.util.ContextListener;
 import org.labkey.api.util.DateUtil;
 import org.labkey.api.util.ExceptionUtil;
 import org.labkey.api.util.FileUtil;
 import org.labkey.api.util.HeartBeat;
+import org.labkey.api.util.JunitUtil;
 import org.labkey.api.util.PageFlowUtil;
 import org.labkey.api.util.Pair;
 import org.labkey.api.util.Path;
 import org.labkey.api.util.RateLimiter;
 import org.labkey.api.util.ShutdownListener;
 import org.labkey.api.util.URLHelper;
+import org.labkey.api.webdav.FileSystemResource;
 import org.labkey.api.webdav.SimpleDocumentResource;
 import org.labkey.api.webdav.WebdavResolver;
 import org.labkey.api.webdav.WebdavResource;
 import org.labkey.api.webdav.WebdavService;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
 /**
  * User: matthewb
@@ -72,6 +95,13 @@ import java.util.concurrent.TimeUnit;
  *  When a new directory or file is found it is queued up for indexing, this is where throttling 
  *  will occur (when implemented)
  *
+ * 3) Directory watches
+ *  Once a file system directory has been crawled it is registered with the FileSystemWatcher, and the
+ *  files it reports as created, modified, or deleted are indexed (or removed) without re-listing the
+ *  directory. Watched directories are only re-crawled every few days, to reconcile anything the watcher
+ *  missed, or right away if the watcher reports an overflow or that the directory went away. Directories on file
+ *  systems the watcher can only poll (NFS, CIFS) are not watched.
+ *
  * The SearchService also has its own thread pool we use when we find files to index, but the
  * background crawling is pretty different and needs its own scheduling behavior.
  */
@@ -95,6 +125,21 @@ public class DavCrawler implements ShutdownListener
     // CONSIDER: file count limiter
     final RateLimiter _filesIndexRateLimiter = new RateLimiter("file index", 100, TimeUnit.SECONDS);
 
+    // Watches are a limited OS resource (e.g., inotify's max_user_watches), so cap them; directories beyond the cap
+    // are simply crawled on the usual schedule
+    static final int MAX_WATCHED_DIRECTORIES = Integer.getInteger("labkey.crawler.maxWatchedDirectories", 4096);
+    static final long RECONCILE_INTERVAL = TimeUnit.DAYS.toMillis(Integer.getInteger("labkey.crawler.reconcileDays", 7));
+
+    // Wait for a directory's events to settle before indexing, so a file that's still being written is indexed once
+    static final long CHANGE_SETTLE_TIME = TimeUnit.SECONDS.toMillis(2);
+
+    private final Map<java.nio.file.Path, DirectoryWatch> _watches = new ConcurrentHashMap<>();
+
+    // Changes reported by the watcher, waiting for the crawler thread
+    private final Object _changesLock = new Object();
+    private final LinkedHashMap<Path, PendingChanges> _changes = new LinkedHashMap<>();
+    private final LinkedHashSet<Path> _rescans = new LinkedHashSet<>();
+
 
     public static class ResourceInfo
     {
@@ -147,7 +192,15 @@ public class DavCrawler implements ShutdownListener
     
     DavCrawler()
     {
-        ContextListener.addShutdownListener(this);
+        this(true);
+    }
+
+
+    // Tests create their own crawlers, which must not stay registered with the context listener
+    DavCrawler(boolean registerShutdownListener)
+    {
+        if (registerShutdownListener)
+            ContextListener.addShutdownListener(this);
         _crawlerThread.setDaemon(true);
     }
 
@@ -288,13 +341,17 @@ public class DavCrawler implements ShutdownListener
             // CONSIDER: delete previously indexed resources in child containers as well
             if (null == _directory || !_directory.isCollection() || !_directory.shouldIndex() || skipContainer(_directory))
             {
+                unwatch(_path);
                 if (_path.startsWith(getResolver().getRootPath()))
                     _paths.deletePath(_path);
                 return;
             }
 
+            // register before listing, so nothing that changes while we list is missed
+            boolean watched = !(_directory instanceof WebdavResolver.WebFolder) && watch(_path, _directory.getFile());
+
             _indexTime = new Date(System.currentTimeMillis());
-            long changeInterval = (_directory instanceof WebdavResolver.WebFolder) ? CacheManager.DAY / 2 : CacheManager.DAY;
+            long changeInterval = watched ? RECONCILE_INTERVAL : (_directory instanceof WebdavResolver.WebFolder) ? CacheManager.DAY / 2 : CacheManager.DAY;
             long nextCrawl = _indexTime.getTime() + (long)(changeInterval * (0.5 + 0.5 * Math.random()));
             _nextCrawl = new Date(nextCrawl);
 
@@ -321,84 +378,7 @@ public class DavCrawler implements ShutdownListener
 
                 if (child.isFile())
                 {
-                    ResourceInfo info =  map.remove(child.getName());
-                    Date lastIndexed   = (null==info || null==info.lastIndexed) ? SavePaths.nullDate : info.lastIndexed;
-                    Date savedModified = (null==info || null==info.modified) ? SavePaths.nullDate : info.modified;
-                    long lastModified = child.getLastModified();
-
-                    if (lastModified == savedModified.getTime() && (lastModified <= lastIndexed.getTime() || lastIndexed.getTime() == SavePaths.failDate.getTime()))
-                        continue;
-
-                    // if we've failed at indexing this, don't try again: see Issue 16776
-                    ResourceInfo errorInfo = errors.get(child.getPath());
-                    if (null != errorInfo && errorInfo.modified.getTime() == lastModified)
-                        continue;
-
-                    if (!child.shouldIndex())
-                        continue;
-
-                    if (skipFile(child))
-                    {
-                        // just index the name and that's all
-                        final WebdavResource wrap = child;
-                        URLHelper url;
-                        try
-                        {
-                            url = new URLHelper(child.getExecuteHref(null));
-                        }
-                        catch (URISyntaxException uri)
-                        {
-                            ExceptionUtil.logExceptionToMothership(null, uri);
-                            continue;
-                        }
-                        Map<String, Object> props = new HashMap<>();
-                        props.put(SearchService.PROPERTY.categories.toString(), SearchService.fileCategory.toString());
-                        props.put(SearchService.PROPERTY.title.toString(), wrap.getPath().getName());
-                        props.put(SearchService.PROPERTY.keywordsMed.toString(), FileUtil.getSearchKeywords(wrap.getPath().getName()));
-
-                        child = new SimpleDocumentResource(wrap.getPath(), wrap.getDocumentId(), wrap.getContainerId(), "text/plain", (String)null, url, props) {
-                            @Override
-                            public long getLastModified()
-                            {
-                                return wrap.getLastModified();
-                            }
-
-                            @Override
-                            public long getCreated()
-                            {
-                                return wrap.getCreated();
-                            }
-
-                            @Override
-                            public User getCreatedBy()
-                            {
-                                return wrap.getCreatedBy();
-                            }
-
-                            @Override
-                            public User getModifiedBy()
-                            {
-                                return wrap.getModifiedBy();
-                            }
-
-                            @Override
-                            public void setLastIndexed(long ms, long modified)
-                            {
-                                wrap.setLastIndexed(ms, modified);
-                            }
-                        };
-                    }
-
-                    File f = child.getFile();
-                    if (null != f)
-                    {
-                        if (!f.isFile())
-                            continue;
-                        _fileIORateLimiter.add(f.length(), isCrawlerThread);
-                    }
-
-                    _task.addResource(child, SearchService.PRIORITY.background);
-                    addRecent(child);
+                    indexFile(child, map.remove(child.getName()), isCrawlerThread);
                 }
                 else if (!child.shouldIndex())
                 {
@@ -432,6 +412,365 @@ public class DavCrawler implements ShutdownListener
 
             _task.setReady();
         }
+
+
+        /** Queue the file if it changed since it was last indexed */
+        void indexFile(WebdavResource child, @Nullable ResourceInfo info, boolean isCrawlerThread)
+        {
+            Date lastIndexed   = (null==info || null==info.lastIndexed) ? SavePaths.nullDate : info.lastIndexed;
+            Date savedModified = (null==info || null==info.modified) ? SavePaths.nullDate : info.modified;
+            long lastModified = child.getLastModified();
+
+            if (lastModified == savedModified.getTime() && (lastModified <= lastIndexed.getTime() || lastIndexed.getTime() == SavePaths.failDate.getTime()))
+                return;
+
+            // if we've failed at indexing this, don't try again: see Issue 16776
+            ResourceInfo errorInfo = errors.get(child.getPath());
+            if (null != errorInfo && errorInfo.modified.getTime() == lastModified)
+                return;
+
+            if (!child.shouldIndex())
+                return;
+
+            if (skipFile(child))
+            {
+                // just index the name and that's all
+                final WebdavResource wrap = child;
+                URLHelper url;
+                try
+                {
+                    url = new URLHelper(child.getExecuteHref(null));
+                }
+                catch (URISyntaxException uri)
+                {
+                    ExceptionUtil.logExceptionToMothership(null, uri);
+                    return;
+                }
+                Map<String, Object> props = new HashMap<>();
+                props.put(SearchService.PROPERTY.categories.toString(), SearchService.fileCategory.toString());
+                props.put(SearchService.PROPERTY.title.toString(), wrap.getPath().getName());
+                props.put(SearchService.PROPERTY.keywordsMed.toString(), FileUtil.getSearchKeywords(wrap.getPath().getName()));
+
+                child = new SimpleDocumentResource(wrap.getPath(), wrap.getDocumentId(), wrap.getContainerId(), "text/plain", (String)null, url, props) {
+                    @Override
+                    public long getLastModified()
+                    {
+                        return wrap.getLastModified();
+                    }
+
+                    @Override
+                    public long getCreated()
+                    {
+                        return wrap.getCreated();
+                    }
+
+                    @Override
+                    public User getCreatedBy()
+                    {
+                        return wrap.getCreatedBy();
+                    }
+
+                    @Override
+                    public User getModifiedBy()
+                    {
+                        return wrap.getModifiedBy();
+                    }
+
+                    @Override
+                    public void setLastIndexed(long ms, long modified)
+                    {
+                        wrap.setLastIndexed(ms, modified);
+                    }
+                };
+            }
+
+            File f = child.getFile();
+            if (null != f)
+            {
+                if (!f.isFile())
+                    return;
+                _fileIORateLimiter.add(f.length(), isCrawlerThread);
+            }
+
+            _task.addResource(child, SearchService.PRIORITY.background);
+            addRecent(child);
+        }
+    }
+
+
+    /**
+     * Indexes just the entries of a watched directory that the FileSystemWatcher reported as changed, without listing
+     * the directory. Doesn't reschedule the directory's crawl; that's still due for reconciliation on its own schedule.
+     */
+    class IndexChangedFilesJob extends IndexDirectoryJob
+    {
+        final Set<String> _names;
+
+        IndexChangedFilesJob(Path path, Set<String> names)
+        {
+            super(path, null, new Date(System.currentTimeMillis()));
+            _names = names;
+        }
+
+        @Override
+        public void success()
+        {
+        }
+
+        @Override
+        public void run()
+        {
+            boolean isCrawlerThread = Thread.currentThread() == _crawlerThread;
+
+            _log.debug("IndexChangedFilesJob.run(" + _path + ", " + _names.size() + " entries)");
+
+            _directory = getResolver().lookup(_path);
+            if (null == _directory || !_directory.isCollection() || !_directory.shouldIndex() || skipContainer(_directory))
+            {
+                // let a full crawl of the directory sort it out
+                rescan(_path);
+                return;
+            }
+
+            Map<String,ResourceInfo> map = _paths.getFiles(_path);
+            SearchService ss = getSearchService();
+
+            for (String name : _names)
+            {
+                if (_shuttingDown)
+                    return;
+
+                Path childPath = _path.append(name);
+                WebdavResource child = getResolver().lookup(childPath);
+
+                if (null == child || !child.exists())
+                {
+                    if (map.containsKey(name))
+                        ss.deleteResource("dav:" + childPath.toString());
+                    if (unwatch(childPath))
+                        _paths.deletePath(childPath);
+                }
+                else if (child.isFile())
+                {
+                    indexFile(child, map.get(name), isCrawlerThread);
+                }
+                else if (child.isCollection() && child.shouldIndex() && !skipContainer(child))
+                {
+                    // new directories get crawled (and watched) the usual way
+                    if (_paths.insertPath(childPath, new Date(SavePaths.oldDate.getTime() + childPath.size()*1000)))
+                        pingCrawler();
+                }
+            }
+
+            _task.setReady();
+        }
+    }
+
+
+    //
+    // FileSystemWatcher support
+    //
+
+    private static class PendingChanges
+    {
+        final Set<String> names = new HashSet<>();
+        long lastEvent;
+    }
+
+
+    /** Forwards events for one directory to the crawler; called on the watcher's thread, so just record and return */
+    private class DirectoryWatch implements FileSystemDirectoryListener
+    {
+        final Path _davPath;
+        final java.nio.file.Path _dir;
+        volatile boolean _valid = true;
+
+        DirectoryWatch(Path davPath, java.nio.file.Path dir)
+        {
+            _davPath = davPath;
+            _dir = dir;
+        }
+
+        @Override
+        public void entryCreated(java.nio.file.Path directory, java.nio.file.Path entry)
+        {
+            changed(_davPath, entry.toString());
+        }
+
+        @Override
+        public void entryDeleted(java.nio.file.Path directory, java.nio.file.Path entry)
+        {
+            changed(_davPath, entry.toString());
+        }
+
+        @Override
+        public void entryModified(java.nio.file.Path directory, java.nio.file.Path entry)
+        {
+            changed(_davPath, entry.toString());
+        }
+
+        @Override
+        public void overflow()
+        {
+            // events were dropped, so we don't know what changed; re-list just this directory
+            rescan(_davPath);
+        }
+
+        @Override
+        public void directoryInvalidated(java.nio.file.Path directory)
+        {
+            // the directory was deleted or moved; forget it and everything watched below it, and let a crawl sort out
+            // what's there now (the crawl watches it again if it still exists)
+            _valid = false;
+            _watches.remove(_dir, this);
+            unwatch(_davPath);
+            rescan(_davPath);
+        }
+    }
+
+
+    /**
+     * Returns true if the directory is being watched, registering it if there's room. Directories on file systems
+     * that the watcher can only poll (e.g., NFS or CIFS) aren't watched; re-listing all of them every few seconds
+     * costs far more than crawling them on a schedule.
+     */
+    boolean watch(Path davPath, @Nullable File dir)
+    {
+        if (null == dir || _shuttingDown)
+            return false;
+
+        java.nio.file.Path dirPath = dir.toPath();
+        DirectoryWatch existing = _watches.get(dirPath);
+        if (null != existing)
+        {
+            if (existing._valid && existing._davPath.equals(davPath) && dir.isDirectory())
+                return true;
+
+            // the directory went away (and maybe came back) without us hearing about it; register it again
+            drop(existing);
+        }
+
+        if (_watches.size() >= MAX_WATCHED_DIRECTORIES)
+            return false;
+
+        DirectoryWatch watch = new DirectoryWatch(davPath, dirPath);
+        if (null != _watches.putIfAbsent(dirPath, watch))
+            return true;
+
+        try
+        {
+            if (FileSystemWatchers.get().usesPolling(dirPath))
+            {
+                _watches.remove(dirPath, watch);
+                return false;
+            }
+
+            FileSystemWatchers.get().addListener(dirPath, watch, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            return true;
+        }
+        catch (IOException | RuntimeException x)
+        {
+            _log.debug("Can't watch " + dirPath + ", it will be crawled on a schedule instead: " + x.getMessage());
+            _watches.remove(dirPath, watch);
+            return false;
+        }
+    }
+
+
+    /** Stop watching the directory and every directory below it; returns true if any of them were being watched */
+    boolean unwatch(Path davPath)
+    {
+        boolean removed = false;
+        for (DirectoryWatch watch : _watches.values())
+        {
+            if (watch._davPath.startsWith(davPath))
+            {
+                drop(watch);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+
+    private void drop(DirectoryWatch watch)
+    {
+        watch._valid = false;
+        if (_watches.remove(watch._dir, watch))
+            FileSystemWatchers.get().removeListener(watch._dir, watch);
+    }
+
+
+    void changed(Path davPath, String name)
+    {
+        synchronized (_changesLock)
+        {
+            PendingChanges pending = _changes.computeIfAbsent(davPath, p -> new PendingChanges());
+            pending.names.add(name);
+            pending.lastEvent = HeartBeat.currentTimeMillis();
+        }
+        pingCrawler();
+    }
+
+
+    void rescan(Path davPath)
+    {
+        synchronized (_changesLock)
+        {
+            _rescans.add(davPath);
+            // the rescan will pick up these changes too
+            _changes.remove(davPath);
+        }
+        pingCrawler();
+    }
+
+
+    /** Returns a job for a directory that overflowed, or for a directory whose events have settled */
+    @Nullable IndexDirectoryJob findChangedWork()
+    {
+        Path rescan = null;
+        Path changedPath = null;
+        Set<String> changedNames = null;
+        long now = HeartBeat.currentTimeMillis();
+
+        synchronized (_changesLock)
+        {
+            Iterator<Path> rescans = _rescans.iterator();
+            if (rescans.hasNext())
+            {
+                rescan = rescans.next();
+                rescans.remove();
+            }
+            else
+            {
+                for (Iterator<Map.Entry<Path, PendingChanges>> it = _changes.entrySet().iterator(); it.hasNext(); )
+                {
+                    Map.Entry<Path, PendingChanges> e = it.next();
+                    if (now - e.getValue().lastEvent >= CHANGE_SETTLE_TIME)
+                    {
+                        it.remove();
+                        changedPath = e.getKey();
+                        changedNames = e.getValue().names;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (null != rescan)
+            return new IndexDirectoryJob(rescan, null, new Date(now));
+        if (null != changedPath)
+            return new IndexChangedFilesJob(changedPath, changedNames);
+        return null;
+    }
+
+
+    boolean hasPendingChanges()
+    {
+        synchronized (_changesLock)
+        {
+            return !_changes.isEmpty() || !_rescans.isEmpty();
+        }
     }
 
 
@@ -524,7 +863,8 @@ public class DavCrawler implements ShutdownListener
                     }
                     else
                     {
-                        _wait(_crawlerEvent, _defaultWait);                  
+                        // come back sooner if watched directories have changes waiting to settle
+                        _wait(_crawlerEvent, hasPendingChanges() ? CHANGE_SETTLE_TIME : _defaultWait);
                     }
                 }
                 catch (InterruptedException x)
@@ -546,6 +886,12 @@ public class DavCrawler implements ShutdownListener
     {
         if (_shuttingDown)
             return null;
+
+        // changes reported by the file system watcher come ahead of scheduled crawls
+        IndexDirectoryJob changed = findChangedWork();
+        if (null != changed)
+            return changed;
+
         if (crawlQueue.isEmpty())
         {
             _log.debug("findSomeWork()");
@@ -670,6 +1016,11 @@ public class DavCrawler implements ShutdownListener
 
         m.put("Directory limiter", Math.round(_listingRateLimiter.getTarget().getRate(TimeUnit.SECONDS)) + "/sec");
         m.put("File I/O limiter", (_fileIORateLimiter.getTarget().getRate(TimeUnit.SECONDS)/1000000) + " MB/sec");
+        m.put("Watched directories", _watches.size() + " (max " + MAX_WATCHED_DIRECTORIES + ")");
+        synchronized (_changesLock)
+        {
+            m.put("Directories with pending changes", _changes.size() + _rescans.size());
+        }
 
         String activity = getActivityHtml();
         m.put("Recent crawler activity", activity);
@@ -725,4 +1076,281 @@ public class DavCrawler implements ShutdownListener
     {
         _paths.clearFailedDocuments();
     }
-}
\ No newline at end of file
+
+
+    public static class TestCase extends Assert
+    {
+        private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+        private DavCrawler _crawler;
+        private File _root;
+        private final Path _davRoot = Path.parse("/_crawlerTest/");
+
+        @Before
+        public void setUp() throws IOException
+        {
+            _crawler = new DavCrawler(false);
+            _root = FileUtil.createTempDirectory("crawlerTest");
+        }
+
+        @After
+        public void tearDown()
+        {
+            _crawler.unwatch(Path.rootPath);
+            FileUtil.deleteDir(_root);
+        }
+
+        @Test
+        public void testChangesAreCoalesced() throws IOException
+        {
+            assertTrue(_crawler.watch(_davRoot, _root));
+            assertTrue(_crawler.watch(_davRoot, _root));
+            assertEquals(1, _crawler._watches.size());
+
+            assertTrue(new File(_root, "a.txt").createNewFile());
+            assertTrue(new File(_root, "b.txt").createNewFile());
+
+            waitFor("change events", () -> getPendingNames(_davRoot).containsAll(Set.of("a.txt", "b.txt")));
+
+            synchronized (_crawler._changesLock)
+            {
+                assertEquals("Events for one directory should be collected together", 1, _crawler._changes.size());
+                assertEquals(Set.of("a.txt", "b.txt"), _crawler._changes.get(_davRoot).names);
+            }
+        }
+
+        @Test
+        public void testOverflowRescansDirectory()
+        {
+            assertTrue(_crawler.watch(_davRoot, _root));
+            _crawler.changed(_davRoot, "a.txt");
+
+            _crawler._watches.get(_root.toPath()).overflow();
+
+            synchronized (_crawler._changesLock)
+            {
+                assertTrue(_crawler._rescans.contains(_davRoot));
+                assertFalse("The rescan covers the pending changes", _crawler._changes.containsKey(_davRoot));
+            }
+        }
+
+        @Test
+        public void testUnwatchRemovesDescendants()
+        {
+            File a = new File(_root, "a");
+            File b = new File(a, "b");
+            File c = new File(_root, "c");
+            assertTrue(b.mkdirs());
+            assertTrue(c.mkdir());
+
+            assertTrue(_crawler.watch(_davRoot.append("a"), a));
+            assertTrue(_crawler.watch(_davRoot.append("a", "b"), b));
+            assertTrue(_crawler.watch(_davRoot.append("c"), c));
+
+            assertTrue(_crawler.unwatch(_davRoot.append("a")));
+            assertEquals(Set.of(c.toPath()), _crawler._watches.keySet());
+            assertFalse(_crawler.unwatch(_davRoot.append("a")));
+        }
+
+        @Test
+        public void testDeletedDirectoryIsWatchedAgain() throws IOException
+        {
+            File sub = new File(_root, "sub");
+            assertTrue(sub.mkdir());
+            Path davSub = _davRoot.append("sub");
+
+            assertTrue(_crawler.watch(davSub, sub));
+            DirectoryWatch original = _crawler._watches.get(sub.toPath());
+
+            assertTrue(FileUtil.deleteDir(sub));
+            waitFor("watch to be invalidated", () -> !original._valid);
+
+            synchronized (_crawler._changesLock)
+            {
+                assertTrue(_crawler._rescans.contains(davSub));
+            }
+            assertFalse(_crawler._watches.containsKey(sub.toPath()));
+
+            // Re-created directory must be registered again, not trusted from the stale entry
+            assertTrue(sub.mkdir());
+            assertTrue(_crawler.watch(davSub, sub));
+            DirectoryWatch current = _crawler._watches.get(sub.toPath());
+            assertNotSame(original, current);
+            assertTrue(current._valid);
+
+            assertTrue(new File(sub, "x.txt").createNewFile());
+            waitFor("events from the re-created directory", () -> getPendingNames(davSub).contains("x.txt"));
+        }
+
+        @Test
+        public void testIndexChangedFiles() throws IOException
+        {
+            assertTrue(new File(_root, "created.txt").createNewFile());
+            Path created = _davRoot.append("created.txt");
+            Path deleted = _davRoot.append("deleted.txt");
+
+            // Only deleted.txt was indexed before
+            Date earlier = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+            TestSavePaths paths = new TestSavePaths();
+            paths._files.put("deleted.txt", new ResourceInfo(earlier, earlier));
+            _crawler._paths = paths;
+
+            SecurityPolicy policy = SecurityPolicyManager.getPolicy(JunitUtil.getTestContainer());
+            _crawler.setResolver(stub(WebdavResolver.class, (method, args) -> {
+                switch (method.getName())
+                {
+                    case "lookup":
+                        Path path = (Path)args[0];
+                        File file = path.size() == _davRoot.size() ? _root : new File(_root, path.getName());
+                        return new FileSystemResource(path, file, policy);
+                    case "getRootPath":
+                        return Path.rootPath;
+                    default:
+                        return null;
+                }
+            }));
+
+            List<WebdavResource> queued = new ArrayList<>();
+            List<String> deletedIds = new ArrayList<>();
+            boolean[] ready = new boolean[1];
+            SearchService.IndexTask task = stub(SearchService.IndexTask.class, (method, args) -> {
+                if ("addResource".equals(method.getName()) && args[0] instanceof WebdavResource)
+                    queued.add((WebdavResource)args[0]);
+                else if ("setReady".equals(method.getName()))
+                    ready[0] = true;
+                return null;
+            });
+            _crawler.setSearchService(stub(SearchService.class, (method, args) -> {
+                switch (method.getName())
+                {
+                    case "createTask":
+                        return task;
+                    case "deleteResource":
+                        deletedIds.add((String)args[0]);
+                        return null;
+                    case "accept":
+                        return true;
+                    default:
+                        return null;
+                }
+            }));
+
+            _crawler.new IndexChangedFilesJob(_davRoot, new LinkedHashSet<>(List.of("created.txt", "deleted.txt"))).run();
+
+            assertEquals(1, queued.size());
+            assertEquals(created, queued.get(0).getPath());
+            assertEquals(List.of("dav:" + deleted), deletedIds);
+            assertTrue(ready[0]);
+            assertFalse("Changed files shouldn't reschedule the directory crawl", paths._updated.contains(_davRoot));
+        }
+
+        // Records just what IndexChangedFilesJob touches
+        private static class TestSavePaths implements SavePaths
+        {
+            final Map<String, ResourceInfo> _files = new HashMap<>();
+            final Set<Path> _updated = new HashSet<>();
+
+            @Override
+            public boolean updatePath(Path path, Date lastIndexed, Date nextCrawl, boolean create)
+            {
+                _updated.add(path);
+                return true;
+            }
+
+            @Override
+            public boolean insertPath(Path path, Date nextCrawl)
+            {
+                return true;
+            }
+
+            @Override
+            public void updatePrefix(Path path, Date next, boolean forceIndex)
+            {
+            }
+
+            @Override
+            public void deletePath(Path path)
+            {
+            }
+
+            @Override
+            public Map<Path, Pair<Date, Date>> getPaths(int limit)
+            {
+                return Map.of();
+            }
+
+            @Override
+            public Date getNextCrawl()
+            {
+                return null;
+            }
+
+            @Override
+            public Map<String, ResourceInfo> getFiles(Path path)
+            {
+                return new HashMap<>(_files);
+            }
+
+            @Override
+            public boolean updateFile(@NotNull Path path, @NotNull Date lastIndexed, @Nullable Date modified)
+            {
+                return true;
+            }
+
+            @Override
+            public void clearFailedDocuments()
+            {
+            }
+        }
+
+        private interface StubMethod
+        {
+            Object invoke(Method method, Object[] args);
+        }
+
+        // Services are large interfaces; answer the calls the test cares about and return defaults for the rest
+        @SuppressWarnings("unchecked")
+        private static <T> T stub(Class<T> c, StubMethod handler)
+        {
+            return (T)Proxy.newProxyInstance(DavCrawler.class.getClassLoader(), new Class<?>[]{c}, (proxy, method, args) -> {
+                Object ret = handler.invoke(method, args);
+                if (null != ret || !method.getReturnType().isPrimitive())
+                    return ret;
+                if (method.getReturnType() == boolean.class)
+                    return false;
+                if (method.getReturnType() == long.class)
+                    return 0L;
+                if (method.getReturnType() == int.class)
+                    return 0;
+                return null;
+            });
+        }
+
+        private Set<String> getPendingNames(Path davPath)
+        {
+            synchronized (_crawler._changesLock)
+            {
+                PendingChanges pending = _crawler._changes.get(davPath);
+                return null == pending ? Set.of() : new HashSet<>(pending.names);
+            }
+        }
+
+        private void waitFor(String description, BooleanSupplier condition)
+        {
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (!condition.getAsBoolean())
+            {
+                if (System.currentTimeMillis() > deadline)
+                    fail("Timed out waiting for " + description);
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException x)
+                {
+                    fail("Interrupted waiting for " + description);
+                }
+            }
+        }
+    }
+}
@@ -87,6 +87,7 @@ import org.labkey.api.util.ExceptionUtil;
 import org.labkey.api.util.FileStream;
 import org.labkey.api.util.FileStream.FileFileStream;
 import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.Formats;
 import org.labkey.api.util.GUID;
 import org.labkey.api.util.HTMLContentExtractor;
 import org.labkey.api.util.JunitUtil;
@@ -116,6 +117,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.FileSystemException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -124,9 +126,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -438,7 +443,33 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
     }
 
     @Override
-    public boolean processAndIndex(String id, WebdavResource r, Throwable[] handledException)
+    protected @Nullable BooleanSupplier preprocess(String id, WebdavResource r, Throwable[] handledException)
+    {
+        Document doc = createDocument(r, handledException);
+        return null == doc ? null : () -> index(id, r, doc);
+    }
+
+    @Override
+    protected void refreshIndex()
+    {
+        try
+        {
+            _indexManager.refresh();
+        }
+        catch (IOException e)
+        {
+            _log.error("Error reopening the index searcher", e);
+        }
+    }
+
+    @Override
+    protected long getUncommittedBytes()
+    {
+        return _indexManager.ramBytesUsed();
+    }
+
+    /** Parses the resource into a Lucene document, or returns null (and logs the problem) if it can't be indexed */
+    private @Nullable Document createDocument(WebdavResource r, Throwable[] handledException)
     {
         FileStream fs = null;
 
@@ -455,7 +486,7 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             if (null == c)
             {
                 _log.debug("skipping item " + r.getDocumentId() + " because container is not found: " + r.getContainerId());
-                return false;
+                return null;
             }
 
             try
@@ -465,13 +496,13 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             catch (FileNotFoundException x)
             {
                 logAsWarning(r, r.getName() + " was not found");
-                return false;
+                return null;
             }
 
             if (null == fs)
             {
                 logAsWarning(r, r.getName() + " fileStream is null");
-                return false;
+                return null;
             }
 
             Map<String, ?> props = r.getProperties();
@@ -520,7 +551,7 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
                 if (null == is)
                 {
                     logAsWarning(r, "InputStream is null");
-                    return false;
+                    return null;
                 }
 
                 if ("text/html".equals(type))
@@ -668,7 +699,7 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
                 _log.debug("indexing " + dump);
             }
 
-            return index(r.getDocumentId(), r, doc);
+            return doc;
         }
         catch (NoClassDefFoundError err)
         {
@@ -735,7 +766,7 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             }
         }
 
-        return false;
+        return null;
     }
 
     private String dump(WebdavResource r, Document doc)
@@ -2005,6 +2036,60 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             _ss.defaultTask().addResource(resource1, PRIORITY.item);
         }
 
+        /**
+         * Pushes a synthetic corpus through the full indexing pipeline (queue, preprocess, write, commit) and logs
+         * throughput and per-stage statistics, as a rough benchmark for changes to the pipeline.
+         */
+        @Test
+        public void testReindexThroughput() throws InterruptedException, IOException
+        {
+            if (null == _ss || !(_ss instanceof LuceneSearchServiceImpl))
+                return;
+
+            final int count = 2000;
+            final String[] words = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet", "kilo", "lima", "mike"};
+
+            LuceneSearchServiceImpl impl = (LuceneSearchServiceImpl)_ss;
+            impl.deleteIndexedContainer(_c.getId());
+
+            CountDownLatch latch = new CountDownLatch(count);
+            Random random = new Random(0);
+            long start = System.currentTimeMillis();
+
+            for (int i = 0; i < count; i++)
+            {
+                StringBuilder body = new StringBuilder();
+                for (int w = 0; w < 500; w++)
+                    body.append(words[random.nextInt(words.length)]).append(' ');
+                body.append("synthetic").append(i);
+
+                Map<String, Object> props = new HashMap<>();
+                props.put(PROPERTY.categories.toString(), _category.getName());
+                props.put(PROPERTY.title.toString(), "Synthetic document " + i);
+                String docId = "testresource:synthetic" + i;
+
+                _ss.defaultTask().addResource(new SimpleDocumentResource(new Path(docId), docId, _c.getId(), "text/plain", body.toString(), _url, props) {
+                    @Override
+                    public void setLastIndexed(long ms, long modified)
+                    {
+                        latch.countDown();
+                    }
+                }, PRIORITY.bulk);
+            }
+
+            assertTrue("Timed out waiting for synthetic documents to be indexed", latch.await(5, TimeUnit.MINUTES));
+            impl.commit();
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+            _log.info("Indexed " + count + " synthetic documents in " + elapsed + " ms (" + Formats.f2.format(count * 1000.0 / elapsed) + " docs/sec)");
+            for (StageStats stats : Arrays.asList(impl._preprocessStats, impl._handoffStats, impl._writeStats, impl._commitStats, impl._refreshStats))
+                _log.info(stats.getName() + ": " + stats);
+
+            test("synthetic1234", 1);
+
+            impl.deleteIndexedContainer(_c.getId());
+        }
+
         private List<SearchHit> search(String query) throws IOException
         {
             SearchResult result = _ss.search(query, Collections.singletonList(_category), _context.getUser(), _c, SearchScope.Folder, null, 0, 100);
@@ -73,6 +73,17 @@ public class NoopWritableIndex implements WritableIndexManager
         log("index documents for search");
     }
 
+    @Override
+    public void refresh()
+    {
+    }
+
+    @Override
+    public long ramBytesUsed()
+    {
+        return 0;
+    }
+
     @Override
     public void commit()
     {
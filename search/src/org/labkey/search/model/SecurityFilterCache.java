@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.search.model;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.FixedBitSet;
+import org.jetbrains.annotations.NotNull;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.security.SecurityPolicyManager;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the per-segment document bitsets produced by {@link SecurityQuery}. Entries are keyed by the segment's core
+ * cache key (immutable for the life of the segment; deletes are applied separately via live docs) plus a fingerprint
+ * of the permissions that produced the bitset. Entries for a segment are evicted when Lucene closes that segment's
+ * core, and the whole cache is cleared whenever {@link SecurityPolicyManager#getModificationCount()} moves.
+ */
+class SecurityFilterCache
+{
+    // Each entry is maxDoc / 8 bytes, so keep the count modest; typical usage is a handful of segments times active users
+    private static final Cache<SegmentKey, FixedBitSet> CACHE = CacheManager.getCache(1000, CacheManager.HOUR, "Search security filter bitsets");
+    private static final Set<IndexReader.CacheKey> REGISTERED_CORE_KEYS = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private static volatile long _modificationCount = SecurityPolicyManager.getModificationCount();
+
+    interface BitSetLoader
+    {
+        FixedBitSet load() throws IOException;
+    }
+
+    /**
+     * Returns the cached bitset for this segment and permission fingerprint, loading (and caching) it if necessary. Readers
+     * that don't expose a core cache helper are never cached.
+     */
+    static FixedBitSet get(LeafReader reader, Fingerprint fingerprint, BitSetLoader loader) throws IOException
+    {
+        IndexReader.CacheHelper helper = reader.getCoreCacheHelper();
+
+        if (null == helper)
+            return loader.load();
+
+        // Policies or group memberships have changed since we last looked... every cached entry is suspect
+        if (fingerprint.getModificationCount() > _modificationCount)
+        {
+            CACHE.clear();
+            _modificationCount = fingerprint.getModificationCount();
+        }
+
+        IndexReader.CacheKey coreKey = helper.getKey();
+        SegmentKey key = new SegmentKey(coreKey, fingerprint);
+        FixedBitSet bits = CACHE.get(key);
+
+        if (null == bits)
+        {
+            bits = loader.load();
+            CACHE.put(key, bits);
+
+            if (REGISTERED_CORE_KEYS.add(coreKey))
+            {
+                helper.addClosedListener(closedKey -> {
+                    REGISTERED_CORE_KEYS.remove(closedKey);
+                    CACHE.removeUsingFilter(k -> k._coreKey == closedKey);
+                });
+            }
+        }
+
+        return bits;
+    }
+
+    /**
+     * Identifies the permissions that determined a bitset: the user, the set of readable container IDs, and the policy
+     * modification count (which also covers resource-level policies and group membership changes).
+     */
+    static class Fingerprint
+    {
+        private final int _userId;
+        private final long _modificationCount;
+        private final Set<String> _containerIds;
+        private final int _hashCode;
+
+        Fingerprint(int userId, long modificationCount, @NotNull Set<String> containerIds)
+        {
+            _userId = userId;
+            _modificationCount = modificationCount;
+            _containerIds = containerIds;
+            _hashCode = Objects.hash(userId, modificationCount, containerIds);
+        }
+
+        long getModificationCount()
+        {
+            return _modificationCount;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Fingerprint that = (Fingerprint) o;
+
+            return _hashCode == that._hashCode &&
+                _userId == that._userId &&
+                _modificationCount == that._modificationCount &&
+                _containerIds.equals(that._containerIds);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+    }
+
+    private static class SegmentKey
+    {
+        private final IndexReader.CacheKey _coreKey;
+        private final Fingerprint _fingerprint;
+
+        private SegmentKey(IndexReader.CacheKey coreKey, Fingerprint fingerprint)
+        {
+            _coreKey = coreKey;
+            _fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            SegmentKey that = (SegmentKey) o;
+
+            return _coreKey == that._coreKey && _fingerprint.equals(that._fingerprint);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * System.identityHashCode(_coreKey) + _fingerprint.hashCode();
+        }
+    }
+}
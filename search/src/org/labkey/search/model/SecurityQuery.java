@@ -46,6 +46,7 @@ import org.labkey.search.model.LuceneSearchServiceImpl.FIELD_NAME;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import static org.apache.lucene.search.DocIdSetIterator.NO_MORE_DOCS;
@@ -64,6 +65,7 @@ class SecurityQuery extends Query
     private final HashMap<String, Container> _containerIds;
     private final HashMap<String, Boolean> _securableResourceIds = new HashMap<>();
     private final InvocationTimer<SearchService.SEARCH_PHASE> _iTimer;
+    private final SecurityFilterCache.Fingerprint _fingerprint;
 
     SecurityQuery(User user, Container searchRoot, Container currentContainer, boolean recursive, InvocationTimer<SearchService.SEARCH_PHASE> iTimer)
     {
@@ -74,6 +76,9 @@ class SecurityQuery extends Query
         _currentContainer = currentContainer;
         _recursive = recursive;
 
+        // Grab this before resolving permissions; any change made while we're resolving will just make our cached bitsets unreachable
+        long modificationCount = SecurityPolicyManager.getModificationCount();
+
         _iTimer = iTimer;
 
         if (recursive)
@@ -99,6 +104,8 @@ class SecurityQuery extends Query
             if (searchRoot.hasPermission(user, ReadPermission.class))
                 _containerIds.put(searchRoot.getId(), searchRoot);
         }
+
+        _fingerprint = new SecurityFilterCache.Fingerprint(user.getUserId(), modificationCount, new HashSet<>(_containerIds.keySet()));
     }
 
 
@@ -123,43 +130,10 @@ class SecurityQuery extends Query
                 _iTimer.setPhase(SearchService.SEARCH_PHASE.applySecurityFilter);
 
                 LeafReader reader = context.reader();
-                int maxDoc = reader.maxDoc();
-                FixedBitSet bits = new FixedBitSet(maxDoc);
-
-                SortedDocValues securityContextDocValues = reader.getSortedDocValues(FIELD_NAME.securityContext.name());
 
                 try
                 {
-                    int doc;
-
-                    // Can be null, if no documents (e.g., shortly after bootstrap or clear index)
-                    if (null != securityContextDocValues)
-                    {
-                        while (NO_MORE_DOCS != (doc = securityContextDocValues.nextDoc()))
-                        {
-                            BytesRef bytesRef = securityContextDocValues.binaryValue();
-                            String securityContext = StringUtils.trimToNull(bytesRef.utf8ToString());
-
-                            final String containerId;
-                            final String resourceId;
-
-                            // SecurityContext is usually just a container ID, but in some cases it adds a resource ID.
-                            if (securityContext.length() > 36)
-                            {
-                                containerId = securityContext.substring(0, 36);
-                                resourceId = securityContext.substring(37);
-                            }
-                            else
-                            {
-                                containerId = securityContext;
-                                resourceId = null;
-                            }
-
-                            // Must have read permission on the container (always). Must also have read permissions on resource ID, if non-null.
-                            if (_containerIds.containsKey(containerId) && (null == resourceId || canReadResource(resourceId, containerId)))
-                                bits.set(doc);
-                        }
-                    }
+                    FixedBitSet bits = SecurityFilterCache.get(reader, _fingerprint, () -> createBitSet(reader));
 
                     return new ConstantScoreScorer(this, score(), scoreMode, new BitSetIterator(bits, bits.approximateCardinality()));
                 }
@@ -171,6 +145,67 @@ class SecurityQuery extends Query
         };
     }
 
+    // Decodes each distinct securityContext in the segment once, then sets the bits of every document whose ordinal is readable
+    private FixedBitSet createBitSet(LeafReader reader) throws IOException
+    {
+        FixedBitSet bits = new FixedBitSet(reader.maxDoc());
+        SortedDocValues securityContextDocValues = reader.getSortedDocValues(FIELD_NAME.securityContext.name());
+
+        // Can be null, if no documents (e.g., shortly after bootstrap or clear index)
+        if (null != securityContextDocValues)
+        {
+            int valueCount = securityContextDocValues.getValueCount();
+            FixedBitSet readableOrds = new FixedBitSet(valueCount);
+
+            for (int ord = 0; ord < valueCount; ord++)
+            {
+                BytesRef bytesRef = securityContextDocValues.lookupOrd(ord);
+
+                if (canRead(StringUtils.trimToNull(bytesRef.utf8ToString())))
+                    readableOrds.set(ord);
+            }
+
+            int readableCount = readableOrds.cardinality();
+
+            if (readableCount > 0)
+            {
+                int doc;
+
+                while (NO_MORE_DOCS != (doc = securityContextDocValues.nextDoc()))
+                {
+                    if (readableCount == valueCount || readableOrds.get(securityContextDocValues.ordValue()))
+                        bits.set(doc);
+                }
+            }
+        }
+
+        return bits;
+    }
+
+    private boolean canRead(String securityContext)
+    {
+        if (null == securityContext)
+            return false;
+
+        final String containerId;
+        final String resourceId;
+
+        // SecurityContext is usually just a container ID, but in some cases it adds a resource ID.
+        if (securityContext.length() > 36)
+        {
+            containerId = securityContext.substring(0, 36);
+            resourceId = securityContext.substring(37);
+        }
+        else
+        {
+            containerId = securityContext;
+            resourceId = null;
+        }
+
+        // Must have read permission on the container (always). Must also have read permissions on resource ID, if non-null.
+        return _containerIds.containsKey(containerId) && (null == resourceId || canReadResource(resourceId, containerId));
+    }
+
     private boolean canReadResource(String resourceId, String containerId)
     {
         assert !resourceId.equals(containerId);
@@ -39,8 +39,15 @@ public interface WritableIndexManager
 
     void deleteQuery(Query query) throws IOException;
 
+    /** Replaces any existing document with this id. The new document isn't searchable until refresh() or commit() */
     void index(String documentId, Document doc) throws IOException;
 
+    /** Reopens the searcher so recently indexed documents are searchable (near-real-time search) */
+    void refresh() throws IOException;
+
+    /** Memory the writer is using to buffer uncommitted changes */
+    long ramBytesUsed();
+
     void commit();
 
     void close() throws IOException;
@@ -50,6 +50,9 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
 {
     private static final Logger _log = Logger.getLogger(WritableIndexManagerImpl.class);
 
+    // Larger than Lucene's default (16MB) so bulk indexing flushes fewer, larger segments between commits
+    private static final double RAM_BUFFER_MB = 64.0;
+
     private final Object _writerLock = new Object();
     private final IndexWriter _iw;
 
@@ -79,7 +82,7 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
         try
         {
             // Consider: wrap analyzer with LimitTokenCountAnalyzer to limit indexed content?
-            iw = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+            iw = new IndexWriter(directory, new IndexWriterConfig(analyzer).setRAMBufferSizeMB(RAM_BUFFER_MB));
         }
         finally
         {
@@ -129,9 +132,30 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
     {
         synchronized (_writerLock)
         {
-            deleteDocument(id);
-            getIndexWriter().addDocument(doc);
-            _manager.maybeRefresh(); // Make this document immediately available for searching (i.e., near-real-time searching), see #39330
+            getIndexWriter().updateDocument(new Term(LuceneSearchServiceImpl.FIELD_NAME.uniqueId.toString(), id), doc);
+        }
+    }
+
+
+    @Override
+    public void refresh() throws IOException
+    {
+        // Make recently indexed documents available for searching (i.e., near-real-time searching), see #39330. The
+        // search service calls this once the writers catch up, rather than after every document.
+        _manager.maybeRefresh();
+    }
+
+
+    @Override
+    public long ramBytesUsed()
+    {
+        try
+        {
+            return getIndexWriter().ramBytesUsed();
+        }
+        catch (IndexManagerClosedException | AlreadyClosedException e)
+        {
+            return 0;
         }
     }
 
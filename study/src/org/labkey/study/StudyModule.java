@@ -117,6 +117,7 @@ import org.labkey.study.dataset.DatasetAuditProvider;
 import org.labkey.study.dataset.DatasetNotificationInfoProvider;
 import org.labkey.study.dataset.DatasetSnapshotProvider;
 import org.labkey.study.dataset.DatasetViewProvider;
+import org.labkey.study.dataset.SnapshotDelta;
 import org.labkey.study.designer.view.StudyDesignsWebPart;
 import org.labkey.study.importer.DefaultSpecimenImportStrategyFactory;
 import org.labkey.study.importer.MissingValueImporterFactory;
@@ -165,6 +166,7 @@ import org.labkey.study.view.specimen.SpecimenRequestNotificationEmailTemplate;
 import org.labkey.study.view.studydesign.AssayScheduleWebpartFactory;
 import org.labkey.study.view.studydesign.ImmunizationScheduleWebpartFactory;
 import org.labkey.study.view.studydesign.VaccineDesignWebpartFactory;
+import org.labkey.study.visitmanager.VisitManager;
 import org.labkey.study.writer.DatasetDataWriter;
 import org.labkey.study.writer.DefaultStudyDesignWriter;
 import org.labkey.study.writer.MissingValueWriterFactory;
@@ -717,6 +719,7 @@ public class StudyModule extends SpringModule implements SearchService.DocumentP
         return Set.of(
             DatasetDefinition.TestCleanupOrphanedDatasetDomains.class,
             ParticipantGroupManager.ParticipantGroupTestCase.class,
+            SnapshotDelta.TestCase.class,
             SpecimenImporter.TestCase.class,
             StudyImpl.ProtocolDocumentTestCase.class,
             StudyManager.AssayScheduleTestCase.class,
@@ -725,7 +728,8 @@ public class StudyModule extends SpringModule implements SearchService.DocumentP
             StudyManager.VisitCreationTestCase.class,
             StudyModule.TestCase.class,
             TreatmentManager.TreatmentDataTestCase.class,
-            VisitImpl.TestCase.class
+            VisitImpl.TestCase.class,
+            VisitManager.VisitSummaryTestCase.class
         );
     }
 
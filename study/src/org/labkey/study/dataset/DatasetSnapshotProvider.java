@@ -28,6 +28,7 @@ import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.DbSchema;
 import org.labkey.api.data.DbScope;
+import org.labkey.api.data.LockManager;
 import org.labkey.api.data.DisplayColumn;
 import org.labkey.api.data.PHI;
 import org.labkey.api.data.Results;
@@ -98,6 +99,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
 /*
  * User: Karl Lum
  * Date: Jul 9, 2008
@@ -108,6 +110,7 @@ public class DatasetSnapshotProvider extends AbstractSnapshotProvider implements
 {
     private static final DatasetSnapshotProvider INSTANCE = new DatasetSnapshotProvider();
     private static final Logger LOG = Logger.getLogger(DatasetSnapshotProvider.class);
+    private static final LockManager<String> SNAPSHOT_LOCK_MANAGER = new LockManager<>(61);
     private static final BlockingQueue<SnapshotDependency.SourceDataType> QUEUE = new LinkedBlockingQueue<>(1000);
     private static final QuerySnapshotDependencyThread DEPENDENCY_THREAD = new QuerySnapshotDependencyThread();
 
@@ -281,14 +284,23 @@ public class DatasetSnapshotProvider extends AbstractSnapshotProvider implements
 
     private Results getResults(ViewContext context, QueryView view, QuerySnapshotDefinition qsDef, DatasetDefinition def)
     {
-        TableInfo tinfo = view.getTable();
+        return QueryService.get().select(view.getTable(), getSourceColumns(context, view, qsDef, def), getSourceFilter(context, view, qsDef), null);
+    }
+
+    private SimpleFilter getSourceFilter(ViewContext context, QueryView view, QuerySnapshotDefinition qsDef)
+    {
         SimpleFilter filter = createParticipantGroupFilter(context, qsDef);
 
         // Merge in any filters the user had when creating the snapshot
         ActionURL filterURL = PageFlowUtil.urlProvider(AssayUrls.class).getBeginURL(context.getContainer());
         view.getCustomView().applyFilterAndSortToURL(filterURL, QueryView.DATAREGIONNAME_DEFAULT);
         filter.addUrlFilters(filterURL, QueryView.DATAREGIONNAME_DEFAULT);
+        return filter;
+    }
 
+    private Collection<ColumnInfo> getSourceColumns(ViewContext context, QueryView view, QuerySnapshotDefinition qsDef, DatasetDefinition def)
+    {
+        TableInfo tinfo = view.getTable();
         Map<FieldKey, ColumnInfo> colMap = new HashMap<>();
         Integer optionsId = qsDef.getOptionsId();
         StudySnapshot snapshot = null;
@@ -326,7 +338,7 @@ public class DatasetSnapshotProvider extends AbstractSnapshotProvider implements
                 colMap.put(col.getFieldKey(), col);
             }
         }
-        return QueryService.get().select(tinfo, colMap.values(), filter, null);
+        return colMap.values();
     }
 
     @Nullable
@@ -416,7 +428,22 @@ public class DatasetSnapshotProvider extends AbstractSnapshotProvider implements
         return columnMap;
     }
 
-    public synchronized ActionURL updateSnapshot(QuerySnapshotForm form, BindException errors, boolean suppressVisitManagerRecalc) throws Exception
+    public ActionURL updateSnapshot(QuerySnapshotForm form, BindException errors, boolean suppressVisitManagerRecalc) throws Exception
+    {
+        // Refreshes of the same snapshot are serialized, but independent snapshots refresh concurrently
+        ReentrantLock lock = SNAPSHOT_LOCK_MANAGER.getLock(form.getViewContext().getContainer().getId() + "/" + form.getSchemaName() + "/" + form.getSnapshotName());
+        lock.lock();
+        try
+        {
+            return updateSnapshotLocked(form, errors, suppressVisitManagerRecalc);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private ActionURL updateSnapshotLocked(QuerySnapshotForm form, BindException errors, boolean suppressVisitManagerRecalc) throws Exception
     {
         QuerySnapshotDefinition def = QueryService.get().getSnapshotDef(form.getViewContext().getContainer(), form.getSchemaName(), form.getSnapshotName());
         if (def != null)
@@ -445,6 +472,22 @@ public class DatasetSnapshotProvider extends AbstractSnapshotProvider implements
                             return null;
                         }
 
+                        // Compare the source with the rows already in the snapshot and apply just the difference if we can. Compute
+                        // in the same transaction so the delta reflects what's stored when it's applied. If it can't be computed,
+                        // closing the transaction rolls back its temp table (and any failed statement) before the full reload.
+                        try (DbScope.Transaction transaction = schema.getScope().ensureTransaction())
+                        {
+                            SnapshotDelta delta = SnapshotDelta.compute(study, dsDef, view.getTable(), getSourceColumns(form.getViewContext(), view, def, dsDef),
+                                    getSourceFilter(form.getViewContext(), view, def));
+                            if (null != delta)
+                            {
+                                ActionURL url = applySnapshotDelta(form, errors, suppressVisitManagerRecalc, study, dsDef, def, delta);
+                                if (null != url)
+                                    transaction.commit();
+                                return url;
+                            }
+                        }
+
                         Results results = getResults(form.getViewContext(), view, def, dsDef);
 
                         // TODO: Create class ResultSetDataLoader and use it here instead of round-tripping through a TSV StringBuilder
@@ -520,6 +563,39 @@ public class DatasetSnapshotProvider extends AbstractSnapshotProvider implements
         return null;
     }
 
+    /**
+     * Deletes the snapshot rows whose source rows went away or changed and inserts the new and changed source rows,
+     * leaving every other row untouched. Returns null (and the caller rolls back) if the inserts fail.
+     */
+    private @Nullable ActionURL applySnapshotDelta(QuerySnapshotForm form, BindException errors, boolean suppressVisitManagerRecalc, StudyImpl study,
+                                                   DatasetDefinition dsDef, QuerySnapshotDefinition def, SnapshotDelta delta) throws Exception
+    {
+        ViewContext context = form.getViewContext();
+
+        DataIteratorContext dataIteratorContext = new DataIteratorContext();
+        dataIteratorContext.setInsertOption(QueryUpdateService.InsertOption.IMPORT);
+        delta.apply(context.getUser(), dataIteratorContext);
+
+        for (ValidationException error : dataIteratorContext.getErrors().getRowErrors())
+            errors.reject(SpringActionController.ERROR_MSG, error.getMessage());
+
+        if (errors.hasErrors())
+            return null;
+
+        if (!suppressVisitManagerRecalc && !delta.isEmpty())
+            StudyManager.getInstance().getVisitManager(study).updateParticipantVisits(context.getUser(), Collections.singleton(dsDef));
+
+        StudyServiceImpl.addDatasetAuditEvent(context.getUser(), context.getContainer(), dsDef,
+                "Dataset snapshot was updated. " + delta.getInserted() + " rows were inserted, " + delta.getUpdated() + " rows were updated, " +
+                delta.getDeleted() + " rows were deleted and " + delta.getUnchanged() + " rows were unchanged.", null);
+
+        def.setLastUpdated(new Date());
+        def.save(context.getUser());
+
+        return new ActionURL(StudyController.DatasetAction.class, context.getContainer()).
+                addParameter(DatasetDefinition.DATASETKEY, dsDef.getDatasetId());
+    }
+
     public ActionURL updateSnapshotDefinition(ViewContext context, QuerySnapshotDefinition def, BindException errors) throws Exception
     {
         ActionURL ret = super.updateSnapshotDefinition(context, def, errors);
@@ -0,0 +1,572 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.study.dataset;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.collections.CaseInsensitiveHashMap;
+import org.labkey.api.collections.CaseInsensitiveHashSet;
+import org.labkey.api.data.ColumnInfo;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.ContainerManager;
+import org.labkey.api.data.CoreSchema;
+import org.labkey.api.data.DbSchema;
+import org.labkey.api.data.Filter;
+import org.labkey.api.data.PHI;
+import org.labkey.api.data.RuntimeSQLException;
+import org.labkey.api.data.SQLFragment;
+import org.labkey.api.data.SimpleFilter;
+import org.labkey.api.data.Sort;
+import org.labkey.api.data.SqlExecutor;
+import org.labkey.api.data.SqlSelector;
+import org.labkey.api.data.Table;
+import org.labkey.api.data.TableInfo;
+import org.labkey.api.data.TableSelector;
+import org.labkey.api.data.TempTableTracker;
+import org.labkey.api.data.dialect.SqlDialect;
+import org.labkey.api.dataiterator.DataIteratorContext;
+import org.labkey.api.exp.OntologyManager;
+import org.labkey.api.exp.PropertyType;
+import org.labkey.api.exp.property.Domain;
+import org.labkey.api.exp.property.DomainProperty;
+import org.labkey.api.query.FieldKey;
+import org.labkey.api.query.QueryService;
+import org.labkey.api.query.QueryUpdateService;
+import org.labkey.api.reader.MapLoader;
+import org.labkey.api.security.User;
+import org.labkey.api.study.Dataset;
+import org.labkey.api.study.TimepointType;
+import org.labkey.api.util.GUID;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.PageFlowUtil;
+import org.labkey.api.util.TestContext;
+import org.labkey.study.model.DatasetDefinition;
+import org.labkey.study.model.SecurityType;
+import org.labkey.study.model.StudyImpl;
+import org.labkey.study.model.StudyManager;
+import org.labkey.study.query.DatasetTableImpl;
+import org.labkey.study.query.StudyQuerySchema;
+import org.labkey.study.writer.DatasetDataWriter;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The difference between a snapshot's source query and the rows already stored in the snapshot dataset, computed in
+ * SQL by the dataset's key columns (participant, visit or date, and the additional key if there is one). Stored rows
+ * with no identical source row are deleted, source rows with no identical stored row are imported, and everything
+ * else is left alone. A stored row whose keys are still in the source but whose values changed counts as an update.
+ *
+ * The source query is run once, into an indexed temp table, and the stored rows are joined to it by key. Nothing is
+ * remembered between refreshes, so edits to the snapshot dataset and server restarts don't matter. When the source
+ * can't be compared column-for-column with the dataset's storage table, compute() returns null and the caller falls
+ * back to purging and reimporting everything.
+ *
+ * The delta is only as current as the moment it was computed, so callers should compute and apply it in the same
+ * transaction, holding the snapshot's lock.
+ */
+public class SnapshotDelta
+{
+    private static final Logger LOG = Logger.getLogger(SnapshotDelta.class);
+
+    // Storage columns the import fills in itself; a source column that maps to one of these can't be compared
+    private static final Set<String> MANAGED_COLUMNS = new CaseInsensitiveHashSet("lsid", "dsrowid", "participantsequencenum",
+            "container", "sourcelsid", "_key", "created", "createdby", "modified", "modifiedby");
+
+    private final DatasetDefinition _dsDef;
+    private final List<String> _deletes;
+    private final List<Map<String, Object>> _inserts;
+    private final int _updated;
+    private final long _unchanged;
+
+    private SnapshotDelta(DatasetDefinition dsDef, List<String> deletes, List<Map<String, Object>> inserts, int updated, long unchanged)
+    {
+        _dsDef = dsDef;
+        _deletes = deletes;
+        _inserts = inserts;
+        _updated = updated;
+        _unchanged = unchanged;
+    }
+
+    /** A source column and the expression for the same value in the dataset's storage table */
+    private static class MappedColumn
+    {
+        private final String _header;
+        private final ColumnInfo _source;
+        private final SQLFragment _stored;
+
+        private MappedColumn(String header, ColumnInfo source, SQLFragment stored)
+        {
+            _header = header;
+            _source = source;
+            _stored = stored;
+        }
+    }
+
+    /**
+     * Compares the rows selected from the source table by the given columns and filter with the rows stored in the
+     * snapshot dataset. Returns null if the two can't be compared, in which case the snapshot has to be fully reloaded.
+     */
+    public static @Nullable SnapshotDelta compute(StudyImpl study, DatasetDefinition dsDef, TableInfo source, Collection<ColumnInfo> columns, @Nullable Filter filter)
+    {
+        // Dataspace and shared datasets hold rows from several containers, and server-managed keys are assigned on import
+        if (study.isDataspaceStudy() || dsDef.isShared() || dsDef.getKeyManagementType() != Dataset.KeyManagementType.None)
+            return null;
+
+        TableInfo storage = dsDef.getStorageTableInfo();
+        DbSchema temp = DbSchema.getTemp();
+        if (null == storage || storage.getSchema().getScope() != source.getSchema().getScope() || storage.getSchema().getScope() != temp.getScope())
+            return null;
+
+        SqlDialect dialect = storage.getSqlDialect();
+        String storageAlias = "s";
+        String sourceAlias = "src";
+
+        List<MappedColumn> mapped = new ArrayList<>();
+        Map<String, MappedColumn> byStorageColumn = new CaseInsensitiveHashMap<>();
+        Set<String> aliases = new CaseInsensitiveHashSet();
+        for (ColumnInfo column : columns)
+        {
+            // getSelectSQL() selects each alias once
+            if (!aliases.add(column.getAlias()))
+                continue;
+
+            // Missing value indicators are stored in separate columns; leave those snapshots to the full reload
+            if (column.isMvEnabled() || column.isMvIndicatorColumn())
+                return null;
+
+            // Same header the TSV written for a full reload would have
+            String header = FieldKey.fromString(column.getName()).toDisplayString();
+            SQLFragment stored;
+            ColumnInfo storageColumn;
+
+            if (header.equalsIgnoreCase(study.getSubjectColumnName()))
+                storageColumn = storage.getColumn("participantid");
+            else
+                storageColumn = storage.getColumn(header);
+
+            if (null != storageColumn)
+            {
+                if (MANAGED_COLUMNS.contains(storageColumn.getName()) || storageColumn.getJdbcType() != column.getJdbcType())
+                    return null;
+                stored = storageColumn.getValueSql(storageAlias);
+            }
+            else if (header.equalsIgnoreCase(DatasetTableImpl.QCSTATE_LABEL_COLNAME) && null != storage.getColumn("qcstate"))
+            {
+                // Import resolves the label back to a QC state, so compare against the stored state's label
+                stored = new SQLFragment("(SELECT q.Label FROM ").append(CoreSchema.getInstance().getTableInfoQCState(), "q");
+                stored.append(" WHERE q.RowId = ").append(storage.getColumn("qcstate").getValueSql(storageAlias)).append(")");
+            }
+            else
+            {
+                return null;
+            }
+
+            MappedColumn m = new MappedColumn(header, column, stored);
+            mapped.add(m);
+            if (null != storageColumn)
+                byStorageColumn.put(storageColumn.getName(), m);
+        }
+
+        // The same columns dataset import builds the LSID from
+        List<String> keyNames = new ArrayList<>();
+        keyNames.add("participantid");
+        if (!dsDef.isDemographicData())
+        {
+            boolean visitBased = study.getTimepointType().isVisitBased();
+            keyNames.add(visitBased ? "sequencenum" : "date");
+            if ((visitBased || !dsDef.getUseTimeKeyField()) && null != dsDef.getKeyPropertyName())
+            {
+                ColumnInfo keyColumn = storage.getColumn(dsDef.getKeyPropertyName());
+                if (null == keyColumn)
+                    return null;
+                keyNames.add(keyColumn.getName());
+            }
+        }
+
+        List<MappedColumn> keyColumns = new ArrayList<>();
+        for (String keyName : keyNames)
+        {
+            MappedColumn key = byStorageColumn.get(keyName);
+            if (null == key)
+                return null;
+            keyColumns.add(key);
+        }
+
+        // Participant and visit or date are NOT NULL in storage, so plain equality lets the database hash or merge join on
+        // them (a source row with a null participant or visit can't be stored anyway). Only a nullable additional key
+        // needs the null-safe comparison, which the join applies as a filter.
+        SQLFragment keyMatch = new SQLFragment();
+        String and = "";
+        for (int i = 0; i < keyColumns.size(); i++)
+        {
+            MappedColumn key = keyColumns.get(i);
+            SQLFragment sourceValue = sourceValue(dialect, sourceAlias, key);
+            keyMatch.append(and);
+            if (storage.getColumn(keyNames.get(i)).isNullable())
+            {
+                keyMatch.append("(").append(key._stored).append(" = ").append(sourceValue);
+                keyMatch.append(" OR (").append(key._stored).append(" IS NULL AND ").append(sourceValue).append(" IS NULL))");
+            }
+            else
+            {
+                keyMatch.append(key._stored).append(" = ").append(sourceValue);
+            }
+            and = " AND ";
+        }
+
+        // EXCEPT treats NULLs as equal, so this compares all the values of one stored and one source row at once on both
+        // PostgreSQL and SQL Server
+        SQLFragment valuesDiffer = new SQLFragment("EXISTS (SELECT ");
+        String comma = "";
+        for (MappedColumn m : mapped)
+        {
+            valuesDiffer.append(comma).append(m._stored);
+            comma = ", ";
+        }
+        valuesDiffer.append(" EXCEPT SELECT ");
+        comma = "";
+        for (MappedColumn m : mapped)
+        {
+            valuesDiffer.append(comma).append(sourceValue(dialect, sourceAlias, m));
+            comma = ", ";
+        }
+        valuesDiffer.append(")");
+
+        // Run the source query once, into a temp table indexed by the key columns
+        String tempName = "SnapshotDelta_" + GUID.makeHash();
+        String tempSelectName = "\"" + temp.getName() + "\".\"" + tempName + "\"";
+        Object tempRef = new Object();
+        TempTableTracker tracker = TempTableTracker.track(tempName, tempRef);
+        boolean failed = false;
+
+        try
+        {
+            SQLFragment sourceSql = QueryService.get().getSelectSQL(source, columns, filter, null, Table.ALL_ROWS, Table.NO_OFFSET, false);
+            SQLFragment selectInto = new SQLFragment("SELECT * INTO " + tempSelectName + "\nFROM (\n").append(sourceSql).append("\n) _sql_");
+            new SqlExecutor(storage.getSchema()).execute(selectInto);
+
+            StringBuilder index = new StringBuilder("CREATE INDEX \"IX_" + tempName + "\" ON " + tempSelectName + " (");
+            comma = "";
+            for (MappedColumn key : keyColumns)
+            {
+                index.append(comma).append(dialect.getColumnSelectName(key._source.getAlias()));
+                comma = ", ";
+            }
+            new SqlExecutor(storage.getSchema()).execute(index.append(")").toString());
+
+            String analyze = dialect.getAnalyzeCommandForTable(tempSelectName);
+            if (null != analyze)
+                new SqlExecutor(storage.getSchema()).execute(analyze);
+
+            SQLFragment sourceFrom = new SQLFragment(tempSelectName + " " + sourceAlias);
+
+            // Duplicate keys are an import error; let the full reload report them
+            SQLFragment duplicates = new SQLFragment("SELECT COUNT(*) FROM (SELECT 1 AS x FROM ").append(sourceFrom).append(" GROUP BY ");
+            comma = "";
+            for (MappedColumn key : keyColumns)
+            {
+                duplicates.append(comma).append(sourceValue(dialect, sourceAlias, key));
+                comma = ", ";
+            }
+            duplicates.append(" HAVING COUNT(*) > 1) d");
+            if (new SqlSelector(storage.getSchema(), duplicates).getObject(Long.class) > 0)
+                return null;
+
+            // Keys are unique on both sides, so each stored row joins to at most one source row and vice versa
+            SQLFragment sourceKey = sourceValue(dialect, sourceAlias, keyColumns.get(0));
+            SQLFragment storedKey = storage.getColumn("lsid").getValueSql(storageAlias);
+
+            // Stored rows that no longer match a source row, and whether a source row still has their keys
+            SQLFragment staleSql = new SQLFragment("SELECT ").append(storedKey);
+            staleSql.append(", CASE WHEN ").append(sourceKey).append(" IS NULL THEN 0 ELSE 1 END");
+            staleSql.append("\nFROM ").append(storage.getFromSQL(storageAlias));
+            staleSql.append("\nLEFT OUTER JOIN ").append(sourceFrom).append(" ON ").append(keyMatch);
+            staleSql.append("\nWHERE ").append(sourceKey).append(" IS NULL OR ").append(valuesDiffer);
+
+            List<String> deletes = new ArrayList<>();
+            int[] updated = new int[1];
+            new SqlSelector(storage.getSchema(), staleSql).forEach(rs -> {
+                deletes.add(rs.getString(1));
+                updated[0] += rs.getInt(2);
+            });
+
+            // Source rows that aren't already stored, read with the same column names the TSV would have had
+            SQLFragment insertSql = new SQLFragment("SELECT ");
+            comma = "";
+            for (MappedColumn m : mapped)
+            {
+                insertSql.append(comma).append(sourceValue(dialect, sourceAlias, m));
+                comma = ", ";
+            }
+            insertSql.append("\nFROM ").append(sourceFrom);
+            insertSql.append("\nLEFT OUTER JOIN ").append(storage.getFromSQL(storageAlias)).append(" ON ").append(keyMatch);
+            insertSql.append("\nWHERE ").append(storedKey).append(" IS NULL OR ").append(valuesDiffer);
+
+            List<Map<String, Object>> inserts = new ArrayList<>();
+            new SqlSelector(storage.getSchema(), insertSql).forEach(rs -> {
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (int i = 0; i < mapped.size(); i++)
+                    row.put(mapped.get(i)._header, rs.getObject(i + 1));
+                inserts.add(row);
+            });
+
+            long unchanged = new TableSelector(storage).getRowCount() - deletes.size();
+            return new SnapshotDelta(dsDef, deletes, inserts, updated[0], unchanged);
+        }
+        catch (RuntimeSQLException e)
+        {
+            // The source and storage types can still disagree in ways JdbcType doesn't show (e.g. EXCEPT on text columns)
+            LOG.warn("Unable to compare snapshot " + dsDef.getName() + " with its source query, reloading all rows: " + e.getMessage());
+            failed = true;
+            return null;
+        }
+        finally
+        {
+            // After an error the caller's transaction may be unusable until it rolls back, so leave the temp table to the
+            // tracker, which drops it once tempRef is unreachable
+            if (!failed)
+                tracker.delete();
+            Reference.reachabilityFence(tempRef);
+        }
+    }
+
+    private static SQLFragment sourceValue(SqlDialect dialect, String sourceAlias, MappedColumn column)
+    {
+        return new SQLFragment(sourceAlias + "." + dialect.getColumnSelectName(column._source.getAlias()));
+    }
+
+    /** Deletes the stale rows and imports the new and changed ones. Returns the LSIDs of the imported rows. */
+    public List<String> apply(User user, DataIteratorContext context) throws IOException
+    {
+        if (!_deletes.isEmpty())
+            _dsDef.deleteRows(_deletes);
+
+        if (_inserts.isEmpty())
+            return Collections.emptyList();
+
+        return StudyManager.getInstance().importDatasetData(user, _dsDef, new MapLoader(_inserts), new CaseInsensitiveHashMap<>(),
+                context, DatasetDefinition.CheckForDuplicates.sourceOnly, null, null);
+    }
+
+    public boolean isEmpty()
+    {
+        return _deletes.isEmpty() && _inserts.isEmpty();
+    }
+
+    public int getInserted()
+    {
+        return _inserts.size() - _updated;
+    }
+
+    public int getUpdated()
+    {
+        return _updated;
+    }
+
+    public int getDeleted()
+    {
+        return _deletes.size() - _updated;
+    }
+
+    public long getUnchanged()
+    {
+        return _unchanged;
+    }
+
+    public static class TestCase extends Assert
+    {
+        private User _user;
+        private StudyImpl _study;
+        private int _datasetId = 100;
+
+        @Before
+        public void setUp()
+        {
+            _user = TestContext.get().getUser();
+            Container c = ContainerManager.createContainer(JunitUtil.getTestContainer(), GUID.makeHash());
+            StudyImpl s = new StudyImpl(c, "Junit Study");
+            s.setTimepointType(TimepointType.VISIT);
+            s.setSubjectColumnName("SubjectID");
+            s.setSubjectNounPlural("Subjects");
+            s.setSubjectNounSingular("Subject");
+            s.setSecurityType(SecurityType.BASIC_WRITE);
+            _study = StudyManager.getInstance().createStudy(_user, s);
+        }
+
+        @After
+        public void tearDown()
+        {
+            if (null != _study)
+                assertTrue(ContainerManager.delete(_study.getContainer(), _user));
+        }
+
+        @Test
+        public void testDifferentialRefresh() throws Exception
+        {
+            DatasetDefinition source = createDataset("Source", "Extra");
+            DatasetDefinition snapshot = createDataset("Snapshot");
+
+            importRows(source,
+                    row("A1", 1, "m1", 1.0, "x"),
+                    row("A1", 1, "m2", 2.0, "x"),
+                    row("B1", 2, "m1", 3.0, "x"));
+
+            // The first refresh of an empty snapshot inserts everything
+            SnapshotDelta delta = compute(source, snapshot, false);
+            assertNotNull(delta);
+            assertEquals(3, delta.getInserted());
+            assertEquals(0, delta.getUnchanged());
+            assertEquals(3, delta.apply(_user, importContext()).size());
+            assertEquals(storedRows(source), storedRows(snapshot));
+
+            delta = compute(source, snapshot, false);
+            assertNotNull(delta);
+            assertTrue(delta.isEmpty());
+            assertEquals(3, delta.getUnchanged());
+
+            // Keep A1/1/m1, change A1/1/m2, drop B1 and add C1
+            Object unchangedRowId = rowId(snapshot, "A1", "m1");
+            StudyManager.getInstance().purgeDataset(source, null);
+            importRows(source,
+                    row("A1", 1, "m1", 1.0, "x"),
+                    row("A1", 1, "m2", 5.0, "x"),
+                    row("C1", 1, "m1", 4.0, "x"));
+
+            delta = compute(source, snapshot, false);
+            assertNotNull(delta);
+            assertEquals(1, delta.getInserted());
+            assertEquals(1, delta.getUpdated());
+            assertEquals(1, delta.getDeleted());
+            assertEquals(1, delta.getUnchanged());
+            assertEquals(2, delta.apply(_user, importContext()).size());
+            assertEquals(storedRows(source), storedRows(snapshot));
+            assertEquals("Unchanged rows should not be reimported", unchangedRowId, rowId(snapshot, "A1", "m1"));
+
+            // Rows edited in the snapshot itself are put back the next time
+            TableInfo storage = snapshot.getStorageTableInfo();
+            new SqlExecutor(storage.getSchema()).execute(new SQLFragment("UPDATE ").append(storage.getSelectName())
+                    .append(" SET ").append(storage.getColumn("Number").getSelectName()).append(" = 99"));
+            delta = compute(source, snapshot, false);
+            assertNotNull(delta);
+            assertEquals(3, delta.getUpdated());
+            delta.apply(_user, importContext());
+            assertEquals(storedRows(source), storedRows(snapshot));
+
+            // A source column the snapshot doesn't have can't be compared
+            assertNull(compute(source, snapshot, true));
+        }
+
+        private SnapshotDelta compute(DatasetDefinition source, DatasetDefinition snapshot, boolean includeExtra)
+        {
+            TableInfo table = StudyQuerySchema.createSchema(_study, _user, false).getTable(source.getName());
+            Collection<ColumnInfo> columns = new ArrayList<>(DatasetDataWriter.getColumnsToExport(table, source, false, PHI.NotPHI));
+            if (!includeExtra)
+                columns.removeIf(c -> "Extra".equalsIgnoreCase(c.getName()));
+            return SnapshotDelta.compute(_study, snapshot, table, columns, null);
+        }
+
+        private DatasetDefinition createDataset(String name, String... extraColumns) throws Exception
+        {
+            int id = _datasetId++;
+            StudyManager.getInstance().createDatasetDefinition(_user, _study.getContainer(), id);
+            DatasetDefinition dd = StudyManager.getInstance().getDatasetDefinition(_study, id).createMutable();
+            dd.setName(name);
+            dd.setLabel(name);
+            dd.setKeyPropertyName("Measure");
+
+            String domainURI = StudyManager.getInstance().getDomainURI(_study.getContainer(), null, dd);
+            dd.setTypeURI(domainURI);
+            OntologyManager.ensureDomainDescriptor(domainURI, dd.getName(), _study.getContainer());
+            StudyManager.getInstance().updateDatasetDefinition(_user, dd);
+
+            Domain domain = dd.getDomain();
+            addProperty(domain, "Measure", PropertyType.STRING);
+            addProperty(domain, "Number", PropertyType.DOUBLE);
+            for (String extra : extraColumns)
+                addProperty(domain, extra, PropertyType.STRING);
+            domain.save(_user);
+
+            return StudyManager.getInstance().getDatasetDefinition(_study, id);
+        }
+
+        private void addProperty(Domain domain, String name, PropertyType type)
+        {
+            DomainProperty p = domain.addProperty();
+            p.setName(name);
+            p.setPropertyURI(domain.getTypeURI() + "#" + name);
+            p.setRangeURI(type.getTypeUri());
+        }
+
+        private Map<String, Object> row(String subject, double sequenceNum, String measure, double number, String extra)
+        {
+            return PageFlowUtil.mapInsensitive("SubjectID", subject, "SequenceNum", sequenceNum, "Measure", measure, "Number", number, "Extra", extra);
+        }
+
+        @SafeVarargs
+        private void importRows(DatasetDefinition def, Map<String, Object>... rows)
+        {
+            List<String> errors = new ArrayList<>();
+            StudyManager.getInstance().importDatasetData(_user, def, List.of(rows), errors, DatasetDefinition.CheckForDuplicates.sourceOnly, null, null, false);
+            assertTrue(errors.toString(), errors.isEmpty());
+        }
+
+        private DataIteratorContext importContext()
+        {
+            DataIteratorContext context = new DataIteratorContext();
+            context.setInsertOption(QueryUpdateService.InsertOption.IMPORT);
+            return context;
+        }
+
+        private List<String> storedRows(DatasetDefinition def)
+        {
+            TableInfo storage = def.getStorageTableInfo();
+            SQLFragment sql = new SQLFragment("SELECT ");
+            String comma = "";
+            for (String name : List.of("participantid", "sequencenum", "Measure", "Number"))
+            {
+                sql.append(comma).append(storage.getColumn(name).getValueSql("d"));
+                comma = ", ";
+            }
+            sql.append(" FROM ").append(storage, "d");
+
+            List<String> rows = new ArrayList<>();
+            new SqlSelector(storage.getSchema(), sql).forEach(rs ->
+                    rows.add(rs.getString(1) + "/" + rs.getDouble(2) + "/" + rs.getString(3) + "/" + rs.getDouble(4)));
+            Collections.sort(rows);
+            return rows;
+        }
+
+        private Object rowId(DatasetDefinition def, String subject, String measure)
+        {
+            TableInfo storage = def.getStorageTableInfo();
+            SimpleFilter filter = new SimpleFilter(FieldKey.fromParts("participantid"), subject);
+            filter.addCondition(FieldKey.fromParts("Measure"), measure);
+            return new TableSelector(storage.getColumn("dsrowid"), filter, new Sort("dsrowid")).getObject(Long.class);
+        }
+    }
+}
@@ -75,10 +75,12 @@ import org.labkey.api.util.ResultSetUtil;
 import org.labkey.api.util.StringUtilsLabKey;
 import org.labkey.api.util.TestContext;
 import org.labkey.api.util.TimeOnlyDate;
+import org.labkey.api.util.UnexpectedException;
 import org.labkey.api.writer.VirtualFile;
 import org.labkey.study.SpecimenManager;
 import org.labkey.study.SpecimenServiceImpl;
 import org.labkey.study.StudySchema;
+import org.labkey.study.model.LocationImpl;
 import org.labkey.study.model.ParticipantIdImportHelper;
 import org.labkey.study.model.SequenceNumImportHelper;
 import org.labkey.study.model.SpecimenComment;
@@ -112,6 +114,11 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: brittp
@@ -122,8 +129,7 @@ import java.util.concurrent.Callable;
 public class SpecimenImporter
 {
     private enum ImportPhases {UpdateCommentSpecimenHashes, MarkOrphanedRequestVials, SetLockedInRequest, VialUpdatePreLoopPrep,
-        GetVialBatch, GetDateOrderedEvents, GetSpecimenComments, GetProcessingLocationId, GetFirstProcessedBy, GetCurrentLocationId,
-        CalculateLocation, GetLastEvent, DetermineUpdateVial, SetUpdateParameters, HandleComments, UpdateVials, UpdateComments,
+        GetVialBatch, GetDateOrderedEvents, GetSpecimenComments, GetChangedVials, CalculateVialUpdates, HandleComments, UpdateVials, UpdateComments,
         UpdateSpecimenProcessingInfo, UpdateRequestability, UpdateVialCounts, ResyncStudy, SetLastSpecimenLoad, DropTempTable,
         UpdateAllStatistics, CommitTransaction, ClearCaches, PopulateMaterials, PopulateSpecimens, PopulateVials, PopulateSpecimenEvents,
         PopulateTempTable, PopulateLabs, SpecimenTypes, DeleteOldData, PrepareQcComments, NotifyChanged}
@@ -1370,8 +1376,16 @@ public class SpecimenImporter
                                   " WHERE RowId NOT IN (SELECT SpecimenId FROM " + getTableInfoVial().getSelectName() + ")");
             }
 
+            // When merging, only vials touched by this import (or by the labs merge) can have different calculated values
+            List<Long> changedVialIds = null;
+            if (merge)
+            {
+                _iTimer.setPhase(ImportPhases.GetChangedVials);
+                changedVialIds = getChangedVialIds(loadInfo);
+            }
+
             // No need to setPhase() here... method sets timer phases immediately
-            updateCalculatedSpecimenData(merge, editingSpecimens);
+            updateCalculatedSpecimenData(merge, editingSpecimens, changedVialIds);
 
             setStatus(GENERAL_JOB_STATUS_MSG + " (update study)");
             _iTimer.setPhase(ImportPhases.ResyncStudy);
@@ -1750,9 +1764,53 @@ public class SpecimenImporter
 
     private static final int CURRENT_SITE_UPDATE_SIZE = 1000;
     private static final int CURRENT_SITE_UPDATE_LOGGING_SIZE = 10000;   // Can choose to log at a less frequent rate than the update batch size
+    private static final int VIAL_UPDATE_THREADS = Integer.getInteger("labkey.specimen.vialUpdateThreads", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
 
-    // UNDONE: add vials in-clause to only update data for rows that changed
-    private void updateCalculatedSpecimenData(final boolean merge, final boolean editingSpecimens)
+    // Shared by all imports, so concurrent merges can't multiply the thread count. The calculations are pure CPU work on
+    // data already loaded, so daemon threads are safe to abandon at shutdown.
+    private static final AtomicInteger VIAL_UPDATE_THREAD_COUNT = new AtomicInteger();
+    private static final @Nullable ExecutorService VIAL_UPDATE_EXECUTOR = VIAL_UPDATE_THREADS > 1 ? Executors.newFixedThreadPool(VIAL_UPDATE_THREADS, r -> {
+        Thread t = new Thread(r, "Specimen vial update " + VIAL_UPDATE_THREAD_COUNT.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }) : null;
+
+    /**
+     * Returns the RowIds of the vials whose calculated columns could have changed during a merge: vials named in the
+     * import (any of their events may be new or modified), vials whose AtRepository flag no longer matches their current
+     * location (the labs table may have been merged as well), and vials with a QC placeholder comment that hasn't been
+     * filled in yet. All other vials keep exactly the same events, so their rollups can't have changed.
+     */
+    private List<Long> getChangedVialIds(SpecimenLoadInfo info)
+    {
+        TableInfo vialTable = getTableInfoVial();
+        SqlDialect dialect = vialTable.getSqlDialect();
+
+        SQLFragment sql = new SQLFragment("SELECT RowId FROM ").append(vialTable.getSelectName());
+        sql.append("\nWHERE GlobalUniqueId IN (SELECT GlobalUniqueId FROM ").append(info.getTempTableName()).append(")");
+        sql.append("\nUNION\nSELECT v.RowId FROM ").append(vialTable, "v");
+        sql.append(" LEFT OUTER JOIN ").append(getTableInfoLocation(), "l");
+        sql.append(" ON v.CurrentLocation = l.RowId");
+        sql.append("\nWHERE (l.Repository = ").append(dialect.getBooleanTRUE()).append(" AND v.AtRepository = ").append(dialect.getBooleanFALSE()).append(")");
+        sql.append(" OR ((l.Repository IS NULL OR l.Repository = ").append(dialect.getBooleanFALSE()).append(") AND v.AtRepository = ").append(dialect.getBooleanTRUE()).append(")");
+        sql.append("\nUNION\nSELECT v.RowId FROM ").append(vialTable, "v");
+        sql.append(" INNER JOIN ").append(StudySchema.getInstance().getTableInfoSpecimenComment(), "c");
+        sql.append(" ON c.GlobalUniqueId = v.GlobalUniqueId");
+        sql.append("\nWHERE c.Container = ? AND c.QualityControlFlag = ? AND c.QualityControlComments IS NULL");
+        sql.add(_container.getId());
+        sql.add(Boolean.TRUE);
+
+        List<Long> vialIds = new SqlSelector(StudySchema.getInstance().getSchema(), sql).getArrayList(Long.class);
+        Collections.sort(vialIds);
+
+        return vialIds;
+    }
+
+    /**
+     * Recalculates current location, processing info, latest comments, event rollups, and QC conflict messages for vials.
+     * @param changedVialIds the vials to update, or null to update every vial in the container
+     */
+    private void updateCalculatedSpecimenData(final boolean merge, final boolean editingSpecimens, @Nullable List<Long> changedVialIds)
     {
         setStatus(GENERAL_JOB_STATUS_MSG + " (update)");
         _iTimer.setPhase(ImportPhases.PrepareQcComments);
@@ -1770,7 +1828,11 @@ public class SpecimenImporter
         _iTimer.setPhase(ImportPhases.VialUpdatePreLoopPrep);
         // clear caches before determining current sites:
         SpecimenManager.getInstance().clearCaches(_container);
+
+        // Load all locations up front so the (multi-threaded) vial calculations never need to touch the database
         final Map<Integer, Location> siteMap = new HashMap<>();
+        for (LocationImpl location : StudyManager.getInstance().getLocations(_container, null, null))
+            siteMap.put(location.getRowId(), location);
 
         TableInfo vialTable = getTableInfoVial();
         StringBuilder vialPropertiesSB = new StringBuilder("UPDATE ").append(vialTable.getSelectName())
@@ -1793,6 +1855,17 @@ public class SpecimenImporter
 
         final String vialPropertiesSql = vialPropertiesSB.toString();
 
+        // Resolve the event columns behind each rollup once, rather than once per vial
+        final List<Pair<ColumnInfo, List<RollupInstance<EventVialRollup>>>> eventRollups = new ArrayList<>(_eventToVialRollups.size());
+
+        for (Map.Entry<String, List<RollupInstance<EventVialRollup>>> rollupEntry : _eventToVialRollups.entrySet())
+        {
+            ColumnInfo column = getTableInfoSpecimenEvent().getColumn(rollupEntry.getKey());
+            if (null == column)
+                throw new IllegalStateException("Expected Specimen Event table column to exist.");
+            eventRollups.add(new Pair<>(column, rollupEntry.getValue()));
+        }
+
         _iTimer.setPhase(ImportPhases.HandleComments);
 
         TableInfo commentTable = StudySchema.getInstance().getTableInfoSpecimenComment();
@@ -1816,6 +1889,86 @@ public class SpecimenImporter
 //        if (!merge)
 //            new SpecimenTablesProvider(getContainer(), getUser(), null).dropTableIndices(SpecimenTablesProvider.VIAL_TABLENAME);
 
+        final VialUpdateContext context = new VialUpdateContext(merge, siteMap, eventRollups, qcCommentMap, vialPropertiesSql, updateCommentSql);
+        if (null == changedVialIds)
+            updateAllVials(context, VIAL_UPDATE_EXECUTOR);
+        else
+            updateChangedVials(context, VIAL_UPDATE_EXECUTOR, changedVialIds);
+
+//        if (!merge)
+//            new SpecimenTablesProvider(getContainer(), getUser(), null).addTableIndices(SpecimenTablesProvider.VIAL_TABLENAME);
+
+        // finally, after all other data has been updated, we can update our cached specimen counts and processing locations:
+        setStatus(GENERAL_JOB_STATUS_MSG + " (update counts)");
+        _iTimer.setPhase(ImportPhases.UpdateSpecimenProcessingInfo);
+        updateSpecimenProcessingInfo();
+
+        _iTimer.setPhase(ImportPhases.UpdateRequestability);
+        try
+        {
+            RequestabilityManager.getInstance().updateRequestability(_container, _user, false, editingSpecimens, _logger);
+        }
+        catch (RequestabilityManager.InvalidRuleException e)
+        {
+            throw new IllegalStateException("One or more requestability rules is invalid.  Please remove or correct the invalid rule.", e);
+        }
+
+        _iTimer.setPhase(ImportPhases.UpdateVialCounts);
+        info("Updating cached vial counts...");
+
+        SpecimenManager.getInstance().updateVialCounts(_container, _user);
+
+        info("Vial count update complete.");
+    }
+
+    // Everything a vial calculation needs, gathered up front so calculations can run on worker threads without touching the database
+    private static class VialUpdateContext
+    {
+        private final boolean _merge;
+        private final Map<Integer, Location> _siteMap;
+        private final List<Pair<ColumnInfo, List<RollupInstance<EventVialRollup>>>> _eventRollups;
+        private final Map<String, SpecimenComment> _qcCommentMap;
+        private final String _vialPropertiesSql;
+        private final String _updateCommentSql;
+        private final Comparator<SpecimenEvent> _eventComparator = SpecimenManager.getInstance().getSpecimenEventDateComparator();
+
+        private VialUpdateContext(boolean merge, Map<Integer, Location> siteMap, List<Pair<ColumnInfo, List<RollupInstance<EventVialRollup>>>> eventRollups,
+                                  Map<String, SpecimenComment> qcCommentMap, String vialPropertiesSql, String updateCommentSql)
+        {
+            _merge = merge;
+            _siteMap = siteMap;
+            _eventRollups = eventRollups;
+            _qcCommentMap = qcCommentMap;
+            _vialPropertiesSql = vialPropertiesSql;
+            _updateCommentSql = updateCommentSql;
+        }
+    }
+
+    // The outcome of calculating a single vial: update parameters (null if nothing changed), QC comment parameters (null if the vial has no QC comment), and conflicting columns
+    private static class VialUpdate
+    {
+        private final Vial _vial;
+        private List<Object> _vialParams = null;
+        private List<Object> _commentParams = null;
+        private Set<String> _conflicts = Collections.emptySet();
+
+        private VialUpdate(Vial vial)
+        {
+            _vial = vial;
+        }
+    }
+
+    private void logVialProgress(int count)
+    {
+        if (count % CURRENT_SITE_UPDATE_LOGGING_SIZE == 0)
+            info("Updating vial rows " + (count + 1) + " through " + (count + CURRENT_SITE_UPDATE_LOGGING_SIZE) + ".");
+
+        setStatus(GENERAL_JOB_STATUS_MSG + " (update vials)");
+    }
+
+    // Walk every vial in the container, streaming the events alongside in VialId order
+    private void updateAllVials(final VialUpdateContext context, @Nullable final ExecutorService executor)
+    {
         // TODO: Select only required subset of Event and Vial columns?
         _iTimer.setPhase(ImportPhases.GetDateOrderedEvents);
 
@@ -1825,7 +1978,6 @@ public class SpecimenImporter
         {
             final MutableInt rowCount = new MutableInt();
             final MarkableIterator<Map<String, Object>> eventIterator = new MarkableIterator<>(eventResults.iterator());
-            final Comparator<SpecimenEvent> eventComparator = SpecimenManager.getInstance().getSpecimenEventDateComparator();
 
             _iTimer.setPhase(ImportPhases.GetVialBatch);
             TableSelector vialSelector = new TableSelector(getTableInfoVial(), null, new Sort("RowId"));
@@ -1833,28 +1985,20 @@ public class SpecimenImporter
             vialSelector.forEachMapBatch(new ForEachBatchBlock<Map<String, Object>>()
             {
                 @Override
-                public void exec(List<Map<String, Object>> vialBatch) throws SQLException
+                public void exec(List<Map<String, Object>> vialBatch)
                 {
-                    int count = rowCount.intValue();
-                    if (count % CURRENT_SITE_UPDATE_LOGGING_SIZE == 0)
-                        info("Updating vial rows " + (count + 1) + " through " + (count + CURRENT_SITE_UPDATE_LOGGING_SIZE) + ".");
-
-                    setStatus(GENERAL_JOB_STATUS_MSG + " (update vials)");
+                    logVialProgress(rowCount.intValue());
 
                     final List<Vial> vials = new ArrayList<>(CURRENT_SITE_UPDATE_SIZE);
+                    final Map<Long, List<SpecimenEvent>> eventsByVial = new HashMap<>();
 
-                    for (Map<String, Object> map : vialBatch)
-                        vials.add(new Vial(_container, map));
-
-                    List<List<?>> vialPropertiesParams = new ArrayList<>(CURRENT_SITE_UPDATE_SIZE);
-                    List<List<?>> commentParams = new ArrayList<>();
-
-                    for (Vial vial : vials)
+                    _iTimer.setPhase(ImportPhases.GetDateOrderedEvents);
+                    for (Map<String, Object> vialMap : vialBatch)
                     {
+                        Vial vial = new Vial(_container, vialMap);
                         long vialId = vial.getRowId();
+                        List<SpecimenEvent> events = new ArrayList<>();
 
-                        _iTimer.setPhase(ImportPhases.GetDateOrderedEvents);
-                        List<SpecimenEvent> dateOrderedEvents = new ArrayList<>();
                         while (eventIterator.hasNext())
                         {
                             eventIterator.mark();
@@ -1862,7 +2006,7 @@ public class SpecimenImporter
 
                             if (vialId == (Long) map.get("VialId"))
                             {
-                                dateOrderedEvents.add(new SpecimenEvent(_container, map));
+                                events.add(new SpecimenEvent(_container, map));
                             }
                             else
                             {
@@ -1870,190 +2014,248 @@ public class SpecimenImporter
                                 break;
                             }
                         }
-                        dateOrderedEvents.sort(eventComparator);
 
-                        _iTimer.setPhase(ImportPhases.GetProcessingLocationId);
-                        Integer processingLocation = SpecimenManager.getInstance().getProcessingLocationId(dateOrderedEvents);
-                        _iTimer.setPhase(ImportPhases.GetFirstProcessedBy);
-                        String firstProcessedByInitials = SpecimenManager.getInstance().getFirstProcessedByInitials(dateOrderedEvents);
-                        _iTimer.setPhase(ImportPhases.GetCurrentLocationId);
-                        Integer currentLocation = SpecimenManager.getInstance().getCurrentLocationId(dateOrderedEvents);
+                        vials.add(vial);
+                        eventsByVial.put(vialId, events);
+                    }
 
-                        _iTimer.setPhase(ImportPhases.CalculateLocation);
-                        boolean atRepository = false;
+                    updateVialBatch(context, executor, vials, eventsByVial);
 
-                        if (currentLocation != null)
-                        {
-                            Location location;
+                    rowCount.add(CURRENT_SITE_UPDATE_SIZE);
+                    _iTimer.setPhase(ImportPhases.GetVialBatch);
+                }
+            }, CURRENT_SITE_UPDATE_SIZE);
+        }
+        catch (SQLException e)
+        {
+            throw new RuntimeSQLException(e);
+        }
+    }
 
-                            if (!siteMap.containsKey(currentLocation))
-                            {
-                                location = StudyManager.getInstance().getLocation(_container, currentLocation);
-                                if (location != null)
-                                    siteMap.put(currentLocation, location);
-                            }
-                            else
-                            {
-                                location = siteMap.get(currentLocation);
-                            }
+    // Select just the requested vials (and their events), one batch at a time
+    private void updateChangedVials(VialUpdateContext context, @Nullable ExecutorService executor, List<Long> vialIds)
+    {
+        info("Updating calculated columns for " + vialIds.size() + " vials affected by this import.");
 
-                            if (location != null)
-                                atRepository = location.isRepository() != null && location.isRepository();
-                        }
+        for (int start = 0; start < vialIds.size(); start += CURRENT_SITE_UPDATE_SIZE)
+        {
+            logVialProgress(start);
+            List<Long> batchIds = vialIds.subList(start, Math.min(start + CURRENT_SITE_UPDATE_SIZE, vialIds.size()));
 
-                        // All of the additional fields (deviationCodes, Concetration, Integrity, Yield, Ratio, QualityComments, Comments) always take the latest value
-                        _iTimer.setPhase(ImportPhases.GetLastEvent);
-                        SpecimenEvent lastEvent = SpecimenManager.getInstance().getLastEvent(dateOrderedEvents);
-                        if (null == lastEvent)
-                            throw new IllegalStateException("There should always be at least 1 event.");
-
-                        _iTimer.setPhase(ImportPhases.DetermineUpdateVial);
-                        boolean updateVial = false;
-                        List<Object> params = new ArrayList<>();
-
-                        if (!Objects.equals(currentLocation, vial.getCurrentLocation()) ||
-                                !Objects.equals(processingLocation, vial.getProcessingLocation()) ||
-                                !Objects.equals(firstProcessedByInitials, vial.getFirstProcessedByInitials()) ||
-                                atRepository != vial.isAtRepository() ||
-                                !Objects.equals(vial.getLatestComments(), lastEvent.getComments()) ||
-                                !Objects.equals(vial.getLatestQualityComments(), lastEvent.getQualityComments()))
-                        {
-                            updateVial = true;          // Something is different
-                        }
+            _iTimer.setPhase(ImportPhases.GetVialBatch);
+            final List<Vial> vials = new ArrayList<>(batchIds.size());
+            SimpleFilter vialFilter = new SimpleFilter().addInClause(FieldKey.fromParts("RowId"), batchIds);
+            new TableSelector(getTableInfoVial(), vialFilter, new Sort("RowId")).forEachMap(map -> vials.add(new Vial(_container, map)));
 
-                        if (!updateVial)
-                        {
-                            for (Map.Entry<String, List<RollupInstance<EventVialRollup>>> rollupEntry : _eventToVialRollups.entrySet())
-                            {
-                                String eventColName = rollupEntry.getKey();
-                                ColumnInfo column = getTableInfoSpecimenEvent().getColumn(eventColName);
-                                if (null == column)
-                                    throw new IllegalStateException("Expected Specimen Event table column to exist.");
-                                String eventColSelectName = column.getSelectName();
-                                for (RollupInstance<EventVialRollup> rollupItem : rollupEntry.getValue())
-                                {
-                                    String vialColName = rollupItem.first;
-                                    Object rollupResult = rollupItem.second.getRollupResult(dateOrderedEvents, eventColSelectName,
-                                            rollupItem.getFromType(), rollupItem.getToType());
-                                    if (!Objects.equals(vial.get(vialColName), rollupResult))
-                                    {
-                                        updateVial = true;      // Something is different
-                                        break;
-                                    }
-                                }
-                                if (updateVial)
-                                    break;
-                            }
-                        }
+            _iTimer.setPhase(ImportPhases.GetDateOrderedEvents);
+            final Map<Long, List<SpecimenEvent>> eventsByVial = new HashMap<>();
+            SimpleFilter eventFilter = new SimpleFilter(FieldKey.fromString("Obsolete"), false).addInClause(FieldKey.fromParts("VialId"), batchIds);
+            new TableSelector(getTableInfoSpecimenEvent(), eventFilter, null).forEachMap(map ->
+                eventsByVial.computeIfAbsent((Long) map.get("VialId"), vialId -> new ArrayList<>()).add(new SpecimenEvent(_container, map)));
 
-                        _iTimer.setPhase(ImportPhases.SetUpdateParameters);
-                        if (updateVial)
-                        {
-                            // Something is different; update everything
-                            params.add(currentLocation);
-                            params.add(processingLocation);
-                            params.add(firstProcessedByInitials);
-                            params.add(atRepository);
-                            params.add(lastEvent.getComments());
-                            params.add(lastEvent.getQualityComments());
-
-                            for (Map.Entry<String, List<RollupInstance<EventVialRollup>>> rollupEntry : _eventToVialRollups.entrySet())
-                            {
-                                String eventColName = rollupEntry.getKey();
-                                ColumnInfo column = getTableInfoSpecimenEvent().getColumn(eventColName);
-                                if (null == column)
-                                    throw new IllegalStateException("Expected Specimen Event table column to exist.");
-                                String eventColAlias = column.getAlias();     // Use alias since we're looking up in the rowMap
-                                for (RollupInstance<EventVialRollup> rollupItem : rollupEntry.getValue())
-                                {
-                                    Object rollupResult = rollupItem.second.getRollupResult(dateOrderedEvents, eventColAlias,
-                                            rollupItem.getFromType(), rollupItem.getToType());
-                                    params.add(rollupResult);
-                                }
-                            }
+            updateVialBatch(context, executor, vials, eventsByVial);
+        }
+    }
 
-                            params.add(vial.getRowId());
-                            vialPropertiesParams.add(params);
-                        }
+    // Calculations are spread across the executor's threads; all database work stays on this thread, which owns the import transaction
+    private void updateVialBatch(VialUpdateContext context, @Nullable ExecutorService executor, List<Vial> vials, Map<Long, List<SpecimenEvent>> eventsByVial)
+    {
+        _iTimer.setPhase(ImportPhases.CalculateVialUpdates);
+        List<VialUpdate> updates = calculateVialUpdates(context, executor, vials, eventsByVial);
 
-                        _iTimer.setPhase(ImportPhases.HandleComments);
-                        SpecimenComment comment = qcCommentMap.get(vial.getGlobalUniqueId());
+        _iTimer.setPhase(ImportPhases.HandleComments);
+        List<List<?>> vialPropertiesParams = new ArrayList<>(updates.size());
+        List<List<?>> commentParams = new ArrayList<>();
 
-                        if (comment != null)
-                        {
-                            // if we have a comment, it may be because we're in a bad QC state. If so, we should update
-                            // the reason for the QC problem.
-                            String message = null;
+        for (VialUpdate update : updates)
+        {
+            if (null != update._vialParams)
+                vialPropertiesParams.add(update._vialParams);
 
-                            Set<String> conflicts = getConflictingEventColumns(dateOrderedEvents);
+            if (null != update._commentParams)
+            {
+                // Null out conflicting Vial columns
+                if (context._merge && !update._conflicts.isEmpty())
+                {
+                    // NOTE: in checkForConflictingSpecimens() we check the imported specimen columns used
+                    // to generate the specimen hash are not in conflict so we shouldn't need to clear any
+                    // columns on the specimen table. Vial columns are not part of the specimen hash and
+                    // can safely be cleared without compromising the specimen hash.
+                    clearConflictingVialColumns(update._vial, update._conflicts);
+                }
 
-                            if (!conflicts.isEmpty())
-                            {
-                                // Null out conflicting Vial columns
-                                if (merge)
-                                {
-                                    // NOTE: in checkForConflictingSpecimens() we check the imported specimen columns used
-                                    // to generate the specimen hash are not in conflict so we shouldn't need to clear any
-                                    // columns on the specimen table. Vial columns are not part of the specimen hash and
-                                    // can safely be cleared without compromising the specimen hash.
-                                    clearConflictingVialColumns(vial, conflicts);
-                                }
+                commentParams.add(update._commentParams);
+            }
+        }
 
-                                String sep = "";
-                                message = "Conflicts found: ";
-                                for (String conflict : conflicts)
-                                {
-                                    message += sep + conflict;
-                                    sep = ", ";
-                                }
-                            }
+        _iTimer.setPhase(ImportPhases.UpdateVials);
+        if (!vialPropertiesParams.isEmpty())
+            Table.batchExecute(StudySchema.getInstance().getSchema(), context._vialPropertiesSql, vialPropertiesParams);
 
-                            commentParams.add(Arrays.asList(message, vial.getGlobalUniqueId()));
-                        }
-                    }
+        _iTimer.setPhase(ImportPhases.UpdateComments);
+        if (!commentParams.isEmpty())
+            Table.batchExecute(StudySchema.getInstance().getSchema(), context._updateCommentSql, commentParams);
+    }
 
-                    _iTimer.setPhase(ImportPhases.UpdateVials);
-                    if (!vialPropertiesParams.isEmpty())
-                        Table.batchExecute(StudySchema.getInstance().getSchema(), vialPropertiesSql, vialPropertiesParams);
+    private List<VialUpdate> calculateVialUpdates(VialUpdateContext context, @Nullable ExecutorService executor, List<Vial> vials, Map<Long, List<SpecimenEvent>> eventsByVial)
+    {
+        if (null == executor || vials.size() < 2 * VIAL_UPDATE_THREADS)
+            return calculateVialUpdates(context, vials, eventsByVial);
 
-                    _iTimer.setPhase(ImportPhases.UpdateComments);
-                    if (!commentParams.isEmpty())
-                        Table.batchExecute(StudySchema.getInstance().getSchema(), updateCommentSql, commentParams);
+        // Split the batch into one contiguous slice per thread; results are reassembled in vial order
+        int sliceSize = (vials.size() + VIAL_UPDATE_THREADS - 1) / VIAL_UPDATE_THREADS;
+        List<Callable<List<VialUpdate>>> tasks = new ArrayList<>(VIAL_UPDATE_THREADS);
 
-                    rowCount.add(CURRENT_SITE_UPDATE_SIZE);
-                    _iTimer.setPhase(ImportPhases.GetVialBatch);
-                }
-            }, CURRENT_SITE_UPDATE_SIZE);
+        for (int start = 0; start < vials.size(); start += sliceSize)
+        {
+            List<Vial> slice = vials.subList(start, Math.min(start + sliceSize, vials.size()));
+            tasks.add(() -> calculateVialUpdates(context, slice, eventsByVial));
         }
-        catch (SQLException e)
+
+        List<VialUpdate> updates = new ArrayList<>(vials.size());
+
+        try
         {
-            throw new RuntimeSQLException(e);
+            for (Future<List<VialUpdate>> future : executor.invokeAll(tasks))
+                updates.addAll(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw UnexpectedException.wrap(e.getCause());
         }
 
-//        if (!merge)
-//            new SpecimenTablesProvider(getContainer(), getUser(), null).addTableIndices(SpecimenTablesProvider.VIAL_TABLENAME);
+        return updates;
+    }
 
-        // finally, after all other data has been updated, we can update our cached specimen counts and processing locations:
-        setStatus(GENERAL_JOB_STATUS_MSG + " (update counts)");
-        _iTimer.setPhase(ImportPhases.UpdateSpecimenProcessingInfo);
-        updateSpecimenProcessingInfo();
+    private List<VialUpdate> calculateVialUpdates(VialUpdateContext context, List<Vial> vials, Map<Long, List<SpecimenEvent>> eventsByVial)
+    {
+        List<VialUpdate> updates = new ArrayList<>(vials.size());
 
-        _iTimer.setPhase(ImportPhases.UpdateRequestability);
-        try
+        for (Vial vial : vials)
         {
-            RequestabilityManager.getInstance().updateRequestability(_container, _user, false, editingSpecimens, _logger);
+            List<SpecimenEvent> dateOrderedEvents = eventsByVial.getOrDefault(vial.getRowId(), Collections.emptyList());
+            dateOrderedEvents.sort(context._eventComparator);
+            updates.add(calculateVialUpdate(context, vial, dateOrderedEvents));
         }
-        catch (RequestabilityManager.InvalidRuleException e)
+
+        return updates;
+    }
+
+    // Must not touch the database or the phase timer; this is called from worker threads
+    private VialUpdate calculateVialUpdate(VialUpdateContext context, Vial vial, List<SpecimenEvent> dateOrderedEvents)
+    {
+        VialUpdate update = new VialUpdate(vial);
+
+        Integer processingLocation = SpecimenManager.getInstance().getProcessingLocationId(dateOrderedEvents);
+        String firstProcessedByInitials = SpecimenManager.getInstance().getFirstProcessedByInitials(dateOrderedEvents);
+        Integer currentLocation = SpecimenManager.getInstance().getCurrentLocationId(dateOrderedEvents);
+
+        boolean atRepository = false;
+
+        if (currentLocation != null)
         {
-            throw new IllegalStateException("One or more requestability rules is invalid.  Please remove or correct the invalid rule.", e);
+            Location location = context._siteMap.get(currentLocation);
+
+            if (location != null)
+                atRepository = location.isRepository() != null && location.isRepository();
         }
 
-        _iTimer.setPhase(ImportPhases.UpdateVialCounts);
-        info("Updating cached vial counts...");
+        // All of the additional fields (deviationCodes, Concetration, Integrity, Yield, Ratio, QualityComments, Comments) always take the latest value
+        SpecimenEvent lastEvent = SpecimenManager.getInstance().getLastEvent(dateOrderedEvents);
+        if (null == lastEvent)
+            throw new IllegalStateException("There should always be at least 1 event.");
 
-        SpecimenManager.getInstance().updateVialCounts(_container, _user);
+        boolean updateVial = false;
 
-        info("Vial count update complete.");
+        if (!Objects.equals(currentLocation, vial.getCurrentLocation()) ||
+                !Objects.equals(processingLocation, vial.getProcessingLocation()) ||
+                !Objects.equals(firstProcessedByInitials, vial.getFirstProcessedByInitials()) ||
+                atRepository != vial.isAtRepository() ||
+                !Objects.equals(vial.getLatestComments(), lastEvent.getComments()) ||
+                !Objects.equals(vial.getLatestQualityComments(), lastEvent.getQualityComments()))
+        {
+            updateVial = true;          // Something is different
+        }
+
+        if (!updateVial)
+        {
+            for (Pair<ColumnInfo, List<RollupInstance<EventVialRollup>>> eventRollup : context._eventRollups)
+            {
+                String eventColSelectName = eventRollup.first.getSelectName();
+                for (RollupInstance<EventVialRollup> rollupItem : eventRollup.second)
+                {
+                    String vialColName = rollupItem.first;
+                    Object rollupResult = rollupItem.second.getRollupResult(dateOrderedEvents, eventColSelectName,
+                            rollupItem.getFromType(), rollupItem.getToType());
+                    if (!Objects.equals(vial.get(vialColName), rollupResult))
+                    {
+                        updateVial = true;      // Something is different
+                        break;
+                    }
+                }
+                if (updateVial)
+                    break;
+            }
+        }
+
+        if (updateVial)
+        {
+            // Something is different; update everything
+            List<Object> params = new ArrayList<>();
+            params.add(currentLocation);
+            params.add(processingLocation);
+            params.add(firstProcessedByInitials);
+            params.add(atRepository);
+            params.add(lastEvent.getComments());
+            params.add(lastEvent.getQualityComments());
+
+            for (Pair<ColumnInfo, List<RollupInstance<EventVialRollup>>> eventRollup : context._eventRollups)
+            {
+                String eventColAlias = eventRollup.first.getAlias();     // Use alias since we're looking up in the rowMap
+                for (RollupInstance<EventVialRollup> rollupItem : eventRollup.second)
+                {
+                    Object rollupResult = rollupItem.second.getRollupResult(dateOrderedEvents, eventColAlias,
+                            rollupItem.getFromType(), rollupItem.getToType());
+                    params.add(rollupResult);
+                }
+            }
+
+            params.add(vial.getRowId());
+            update._vialParams = params;
+        }
+
+        SpecimenComment comment = context._qcCommentMap.get(vial.getGlobalUniqueId());
+
+        if (comment != null)
+        {
+            // if we have a comment, it may be because we're in a bad QC state. If so, we should update
+            // the reason for the QC problem.
+            String message = null;
+
+            Set<String> conflicts = getConflictingEventColumns(dateOrderedEvents);
+
+            if (!conflicts.isEmpty())
+            {
+                update._conflicts = conflicts;
+
+                String sep = "";
+                message = "Conflicts found: ";
+                for (String conflict : conflicts)
+                {
+                    message += sep + conflict;
+                    sep = ", ";
+                }
+            }
+
+            update._commentParams = Arrays.asList(message, vial.getGlobalUniqueId());
+        }
+
+        return update;
     }
     
     private Map<SpecimenTableType, SpecimenImportFile> populateFileMap(VirtualFile dir, Map<SpecimenTableType, SpecimenImportFile> fileNameMap) throws IOException
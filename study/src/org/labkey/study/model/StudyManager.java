@@ -1065,6 +1065,7 @@ public class StudyManager
             visit.setChronologicalOrder(prevChronologicalOrder);
 
         visit = _visitHelper.create(user, visit);
+        VisitManager.clearVisitSummary(study.getContainer());
 
         if (visit.getRowId() == 0)
             throw new VisitCreationException("Visit rowId has not been set properly");
@@ -1647,6 +1648,7 @@ public class StudyManager
     public void updateVisit(User user, VisitImpl visit)
     {
         _visitHelper.update(user, visit, visit.getContainer().getId(), visit.getRowId());
+        VisitManager.clearVisitSummary(visit.getContainer());
     }
 
     public void updateCohort(User user, CohortImpl cohort)
@@ -2638,6 +2640,7 @@ public class StudyManager
 
         // Also clear caches of subjects and visits- changes to this dataset may have affected this data:
         clearParticipantVisitCaches(def.getStudy());
+        VisitManager.datasetChanged(def);
     }
 
 
@@ -2875,6 +2878,7 @@ public class StudyManager
         clearCachedStudies();
         _studyHelper.clearCache(c);
         _visitHelper.clearCache(c);
+        VisitManager.clearVisitSummary(c);
 //        _locationHelper.clearCache(c);
         AssayService.get().clearProtocolCache();
         if (unmaterializeDatasets && null != study)
@@ -4185,6 +4189,7 @@ public class StudyManager
     public void clearParticipantCache(Container container)
     {
         DbCache.remove(StudySchema.getInstance().getTableInfoParticipant(), getParticipantCacheName(container));
+        VisitManager.clearVisitSummary(container);
     }
 
     public Collection<Participant> getParticipants(Study study)
@@ -4338,6 +4343,7 @@ public class StudyManager
         public void run()
         {
             DatasetDefinition.updateModified(_def, new Date());
+            VisitManager.datasetChanged(_def);
             if (_fireNotification)
                 fireDatasetChanged(_def);
         }
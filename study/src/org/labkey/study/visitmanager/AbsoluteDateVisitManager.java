@@ -59,6 +59,13 @@ public class AbsoluteDateVisitManager extends RelativeDateVisitManager
         TableInfo studyData = showAll ?
                 StudySchema.getInstance().getTableInfoStudyData(getStudy(), user) :
                 StudySchema.getInstance().getTableInfoStudyDataVisible(getStudy(), user);
+
+        return getVisitSummarySql(user, studyData, cohortFilter, qcStates, statsSql, alias);
+    }
+
+    @Override
+    protected SQLFragment getVisitSummarySql(@Nullable User user, TableInfo studyData, CohortFilter cohortFilter, QCStateSet qcStates, String statsSql, String alias)
+    {
         TableInfo participantTable = StudySchema.getInstance().getTableInfoParticipant();
 
         SQLFragment studyDataContainerFilter = new SQLFragment(alias + ".Container = ?", _study.getContainer());
@@ -72,14 +72,18 @@ public class RelativeDateVisitManager extends VisitManager
     }
     
 
+    @Override
+    protected boolean isVisitSummaryFilteredByUser()
+    {
+        return true;
+    }
+
     @Override
     protected SQLFragment getVisitSummarySql(User user, CohortFilter cohortFilter, QCStateSet qcStates, String statsSql, String alias, boolean showAll)
     {
         TableInfo studyData = showAll ?
                 StudySchema.getInstance().getTableInfoStudyData(getStudy(), user) :
                 StudySchema.getInstance().getTableInfoStudyDataVisible(getStudy(), user);
-        TableInfo participantVisit = StudySchema.getInstance().getTableInfoParticipantVisit();
-        TableInfo participantTable = StudySchema.getInstance().getTableInfoParticipant();
 
         if (_study.isDataspaceStudy())
         {
@@ -97,6 +101,15 @@ public class RelativeDateVisitManager extends VisitManager
             }
         }
 
+        return getVisitSummarySql(user, studyData, cohortFilter, qcStates, statsSql, alias);
+    }
+
+    @Override
+    protected SQLFragment getVisitSummarySql(@Nullable User user, TableInfo studyData, CohortFilter cohortFilter, QCStateSet qcStates, String statsSql, String alias)
+    {
+        TableInfo participantVisit = StudySchema.getInstance().getTableInfoParticipantVisit();
+        TableInfo participantTable = StudySchema.getInstance().getTableInfoParticipant();
+
         SQLFragment sql = new SQLFragment();
         sql.appendComment("<RelativeDateVisitManager.getVisitSummarySql>", participantTable.getSqlDialect());
 
@@ -74,7 +74,6 @@ public class SequenceVisitManager extends VisitManager
         TableInfo studyData = showAll ?
                 StudySchema.getInstance().getTableInfoStudyData(getStudy(), null) :
                 StudySchema.getInstance().getTableInfoStudyDataVisible(getStudy(), null);
-        TableInfo participantTable = StudySchema.getInstance().getTableInfoParticipant();
 
         if (_study.isDataspaceStudy())
         {
@@ -91,6 +90,14 @@ public class SequenceVisitManager extends VisitManager
             }
         }
 
+        return getVisitSummarySql(user, studyData, cohortFilter, qcStates, statsSql, alias);
+    }
+
+    @Override
+    protected SQLFragment getVisitSummarySql(@Nullable User user, TableInfo studyData, CohortFilter cohortFilter, QCStateSet qcStates, String statsSql, String alias)
+    {
+        TableInfo participantTable = StudySchema.getInstance().getTableInfoParticipant();
+
         SQLFragment sql = new SQLFragment();
         sql.appendComment("<SequenceVisitManager.getVisitSummarySql>", participantTable.getSqlDialect());
 
@@ -21,6 +21,10 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
 import org.labkey.api.data.ColumnInfo;
 import org.labkey.api.data.CompareType;
 import org.labkey.api.data.Container;
@@ -38,19 +42,30 @@ import org.labkey.api.data.TableInfo;
 import org.labkey.api.data.TableSelector;
 import org.labkey.api.data.dialect.SqlDialect;
 import org.labkey.api.exceptions.TableNotFoundException;
+import org.labkey.api.exp.OntologyManager;
+import org.labkey.api.exp.PropertyType;
+import org.labkey.api.exp.property.Domain;
+import org.labkey.api.exp.property.DomainProperty;
+import org.labkey.api.qc.QCState;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.search.SearchService;
 import org.labkey.api.security.User;
 import org.labkey.api.study.Study;
+import org.labkey.api.study.TimepointType;
 import org.labkey.api.study.Visit;
 import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.GUID;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.PageFlowUtil;
 import org.labkey.api.util.ResultSetUtil;
 import org.labkey.api.util.ShutdownListener;
+import org.labkey.api.util.TestContext;
 import org.labkey.study.CohortFilter;
 import org.labkey.study.StudySchema;
 import org.labkey.study.model.CohortManager;
 import org.labkey.study.model.DatasetDefinition;
 import org.labkey.study.model.QCStateSet;
+import org.labkey.study.model.SecurityType;
 import org.labkey.study.model.StudyImpl;
 import org.labkey.study.model.StudyManager;
 import org.labkey.study.model.VisitImpl;
@@ -64,6 +79,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -144,6 +160,8 @@ public abstract class VisitManager
     {
         info(logger, "Updating participants");
         updateParticipants(changedDatasets, potentiallyAddedParticipants, potentiallyDeletedParticipants);
+        // Overview statistics can be maintained per dataset unless visit or cohort mappings may have shifted for all data
+        boolean visitSummaryIncremental = null != changedDatasets;
         if (participantVisitResyncRequired)
         {
             boolean mightHaveDeletedParticipants = null==potentiallyDeletedParticipants || !potentiallyDeletedParticipants.isEmpty();
@@ -160,6 +178,7 @@ public abstract class VisitManager
             {
                 info(logger, "Updating participant visit table");
                 updateParticipantVisitTable(user, logger);
+                visitSummaryIncremental = false;
             }
         }
         info(logger, "Updating visit table");
@@ -175,10 +194,20 @@ public abstract class VisitManager
                     changedDatasets.contains(StudyManager.getInstance().getDatasetDefinition(_study, cohortDatasetId))))
         {
             CohortManager.getInstance().updateParticipantCohorts(user, getStudy());
+            visitSummaryIncremental = false;
         }
 
         info(logger, "Clearing participant visit caches");
         StudyManager.getInstance().clearParticipantVisitCaches(getStudy());
+        if (visitSummaryIncremental)
+        {
+            for (DatasetDefinition def : changedDatasets)
+                VisitSummaryCache.datasetChanged(_study.getContainer(), def.getDatasetId());
+        }
+        else
+        {
+            VisitSummaryCache.clear(_study.getContainer());
+        }
     }
 
 
@@ -213,27 +242,98 @@ public abstract class VisitManager
 
     protected abstract void updateVisitTable(User user, @Nullable Logger logger);
 
+    /** Discards the precomputed overview statistics for the study, e.g., after visits are edited */
+    public static void clearVisitSummary(Container c)
+    {
+        VisitSummaryCache.clear(c);
+    }
+
+    public static void datasetChanged(DatasetDefinition def)
+    {
+        VisitSummaryCache.datasetChanged(def.getContainer(), def.getDatasetId());
+    }
+
     // Produce appropriate SQL for getVisitSummary().  The SQL must select dataset ID, sequence number, and then the specified statistics;
     // it also needs to filter by cohort and qcstates.  Tables providing the statistics must be aliased using the provided alias.
     protected abstract SQLFragment getVisitSummarySql(User user, CohortFilter cohortFilter, QCStateSet qcStates, String stats, String alias, boolean showAll);
 
+    // Same as above, but aggregating the given study data table (for instance, the union of just a few datasets)
+    protected abstract SQLFragment getVisitSummarySql(@Nullable User user, TableInfo studyData, CohortFilter cohortFilter, QCStateSet qcStates, String stats, String alias);
+
+    // True if getVisitSummarySql() leaves out the datasets the user can't read
+    protected boolean isVisitSummaryFilteredByUser()
+    {
+        return false;
+    }
+
+    /**
+     * Returns the study overview statistics. Except for Dataspace studies, these come from precomputed cells that are
+     * maintained as datasets and participant visits change; see VisitSummaryCache.
+     */
     public Map<VisitMapKey, VisitStatistics> getVisitSummary(User user, CohortFilter cohortFilter, QCStateSet qcStates, Set<VisitStatistic> stats, boolean showAll) throws SQLException
     {
-        String alias = "SD";
+        if (!_study.isDataspaceStudy())
+            return VisitSummaryCache.getVisitSummary(this, user, cohortFilter, qcStates, showAll);
+
+        return getLiveVisitSummary(user, cohortFilter, qcStates, stats, showAll);
+    }
+
+    /** Always runs the aggregate query over all the study data */
+    public Map<VisitMapKey, VisitStatistics> getLiveVisitSummary(User user, CohortFilter cohortFilter, QCStateSet qcStates, Set<VisitStatistic> stats, boolean showAll) throws SQLException
+    {
+        return readVisitSummary(getVisitSummarySql(user, cohortFilter, qcStates, getVisitStatisticsSql(stats), VISIT_SUMMARY_ALIAS, showAll), stats);
+    }
+
+    /**
+     * Compares the precomputed overview statistics with the live aggregate, returning a description of each cell that
+     * differs (an empty list if they're consistent).
+     */
+    public List<String> verifyVisitSummary(User user, CohortFilter cohortFilter, QCStateSet qcStates, boolean showAll) throws SQLException
+    {
+        Set<VisitStatistic> stats = EnumSet.allOf(VisitStatistic.class);
+        Map<VisitMapKey, VisitStatistics> cached = getVisitSummary(user, cohortFilter, qcStates, stats, showAll);
+        Map<VisitMapKey, VisitStatistics> live = getLiveVisitSummary(user, cohortFilter, qcStates, stats, showAll);
+        List<String> differences = new ArrayList<>();
+
+        Set<VisitMapKey> keys = new HashSet<>(cached.keySet());
+        keys.addAll(live.keySet());
+
+        for (VisitMapKey key : keys)
+        {
+            for (VisitStatistic stat : stats)
+            {
+                int expected = live.containsKey(key) ? live.get(key).get(stat) : 0;
+                int actual = cached.containsKey(key) ? cached.get(key).get(stat) : 0;
+                if (expected != actual)
+                    differences.add("datasetId=" + key.datasetId + " visitRowId=" + key.visitRowId + " " + stat + ": expected " + expected + " but was " + actual);
+            }
+        }
+
+        return differences;
+    }
+
+    static final String VISIT_SUMMARY_ALIAS = "SD";
+
+    static String getVisitStatisticsSql(Set<VisitStatistic> stats)
+    {
         StringBuilder statsSql = new StringBuilder();
 
         for (VisitStatistic stat : stats)
         {
             statsSql.append(", ");
-            statsSql.append(stat.getSql(alias));
+            statsSql.append(stat.getSql(VISIT_SUMMARY_ALIAS));
         }
 
+        return statsSql.toString();
+    }
+
+    // Reads rows of dataset ID, visit row ID, and then the specified statistics
+    static Map<VisitMapKey, VisitStatistics> readVisitSummary(SQLFragment sql, Set<VisitStatistic> stats) throws SQLException
+    {
         Map<VisitMapKey, VisitStatistics> visitSummary = new HashMap<>();
         VisitMapKey key = null;
         VisitStatistics statistics = new VisitStatistics();
 
-        SQLFragment sql = getVisitSummarySql(user, cohortFilter, qcStates, statsSql.toString(), alias, showAll);
-
         try (ResultSet rows = new SqlSelector(StudySchema.getInstance().getSchema(), sql).getResultSet(false, false))
         {
             while (rows.next())
@@ -829,4 +929,111 @@ public abstract class VisitManager
             return null;
         });
     }
+
+    public static class VisitSummaryTestCase extends Assert
+    {
+        private User _user;
+        private StudyImpl _study;
+
+        @Before
+        public void setUp()
+        {
+            _user = TestContext.get().getUser();
+            Container c = ContainerManager.createContainer(JunitUtil.getTestContainer(), GUID.makeHash());
+            StudyImpl s = new StudyImpl(c, "Junit Study");
+            s.setTimepointType(TimepointType.VISIT);
+            s.setSubjectColumnName("SubjectID");
+            s.setSubjectNounPlural("Subjects");
+            s.setSubjectNounSingular("Subject");
+            s.setSecurityType(SecurityType.BASIC_WRITE);
+            _study = StudyManager.getInstance().createStudy(_user, s);
+        }
+
+        @After
+        public void tearDown()
+        {
+            if (null != _study)
+                assertTrue(ContainerManager.delete(_study.getContainer(), _user));
+        }
+
+        @Test
+        public void testCachedSummaryMatchesLive() throws Exception
+        {
+            Container c = _study.getContainer();
+            DatasetDefinition first = createDataset(100, "First");
+            DatasetDefinition second = createDataset(101, "Second");
+            VisitManager manager = StudyManager.getInstance().getVisitManager(_study);
+
+            List<String> lsids = importRows(first, row("A1", 1), row("A1", 2), row("B1", 1));
+            assertFalse("Overview should have cells", manager.getVisitSummary(_user, null, null, EnumSet.allOf(VisitStatistic.class), true).isEmpty());
+            assertConsistent(manager, null);
+
+            // New rows in a dataset the cells already cover, and a new visit from another dataset
+            importRows(first, row("C1", 2));
+            importRows(second, row("A1", 3));
+            assertConsistent(manager, null);
+
+            // Deleted rows
+            StudyManager.getInstance().purgeDataset(second, null);
+            manager.updateParticipantVisits(_user, Collections.singleton(second));
+            assertConsistent(manager, null);
+
+            // Changing a row's QC state moves it into the set of public states
+            QCState approved = new QCState();
+            approved.setContainer(c);
+            approved.setLabel("Approved");
+            approved.setPublicData(true);
+            approved = StudyManager.getInstance().insertQCState(_user, approved);
+
+            QCStateSet publicStates = QCStateSet.getPublicStates(c);
+            assertConsistent(manager, publicStates);
+            StudyManager.getInstance().updateDataQCState(c, _user, first.getDatasetId(), lsids.subList(0, 1), approved, "Approved");
+            assertConsistent(manager, publicStates);
+            assertConsistent(manager, QCStateSet.getAllStates(c));
+        }
+
+        // Reads the cached summary first, so a stale cell would survive to the comparison
+        private void assertConsistent(VisitManager manager, @Nullable QCStateSet qcStates) throws SQLException
+        {
+            List<String> differences = manager.verifyVisitSummary(_user, null, qcStates, true);
+            assertTrue("Cached overview differs from the live aggregate: " + differences, differences.isEmpty());
+        }
+
+        private DatasetDefinition createDataset(int id, String name) throws Exception
+        {
+            StudyManager.getInstance().createDatasetDefinition(_user, _study.getContainer(), id);
+            DatasetDefinition dd = StudyManager.getInstance().getDatasetDefinition(_study, id).createMutable();
+            dd.setName(name);
+            dd.setLabel(name);
+
+            String domainURI = StudyManager.getInstance().getDomainURI(_study.getContainer(), null, dd);
+            dd.setTypeURI(domainURI);
+            OntologyManager.ensureDomainDescriptor(domainURI, dd.getName(), _study.getContainer());
+            StudyManager.getInstance().updateDatasetDefinition(_user, dd);
+
+            Domain domain = dd.getDomain();
+            DomainProperty value = domain.addProperty();
+            value.setName("Value");
+            value.setPropertyURI(domain.getTypeURI() + "#" + value.getName());
+            value.setRangeURI(PropertyType.DOUBLE.getTypeUri());
+            domain.save(_user);
+
+            return StudyManager.getInstance().getDatasetDefinition(_study, id);
+        }
+
+        private Map<String, Object> row(String subject, double sequenceNum)
+        {
+            return PageFlowUtil.mapInsensitive("SubjectID", subject, "SequenceNum", sequenceNum, "Value", 1.0);
+        }
+
+        @SafeVarargs
+        private List<String> importRows(DatasetDefinition def, Map<String, Object>... rows)
+        {
+            List<String> errors = new ArrayList<>();
+            List<String> lsids = StudyManager.getInstance().importDatasetData(_user, def, List.of(rows), errors, DatasetDefinition.CheckForDuplicates.sourceOnly, null, null, false);
+            assertTrue(errors.toString(), errors.isEmpty());
+            StudyManager.getInstance().getVisitManager(_study).updateParticipantVisits(_user, Collections.singleton(def));
+            return lsids;
+        }
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2019 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.study.visitmanager;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.cache.StringKeyCache;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.DbScope;
+import org.labkey.api.data.TableInfo;
+import org.labkey.api.security.User;
+import org.labkey.study.CohortFilter;
+import org.labkey.study.StudySchema;
+import org.labkey.study.model.DatasetDefinition;
+import org.labkey.study.model.QCStateSet;
+import org.labkey.study.model.StudyImpl;
+import org.labkey.study.model.StudyManager;
+import org.labkey.study.model.VisitMapKey;
+import org.labkey.study.visitmanager.VisitManager.VisitStatistic;
+import org.labkey.study.visitmanager.VisitManager.VisitStatistics;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed study overview statistics (every VisitStatistic for every dataset and visit), so rendering the overview
+ * doesn't aggregate all of the study's data on every request. Cells are computed for all datasets once per container,
+ * cohort filter and QC state set; per-user dataset permissions and "show by default" are applied when the cells are read.
+ *
+ * Cells are maintained incrementally: a dataset change marks just that dataset dirty, and the next read recomputes only
+ * the dirty datasets. Anything that can remap data to visits or cohorts (visit edits, participant visit resyncs, cohort
+ * reassignment) discards the container's cells instead. Changing the QC state of dataset rows goes through
+ * StudyManager.updateDataQCState(), which clears the study caches and these cells with them. QC state definitions
+ * don't need a hook: cells are keyed by the RowIds in the QC state set, so marking a state public simply selects a
+ * different set of cells. Invalidation happens immediately and again when the transaction ends, so a concurrent read
+ * can't cache rows from before the commit. VisitManager.verifyVisitSummary() compares the cells with the live aggregate.
+ */
+class VisitSummaryCache
+{
+    private static final StringKeyCache<StudySummaries> CACHE = CacheManager.getStringKeyCache(1000, CacheManager.HOUR, "Study overview statistics");
+    private static final Set<VisitStatistic> ALL_STATISTICS = EnumSet.allOf(VisitStatistic.class);
+
+    static Map<VisitMapKey, VisitStatistics> getVisitSummary(VisitManager manager, User user, @Nullable CohortFilter cohortFilter, @Nullable QCStateSet qcStates, boolean showAll) throws SQLException
+    {
+        StudyImpl study = manager.getStudy();
+        Map<Integer, Map<VisitMapKey, VisitStatistics>> cells = getSummaries(study.getContainer())
+                .getSummary(getFilterKey(cohortFilter, qcStates))
+                .getCells(manager, cohortFilter, qcStates);
+
+        Map<VisitMapKey, VisitStatistics> visitSummary = new HashMap<>();
+
+        for (DatasetDefinition def : study.getDatasets())
+        {
+            if (!showAll && !def.isShowByDefault())
+                continue;
+            if (manager.isVisitSummaryFilteredByUser() && null != user && !def.canRead(user))
+                continue;
+
+            Map<VisitMapKey, VisitStatistics> datasetCells = cells.get(def.getDatasetId());
+            if (null != datasetCells)
+                visitSummary.putAll(datasetCells);
+        }
+
+        return visitSummary;
+    }
+
+    /** Marks the dataset's cells dirty; they're recomputed on the next read */
+    static void datasetChanged(Container c, int datasetId)
+    {
+        StudySchema.getInstance().getScope().addCommitTask(() -> {
+            StudySummaries summaries = CACHE.get(c.getId());
+            if (null != summaries)
+                summaries.datasetChanged(datasetId);
+        }, DbScope.CommitTaskOption.IMMEDIATE, DbScope.CommitTaskOption.POSTCOMMIT, DbScope.CommitTaskOption.POSTROLLBACK);
+    }
+
+    static void clear(Container c)
+    {
+        StudySchema.getInstance().getScope().addCommitTask(() -> CACHE.remove(c.getId()),
+                DbScope.CommitTaskOption.IMMEDIATE, DbScope.CommitTaskOption.POSTCOMMIT, DbScope.CommitTaskOption.POSTROLLBACK);
+    }
+
+    private static @NotNull StudySummaries getSummaries(Container c)
+    {
+        StudySummaries summaries = CACHE.get(c.getId());
+
+        if (null == summaries)
+        {
+            summaries = new StudySummaries();
+            CACHE.put(c.getId(), summaries);
+        }
+
+        return summaries;
+    }
+
+    private static String getFilterKey(@Nullable CohortFilter cohortFilter, @Nullable QCStateSet qcStates)
+    {
+        return (null == cohortFilter ? "~allCohorts~" : cohortFilter.getCacheKey()) + "|" + (null == qcStates ? "~allStates~" : qcStates.getFormValue());
+    }
+
+
+    private static class StudySummaries
+    {
+        private final Map<String, Summary> _summaries = new ConcurrentHashMap<>();
+
+        private Summary getSummary(String filterKey)
+        {
+            return _summaries.computeIfAbsent(filterKey, k -> new Summary());
+        }
+
+        private void datasetChanged(int datasetId)
+        {
+            for (Summary summary : _summaries.values())
+                summary._dirty.add(datasetId);
+        }
+    }
+
+
+    private static class Summary
+    {
+        private final Set<Integer> _dirty = ConcurrentHashMap.newKeySet();
+        private Map<Integer, Map<VisitMapKey, VisitStatistics>> _cells = null;    // Guarded by this; replaced, never modified once published
+
+        private synchronized Map<Integer, Map<VisitMapKey, VisitStatistics>> getCells(VisitManager manager, @Nullable CohortFilter cohortFilter, @Nullable QCStateSet qcStates) throws SQLException
+        {
+            StudyImpl study = manager.getStudy();
+
+            if (null == _cells)
+            {
+                // Changes that arrive while we're computing will be picked up by the next read
+                _dirty.clear();
+                _cells = compute(manager, StudySchema.getInstance().getTableInfoStudyData(study, null), cohortFilter, qcStates);
+            }
+            else if (!_dirty.isEmpty())
+            {
+                Set<Integer> dirty = new HashSet<>(_dirty);
+                _dirty.removeAll(dirty);
+
+                List<DatasetDefinition> defs = new ArrayList<>(dirty.size());
+                for (Integer datasetId : dirty)
+                {
+                    DatasetDefinition def = StudyManager.getInstance().getDatasetDefinition(study, datasetId);
+                    if (null != def)
+                        defs.add(def);
+                }
+
+                Map<Integer, Map<VisitMapKey, VisitStatistics>> cells = new HashMap<>(_cells);
+                cells.keySet().removeAll(dirty);
+                if (!defs.isEmpty())
+                    cells.putAll(compute(manager, StudySchema.getInstance().getTableInfoStudyDataFiltered(study, defs, null), cohortFilter, qcStates));
+                _cells = cells;
+            }
+
+            return _cells;
+        }
+
+        private static Map<Integer, Map<VisitMapKey, VisitStatistics>> compute(VisitManager manager, TableInfo studyData, @Nullable CohortFilter cohortFilter, @Nullable QCStateSet qcStates) throws SQLException
+        {
+            Map<VisitMapKey, VisitStatistics> summary = VisitManager.readVisitSummary(manager.getVisitSummarySql(null, studyData, cohortFilter, qcStates,
+                    VisitManager.getVisitStatisticsSql(ALL_STATISTICS), VisitManager.VISIT_SUMMARY_ALIAS), ALL_STATISTICS);
+            Map<Integer, Map<VisitMapKey, VisitStatistics>> cells = new HashMap<>();
+
+            for (Map.Entry<VisitMapKey, VisitStatistics> entry : summary.entrySet())
+                cells.computeIfAbsent(entry.getKey().datasetId, id -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+
+            return cells;
+        }
+    }
+}